@@ -8,7 +8,6 @@ package nl.umcg.westrah.binarymetaanalyzer;
 import gnu.trove.map.hash.TObjectIntHashMap;
 import org.apache.commons.io.FileUtils;
 import umcg.genetica.console.ProgressBar;
-import umcg.genetica.containers.Triple;
 import umcg.genetica.io.Gpio;
 import umcg.genetica.io.text.TextFile;
 import umcg.genetica.math.stats.Descriptives;
@@ -52,6 +51,9 @@ public class BinaryMetaAnalysis {
 	}
 
 
+	private static final int MAX_TESTS_PER_TASK = 262144;
+	private static final int CIS_TESTS_PER_SNP_ESTIMATE = 64;
+
 	boolean DEBUG = false;
 
 	boolean fullpermutationoutput = false;
@@ -258,7 +260,7 @@ public class BinaryMetaAnalysis {
 			}
 
 			ExecutorService threadPool = Executors.newFixedThreadPool(cores);
-			CompletionService<Triple<ArrayList<QTL>, String, String>> pool = new ExecutorCompletionService<Triple<ArrayList<QTL>, String, String>>(threadPool);
+			CompletionService<QTLResultSink> pool = new ExecutorCompletionService<QTLResultSink>(threadPool);
 
 			maxSavedPvalue = -Double.MAX_VALUE;
 			locationToStoreResult = 0;
@@ -266,76 +268,87 @@ public class BinaryMetaAnalysis {
 			System.out.println("Max P: " + maxSavedPvalue + "\tLocationToStoreResult: " + locationToStoreResult);
 
 
-			System.out.println("Starting meta-analysis");
+			// SNPs are analyzed in contiguous ranges; only a limited number of
+			// ranges is submitted at any time, so that results are drained at the
+			// same rate as they are produced.
+			int expectedNrTestsPerSNP = getExpectedNrTestsPerSNP();
+			int snpsPerTask = getNrSNPsPerTask(expectedNrTestsPerSNP, cores);
+			int nrTasks = (snpList.length + snpsPerTask - 1) / snpsPerTask;
+			int maxTasksInFlight = cores * 2;
+			boolean outputallzscores = true;
+			if (permutation > 0) {
+				outputallzscores = fullpermutationoutput;
+			}
+
+			System.out.println("Starting meta-analysis: " + nrTasks + " tasks of at most " + snpsPerTask + " SNPs");
 			ProgressBar pb = new ProgressBar(snpList.length);
 			int returned = 0;
-			ArrayList<Future> futures = new ArrayList<>();
-			for (int snp = 0; snp < snpList.length; snp++) {
-				// this can go in different threads..
-				boolean outputallzscores = true;
-				if (permutation > 0) {
-					outputallzscores = fullpermutationoutput;
+			int submitted = 0;
+			int tasksReturned = 0;
+			int addcalled = 0;
+			while (tasksReturned < nrTasks) {
+				while (submitted < nrTasks && submitted - tasksReturned < maxTasksInFlight) {
+					int snpStart = submitted * snpsPerTask;
+					int snpEnd = Math.min(snpList.length, snpStart + snpsPerTask);
+					BinaryMetaAnalysisTask t = new BinaryMetaAnalysisTask(settings,
+							probeAnnotation,
+							datasets,
+							snpIndex,
+							snpList,
+							snpChr,
+							snpPositions,
+							probeIndex,
+							snpprobeCombos,
+							traitMap,
+							traitList,
+							snpStart,
+							snpEnd,
+							(snpEnd - snpStart) * expectedNrTestsPerSNP,
+							DEBUG,
+							outputallzscores);
+					pool.submit(t);
+					submitted++;
 				}
-				BinaryMetaAnalysisTask t = new BinaryMetaAnalysisTask(settings,
-						probeAnnotation,
-						datasets,
-						snpIndex,
-						snpList,
-						snpChr,
-						snpPositions,
-						probeIndex,
-						snpprobeCombos,
-						traitMap,
-						traitList,
-						snp,
-						DEBUG,
-						outputallzscores);
-				futures.add(pool.submit(t));
-			}
-
-			// give the threadpool the signal to shutdown
-			threadPool.shutdown();
 
-			int addcalled = 0;
-			while (returned < snpList.length) {
 				try {
-					Future<Triple<ArrayList<QTL>, String, String>> threadfuture = pool.take();
-					if (threadfuture != null) {
-						Triple<ArrayList<QTL>, String, String> result = threadfuture.get();
-
-						for (QTL q : result.getLeft()) {
-							if (!DEBUG) {
-								addEQTL(q);
-							} else {
-
-//								int snpid = q.getSNPId();
-//								MetaQTL4MetaTrait trait = q.getMetaTrait();
-
-//								QTLPair combo = new QTLPair();
-//								combo.snpid = snpid;
-//								combo.trait = trait;
-//								set.add(combo);
-
+					Future<QTLResultSink> threadfuture = pool.take();
+					QTLResultSink result = threadfuture.get();
+					for (int i = 0; i < result.size(); i++) {
+						if (!DEBUG) {
+							double pval = result.getPvalue(i);
+							// only create QTL objects for results that will be stored
+							if (!bufferHasOverFlown || pval <= maxSavedPvalue) {
+								addEQTL(result.getQTL(i));
 							}
-
-							addcalled++;
-						}
-						if (settings.isMakezscoretable()) {
-							zscoreTableTf.writeln(result.getMiddle());
-
-							zscoreTableTfNrSamples.writeln(result.getRight());
 						}
-						result = null;
-						returned++;
-						pb.iterate();
+						addcalled++;
+					}
+					if (settings.isMakezscoretable()) {
+						zscoreTableTf.append(result.getZScoreTable());
+						zscoreTableTfNrSamples.append(result.getZScoreTableNrSamples());
 					}
-					threadfuture = null;
+					returned += result.getNrSNPs();
+					tasksReturned++;
+					pb.set(returned);
 				} catch (InterruptedException e) {
 					e.printStackTrace();
 				} catch (ExecutionException e) {
-					e.printStackTrace();
+					// stop the remaining ranges and leave it to the caller to handle the failure
+					threadPool.shutdownNow();
+					pb.close();
+					if (zscoreTableTf != null) {
+						zscoreTableTf.close();
+						zscoreTableTfNrSamples.close();
+					}
+					for (BinaryMetaAnalysisDataset dataset : datasets) {
+						dataset.close();
+					}
+					throw new IOException("Meta-analysis failed in permutation " + permutation, e.getCause());
 				}
 			}
+
+			// give the threadpool the signal to shutdown
+			threadPool.shutdown();
 			pb.close();
 
 			if (DEBUG) {
@@ -795,6 +808,37 @@ public class BinaryMetaAnalysis {
 		out.close();
 	}
 
+	/**
+	 * Rough estimate of the number of traits tested per SNP, used to size the
+	 * SNP ranges and their result buffers.
+	 */
+	private int getExpectedNrTestsPerSNP() {
+		if (snpprobeCombos != null) {
+			long nrCombos = 0;
+			for (MetaQTL4MetaTrait[] combos : snpprobeCombos) {
+				if (combos != null) {
+					nrCombos += combos.length;
+				}
+			}
+			return (int) Math.max(1, nrCombos / Math.max(1, snpprobeCombos.length));
+		} else if (settings.getAnalysisType().equals(BinaryMetaAnalysisSettings.Analysis.CIS)) {
+			return Math.max(1, Math.min(traitList.length, CIS_TESTS_PER_SNP_ESTIMATE));
+		} else {
+			return Math.max(1, traitList.length);
+		}
+	}
+
+	/**
+	 * Determines the number of SNPs per task: large enough to amortize the
+	 * per-task overhead, small enough to keep the results of the tasks in
+	 * flight in memory, and to have several tasks per thread.
+	 */
+	private int getNrSNPsPerTask(int expectedNrTestsPerSNP, int cores) {
+		int snpsPerTask = Math.max(1, MAX_TESTS_PER_TASK / expectedNrTestsPerSNP);
+		int snpsPerTaskForBalance = Math.max(1, snpList.length / (cores * 16));
+		return Math.min(snpsPerTask, snpsPerTaskForBalance);
+	}
+
 	private void addEQTL(QTL q) {
 
 		double pval = q.getPvalue();
@@ -13,13 +13,19 @@ import umcg.genetica.util.Primitives;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author Harm-Jan
@@ -54,6 +60,18 @@ public class BinaryMetaAnalysisDataset {
     public BinaryMetaAnalysisDataset(String dir, String name, String prefix, int permutation, String platform,
                                      MetaQTL4TraitAnnotation probeAnnotation, String featureOccuranceScaleMapFile,
                                      boolean loadsnpstats, AtomicInteger c) throws IOException {
+        this(dir, name, prefix, permutation, platform, probeAnnotation, featureOccuranceScaleMapFile, loadsnpstats, c, MAX_PAGE_SIZE, PREFETCH_WINDOW);
+    }
+
+    /**
+     * Allows smaller pages and prefetch windows than the defaults, so that
+     * tests can read across page boundaries with small matrices.
+     */
+    BinaryMetaAnalysisDataset(String dir, String name, String prefix, int permutation, String platform,
+                              MetaQTL4TraitAnnotation probeAnnotation, String featureOccuranceScaleMapFile,
+                              boolean loadsnpstats, AtomicInteger c, long maxPageSize, long prefetchWindow) throws IOException {
+        this.maxPageSize = maxPageSize;
+        this.prefetchWindow = prefetchWindow;
         dir = Gpio.formatAsDirectory(dir);
         String matrix = dir;
         this.snpctr = c;
@@ -89,8 +107,6 @@ public class BinaryMetaAnalysisDataset {
             throw new IOException("Could not find file: " + snpFile);
         }
 
-        // TODO: if dataset is < 2gb, then just buffer the whole thing in memory.
-
         this.permutation = permutation;
         BinaryFile f = new BinaryFile(matrix, BinaryFile.R);
         int firstInt = f.readInt();
@@ -123,20 +139,8 @@ public class BinaryMetaAnalysisDataset {
         }
 
         raf = new RandomAccessFile(matrix, "r");
-        long nrBytesPerBuffer = 1048576 * 2024; // 2Gb
-        if (nrBytesPerBuffer > raf.length()) {
-            nrBytesPerBuffer = raf.length();
-        }
-
-        mappedzscorehandle = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, nrBytesPerBuffer);
-        mappedzscorehandle.load();
-        bZs = new byte[(int) nrBytesPerBuffer];
-        mappedzscorehandle.get(bZs);
-
-        currentmapstart = 0;
-        currentmapend = currentmapstart + nrBytesPerBuffer;
-        System.out.println("Permutation: " + permutation + "\t" + "File size: " + raf.length() + "\tNew buffer: " + bZs.length + "\tsta: " + currentmapstart + "\tsto: " + currentmapend +
-                "\tlen: " + (currentmapend - currentmapstart) + "\tnrbytes: " + nrBytesPerBuffer);
+        mapMatrix();
+        System.out.println("Permutation: " + permutation + "\t" + "File size: " + raf.length() + "\tMapped in " + pageStart.length + " page(s)");
     }
 
     private void loadSNPs(String snpFile, boolean loadstats) throws IOException {
@@ -302,66 +306,132 @@ public class BinaryMetaAnalysisDataset {
     }
 
 
-    private MappedByteBuffer mappedzscorehandle = null;
-    long currentmapend;
-    byte[] bZs = null;
-    long currentmapstart;
-
-    public synchronized float[] getZScores(int snp) throws IOException {
-        long snpBytePos = snpBytes[snp];
+    // maximum size of a single mapping; a MappedByteBuffer can not exceed 2Gb
+    private static final long MAX_PAGE_SIZE = 1L << 30;
+    // number of bytes to page in ahead of the SNP that is currently read
+    private static final long PREFETCH_WINDOW = 64L * 1048576;
+    private static final int OS_PAGE_SIZE = 4096;
+
+    private final long maxPageSize;
+    private final long prefetchWindow;
+    // the thread is only started by the first prefetch, and stopped by close()
+    private final ExecutorService prefetcher = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "BinaryMetaAnalysisDataset-prefetch");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // read-only mappings of the whole matrix, split at SNP boundaries so a SNP never spans two pages
+    private long[] pageStart;
+    private MappedByteBuffer[] pages;
+    private long fileLength;
+    private final AtomicLong prefetchedUpTo = new AtomicLong(0);
+    private final ThreadLocal<float[]> zscoreBuffer = new ThreadLocal<>();
+
+    private void mapMatrix() throws IOException {
+        fileLength = raf.length();
+        FileChannel channel = raf.getChannel();
+        ArrayList<Long> starts = new ArrayList<>();
+        ArrayList<MappedByteBuffer> maps = new ArrayList<>();
+
+        long start = 0;
+        int snp = 0;
+        while (start < fileLength) {
+            // extend the page with whole SNPs, up to maxPageSize; SNPs without
+            // z-scores never make up a page on their own, as an empty page would
+            // share its start with the next page
+            long end = getSNPEnd(snp);
+            snp++;
+            while (snp < snpBytes.length && (end == start || getSNPEnd(snp) - start <= maxPageSize)) {
+                end = getSNPEnd(snp);
+                snp++;
+            }
+            if (end - start > Integer.MAX_VALUE) {
+                throw new IOException("Could not map z-scores of SNP " + (snp - 1) + ": row exceeds " + Integer.MAX_VALUE + " bytes");
+            }
+            starts.add(start);
+            maps.add(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+            start = end;
+        }
+        pageStart = Primitives.toPrimitiveArr(starts.toArray(new Long[0]));
+        pages = maps.toArray(new MappedByteBuffer[0]);
+    }
 
-        long snpByteNextPos = 0;
-        if (snp == snpBytes.length - 1) {
-            snpByteNextPos = raf.length();
+    private long getSNPEnd(int snp) {
+        if (snp >= snpBytes.length - 1) {
+            return fileLength;
         } else {
-            snpByteNextPos = snpBytes[snp + 1];
+            return snpBytes[snp + 1];
         }
+    }
 
-        int readlen = (int) (snpByteNextPos - snpBytePos);
-
-//		System.out.println("snp pos: " + snpBytePos);
+    private int getPage(long bytePos) {
+        int page = Arrays.binarySearch(pageStart, bytePos);
+        if (page < 0) {
+            page = -page - 2;
+        }
+        return page;
+    }
 
-        if (mappedzscorehandle == null || snpBytePos > currentmapend || snpByteNextPos > currentmapend || snpBytePos < currentmapstart) {
+    /**
+     * Returns the z-scores of a SNP. Reads are lock free, so multiple threads
+     * can read from the same dataset. The returned array is owned by the
+     * caller.
+     */
+    public float[] getZScores(int snp) throws IOException {
+        return readZScores(snp).clone();
+    }
 
-            long nrBytesPerBuffer = 1048576 * 10; // 256 mb
+    /**
+     * Reads the z-scores of a SNP without allocating a new array. The returned
+     * array belongs to the calling thread and is overwritten by the next read
+     * on this dataset from the same thread when that SNP has the same number
+     * of z-scores, so the values must be used before reading the next SNP.
+     */
+    float[] readZScores(int snp) throws IOException {
+        long snpBytePos = snpBytes[snp];
+        long snpByteNextPos = getSNPEnd(snp);
+        int nrZ = (int) ((snpByteNextPos - snpBytePos) / 4);
 
-            if (snpBytePos + nrBytesPerBuffer > raf.length()) {
-                nrBytesPerBuffer = raf.length() - snpBytePos;
-            }
-            mappedzscorehandle = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, snpBytePos, nrBytesPerBuffer);
-            mappedzscorehandle.load();
-            bZs = new byte[(int) nrBytesPerBuffer];
-            mappedzscorehandle.get(bZs);
-
-            currentmapstart = snpBytePos;
-            currentmapend = currentmapstart + nrBytesPerBuffer;
-            System.out.println("New buffer: " + bZs.length + "\tsta: " + currentmapstart + "\tsto: " + currentmapend +
-                    "\tlen: " + (currentmapend - currentmapstart) + "\tnrbytes: " + nrBytesPerBuffer);
+        float[] output = zscoreBuffer.get();
+        if (output == null || output.length != nrZ) {
+            output = new float[nrZ];
+            zscoreBuffer.set(output);
         }
 
-        int offset = (int) (snpBytePos - currentmapstart);
-//		System.out.println("byte pos: " + snpBytePos + "\toffset " + offset + "\tlen " + readlen);
-        byte[] bytesToRead = new byte[readlen];
+        int page = getPage(snpBytePos);
+        // duplicate, so concurrent readers do not share a position
+        ByteBuffer buffer = pages[page].duplicate();
+        ((Buffer) buffer).position((int) (snpBytePos - pageStart[page]));
+        FloatBuffer floats = buffer.asFloatBuffer();
+        floats.get(output, 0, nrZ);
 
-        System.arraycopy(bZs, offset, bytesToRead, 0, readlen);
-//
-////
-////        if (snpCisProbeMap != null) {
-////            nrZ = snpCisProbeMap[snp].length;
-////        }
-////        System.out.println(snp + "\t" + snpBytePos + "\t" + snpByteNextPos);
-//		raf.seek(snpBytePos);
-//
+        prefetch(snpByteNextPos);
+        return output;
+    }
 
-//		raf.read(bytesToRead);
-        ByteBuffer bytebuffer = ByteBuffer.wrap(bytesToRead);
-        float[] output = new float[readlen / 4];
-        for (int i = 0; i < output.length; i++) {
-            output[i] = bytebuffer.getFloat();
+    /**
+     * Asynchronously pages in the part of the matrix that follows bytePos,
+     * once reading gets within half a window of the part paged in so far.
+     */
+    private void prefetch(long bytePos) {
+        long prefetched = prefetchedUpTo.get();
+        if (bytePos + prefetchWindow / 2 < prefetched || prefetched >= fileLength) {
+            return;
         }
-        
-        
-        return output;
+        long from = Math.max(prefetched, bytePos);
+        long to = Math.min(from + prefetchWindow, fileLength);
+        if (!prefetchedUpTo.compareAndSet(prefetched, to)) {
+            return;
+        }
+        MappedByteBuffer[] mapped = pages;
+        prefetcher.execute(() -> {
+            // touch one byte per OS page
+            for (long pos = from; pos < to; pos += OS_PAGE_SIZE) {
+                int page = getPage(pos);
+                mapped[page].get((int) (pos - pageStart[page]));
+            }
+        });
     }
 
     public String[] getSNPs() {
@@ -389,9 +459,19 @@ public class BinaryMetaAnalysisDataset {
         return isCisDataset;
     }
 
+    int getNrPages() {
+        return pages.length;
+    }
+
+    /**
+     * Stops the prefetch thread and releases the matrix. The mappings are
+     * unmapped once they are garbage collected.
+     */
     public void close() throws IOException {
+        prefetcher.shutdownNow();
+        pages = null;
+        zscoreBuffer.remove();
         raf.close();
-
     }
 
     public String getName() {
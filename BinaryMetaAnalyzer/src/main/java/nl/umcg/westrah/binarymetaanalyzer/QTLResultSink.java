@@ -0,0 +1,164 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package nl.umcg.westrah.binarymetaanalyzer;
+
+import umcg.genetica.io.trityper.util.BaseAnnot;
+
+import java.text.DecimalFormat;
+import java.util.Arrays;
+
+/**
+ * Collects the results of a contiguous range of SNPs (a BinaryMetaAnalysisTask)
+ * in primitive arrays. QTL objects are only created by getQTL(), so results
+ * that do not make it into the final buffer are never boxed. SNP level
+ * information (alleles, sample sizes) is stored once per SNP, rather than
+ * once per result. Optional z-score table rows are appended to a single
+ * buffer per range.
+ * <p>
+ * Not thread safe: each task fills its own sink, which is read by the thread
+ * collecting the results afterwards.
+ */
+class QTLResultSink {
+
+	private final int snpStart;
+	private final int nrDatasets;
+	private final boolean fulloutput;
+
+	private int size = 0;
+	private double[] pvalues;
+	private double[] zscores;
+	private int[] snpIds;
+	private MetaQTL4MetaTrait[] traits;
+	private float[] datasetZScores;
+
+	private final byte[] snpAlleleAssessed;
+	private final byte[][] snpAlleles;
+	private final int[][] snpSampleSizes;
+
+	private final StringBuilder zscoreTable;
+	private final StringBuilder zscoreTableNrSamples;
+
+	QTLResultSink(int snpStart, int snpEnd, int nrDatasets, int expectedNrResults, boolean fulloutput, boolean makezscoretable) {
+		this.snpStart = snpStart;
+		this.nrDatasets = nrDatasets;
+		this.fulloutput = fulloutput;
+
+		int nrSNPs = snpEnd - snpStart;
+		snpAlleleAssessed = new byte[nrSNPs];
+		snpAlleles = new byte[nrSNPs][];
+		snpSampleSizes = new int[nrSNPs][];
+
+		int capacity = Math.max(16, expectedNrResults);
+		pvalues = new double[capacity];
+		zscores = new double[capacity];
+		snpIds = new int[capacity];
+		traits = new MetaQTL4MetaTrait[capacity];
+		if (fulloutput) {
+			datasetZScores = new float[capacity * nrDatasets];
+		}
+
+		if (makezscoretable) {
+			zscoreTable = new StringBuilder();
+			zscoreTableNrSamples = new StringBuilder();
+		} else {
+			zscoreTable = null;
+			zscoreTableNrSamples = null;
+		}
+	}
+
+	/**
+	 * Sets the alleles and per dataset sample sizes of a SNP. Needs to be
+	 * called before results for this SNP are added. The sampleSizes array is
+	 * not copied.
+	 */
+	void setSNP(int snp, String alleles, String alleleAssessed, int[] sampleSizes) {
+		int s = snp - snpStart;
+		if (alleles != null) {
+			snpAlleles[s] = BaseAnnot.toByteArray(alleles);
+			snpAlleleAssessed[s] = BaseAnnot.toByte(alleleAssessed);
+		}
+		snpSampleSizes[s] = sampleSizes;
+	}
+
+	/**
+	 * Adds a result. zscores holds the z-score for each dataset, and is copied
+	 * (and only required) when full output is requested.
+	 */
+	void add(double pvalue, MetaQTL4MetaTrait trait, int snp, double zscore, float[] zscores) {
+		if (size == pvalues.length) {
+			int capacity = pvalues.length * 2;
+			pvalues = Arrays.copyOf(pvalues, capacity);
+			this.zscores = Arrays.copyOf(this.zscores, capacity);
+			snpIds = Arrays.copyOf(snpIds, capacity);
+			traits = Arrays.copyOf(traits, capacity);
+			if (fulloutput) {
+				datasetZScores = Arrays.copyOf(datasetZScores, capacity * nrDatasets);
+			}
+		}
+		pvalues[size] = pvalue;
+		this.zscores[size] = zscore;
+		snpIds[size] = snp;
+		traits[size] = trait;
+		if (fulloutput) {
+			System.arraycopy(zscores, 0, datasetZScores, size * nrDatasets, nrDatasets);
+		}
+		size++;
+	}
+
+	/**
+	 * Appends a row to the z-score tables, in the same format as
+	 * Strings.concat() (NaN z-scores are written as NaN).
+	 */
+	void addZScoreTableRow(String snpName, String alleles, String alleleAssessed, double[] zscores, int[] nrSamples, DecimalFormat format) {
+		zscoreTable.append(snpName).append('\t').append(alleles).append('\t').append(alleleAssessed);
+		zscoreTableNrSamples.append(snpName).append('\t').append(alleles).append('\t').append(alleleAssessed);
+		for (int i = 0; i < zscores.length; i++) {
+			zscoreTable.append('\t');
+			if (Double.isNaN(zscores[i])) {
+				zscoreTable.append(Double.NaN);
+			} else {
+				zscoreTable.append(format.format(zscores[i]));
+			}
+			zscoreTableNrSamples.append('\t').append(nrSamples[i]);
+		}
+		zscoreTable.append('\n');
+		zscoreTableNrSamples.append('\n');
+	}
+
+	int getNrSNPs() {
+		return snpSampleSizes.length;
+	}
+
+	int size() {
+		return size;
+	}
+
+	double getPvalue(int i) {
+		return pvalues[i];
+	}
+
+	QTL getQTL(int i) {
+		int s = snpIds[i] - snpStart;
+		float[] qtlZScores = null;
+		int[] qtlSampleSizes = null;
+		if (fulloutput) {
+			qtlZScores = Arrays.copyOfRange(datasetZScores, i * nrDatasets, (i + 1) * nrDatasets);
+			qtlSampleSizes = snpSampleSizes[s];
+		}
+		return new QTL(pvalues[i], traits[i], snpIds[i], snpAlleleAssessed[s], zscores[i], snpAlleles[s], qtlZScores, qtlSampleSizes);
+	}
+
+	/**
+	 * @return the z-score table rows for this range of SNPs, one line each,
+	 * or null if no table is made.
+	 */
+	CharSequence getZScoreTable() {
+		return zscoreTable;
+	}
+
+	CharSequence getZScoreTableNrSamples() {
+		return zscoreTableNrSamples;
+	}
+}
@@ -0,0 +1,205 @@
+package nl.umcg.westrah.binarymetaanalyzer;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import umcg.genetica.io.text.TextFile;
+
+import static org.testng.Assert.*;
+
+/**
+ * Compares the z-scores read through the paged mappings and the prefetcher of
+ * BinaryMetaAnalysisDataset with z-scores read directly from the matrix.
+ */
+public class BinaryMetaAnalysisDatasetTest {
+
+	private static final int NR_SNPS = 200;
+	// a SNP without z-scores followed by one that does not fit in a small page
+	private static final int EMPTY_SNP = 50;
+	private static final int LARGE_SNP = 51;
+	private static final String PLATFORM = "PlatformA";
+
+	private File folder;
+	private MetaQTL4TraitAnnotation annotation;
+	private int[] nrZScores;
+	private float[][] directZScores;
+
+	@BeforeClass
+	public void setUp() throws IOException {
+		folder = Files.createTempDirectory("BinaryMetaAnalysisDatasetTest").toFile();
+		File probeAnnotation = new File(folder, "ProbeAnnotation.txt");
+		BinaryMetaAnalysisTest.writeProbeAnnotation(probeAnnotation);
+		annotation = new MetaQTL4TraitAnnotation(probeAnnotation, Collections.singleton(PLATFORM));
+
+		nrZScores = new int[NR_SNPS];
+		for (int s = 0; s < NR_SNPS; s++) {
+			nrZScores[s] = s % 9 == 4 ? 0 : 1 + (s * 7) % 13;
+		}
+		nrZScores[EMPTY_SNP] = 0;
+		nrZScores[LARGE_SNP] = 40;
+		nrZScores[NR_SNPS - 1] = 0;
+		writeMatrix();
+
+		// read each SNP directly from the file, independent of the mappings
+		directZScores = new float[NR_SNPS][];
+		RandomAccessFile raf = new RandomAccessFile(new File(folder, "Dataset.dat"), "r");
+		assertEquals(raf.readInt(), 0);
+		for (int s = 0; s < NR_SNPS; s++) {
+			directZScores[s] = new float[nrZScores[s]];
+			for (int z = 0; z < nrZScores[s]; z++) {
+				directZScores[s][z] = raf.readFloat();
+			}
+		}
+		assertEquals(raf.getFilePointer(), raf.length());
+		raf.close();
+	}
+
+	@Test
+	public void testPageBoundaries() throws IOException {
+		BinaryMetaAnalysisDataset dataset = open(1L << 30, 1L << 20);
+		assertEquals(dataset.getNrPages(), 1);
+		assertAllSNPsEqualDirectReads(dataset);
+		dataset.close();
+
+		// pages of 4 bytes only fit a single SNP, SNPs without z-scores share a page
+		int nrSNPsWithZScores = 0;
+		for (int nr : nrZScores) {
+			if (nr > 0) {
+				nrSNPsWithZScores++;
+			}
+		}
+		dataset = open(4, 1L << 20);
+		assertEquals(dataset.getNrPages(), nrSNPsWithZScores);
+		assertAllSNPsEqualDirectReads(dataset);
+		dataset.close();
+
+		for (long maxPageSize : new long[]{16, 64, 100}) {
+			dataset = open(maxPageSize, 1L << 20);
+			assertTrue(dataset.getNrPages() > 1);
+			assertAllSNPsEqualDirectReads(dataset);
+			dataset.close();
+		}
+	}
+
+	@Test
+	public void testPrefetchEqualsDirectReads() throws Exception {
+		for (long prefetchWindow : new long[]{8, 64, 4096}) {
+			BinaryMetaAnalysisDataset dataset = open(64, prefetchWindow);
+			assertAllSNPsEqualDirectReads(dataset);
+
+			// concurrent readers, each with its own buffer
+			ExecutorService pool = Executors.newFixedThreadPool(4);
+			List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+			for (int t = 0; t < 4; t++) {
+				final Random random = new Random(t);
+				futures.add(pool.submit(new Callable<Boolean>() {
+					@Override
+					public Boolean call() throws Exception {
+						for (int i = 0; i < 2000; i++) {
+							int s = random.nextInt(NR_SNPS);
+							assertEquals(dataset.readZScores(s), directZScores[s], "SNP " + s);
+						}
+						return true;
+					}
+				}));
+			}
+			for (Future<Boolean> future : futures) {
+				assertTrue(future.get());
+			}
+			pool.shutdown();
+			dataset.close();
+		}
+	}
+
+	@Test
+	public void testGetZScoresReturnsCopy() throws IOException {
+		BinaryMetaAnalysisDataset dataset = open(64, 8);
+		// two SNPs with the same number of z-scores share the read buffer
+		int s1 = 1;
+		int s2 = s1 + 13;
+		assertEquals(nrZScores[s1], nrZScores[s2]);
+
+		float[] zScores1 = dataset.getZScores(s1);
+		float[] zScores2 = dataset.getZScores(s2);
+		assertNotSame(zScores1, zScores2);
+		assertEquals(zScores1, directZScores[s1]);
+		assertEquals(zScores2, directZScores[s2]);
+
+		float[] buffer1 = dataset.readZScores(s1);
+		assertSame(dataset.readZScores(s2), buffer1);
+		assertEquals(buffer1, directZScores[s2]);
+		dataset.close();
+	}
+
+	@Test
+	public void testCloseStopsPrefetchThread() throws Exception {
+		BinaryMetaAnalysisDataset dataset = open(64, 8);
+		assertAllSNPsEqualDirectReads(dataset);
+		dataset.close();
+
+		long timeout = System.currentTimeMillis() + 10000;
+		while (isPrefetchThreadAlive() && System.currentTimeMillis() < timeout) {
+			Thread.sleep(10);
+		}
+		assertFalse(isPrefetchThreadAlive());
+	}
+
+	private void assertAllSNPsEqualDirectReads(BinaryMetaAnalysisDataset dataset) throws IOException {
+		assertEquals(dataset.getSNPs().length, NR_SNPS);
+		for (int s = 0; s < NR_SNPS; s++) {
+			assertEquals(dataset.getZScores(s), directZScores[s], "SNP " + s);
+		}
+		for (int s = NR_SNPS - 1; s >= 0; s--) {
+			assertEquals(dataset.getZScores(s), directZScores[s], "SNP " + s);
+		}
+	}
+
+	private BinaryMetaAnalysisDataset open(long maxPageSize, long prefetchWindow) throws IOException {
+		return new BinaryMetaAnalysisDataset(folder.getAbsolutePath(), PLATFORM, "Dataset", 0, PLATFORM, annotation, null, true, null, maxPageSize, prefetchWindow);
+	}
+
+	private void writeMatrix() throws IOException {
+		TextFile colNames = new TextFile(new File(folder, "Dataset-ColNames.txt.gz"), TextFile.W);
+		for (int p = 0; p < BinaryMetaAnalysisTest.NR_PROBES; p++) {
+			colNames.writeln(BinaryMetaAnalysisTest.getProbeName(0, p));
+		}
+		colNames.close();
+
+		Random random = new Random(1);
+		TextFile rowNames = new TextFile(new File(folder, "Dataset-RowNames.txt.gz"), TextFile.W);
+		rowNames.writeln("SNP\tAlleles\tMinorAllele\tAlleleAssessed\tNrCalled\tMaf\tHWE\tCallRate");
+		DataOutputStream data = new DataOutputStream(new FileOutputStream(new File(folder, "Dataset.dat")));
+		data.writeInt(0);
+		for (int s = 0; s < NR_SNPS; s++) {
+			for (int z = 0; z < nrZScores[s]; z++) {
+				data.writeFloat((float) random.nextGaussian());
+			}
+			rowNames.writeln("rs" + s + "\tA/G\tA\tG\t100\t0.3\t1.0\t0.5\t" + nrZScores[s]);
+		}
+		data.close();
+		rowNames.close();
+	}
+
+	private static boolean isPrefetchThreadAlive() {
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.getName().equals("BinaryMetaAnalysisDataset-prefetch") && thread.isAlive()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,223 @@
+package nl.umcg.westrah.binarymetaanalyzer;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Random;
+import org.testng.annotations.Test;
+import umcg.genetica.io.text.TextFile;
+
+import static org.testng.Assert.*;
+
+/**
+ * Runs the meta-analysis on two small generated datasets and compares the
+ * output with that of the version that analyzed the SNPs one task per SNP.
+ */
+public class BinaryMetaAnalysisTest {
+
+	static final int NR_SNPS = 120;
+	static final int NR_PROBES = 24;
+	private static final int PERMUTATIONS = 1;
+	private static final int MAX_RESULTS = 100;
+	private static final String[] PLATFORMS = {"PlatformA", "PlatformB"};
+	private final File expectedFolder;
+
+	public BinaryMetaAnalysisTest() throws URISyntaxException {
+		expectedFolder = new File(this.getClass().getResource("/BinaryMetaAnalysisExpected/").toURI());
+	}
+
+	@Test
+	public void testCisEqualsPreviousVersion() throws Exception {
+		File folder = Files.createTempDirectory("BinaryMetaAnalysisTest").toFile();
+		System.out.println("Temp folder with output of this test: " + folder.getAbsolutePath());
+
+		// a cis dataset and a dataset with the z-scores of all probes
+		File output = runMetaAnalysis(folder, true, true);
+		assertOutputEquals(output, new File(expectedFolder, "cis"), true);
+	}
+
+	@Test
+	public void testTransEqualsPreviousVersion() throws Exception {
+		File folder = Files.createTempDirectory("BinaryMetaAnalysisTest").toFile();
+		System.out.println("Temp folder with output of this test: " + folder.getAbsolutePath());
+
+		File output = runMetaAnalysis(folder, false, false);
+		assertOutputEquals(output, new File(expectedFolder, "trans"), false);
+	}
+
+	@Test
+	public void testTaskFailureIsThrown() throws Exception {
+		File folder = Files.createTempDirectory("BinaryMetaAnalysisTest").toFile();
+		try {
+			// a trans analysis can not use a cis dataset
+			runMetaAnalysis(folder, false, true);
+			fail("Trans analysis of a cis dataset should fail");
+		} catch (IOException e) {
+			assertNotNull(e.getCause());
+			assertTrue(e.getCause().getMessage().startsWith("Cannot run trans analysis on a cis dataset"), e.getCause().getMessage());
+		}
+	}
+
+	private File runMetaAnalysis(File folder, boolean cis, boolean cisDatasetA) throws Exception {
+		File probeAnnotation = new File(folder, "ProbeAnnotation.txt");
+		File snpAnnotation = new File(folder, "SNPMappings.txt");
+		writeProbeAnnotation(probeAnnotation);
+		writeSnpAnnotation(snpAnnotation);
+
+		File[] datasetFolders = new File[PLATFORMS.length];
+		for (int d = 0; d < PLATFORMS.length; d++) {
+			datasetFolders[d] = new File(folder, PLATFORMS[d]);
+			datasetFolders[d].mkdir();
+			for (int permutation = 0; permutation <= PERMUTATIONS; permutation++) {
+				writeDataset(datasetFolders[d], "Dataset", permutation, d, d == 0 && cisDatasetA);
+			}
+		}
+
+		File output = new File(folder, "output");
+		output.mkdir();
+
+		StringBuilder settings = new StringBuilder();
+		settings.append("<?xml version=\"1.0\" encoding=\"utf-8\" standalone=\"no\"?>\n<settings>\n<defaults>\n")
+				.append("<permutations>").append(PERMUTATIONS).append("</permutations>\n")
+				.append("<startpermutations>0</startpermutations>\n")
+				.append("<snpannotation>").append(snpAnnotation.getAbsolutePath()).append("</snpannotation>\n")
+				.append("<finalnreqtls>").append(MAX_RESULTS).append("</finalnreqtls>\n")
+				.append("<cisprobedistance>250000</cisprobedistance>\n")
+				.append("<transprobedistance>5000000</transprobedistance>\n")
+				.append("<makezscoretable>").append(cis).append("</makezscoretable>\n")
+				.append("<probetranslationfile>").append(probeAnnotation.getAbsolutePath()).append("</probetranslationfile>\n")
+				.append("<output>").append(output.getAbsolutePath()).append("</output>\n")
+				.append("<threads>2</threads>\n")
+				.append("<cis>").append(cis).append("</cis>\n")
+				.append("<trans>").append(!cis).append("</trans>\n")
+				.append("</defaults>\n<datasets>\n");
+		for (int d = 0; d < PLATFORMS.length; d++) {
+			settings.append("<dataset><name>").append(PLATFORMS[d]).append("</name><prefix>Dataset</prefix><location>")
+					.append(datasetFolders[d].getAbsolutePath()).append("</location><expressionplatform>")
+					.append(PLATFORMS[d]).append("</expressionplatform></dataset>\n");
+		}
+		settings.append("</datasets>\n</settings>\n");
+		File settingsFile = new File(folder, "settings.xml");
+		Files.write(settingsFile.toPath(), settings.toString().getBytes("UTF-8"));
+
+		new BinaryMetaAnalysis(settingsFile.getAbsolutePath(), null, null).run();
+		return output;
+	}
+
+	private static void assertOutputEquals(File output, File expected, boolean zScoreTable) throws IOException {
+		String[] files = zScoreTable
+				? new String[]{"eQTLs.txt.gz", "PermutedEQTLsPermutationRound1.txt.gz", "ZScoreMatrix.txt.gz", "ZScoreMatrixNrSamples.txt.gz"}
+				: new String[]{"eQTLs.txt.gz", "PermutedEQTLsPermutationRound1.txt.gz"};
+		for (String file : files) {
+			ArrayList<String> expectedLines = readLines(new File(expected, file));
+			assertTrue(expectedLines.size() > 1, file);
+			assertEquals(readLines(new File(output, file)), expectedLines, file);
+		}
+	}
+
+	/**
+	 * Meta-traits 0 to 9 on chromosome 1, 10 to 19 on chromosome 2 and the
+	 * others on chromosome 3, with a probe on each platform.
+	 */
+	static void writeProbeAnnotation(File file) throws IOException {
+		TextFile tf = new TextFile(file, TextFile.W);
+		tf.writeln("Probe\tArrayAddress\tChr\tChrStart:ChrEnd\tHUGO\t" + PLATFORMS[0] + "\t" + PLATFORMS[1]);
+		for (int p = 0; p < NR_PROBES; p++) {
+			int start = getProbePosition(p);
+			tf.writeln("Gene" + p + "\t-\t" + getProbeChr(p) + "\t" + start + "-" + (start + 1000) + "\tGENE" + p + "\t" + getProbeName(0, p) + "\t" + getProbeName(1, p));
+		}
+		tf.close();
+	}
+
+	static void writeSnpAnnotation(File file) throws IOException {
+		TextFile tf = new TextFile(file, TextFile.W);
+		for (int s = 0; s < NR_SNPS; s++) {
+			tf.writeln(getSnpChr(s) + "\t" + getSnpPosition(s) + "\trs" + s);
+		}
+		tf.close();
+	}
+
+	/**
+	 * Writes a dataset in the format of the eQTL mapping pipeline. The second
+	 * dataset has its SNPs and probes in reverse order, misses some SNPs and
+	 * assesses the other allele for some SNPs. A cis dataset only has z-scores
+	 * for the probes within 250kb of a SNP.
+	 */
+	static void writeDataset(File folder, String prefix, int permutation, int dataset, boolean cis) throws IOException {
+		Random random = new Random(dataset * 100 + permutation);
+		String name = prefix + (permutation > 0 ? "-PermutationRound-" + permutation : "");
+
+		int[] probes = new int[NR_PROBES];
+		for (int p = 0; p < NR_PROBES; p++) {
+			probes[p] = dataset == 0 ? p : NR_PROBES - 1 - p;
+		}
+		TextFile colNames = new TextFile(new File(folder, name + "-ColNames.txt.gz"), TextFile.W);
+		for (int p : probes) {
+			colNames.writeln(getProbeName(dataset, p));
+		}
+		colNames.close();
+
+		TextFile rowNames = new TextFile(new File(folder, name + "-RowNames.txt.gz"), TextFile.W);
+		rowNames.writeln("SNP\tAlleles\tMinorAllele\tAlleleAssessed\tNrCalled\tMaf\tHWE\tCallRate");
+		DataOutputStream data = new DataOutputStream(new FileOutputStream(new File(folder, name + ".dat")));
+		data.writeInt(cis ? 1 : 0);
+		for (int i = 0; i < NR_SNPS; i++) {
+			int s = dataset == 0 ? i : NR_SNPS - 1 - i;
+			if (dataset == 1 && s % 7 == 3) {
+				continue;
+			}
+			boolean flip = dataset == 1 && s % 5 == 0;
+			StringBuilder testedProbes = new StringBuilder();
+			int nrZScores = 0;
+			for (int p : probes) {
+				if (cis && (!getProbeChr(p).equals(getSnpChr(s)) || Math.abs(getProbePosition(p) - getSnpPosition(s)) > 250000)) {
+					continue;
+				}
+				double z = random.nextGaussian();
+				if (permutation == 0 && p % 11 == s % 11) {
+					z += 2 + (s % 3);
+				}
+				data.writeFloat((float) (flip ? -z : z));
+				testedProbes.append('\t').append(getProbeName(dataset, p));
+				nrZScores++;
+			}
+			rowNames.writeln("rs" + s + "\tA/G\tA\t" + (flip ? "A" : "G") + "\t" + (100 + dataset * 50 + s % 13)
+					+ "\t0.3\t1.0\t0.5\t" + nrZScores + (cis ? testedProbes.toString() : ""));
+		}
+		data.close();
+		rowNames.close();
+	}
+
+	static String getProbeName(int dataset, int probe) {
+		return PLATFORMS[dataset] + "_" + probe;
+	}
+
+	private static String getProbeChr(int probe) {
+		return probe < 10 ? "1" : probe < 20 ? "2" : "3";
+	}
+
+	private static int getProbePosition(int probe) {
+		return 100000 + (probe % 10) * 300000;
+	}
+
+	private static String getSnpChr(int snp) {
+		return snp < NR_SNPS / 2 ? "1" : "2";
+	}
+
+	private static int getSnpPosition(int snp) {
+		return 100000 + (snp % (NR_SNPS / 2)) * 50000;
+	}
+
+	private static ArrayList<String> readLines(File file) throws IOException {
+		assertTrue(file.exists(), "Missing: " + file.getAbsolutePath());
+		TextFile tf = new TextFile(file, TextFile.R);
+		ArrayList<String> lines = tf.readAsArrayList();
+		tf.close();
+		return lines;
+	}
+
+}
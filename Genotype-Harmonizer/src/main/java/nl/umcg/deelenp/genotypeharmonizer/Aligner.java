@@ -280,6 +280,9 @@ public class Aligner {
 
 			iterationCounter = 0;
 
+			SlidingWindowLd studyLd = new SlidingWindowLd(studyVariantList, flankSnpsToConsider);
+			SlidingWindowLd refLd = new SlidingWindowLd(refVariantList, flankSnpsToConsider);
+
 			//Optional second loop
 			for (int variantIndex = 0; variantIndex < studyVariantList.size(); ++variantIndex) {
 
@@ -299,7 +302,7 @@ public class Aligner {
 					//Correlate the haps with both these snps between study and ref
 					CorrelationResults hapCor = correlateHaplotypes(minLdToIncludeAlign,
 							flankSnpsToConsider, studyVariantList, refVariantList,
-							variantIndex, studyVariant, refVariant);
+							variantIndex, studyVariant, refVariant, studyLd, refLd);
 
 					//Use at least min number of snps before we can draw conclusion
 					if (hapCor.getTotalCor() < minSnpsToAlignOn) {
@@ -337,6 +340,9 @@ public class Aligner {
 		int swapBasedOnLdCount = 0;
 		removedSnpsBasedOnLdCheck = 0;
 
+		SlidingWindowLd studyLd = new SlidingWindowLd(studyVariantList, flankSnpsToConsider);
+		SlidingWindowLd refLd = new SlidingWindowLd(refVariantList, flankSnpsToConsider);
+
 		start = Instant.now();
 		//Third loop over the included variants. Now that the other variants are fixed we can focus on the GC and AT SNPs.
 		for (int variantIndex = 0; variantIndex < studyVariantList.size(); ++variantIndex) {
@@ -361,7 +367,7 @@ public class Aligner {
 				//Correlate the haps with both these snps between study and ref
 				CorrelationResults hapCor = correlateHaplotypes(minLdToIncludeAlign,
 						flankSnpsToConsider, studyVariantList, refVariantList,
-						variantIndex, studyVariant, refVariant);
+						variantIndex, studyVariant, refVariant, studyLd, refLd);
 
 				//Use at least min number of snps before we can draw conclusion, maybe use MA as backup
 				if ((hapCor.getTotalCor() < minSnpsToAlignOn || hapCor.getPosCor() == hapCor.getNegCor())
@@ -394,6 +400,7 @@ public class Aligner {
 				} else if (hapCor.getPosCor() < hapCor.getNegCor()) {
 					//negative correlation more often observed. We need to swap the strand of this SNP.
 					studyVariant.swap();
+					studyLd.variantChanged(variantIndex);
 					++swapBasedOnLdCount;
 
 					if (LOGGER.isDebugEnabled()) {
@@ -408,7 +415,7 @@ public class Aligner {
 						//Correlate the haps with both these snps between study and ref
 						CorrelationResults hapCorSwapped = correlateHaplotypes(minLdToIncludeAlign,
 								flankSnpsToConsider, studyVariantList, refVariantList,
-								variantIndex, studyVariant, refVariant);
+								variantIndex, studyVariant, refVariant, studyLd, refLd);
 
 						//No need to check the count. Already done when checking unswapped LD pattern.
 						if (hapCorSwapped.getPosCor() < hapCorSwapped.getNegCor()) {
@@ -461,17 +468,15 @@ public class Aligner {
 
 	boolean mt = true;
 
-	private synchronized Ld getLD(GeneticVariant a, GeneticVariant b) throws LdCalculatorException {
-		return LdCalculator.calculateLd(a, b);
-	}
-
 	private CorrelationResults correlateHaplotypesMT(double minLdToIncludeAlignBase,
 													 int flankSnpsToConsider,
 													 ArrayList<ModifiableGeneticVariant> studyVariantList,
 													 ArrayList<GeneticVariant> refVariantList,
 													 int variantIndex,
 													 GeneticVariant snpStudyVariant,
-													 GeneticVariant refVariant) {
+													 GeneticVariant refVariant,
+													 SlidingWindowLd studyLd,
+													 SlidingWindowLd refLd) {
 
 //		if(snpStudyVariant.getPrimaryVariantId().equals("rs1001945")){
 //		LOGGER.debug("Alignment of: " + snpStudyVariant.getPrimaryVariantId() +
@@ -485,6 +490,9 @@ public class Aligner {
 		int windowlower = Math.max(0, variantIndex - flankSnpsToConsider);
 		int windowupper = Math.min(studyVariantList.size(), variantIndex + flankSnpsToConsider);
 
+		studyLd.moveTo(variantIndex);
+		refLd.moveTo(variantIndex);
+
 		IntStream.range(windowlower, windowupper).parallel().forEach(i -> {
 			if (i != variantIndex) {
 				GeneticVariant otherSnpStudyVariant = studyVariantList.get(i);
@@ -493,13 +501,12 @@ public class Aligner {
 				if (snpStudyVariant.getSequenceName().equals(otherSnpStudyVariant.getSequenceName())
 						&& !otherSnpStudyVariant.isAtOrGcSnp()) {
 
-					GeneticVariant otherRefVariant = refVariantList.get(i);
 					Ld ldStudy;
 					Ld ldRef;
 					try {
 
-						ldStudy = getLD(snpStudyVariant, otherSnpStudyVariant);
-						ldRef = getLD(refVariant, otherRefVariant);
+						ldStudy = studyLd.calculateLd(i);
+						ldRef = refLd.calculateLd(i);
 
 						//only use SNPs with min R2 in both study as ref
 						if (!Double.isNaN(ldStudy.getR2()) && !Double.isNaN(ldRef.getR2()) && ldStudy.getR2() >= minLdToIncludeAlignBase && ldRef.getR2() >= minLdToIncludeAlignBase) {
@@ -550,7 +557,8 @@ public class Aligner {
 												   int flankSnpsToConsider,
 												   ArrayList<ModifiableGeneticVariant> studyVariantList,
 												   ArrayList<GeneticVariant> refVariantList, int variantIndex,
-												   GeneticVariant snpStudyVariant, GeneticVariant refVariant) {
+												   GeneticVariant snpStudyVariant, GeneticVariant refVariant,
+												   SlidingWindowLd studyLd, SlidingWindowLd refLd) {
 
 		if (mt) {
 			return correlateHaplotypesMT(
@@ -558,7 +566,8 @@ public class Aligner {
 					flankSnpsToConsider,
 					studyVariantList,
 					refVariantList, variantIndex,
-					snpStudyVariant, refVariant);
+					snpStudyVariant, refVariant,
+					studyLd, refLd);
 		}
 //		if(snpStudyVariant.getPrimaryVariantId().equals("rs1001945")){
 //		LOGGER.debug("Alignment of: " + snpStudyVariant.getPrimaryVariantId() + 
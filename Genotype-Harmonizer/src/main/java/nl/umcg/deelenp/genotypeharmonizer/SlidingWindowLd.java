@@ -0,0 +1,188 @@
+package nl.umcg.deelenp.genotypeharmonizer;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.molgenis.genotype.util.Ld;
+import org.molgenis.genotype.util.LdCalculator;
+import org.molgenis.genotype.util.LdCalculatorException;
+import org.molgenis.genotype.util.PackedCalledDosages;
+import org.molgenis.genotype.variant.GeneticVariant;
+
+/**
+ * Calculates the LD between a center variant and the variants at most flank
+ * positions away in a sorted list of variants. The called dosages of each
+ * variant in the window are packed once and the genotype counts of each pair
+ * are kept in a ring buffer, so a pair that is needed again (also when the
+ * other variant is the center) does not require another pass over the samples.
+ *
+ * The center must be moved forward using {@link #moveTo(int)}. Once moved, the
+ * LD with the different variants in the window can be calculated by multiple
+ * threads at the same time. Genotypes are only read by {@link #moveTo(int)}
+ * and {@link #variantChanged(int)}, so the genotype readers do not need to be
+ * thread safe.
+ */
+class SlidingWindowLd {
+
+	private final List<? extends GeneticVariant> variants;
+	private final int flank;
+	/**
+	 * Ring buffer with the packed called dosages of the window
+	 */
+	private final PackedCalledDosages[] packed;
+	private final int[] packedVariant;
+	/**
+	 * Ring buffer with for each variant the genotype counts with the flank
+	 * variants after it. Counts of distance d are stored at (d - 1) * 9
+	 */
+	private final int[][] pairCounts;
+	private final boolean[][] pairCounted;
+	private final int[] pairVariant;
+	private int center = -1;
+
+	/**
+	 * @param variants bi-allelic variants
+	 * @param flank max distance between the center and the other variants
+	 */
+	public SlidingWindowLd(List<? extends GeneticVariant> variants, int flank) {
+		this.variants = variants;
+		this.flank = Math.max(1, flank);
+		packed = new PackedCalledDosages[2 * this.flank + 1];
+		packedVariant = new int[packed.length];
+		Arrays.fill(packedVariant, -1);
+		pairCounts = new int[this.flank + 1][this.flank * 9];
+		pairCounted = new boolean[this.flank + 1][this.flank];
+		pairVariant = new int[this.flank + 1];
+		Arrays.fill(pairVariant, -1);
+	}
+
+	/**
+	 * Packs the called dosages of all variants in the new window that are not
+	 * yet packed. Not thread safe.
+	 *
+	 * @param newCenter must be equal to or larger than the current center
+	 */
+	public void moveTo(int newCenter) {
+		if (newCenter < center) {
+			throw new IllegalArgumentException("Can only move forward, current center: " + center + " requested: " + newCenter);
+		}
+		center = newCenter;
+		for (int i = Math.max(0, newCenter - flank); i <= newCenter; ++i) {
+			int slot = i % pairVariant.length;
+			if (pairVariant[slot] != i) {
+				pairVariant[slot] = i;
+				Arrays.fill(pairCounted[slot], false);
+			}
+		}
+		pack(newCenter);
+		for (int i = Math.max(0, newCenter - flank); i <= Math.min(variants.size() - 1, newCenter + flank); ++i) {
+			if (i != newCenter && variants.get(i).getAlleleCount() == 2) {
+				pack(i);
+			}
+		}
+	}
+
+	/**
+	 * Must be called when the called dosages of a variant in the window
+	 * changed. Not thread safe.
+	 *
+	 * @param variantIndex
+	 */
+	public void variantChanged(int variantIndex) {
+		int slot = variantIndex % packed.length;
+		if (packedVariant[slot] == variantIndex) {
+			packedVariant[slot] = -1;
+			packed[slot] = null;
+			if (Math.abs(variantIndex - center) <= flank && variants.get(variantIndex).getAlleleCount() == 2) {
+				pack(variantIndex);
+			}
+		}
+		for (int i = Math.max(0, variantIndex - flank); i <= variantIndex; ++i) {
+			int pairSlot = i % pairVariant.length;
+			if (pairVariant[pairSlot] == i) {
+				if (i == variantIndex) {
+					Arrays.fill(pairCounted[pairSlot], false);
+				} else {
+					pairCounted[pairSlot][variantIndex - i - 1] = false;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Same as {@link LdCalculator#calculateLd(GeneticVariant, GeneticVariant)}
+	 * with the center variant as variant 1. Can be called by multiple threads
+	 * at the same time for different other variants.
+	 *
+	 * @param otherIndex index of a variant at most flank positions from the
+	 * center
+	 * @return LD between the center variant and the other variant
+	 * @throws LdCalculatorException
+	 */
+	public Ld calculateLd(int otherIndex) throws LdCalculatorException {
+
+		int distance = Math.abs(otherIndex - center);
+		if (distance == 0 || distance > flank) {
+			throw new IllegalArgumentException("Variant " + otherIndex + " not in window of " + center);
+		}
+
+		int first = Math.min(center, otherIndex);
+		int pairSlot = first % pairVariant.length;
+		int[] counts = pairCounts[pairSlot];
+		int countsOffset = (distance - 1) * 9;
+
+		if (!pairCounted[pairSlot][distance - 1]) {
+			PackedCalledDosages firstPacked = getPacked(first);
+			PackedCalledDosages secondPacked = getPacked(first + distance);
+			if (firstPacked.getSampleCount() != secondPacked.getSampleCount()) {
+				throw new LdCalculatorException("Error calculating LD: " + variants.get(center).getPrimaryVariantId() + " contains "
+						+ getPacked(center).getSampleCount() + " samples and " + variants.get(otherIndex).getPrimaryVariantId() + " contains "
+						+ getPacked(otherIndex).getSampleCount() + " samples. This should be identical");
+			}
+			int[][] genotypes = firstPacked.countGenotypes(secondPacked);
+			for (int x = 0; x < 3; ++x) {
+				System.arraycopy(genotypes[x], 0, counts, countsOffset + x * 3, 3);
+			}
+			pairCounted[pairSlot][distance - 1] = true;
+		}
+
+		int[][] genotypes = new int[3][3];
+		boolean centerFirst = center < otherIndex;
+		for (int x = 0; x < 3; ++x) {
+			for (int y = 0; y < 3; ++y) {
+				genotypes[x][y] = centerFirst ? counts[countsOffset + x * 3 + y] : counts[countsOffset + y * 3 + x];
+			}
+		}
+
+		return LdCalculator.calculateLd(variants.get(center), variants.get(otherIndex), genotypes);
+
+	}
+
+	private void pack(int variantIndex) {
+		int slot = variantIndex % packed.length;
+		if (packedVariant[slot] != variantIndex) {
+			GeneticVariant variant = variants.get(variantIndex);
+			if (variant.getAlleleCount() != 2) {
+				throw new UnsupportedOperationException("Ld calculator currently only supports biallelic variants");
+			}
+			packed[slot] = new PackedCalledDosages(variant.getSampleCalledDosages());
+			packedVariant[slot] = variantIndex;
+		}
+	}
+
+	/**
+	 * Only returns dosages packed by {@link #moveTo(int)} or
+	 * {@link #variantChanged(int)}, never reads genotypes.
+	 */
+	private PackedCalledDosages getPacked(int variantIndex) {
+		int slot = variantIndex % packed.length;
+		if (packedVariant[slot] != variantIndex) {
+			if (variants.get(variantIndex).getAlleleCount() != 2) {
+				throw new UnsupportedOperationException("Ld calculator currently only supports biallelic variants");
+			}
+			throw new IllegalStateException("Variant " + variantIndex + " is not packed, window is at " + center);
+		}
+		return packed[slot];
+	}
+
+}
@@ -0,0 +1,247 @@
+package nl.umcg.deelenp.genotypeharmonizer;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.IntStream;
+
+import org.molgenis.genotype.plink.BedBimFamGenotypeData;
+import org.molgenis.genotype.trityper.TriTyperGenotypeData;
+import org.molgenis.genotype.trityper.TriTyperGenotypeWriter;
+import org.molgenis.genotype.util.Ld;
+import org.molgenis.genotype.util.LdCalculator;
+import org.molgenis.genotype.util.LdCalculatorException;
+import org.molgenis.genotype.variant.GeneticVariant;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+public class SlidingWindowLdTest {
+
+	private static final int NR_VARIANTS = 150;
+
+	private BedBimFamGenotypeData genotypeData;
+	private List<GeneticVariant> variants;
+
+	@BeforeClass
+	public void beforeClass() throws IOException, URISyntaxException {
+		File testFilesFolder = new File(this.getClass().getResource("/").toURI());
+		genotypeData = new BedBimFamGenotypeData(testFilesFolder.getAbsolutePath() + File.separator + "hapmap3CeuChr20B37Mb6RandomStrand");
+
+		variants = new ArrayList<GeneticVariant>();
+		for (GeneticVariant variant : genotypeData) {
+			if (variant.getAlleleCount() == 2) {
+				variants.add(variant);
+			}
+		}
+		Collections.sort(variants);
+		variants = new ArrayList<GeneticVariant>(variants.subList(0, NR_VARIANTS));
+	}
+
+	@AfterClass
+	public void afterClass() throws IOException {
+		genotypeData.close();
+	}
+
+	@Test
+	public void calculateLdEveryCenter() throws LdCalculatorException {
+		for (int flank : new int[]{1, 3, 10}) {
+			SlidingWindowLd windowLd = new SlidingWindowLd(variants, flank);
+			for (int center = 0; center < variants.size(); ++center) {
+				windowLd.moveTo(center);
+				assertWindow(windowLd, variants, center, flank);
+			}
+		}
+	}
+
+	@Test
+	public void calculateLdSkippingCenters() throws LdCalculatorException {
+		// jumps smaller than, equal to and larger than the window, so that
+		// cached counts are partly reused and partly evicted
+		int flank = 5;
+		SlidingWindowLd windowLd = new SlidingWindowLd(variants, flank);
+		int[] steps = {0, 1, 2, flank, flank + 1, 2 * flank, 2 * flank + 1, 3 * flank, 1, 0, 7};
+		int center = 0;
+		for (int i = 0; center < variants.size(); ++i) {
+			windowLd.moveTo(center);
+			assertWindow(windowLd, variants, center, flank);
+			center += Math.max(1, steps[i % steps.length]);
+		}
+
+		// the last variant, only variants before it in the window
+		windowLd.moveTo(variants.size() - 1);
+		assertWindow(windowLd, variants, variants.size() - 1, flank);
+	}
+
+	@Test
+	public void calculateLdInWindowOnly() throws LdCalculatorException {
+		int flank = 4;
+		SlidingWindowLd windowLd = new SlidingWindowLd(variants, flank);
+		windowLd.moveTo(20);
+
+		for (int otherIndex : new int[]{20, 20 - flank - 1, 20 + flank + 1}) {
+			try {
+				windowLd.calculateLd(otherIndex);
+				fail("Expected IllegalArgumentException for " + otherIndex);
+			} catch (IllegalArgumentException e) {
+			}
+		}
+
+		try {
+			windowLd.moveTo(19);
+			fail("Expected IllegalArgumentException when moving back");
+		} catch (IllegalArgumentException e) {
+		}
+
+		windowLd.moveTo(20);
+		assertLd(windowLd.calculateLd(20 + flank), variants.get(20), variants.get(20 + flank));
+	}
+
+	@Test
+	public void variantChanged() throws LdCalculatorException {
+		int flank = 5;
+		List<GeneticVariant> changingVariants = new ArrayList<GeneticVariant>(variants);
+		SlidingWindowLd windowLd = new SlidingWindowLd(changingVariants, flank);
+
+		for (int center = 0; center < 60; ++center) {
+			windowLd.moveTo(center);
+			assertWindow(windowLd, changingVariants, center, flank);
+
+			// replace the genotypes of the center and of a variant after it,
+			// like the aligner does when it swaps the alleles of a variant
+			if (center % 3 == 0) {
+				changingVariants.set(center, variants.get(center + 60));
+				windowLd.variantChanged(center);
+				int later = center + 1 + center % flank;
+				changingVariants.set(later, variants.get(later + 60));
+				windowLd.variantChanged(later);
+				assertWindow(windowLd, changingVariants, center, flank);
+			}
+		}
+	}
+
+	@Test
+	public void concurrentCalculateLd() throws Exception {
+		final int flank = 20;
+		final SlidingWindowLd windowLd = new SlidingWindowLd(variants, flank);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			for (int center = 0; center < variants.size(); center += 7) {
+				windowLd.moveTo(center);
+				final int windowCenter = center;
+				List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+				for (int t = 0; t < 4; ++t) {
+					tasks.add(new Callable<Void>() {
+						@Override
+						public Void call() throws Exception {
+							assertWindow(windowLd, variants, windowCenter, flank);
+							return null;
+						}
+					});
+				}
+				for (Future<Void> result : executor.invokeAll(tasks)) {
+					result.get();
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void parallelCalculateLdTriTyper() throws Exception {
+
+		// TriTyper reads genotypes through one shared file handle and buffer,
+		// without a cache every read goes to that handle
+		File tmpDir = new File(System.getProperty("java.io.tmpdir"));
+		DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss");
+		final File triTyperFolder = new File(tmpDir, "SlidingWindowLdTest_" + dateFormat.format(new Date()));
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				for (File file : triTyperFolder.listFiles()) {
+					file.delete();
+				}
+				triTyperFolder.delete();
+			}
+		});
+		triTyperFolder.mkdir();
+		new TriTyperGenotypeWriter(genotypeData).write(triTyperFolder);
+
+		TriTyperGenotypeData triTyperData = new TriTyperGenotypeData(triTyperFolder, 0, null, null);
+		try {
+			List<GeneticVariant> triTyperVariants = new ArrayList<GeneticVariant>();
+			for (GeneticVariant variant : triTyperData) {
+				if (variant.getAlleleCount() == 2) {
+					triTyperVariants.add(variant);
+				}
+			}
+			Collections.sort(triTyperVariants);
+			triTyperVariants = new ArrayList<GeneticVariant>(triTyperVariants.subList(0, NR_VARIANTS));
+
+			// same as the aligner: move single threaded, calculate in parallel
+			final int flank = 20;
+			final SlidingWindowLd windowLd = new SlidingWindowLd(triTyperVariants, flank);
+			for (int center = 0; center < triTyperVariants.size(); ++center) {
+				windowLd.moveTo(center);
+				final int windowCenter = center;
+				int windowLower = Math.max(0, center - flank);
+				int windowUpper = Math.min(triTyperVariants.size(), center + flank + 1);
+				final AtomicReferenceArray<Object> results = new AtomicReferenceArray<Object>(windowUpper - windowLower);
+				IntStream.range(windowLower, windowUpper).parallel().forEach(i -> {
+					if (i != windowCenter) {
+						try {
+							results.set(i - windowLower, windowLd.calculateLd(i));
+						} catch (LdCalculatorException | RuntimeException e) {
+							results.set(i - windowLower, e);
+						}
+					}
+				});
+				for (int i = windowLower; i < windowUpper; ++i) {
+					if (i != center) {
+						Object result = results.get(i - windowLower);
+						if (result instanceof Exception) {
+							throw (Exception) result;
+						}
+						assertLd((Ld) result, triTyperVariants.get(center), triTyperVariants.get(i));
+					}
+				}
+			}
+		} finally {
+			triTyperData.close();
+		}
+	}
+
+	private static void assertWindow(SlidingWindowLd windowLd, List<GeneticVariant> variants, int center, int flank) throws LdCalculatorException {
+		for (int otherIndex = Math.max(0, center - flank); otherIndex <= Math.min(variants.size() - 1, center + flank); ++otherIndex) {
+			if (otherIndex != center) {
+				assertLd(windowLd.calculateLd(otherIndex), variants.get(center), variants.get(otherIndex));
+			}
+		}
+	}
+
+	private static void assertLd(Ld ld, GeneticVariant variant1, GeneticVariant variant2) throws LdCalculatorException {
+		Ld expected = LdCalculator.calculateLd(variant1, variant2);
+		assertSame(ld.getVariant1(), variant1);
+		assertSame(ld.getVariant2(), variant2);
+		// exactly equal, boxed so that NaN (a monomorphic variant) equals NaN
+		String pair = variant1.getPrimaryVariantId() + " " + variant2.getPrimaryVariantId();
+		assertEquals(Double.valueOf(ld.getR2()), Double.valueOf(expected.getR2()), pair);
+		assertEquals(Double.valueOf(ld.getDPrime()), Double.valueOf(expected.getDPrime()), pair);
+		assertEquals(ld.getHaplotypesFreq(), expected.getHaplotypesFreq(), pair);
+	}
+
+}
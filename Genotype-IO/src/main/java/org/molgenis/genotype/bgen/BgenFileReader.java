@@ -0,0 +1,97 @@
+package org.molgenis.genotype.bgen;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a BGEN file using positional reads on a shared file channel. Each
+ * reader has its own file pointer and read ahead buffer, so multiple readers
+ * can read the same file at the same time. A single reader must not be used
+ * by multiple threads at the same time.
+ */
+class BgenFileReader {
+
+	private static final int BUFFER_SIZE = 16384;
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+	/**
+	 * Position in the file of the first byte in the buffer
+	 */
+	private long bufferStart = 0;
+	private long filePointer = 0;
+
+	BgenFileReader(FileChannel channel) {
+		this.channel = channel;
+		buffer.limit(0);
+	}
+
+	void seek(long position) {
+		filePointer = position;
+	}
+
+	void skipBytes(long count) {
+		filePointer += count;
+	}
+
+	long getFilePointer() {
+		return filePointer;
+	}
+
+	/**
+	 * Same as RandomAccessFile.read(byte[])
+	 */
+	int read(byte[] bytes) throws IOException {
+		return read(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Same as RandomAccessFile.read(byte[], int, int)
+	 *
+	 * @return number of bytes read or -1 if at end of file
+	 * @throws IOException
+	 */
+	int read(byte[] bytes, int offset, int length) throws IOException {
+		if (length == 0) {
+			return 0;
+		}
+		int read = 0;
+		while (read < length) {
+			long bufferOffset = filePointer - bufferStart;
+			if (bufferOffset >= 0 && bufferOffset < buffer.limit()) {
+				int count = (int) Math.min(length - read, buffer.limit() - bufferOffset);
+				System.arraycopy(buffer.array(), (int) bufferOffset, bytes, offset + read, count);
+				read += count;
+				filePointer += count;
+			} else if (length - read >= BUFFER_SIZE) {
+				// Large reads skip the buffer
+				int count = channel.read(ByteBuffer.wrap(bytes, offset + read, length - read), filePointer);
+				if (count < 0) {
+					break;
+				}
+				read += count;
+				filePointer += count;
+			} else if (!fillBuffer()) {
+				break;
+			}
+		}
+		return read == 0 ? -1 : read;
+	}
+
+	void readFully(byte[] bytes, int offset, int length) throws IOException {
+		if (length > 0 && read(bytes, offset, length) != length) {
+			throw new EOFException("Unexpected end of bgen file");
+		}
+	}
+
+	private boolean fillBuffer() throws IOException {
+		buffer.clear();
+		bufferStart = filePointer;
+		int count = channel.read(buffer, filePointer);
+		buffer.flip();
+		return count > 0;
+	}
+
+}
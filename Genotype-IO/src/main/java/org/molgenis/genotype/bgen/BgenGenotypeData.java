@@ -25,9 +25,13 @@ import org.molgenis.genotype.variant.sampleProvider.SampleVariantProviderBgen;
 import org.molgenis.genotype.variant.sampleProvider.SampleVariantUniqueIdProvider;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.IntStream;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 
@@ -60,12 +64,18 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 	private static final Logger LOGGER = Logger.getLogger(BgenGenotypeData.class);
 	private static final Charset CHARSET = StandardCharsets.UTF_8;
 
-	private final RandomAccessFile bgenFile;
+	private final FileChannel bgenFileChannel;
+	private final long bgenFileLength;
+	/**
+	 * Read state of each thread, so the file can be read by multiple threads
+	 */
+	private final ThreadLocal<ReadContext> readContext = ThreadLocal.withInitial(this::createReadContext);
+	private final Queue<ReadContext> readContexts = new ConcurrentLinkedQueue<>();
+	private volatile boolean closed = false;
 	private final byte[] byteArray4 = new byte[4]; //resuable 4 byte array
 	private final byte[] byteArray2 = new byte[2]; //resuable 2 byte array
 	private final List<Sample> samples;
 	private final Map<String, SampleAnnotation> sampleAnnotations;
-	private final Inflater gzipInflater = new Inflater();
 	private LinkedHashSet<String> sequenceNames = new LinkedHashSet<>();
 	private final BlockRepresentation snpBlockRepresentation;
 	private final Layout fileLayout;
@@ -132,8 +142,9 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 
 		// Set the minimum posterior probability to call
 		this.minimumPosteriorProbabilityToCall = minimumPosteriorProbabilityToCall;
-		// Load the BGEN file in a random access file object
-		this.bgenFile = new RandomAccessFile(bgenFile, "r");
+		// Open the BGEN file, it is read using positional reads so multiple threads can read at the same time
+		this.bgenFileChannel = FileChannel.open(bgenFile.toPath(), StandardOpenOption.READ);
+		this.bgenFileLength = bgenFileChannel.size();
 
 		// Chose to make the sample file optional when sample identifiers are present in the BGEN file
 		// since a particular other BGEN file reader also allows this.
@@ -190,10 +201,10 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 		// Skip over reserved and free area,
 		// this seek works because there are 4 (interesting) bytes
 		// in the beginning of the file and in the end of the header block.
-		this.bgenFile.seek(headerSize);
+		getBgenFileReader().seek(headerSize);
 
 		//Read flags
-		if (this.bgenFile.read(byteArray4, 0, 4) != 4) {
+		if (getBgenFileReader().read(byteArray4, 0, 4) != 4) {
 			throw new GenotypeDataException("Error reading bgen file header. File is corrupt");
 		}
 
@@ -282,9 +293,9 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 
 			// Read the first 1000 bytes to check if this is equal to that in the metadata in the
 			// BGENIX file.
-			this.bgenFile.seek(0);
+			getBgenFileReader().seek(0);
 			byte[] firstBytes = new byte[1000];
-			this.bgenFile.read(firstBytes, 0, 1000);
+			getBgenFileReader().read(firstBytes, 0, 1000);
 			if (!Arrays.equals(metadata.getFirst1000bytes(), firstBytes)) {
 				throw new GenotypeDataException("First 1000 bytes of meta data and actual data are not equal. Invalid Bgen and Bgenix combination.");
 			}
@@ -334,14 +345,14 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 		// Read the sample identifiers sample by sample.
 		for (int i = 0; i < sampleCountFromSampleIdBlock; i++) {
 			// Read the sample id length within the next two bytes
-			if (this.bgenFile.read(byteArray2, 0, 2) != 2) {
+			if (getBgenFileReader().read(byteArray2, 0, 2) != 2) {
 				throw new GenotypeDataException("Error in sample Id. File is corrupt.");
 			}
 			int sampleIdLength = getUInt16(byteArray2, 0);
 			// Initialize the sample identifier.
 			byte[] sampleName = new byte[sampleIdLength];
 			// Read the sample identifier.
-			this.bgenFile.read(sampleName, 0, sampleIdLength);
+			getBgenFileReader().read(sampleName, 0, sampleIdLength);
 			// Append the sample identifier to the array of sample ids.
 			sampleIds[i] = new String(sampleName, CHARSET);
 			samples.add(new Sample(sampleIds[i], null, null));
@@ -434,7 +445,7 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 	 */
 	private long readFourBytesAsUInt32(String fieldName, String exceptionMessage) throws IOException {
 		// Throw an exception if the read number of bytes is not equal to 4.
-		if (this.bgenFile.read(byteArray4, 0, 4) != 4) {
+		if (getBgenFileReader().read(byteArray4, 0, 4) != 4) {
 			throw new GenotypeDataException(exceptionMessage);
 		}
 		// Convert the read bytes to a long
@@ -458,17 +469,19 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 	private void createBgenixFile(File bgen,
 			BgenixWriter bgenixWriter,
 			long pointerFirstSnp) throws IOException {
+		BgenFileReader bgenFileReader = getBgenFileReader();
+
 		// Go to the first byte...
-		this.bgenFile.seek(0);
+		bgenFileReader.seek(0);
 
 		// Read the first 1000 bytes of the bgen file.
 		byte[] firstBytes = new byte[1000];
-		this.bgenFile.read(firstBytes, 0, 1000);
+		bgenFileReader.read(firstBytes, 0, 1000);
 
 		// Create and write new metadata.
 		BgenixMetadata m = new BgenixMetadata(
 				bgen.getName(),
-				(int) this.bgenFile.length(),
+				(int) bgenFileLength,
 				(int) (bgen.lastModified() / 1000L),
 				firstBytes,
 				(System.currentTimeMillis() / 1000L)); // Current time as integer
@@ -477,15 +490,16 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 		//Loop through the start of the file
 		long variantReadingPosition;
 		variantReadingPosition = pointerFirstSnp;
-		while ((variantReadingPosition) < bgenFile.length()) {
+		while ((variantReadingPosition) < bgenFileLength) {
 			//Loop through variants.
 
 			// Methods are dependent on the filepointer in the BGEN file.
 			// Read the variant identifying info, the size cannot be determined from this alone.
-			ReadOnlyGeneticVariantBgen variant = processVariantIdentifyingData(variantReadingPosition);
+			ReadOnlyGeneticVariantBgen variant = processVariantIdentifyingData(variantReadingPosition, bgenFileReader);
+			sequenceNames.add(variant.getSequenceName());
 			// Get the variantGenotypeBlockInfo,
 			// this holds variables for the length of the rest of the data for this variant.
-			VariantGenotypeBlockInfo variantGenotypeBlockInfo = extractVariantGenotypeDataBlockInfo();
+			VariantGenotypeBlockInfo variantGenotypeBlockInfo = extractVariantGenotypeDataBlockInfo(bgenFileReader);
 			// Get the variant reading size in bytes
 			long variantDataSizeInBytes = variantGenotypeBlockInfo.getVariantDataSizeInBytes(variantReadingPosition);
 
@@ -508,10 +522,12 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 	 *
 	 * @param variantStartPosition The position to start reading the variant
 	 * from.
+	 * @param bgenFileReader The reader to use, its file pointer is left after
+	 * the alleles of the variant.
 	 * @return a genetic variant.
 	 * @throws IOException if an I/O error has occurred.
 	 */
-	private ReadOnlyGeneticVariantBgen processVariantIdentifyingData(long variantStartPosition) throws IOException {
+	private ReadOnlyGeneticVariantBgen processVariantIdentifyingData(long variantStartPosition, BgenFileReader bgenFileReader) throws IOException {
 		long filePointer = variantStartPosition;
 
 		// If layout is equal to 1 then the variant identifying data starts with 4 bytes describing the
@@ -522,7 +538,7 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 		}
 
 		// Go to the start of the variant to begin reading there.
-		this.bgenFile.seek(filePointer);
+		bgenFileReader.seek(filePointer);
 
 		// Proposing not to do a buffer search here as the maximum number of possible bytes is very large
 		// (16 + 4K + Lid + Lrsid + Lchr + the sum of the allele lengths (maximum of 2^32 for every allele))
@@ -535,8 +551,8 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 		// Need to check that it is correct with the block in front of the snp id.
 		// Read the variant identifiers
 		ArrayList<String> variantIds = new ArrayList<>();
-		String snpId = readVariantInfo(byteArray2);
-		String snpRsId = readVariantInfo(byteArray2);
+		String snpId = readVariantInfo(byteArray2, bgenFileReader);
+		String snpRsId = readVariantInfo(byteArray2, bgenFileReader);
 
 		// add the variant identifiers in the variantIds list so that the RSID is the primary variantID
 		variantIds.add(snpRsId);
@@ -545,25 +561,24 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 		}
 
 		// Read the sequence identifier
-		String seqName = readVariantInfo(byteArray2);
-		sequenceNames.add(seqName);
+		String seqName = readVariantInfo(byteArray2, bgenFileReader);
 
 		// Get the position of the variant.
-		bgenFile.read(byteArray4);
+		bgenFileReader.read(byteArray4);
 		int variantPosition = getVariantPosition(byteArray4);
 
 		// Get the alleles for this variant.
 		int numberOfAlleles = 2; // Default is two. (layout one)
 		if (fileLayout.equals(Layout.layOut_2)) {
-			bgenFile.read(byteArray2);
+			bgenFileReader.read(byteArray2);
 			numberOfAlleles = getUInt16(byteArray2, 0);
 		}
 
 		// Read the alleles
 		List<String> alleles = new ArrayList<>();
 		for (int i = 0; i < numberOfAlleles; i++) {
-			bgenFile.read(byteArray4);
-			readAllele(byteArray4, alleles);
+			bgenFileReader.read(byteArray4);
+			readAllele(byteArray4, alleles, bgenFileReader);
 		}
 
 		// Log this variant
@@ -578,14 +593,14 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 		// now in order to test against gen data.
 	}
 
-	private String readVariantInfo(byte[] byteArray2) throws IOException {
+	private String readVariantInfo(byte[] byteArray2, BgenFileReader bgenFileReader) throws IOException {
 		int fieldLength;
 		byte[] variableByteArray;
-		bgenFile.read(byteArray2);
+		bgenFileReader.read(byteArray2);
 		fieldLength = getUInt16(byteArray2, 0);
 
 		variableByteArray = new byte[fieldLength];
-		bgenFile.read(variableByteArray);
+		bgenFileReader.read(variableByteArray);
 		return new String(variableByteArray, CHARSET);
 	}
 
@@ -611,8 +626,9 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 	 * @param snpInfoBuffer A byte array buffer starting from the start of the
 	 * variant block.
 	 * @param alleles A list of alleles.
+	 * @param bgenFileReader The reader positioned at the start of the allele.
 	 */
-	private void readAllele(byte[] snpInfoBuffer, List<String> alleles) throws IOException {
+	private void readAllele(byte[] snpInfoBuffer, List<String> alleles, BgenFileReader bgenFileReader) throws IOException {
 
 		// Length of the allele
 		long fieldLengthLong = getUInt32(snpInfoBuffer, 0);
@@ -624,7 +640,7 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 
 		// Create a new buffer with the correct size.
 		byte[] alleleByteArray = new byte[(int) fieldLengthLong];
-		bgenFile.read(alleleByteArray);
+		bgenFileReader.read(alleleByteArray);
 		// Get the allele from the buffer.
 		String allele = new String(alleleByteArray, CHARSET);
 		alleles.add(allele);
@@ -699,13 +715,10 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 						phased ? "phased" : "unphased", probabilitiesLengthInBits));
 			}
 
-			byte[] probabilitiesArray = Arrays.copyOfRange(
-					variantBlockData, blockBufferOffset,
-					variantBlockData.length);
-
+			// The probabilities are read directly from the block data, starting after the header
 			if (phased) {
 				double[][][] haplotypeProbabilities = readHaplotypeProbabilities(
-						probabilitiesArray,
+						variantBlockData, blockBufferOffset * 8,
 						probabilitiesLengthInBits,
 						numberOfAlleles,
 						isMissing, ploidies);
@@ -713,7 +726,7 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 						haplotypeProbabilities);
 			} else {
 				probabilities = readGenotypeProbabilities(
-						probabilitiesArray,
+						variantBlockData, blockBufferOffset * 8,
 						probabilitiesLengthInBits,
 						numberOfAlleles,
 						isMissing, ploidies);
@@ -784,12 +797,8 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 				variant.getPrimaryVariantId(), numberOfAlleles, minPloidy, maxPloidy,
 				"phased", probabilitiesLengthInBits));
 		}
-		byte[] probabilitiesArray = Arrays.copyOfRange(
-				variantBlockData, blockBufferOffset,
-				variantBlockData.length);
-
 		return readHaplotypeProbabilities(
-				probabilitiesArray,
+				variantBlockData, blockBufferOffset * 8,
 				probabilitiesLengthInBits,
 				numberOfAlleles,
 				isMissing, ploidies);
@@ -839,6 +848,8 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 	 * specified length (in bits).
 	 *
 	 * @param probabilitiesArray The byte array containing probabilities.
+	 * @param bitOffset The bit in the byte array where the probabilities
+	 * start.
 	 * @param probabilitiesLengthInBits The number of bits that store a
 	 * probability.
 	 * @param numberOfAlleles The number of alleles for the variant that the
@@ -850,14 +861,11 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 	 * for every sample.
 	 */
 	private double[][] readGenotypeProbabilities(
-			byte[] probabilitiesArray,
+			byte[] probabilitiesArray, int bitOffset,
 			int probabilitiesLengthInBits,
 			int numberOfAlleles, List<Boolean> isMissing,
 			List<Integer> ploidies) {
 
-		// Get bit offset
-		int bitOffset = 0;
-
 		// Initialize an array of probabilities.
 		double[][] probabilities = new double[getSamples().size()][];
 
@@ -892,6 +900,8 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 	 * of a specified length (in bits).
 	 *
 	 * @param probabilitiesArray The byte array containing probabilities.
+	 * @param bitOffset The bit in the byte array where the probabilities
+	 * start.
 	 * @param probabilitiesLengthInBits The number of bits that store a
 	 * probability.
 	 * @param numberOfAlleles The number of alleles for the variant that the
@@ -903,7 +913,7 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 	 * every sample.
 	 */
 	private double[][][] readHaplotypeProbabilities(
-			byte[] probabilitiesArray,
+			byte[] probabilitiesArray, int bitOffset,
 			int probabilitiesLengthInBits,
 			int numberOfAlleles, List<Boolean> isMissing,
 			List<Integer> haplotypeCounts) {
@@ -911,9 +921,6 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 		// Define an array consisting of an array of posterior probabilities for each genotype
 		double[][][] haplotypeProbabilities = new double[getSamples().size()][][];
 
-		// Get bit offset
-		int bitOffset = 0;
-
 		// Each probability is stored in B bits.
 		// Values are interpreted by linear interpolation between 0 and 1;
 		// value b corresponds to probability b / ((2^B)-1).
@@ -1042,16 +1049,21 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 	}
 
 	/**
-	 * Method for obtaining decompressed data for layout 2.
+	 * Method for obtaining decompressed data for layout 2. The data is read
+	 * in the buffers of the read context of the current thread, the returned
+	 * array is reused for the next variant and can be longer than the data.
 	 */
 	private byte[] getDecompressedBlockData(ReadOnlyGeneticVariantBgen variant) throws IOException {
-		// First extend the genetic variant with ids, alleles, etc.
+		ReadContext context = getReadContext();
+		BgenFileReader bgenFileReader = context.bgenFileReader;
+
+		// Skip the ids, position and alleles of the variant.
 		// This makes sure the file pointer is in the correct location for the next step.
-		variant.extendWithAdditionalVariantData();
+		skipVariantIdentifyingData(variant.getVariantReadingPosition(), context);
 
 		// Extract the variant genotype data block info starting from the current position of the
 		// file pointer, which should be right after all alleles for a specific variant.
-		VariantGenotypeBlockInfo variantGenotypeBlockInfo = extractVariantGenotypeDataBlockInfo();
+		VariantGenotypeBlockInfo variantGenotypeBlockInfo = extractVariantGenotypeDataBlockInfo(bgenFileReader);
 
 		long decompressedVariantBlockLength = variantGenotypeBlockInfo.getDecompressedBlockLength();
 		long variantBlockLength = variantGenotypeBlockInfo.getBlockLength();
@@ -1068,54 +1080,102 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 					"Length of compressed genotype data exceeds maximum supported value of (2^31)-6 (%d)", variantBlockLength));
 		}
 
-		// Initialize byte arrays.
-		byte[] compressedBlockData = new byte[(int) variantBlockLength];
-		byte[] decompressedBlockData = new byte[(int) decompressedVariantBlockLength];
+		// Get the reusable byte arrays.
+		byte[] compressedBlockData = context.getCompressedBlockData((int) variantBlockLength);
 
 		// Read the compressed / uncompressed data starting from the correct location.
-		this.bgenFile.seek(variantProbabilitiesStartPosition);
-		this.bgenFile.read(compressedBlockData, 0, (int) variantBlockLength);
+		bgenFileReader.seek(variantProbabilitiesStartPosition);
+		bgenFileReader.readFully(compressedBlockData, 0, (int) variantBlockLength);
 
 		switch (snpBlockRepresentation) {
 
-			case compression_1:
+			case compression_1: {
+				byte[] decompressedBlockData = context.getDecompressedBlockData((int) decompressedVariantBlockLength);
 				decompressVariantBlockGzip(
-						compressedBlockData,
-						decompressedBlockData);
-				break;
+						context.gzipInflater,
+						compressedBlockData, (int) variantBlockLength,
+						decompressedBlockData, (int) decompressedVariantBlockLength);
+				return decompressedBlockData;
+			}
 
-			case compression_2:
-				Zstd.decompress(
-						decompressedBlockData,
-						compressedBlockData);
-				break;
+			case compression_2: {
+				byte[] decompressedBlockData = context.getDecompressedBlockData((int) decompressedVariantBlockLength);
+				long result = Zstd.decompressByteArray(
+						decompressedBlockData, 0, (int) decompressedVariantBlockLength,
+						compressedBlockData, 0, (int) variantBlockLength);
+				if (Zstd.isError(result)) {
+					throw new GenotypeDataException("Error decompressing bgen data: " + Zstd.getErrorName(result));
+				}
+				return decompressedBlockData;
+			}
 
 			default:
-				decompressedBlockData = compressedBlockData;
-				break;
+				return compressedBlockData;
+		}
+	}
+
+	/**
+	 * Moves the file pointer of the reader past the variant identifying data
+	 * (ids, position and alleles) without parsing these.
+	 *
+	 * @param variantStartPosition The position of the variant in the file.
+	 * @param context The read context to use.
+	 * @throws IOException if an I/O error has occurred.
+	 */
+	private void skipVariantIdentifyingData(long variantStartPosition, ReadContext context) throws IOException {
+		BgenFileReader bgenFileReader = context.bgenFileReader;
+		byte[] fieldBuffer = context.fieldBuffer;
+
+		// Layout 1 starts with the number of individuals
+		bgenFileReader.seek(fileLayout == Layout.layOut_1 ? variantStartPosition + 4 : variantStartPosition);
+
+		// Skip the variant id, rs id and sequence name
+		for (int i = 0; i < 3; i++) {
+			bgenFileReader.readFully(fieldBuffer, 0, 2);
+			bgenFileReader.skipBytes(getUInt16(fieldBuffer, 0));
+		}
+
+		// Skip the position
+		bgenFileReader.skipBytes(4);
+
+		int numberOfAlleles = 2; // Default is two. (layout one)
+		if (fileLayout == Layout.layOut_2) {
+			bgenFileReader.readFully(fieldBuffer, 0, 2);
+			numberOfAlleles = getUInt16(fieldBuffer, 0);
+		}
+
+		// Skip the alleles
+		for (int i = 0; i < numberOfAlleles; i++) {
+			bgenFileReader.readFully(fieldBuffer, 0, 4);
+			bgenFileReader.skipBytes(getUInt32(fieldBuffer, 0));
 		}
-		return decompressedBlockData;
 	}
 
 	/**
-	 * Method that decompresses data using the gzipInflater.
+	 * Method that decompresses data using a gzip inflater.
 	 *
+	 * @param gzipInflater The inflater to use.
 	 * @param compressedVariantDataBlock The input byte array to decompress.
+	 * @param compressedLength The number of bytes to decompress.
 	 * @param outputVariantDataBlock The decompressed output byte array.
+	 * @param decompressedLength The expected number of decompressed bytes.
 	 */
 	private void decompressVariantBlockGzip(
-			byte[] compressedVariantDataBlock, byte[] outputVariantDataBlock) {
+			Inflater gzipInflater,
+			byte[] compressedVariantDataBlock, int compressedLength,
+			byte[] outputVariantDataBlock, int decompressedLength) {
 
 		// Set the input for the gzip inflater.
-		gzipInflater.setInput(compressedVariantDataBlock);
+		gzipInflater.setInput(compressedVariantDataBlock, 0, compressedLength);
 
 		// Try to decompress the data.
 		try {
-			gzipInflater.inflate(outputVariantDataBlock);
+			gzipInflater.inflate(outputVariantDataBlock, 0, decompressedLength);
 		} catch (DataFormatException e) {
 			throw new GenotypeDataException("Error decompressing bgen data", e);
+		} finally {
+			gzipInflater.reset();
 		}
-		gzipInflater.reset();
 	}
 
 	/**
@@ -1123,17 +1183,18 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 	 * must be called with the file pointer at the start of a variant genotype
 	 * block (the C field if present)
 	 *
+	 * @param bgenFileReader The reader positioned at the start of the block.
 	 * @return an object with info of this block.
 	 * @throws IOException if an I/O error has occurred.
 	 */
-	private VariantGenotypeBlockInfo extractVariantGenotypeDataBlockInfo() throws IOException {
+	private VariantGenotypeBlockInfo extractVariantGenotypeDataBlockInfo(BgenFileReader bgenFileReader) throws IOException {
 
-		// Get the file pointer (bgenFile.getFilePointer();)
-		long variantGenotypeStartPosition = this.bgenFile.getFilePointer();
+		// Get the file pointer
+		long variantGenotypeStartPosition = bgenFileReader.getFilePointer();
 
 		// Not sure if we want to do the buffer search here. Or we might be able to take a smaller set.
 		byte[] snpInfoBuffer = new byte[8];
-		this.bgenFile.read(snpInfoBuffer, 0, snpInfoBuffer.length);
+		bgenFileReader.read(snpInfoBuffer, 0, snpInfoBuffer.length);
 		int snpInfoBufferPos = 0;
 
 		VariantGenotypeBlockInfo variantGenotypeBlockInfo = null;
@@ -1272,7 +1333,15 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 
 	@Override
 	public void close() throws IOException {
-		bgenFile.close();
+		closed = true;
+		bgenFileChannel.close();
+		// The contexts of other threads can only be removed by those threads,
+		// release their buffers so only an empty context remains
+		ReadContext context;
+		while ((context = readContexts.poll()) != null) {
+			context.release();
+		}
+		readContext.remove();
 	}
 
 	@Override
@@ -1361,7 +1430,7 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 	@Override
 	public ReadOnlyGeneticVariantBgen extendReadOnlyGeneticVariantBgen(ReadOnlyGeneticVariantBgen variant) {
 		try {
-			return processVariantIdentifyingData(variant.getVariantReadingPosition());
+			return processVariantIdentifyingData(variant.getVariantReadingPosition(), getBgenFileReader());
 		} catch (IOException e) {
 			throw new GenotypeDataException(String.format(
 					"Could not read variant data %s at position %d%n",
@@ -1415,6 +1484,111 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 		}
 	}
 
+	/**
+	 * Decodes the dosages of multiple variants in parallel, using the common
+	 * fork-join pool. The dosages are equal to those of
+	 * {@link #getSampleDosage(GeneticVariant)}. For unphased layout 2 data
+	 * the dosages are calculated directly from the decompressed probabilities.
+	 * The sample variant cache is not used.
+	 *
+	 * @param variants The variants of this BGEN file to decode.
+	 * @param out Array of at least the number of variants. out[i] is set to the
+	 * dosages of variants.get(i). If out[i] already is an array with a length
+	 * equal to the number of samples it is reused.
+	 */
+	public void decodeVariants(List<GeneticVariant> variants, float[][] out) {
+		if (out.length < variants.size()) {
+			throw new IllegalArgumentException("Output array is smaller than the number of variants");
+		}
+		IntStream.range(0, variants.size()).parallel().forEach(i -> {
+			ReadOnlyGeneticVariantBgen bgenVariant = getCastedBgenVariant(variants.get(i));
+			try {
+				out[i] = readDosagesFromVariant(bgenVariant, out[i]);
+			} catch (IOException e) {
+				throw new GenotypeDataException(String.format(
+						"Could not read variant data %s at position %d%n",
+						bgenVariant.getPrimaryVariantId(), bgenVariant.getVariantReadingPosition()), e);
+			}
+		});
+	}
+
+	/**
+	 * Calculates the dosages of a variant without creating the intermediate
+	 * probability arrays for unphased biallelic layout 2 data. Other data is
+	 * converted the same way as in getSampleDosage.
+	 *
+	 * @param variant The variant to get the dosages for.
+	 * @param dosages Array to reuse if the length is equal to the number of
+	 * samples, can be null.
+	 * @return the dosages
+	 * @throws IOException If an I/O error has occured.
+	 */
+	private float[] readDosagesFromVariant(ReadOnlyGeneticVariantBgen variant, float[] dosages) throws IOException {
+		if (fileLayout != Layout.layOut_2 || !variant.isBiallelic()) {
+			return ProbabilitiesConvertor.convertProbabilitiesToDosage(
+					getSampleProbilities(variant), DEFAULT_MINIMUM_POSTERIOR_PROBABILITY_TO_CALL);
+		}
+
+		// Get the decompressed variant data of length D
+		byte[] variantBlockData = getDecompressedBlockData(variant);
+
+		if ((int) getUInt32(variantBlockData, 0) != sampleCount) {
+			throw new GenotypeDataException(String.format(
+					"BGEN file format error. "
+					+ "The variant's sample count (%d) does not match with the header (%d).",
+					sampleCount, (int) getUInt32(variantBlockData, 0)));
+		}
+		int numberOfAlleles = getUInt16(variantBlockData, 4);
+		// Ploidy and missingness of the samples start at byte 8
+		int ploidiesOffset = 8;
+		boolean phased = isPhased(variantBlockData, ploidiesOffset + sampleCount);
+		if (phased || numberOfAlleles != 2) {
+			return ProbabilitiesConvertor.convertProbabilitiesToDosage(
+					getSampleProbilities(variant), DEFAULT_MINIMUM_POSTERIOR_PROBABILITY_TO_CALL);
+		}
+
+		int probabilitiesLengthInBits = getUInt8(variantBlockData, ploidiesOffset + sampleCount + 1);
+		double maxValue = Math.pow(2, probabilitiesLengthInBits) - 1;
+		int bitOffset = (ploidiesOffset + sampleCount + 2) * 8;
+
+		if (dosages == null || dosages.length != sampleCount) {
+			dosages = new float[sampleCount];
+		}
+
+		for (int sampleIndex = 0; sampleIndex < sampleCount; sampleIndex++) {
+			int ploidyAndMissingness = variantBlockData[ploidiesOffset + sampleIndex];
+			// A biallelic variant has ploidy + 1 probabilities of which one is not stored
+			int ploidy = ploidyAndMissingness & 0x3F;
+
+			if ((ploidyAndMissingness & 0x80) != 0 || ploidy != 2) {
+				// Missing or not diploid, the probabilities are all zero
+				dosages[sampleIndex] = -1;
+			} else {
+				// Same calculation as computeApproximateProbabilities and convertProbabilitiesToDosage
+				double probability0 = readProbabilityValue(variantBlockData, bitOffset, probabilitiesLengthInBits);
+				double probability1 = readProbabilityValue(variantBlockData, bitOffset + probabilitiesLengthInBits, probabilitiesLengthInBits);
+				long sumOfProbabilities = (long) probability0;
+				sumOfProbabilities += probability1;
+
+				float prob0 = (float) (probability0 / maxValue);
+				float prob1 = (float) (probability1 / maxValue);
+				float prob2 = (float) ((maxValue - sumOfProbabilities) / maxValue);
+
+				if (prob0 >= DEFAULT_MINIMUM_POSTERIOR_PROBABILITY_TO_CALL
+						|| prob1 >= DEFAULT_MINIMUM_POSTERIOR_PROBABILITY_TO_CALL
+						|| prob2 >= DEFAULT_MINIMUM_POSTERIOR_PROBABILITY_TO_CALL) {
+					float dosage = (prob0 * 2) + prob1;
+					dosages[sampleIndex] = dosage > 2 ? 2 : dosage;
+				} else {
+					dosages[sampleIndex] = -1;
+				}
+			}
+
+			bitOffset += probabilitiesLengthInBits * ploidy;
+		}
+		return dosages;
+	}
+
 	private ReadOnlyGeneticVariantBgen getCastedBgenVariant(GeneticVariant variant) {
 		if (!(variant instanceof ReadOnlyGeneticVariantBgen)) {
 			throw new GenotypeDataException("Variant is not of type 'ReadOnlyGeneticVariantBgen' and thus cannot"
@@ -1676,6 +1850,73 @@ public class BgenGenotypeData extends AbstractRandomAccessGenotypeData implement
 		}
 	}
 
+	private ReadContext createReadContext() {
+		if (closed) {
+			throw new GenotypeDataException("Bgen file is closed");
+		}
+		ReadContext context = new ReadContext(new BgenFileReader(bgenFileChannel));
+		readContexts.add(context);
+		return context;
+	}
+
+	/**
+	 * @return the read context of the current thread
+	 */
+	private ReadContext getReadContext() {
+		ReadContext context = readContext.get();
+		if (context.bgenFileReader == null) {
+			throw new GenotypeDataException("Bgen file is closed");
+		}
+		return context;
+	}
+
+	/**
+	 * @return the file reader of the current thread
+	 */
+	private BgenFileReader getBgenFileReader() {
+		return getReadContext().bgenFileReader;
+	}
+
+	/**
+	 * The file reader, decompressor and reusable buffers of a single thread.
+	 */
+	private static final class ReadContext {
+
+		/**
+		 * Null after release
+		 */
+		private BgenFileReader bgenFileReader;
+		private final Inflater gzipInflater = new Inflater();
+		private final byte[] fieldBuffer = new byte[4];
+		private byte[] compressedBlockData = new byte[0];
+		private byte[] decompressedBlockData = new byte[0];
+
+		private ReadContext(BgenFileReader bgenFileReader) {
+			this.bgenFileReader = bgenFileReader;
+		}
+
+		private byte[] getCompressedBlockData(int length) {
+			if (compressedBlockData.length < length) {
+				compressedBlockData = new byte[length];
+			}
+			return compressedBlockData;
+		}
+
+		private byte[] getDecompressedBlockData(int length) {
+			if (decompressedBlockData.length < length) {
+				decompressedBlockData = new byte[length];
+			}
+			return decompressedBlockData;
+		}
+
+		private void release() {
+			gzipInflater.end();
+			bgenFileReader = null;
+			compressedBlockData = new byte[0];
+			decompressedBlockData = new byte[0];
+		}
+	}
+
 	/**
 	 * Represents information from a genotype data block within a BGEN file
 	 * format.
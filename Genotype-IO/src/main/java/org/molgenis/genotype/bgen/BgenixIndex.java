@@ -0,0 +1,465 @@
+package org.molgenis.genotype.bgen;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Compact read only copy of the variants in a bgenix file. The variants are
+ * stored as fixed size records, grouped by chromosome and sorted on position,
+ * so queries are binary searches without locking. The index is saved next to
+ * the bgenix file and memory mapped when the bgenix file is opened again.
+ *
+ * Layout: a header, the chromosome table, the variant records and the
+ * strings (rsids, alleles and chromosome names) each prefixed with their
+ * length.
+ */
+final class BgenixIndex {
+
+	private static final Logger LOGGER = Logger.getLogger(BgenixIndex.class);
+
+	private static final int MAGIC = 0x42474958; // BGIX
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 32;
+	private static final int CHROMOSOME_ENTRY_SIZE = 8;
+	/**
+	 * position, file start position, size in bytes, number of alleles,
+	 * rsid, allele 1 and allele 2 string offsets
+	 */
+	private static final int RECORD_SIZE = 32;
+	/**
+	 * Strings up to this length are stored only once
+	 */
+	private static final int MAX_SHARED_STRING_LENGTH = 4;
+
+	private final ByteBuffer buffer;
+	private final int variantCount;
+	private final String[] chromosomes;
+	/**
+	 * Index of first variant per chromosome, the last element is the variant
+	 * count
+	 */
+	private final int[] chromosomeStarts;
+	private final int recordsStart;
+	private final int stringsStart;
+
+	/**
+	 * Checks the complete index so a truncated or corrupt index file is
+	 * detected here and not while querying.
+	 *
+	 * @throws IOException if the index is not valid
+	 */
+	private BgenixIndex(ByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+			throw new IOException("Not a valid bgenix index");
+		}
+		variantCount = buffer.getInt(24);
+		int chromosomeCount = buffer.getInt(28);
+		if (variantCount < 0 || chromosomeCount < 0 || chromosomeCount > variantCount) {
+			throw new IOException("Corrupt bgenix index, invalid number of variants or chromosomes");
+		}
+		long recordsEnd = HEADER_SIZE + (long) chromosomeCount * CHROMOSOME_ENTRY_SIZE + (long) variantCount * RECORD_SIZE;
+		if (recordsEnd > buffer.capacity()) {
+			throw new IOException("Bgenix index is truncated");
+		}
+		recordsStart = HEADER_SIZE + chromosomeCount * CHROMOSOME_ENTRY_SIZE;
+		stringsStart = (int) recordsEnd;
+
+		chromosomes = new String[chromosomeCount];
+		chromosomeStarts = new int[chromosomeCount + 1];
+		for (int i = 0; i < chromosomeCount; ++i) {
+			int nameOffset = buffer.getInt(HEADER_SIZE + i * CHROMOSOME_ENTRY_SIZE);
+			checkString(nameOffset);
+			chromosomes[i] = getString(nameOffset);
+			chromosomeStarts[i] = buffer.getInt(HEADER_SIZE + i * CHROMOSOME_ENTRY_SIZE + 4);
+			// every chromosome has at least one variant
+			if (i == 0 ? chromosomeStarts[i] != 0 : chromosomeStarts[i] <= chromosomeStarts[i - 1]) {
+				throw new IOException("Corrupt bgenix index, invalid chromosome start");
+			}
+		}
+		chromosomeStarts[chromosomeCount] = variantCount;
+		if (chromosomeCount > 0 && chromosomeStarts[chromosomeCount - 1] >= variantCount) {
+			throw new IOException("Corrupt bgenix index, invalid chromosome start");
+		}
+
+		for (int c = 0; c < chromosomeCount; ++c) {
+			int previousPosition = Integer.MIN_VALUE;
+			for (int v = chromosomeStarts[c]; v < chromosomeStarts[c + 1]; ++v) {
+				int record = recordsStart + v * RECORD_SIZE;
+				int position = buffer.getInt(record);
+				if (position < previousPosition) {
+					throw new IOException("Corrupt bgenix index, variants not sorted");
+				}
+				previousPosition = position;
+				checkString(buffer.getInt(record + 20));
+				checkString(buffer.getInt(record + 24));
+				checkString(buffer.getInt(record + 28));
+			}
+		}
+	}
+
+	/**
+	 * Opens the saved index of a bgenix file, or creates it if it does not
+	 * exist or is outdated.
+	 *
+	 * @param dbConnection connection to the bgenix file
+	 * @param bgenixFile the bgenix file, if null the index is not saved
+	 * @return the index or null if the variants in the bgenix file are not
+	 * sorted or do not fit in an index
+	 */
+	static BgenixIndex load(Connection dbConnection, File bgenixFile) {
+
+		File indexFile = bgenixFile == null ? null : new File(bgenixFile.getPath() + ".idx");
+
+		if (indexFile != null && indexFile.isFile()) {
+			try {
+				BgenixIndex index = new BgenixIndex(mapIndexFile(indexFile));
+				if (index.buffer.getLong(8) == bgenixFile.length() && index.buffer.getLong(16) == bgenixFile.lastModified()) {
+					return index;
+				}
+				LOGGER.info("Bgenix index is outdated, recreating: " + indexFile.getAbsolutePath());
+			} catch (IOException | IndexOutOfBoundsException | BufferUnderflowException | IllegalArgumentException ex) {
+				LOGGER.warn("Unable to read bgenix index, recreating: " + indexFile.getAbsolutePath() + " Error: " + ex.getMessage());
+			}
+		}
+
+		ByteBuffer buffer;
+		try {
+			buffer = createIndex(dbConnection,
+					bgenixFile == null ? 0 : bgenixFile.length(),
+					bgenixFile == null ? 0 : bgenixFile.lastModified());
+		} catch (SQLException | IOException ex) {
+			LOGGER.warn("Unable to create bgenix index, querying bgenix file instead. Error: " + ex.getMessage());
+			return null;
+		}
+		if (buffer == null) {
+			return null;
+		}
+
+		if (indexFile != null) {
+			try {
+				writeIndexFile(buffer, indexFile);
+			} catch (IOException ex) {
+				LOGGER.warn("Unable to save bgenix index to: " + indexFile.getAbsolutePath() + " Error: " + ex.getMessage());
+			}
+		}
+
+		try {
+			return new BgenixIndex(buffer);
+		} catch (IOException ex) {
+			return null;
+		}
+	}
+
+	private static ByteBuffer mapIndexFile(File indexFile) throws IOException {
+		try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Index file too large");
+			}
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+	}
+
+	private static void writeIndexFile(ByteBuffer buffer, File indexFile) throws IOException {
+		File tmpFile = new File(indexFile.getPath() + ".tmp");
+		try (FileChannel channel = FileChannel.open(tmpFile.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			ByteBuffer data = buffer.duplicate();
+			data.clear();
+			while (data.hasRemaining()) {
+				channel.write(data);
+			}
+		}
+		Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Reads all variants of a bgenix file. The primary key of the variant
+	 * table starts with chromosome and position so the variants are read
+	 * grouped by chromosome and sorted on position, the same order as returned
+	 * by the queries on the bgenix file.
+	 *
+	 * @return the index data or null if not sorted or too large
+	 */
+	private static ByteBuffer createIndex(Connection dbConnection, long bgenixLength, long bgenixLastModified) throws SQLException, IOException {
+
+		List<String> chromosomes = new ArrayList<>();
+		int[] chromosomeStarts = new int[16];
+		int[] positions = new int[1024];
+		long[] fileStartPositions = new long[1024];
+		int[] sizes = new int[1024];
+		int[] alleleCounts = new int[1024];
+		int[] stringOffsets = new int[1024 * 3];
+		StringTable strings = new StringTable();
+		int count = 0;
+
+		String currentChromosome = null;
+		int previousPosition = Integer.MIN_VALUE;
+
+		try (Statement statement = dbConnection.createStatement();
+				ResultSet result = statement.executeQuery("SELECT * FROM Variant")) {
+			while (result.next()) {
+
+				String chromosome = result.getString("chromosome");
+				int position = result.getInt("position");
+
+				if (!chromosome.equals(currentChromosome)) {
+					if (chromosomes.contains(chromosome)) {
+						LOGGER.debug("Variants in bgenix file are not grouped by chromosome");
+						return null;
+					}
+					if (chromosomes.size() == chromosomeStarts.length) {
+						chromosomeStarts = Arrays.copyOf(chromosomeStarts, chromosomeStarts.length * 2);
+					}
+					chromosomeStarts[chromosomes.size()] = count;
+					chromosomes.add(chromosome);
+					currentChromosome = chromosome;
+				} else if (position < previousPosition) {
+					LOGGER.debug("Variants in bgenix file are not sorted on position");
+					return null;
+				}
+				previousPosition = position;
+
+				if (count == positions.length) {
+					if (positions.length > (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE / 2) {
+						LOGGER.debug("Too many variants in bgenix file for index");
+						return null;
+					}
+					int newLength = positions.length * 2;
+					positions = Arrays.copyOf(positions, newLength);
+					fileStartPositions = Arrays.copyOf(fileStartPositions, newLength);
+					sizes = Arrays.copyOf(sizes, newLength);
+					alleleCounts = Arrays.copyOf(alleleCounts, newLength);
+					stringOffsets = Arrays.copyOf(stringOffsets, newLength * 3);
+				}
+
+				positions[count] = position;
+				fileStartPositions[count] = result.getLong("file_start_position");
+				sizes[count] = result.getInt("size_in_bytes");
+				alleleCounts[count] = result.getInt("number_of_alleles");
+				stringOffsets[count * 3] = strings.add(result.getString("rsid"));
+				stringOffsets[count * 3 + 1] = strings.add(result.getString("allele1"));
+				stringOffsets[count * 3 + 2] = strings.add(result.getString("allele2"));
+				++count;
+			}
+		}
+
+		int[] chromosomeNameOffsets = new int[chromosomes.size()];
+		for (int i = 0; i < chromosomes.size(); ++i) {
+			chromosomeNameOffsets[i] = strings.add(chromosomes.get(i));
+		}
+
+		long size = HEADER_SIZE + (long) chromosomes.size() * CHROMOSOME_ENTRY_SIZE
+				+ (long) count * RECORD_SIZE + strings.size();
+		if (size > Integer.MAX_VALUE) {
+			LOGGER.debug("Too many variants in bgenix file for index");
+			return null;
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate((int) size);
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putLong(bgenixLength);
+		buffer.putLong(bgenixLastModified);
+		buffer.putInt(count);
+		buffer.putInt(chromosomes.size());
+		for (int i = 0; i < chromosomes.size(); ++i) {
+			buffer.putInt(chromosomeNameOffsets[i]);
+			buffer.putInt(chromosomeStarts[i]);
+		}
+		for (int i = 0; i < count; ++i) {
+			buffer.putInt(positions[i]);
+			buffer.putLong(fileStartPositions[i]);
+			buffer.putInt(sizes[i]);
+			buffer.putInt(alleleCounts[i]);
+			buffer.putInt(stringOffsets[i * 3]);
+			buffer.putInt(stringOffsets[i * 3 + 1]);
+			buffer.putInt(stringOffsets[i * 3 + 2]);
+		}
+		strings.writeTo(buffer);
+		buffer.clear();
+		return buffer;
+	}
+
+	int getVariantCount() {
+		return variantCount;
+	}
+
+	List<String> getChromosomes() {
+		return Collections.unmodifiableList(Arrays.asList(chromosomes));
+	}
+
+	/**
+	 * @return index of the chromosome or -1 if not present
+	 */
+	int getChromosomeIndex(String chromosome) {
+		for (int i = 0; i < chromosomes.length; ++i) {
+			if (chromosomes[i].equals(chromosome)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	int getChromosomeStart(int chromosomeIndex) {
+		return chromosomeStarts[chromosomeIndex];
+	}
+
+	int getChromosomeEnd(int chromosomeIndex) {
+		return chromosomeStarts[chromosomeIndex + 1];
+	}
+
+	/**
+	 * @return index of the first variant on the chromosome with a position
+	 * larger or equal to position, or the end of the chromosome
+	 */
+	int getFirstVariantFrom(int chromosomeIndex, int position) {
+		int low = chromosomeStarts[chromosomeIndex];
+		int high = chromosomeStarts[chromosomeIndex + 1];
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (getPosition(mid) < position) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @return index of the first variant on the chromosome with a position
+	 * larger than position, or the end of the chromosome
+	 */
+	int getFirstVariantAfter(int chromosomeIndex, int position) {
+		int low = chromosomeStarts[chromosomeIndex];
+		int high = chromosomeStarts[chromosomeIndex + 1];
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (getPosition(mid) <= position) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private int getPosition(int variantIndex) {
+		return buffer.getInt(recordsStart + variantIndex * RECORD_SIZE);
+	}
+
+	BgenixVariantData getVariant(int variantIndex) {
+		// Every chromosome has at least one variant so the starts are unique
+		int chromosomeIndex = Arrays.binarySearch(chromosomeStarts, variantIndex);
+		if (chromosomeIndex < 0) {
+			chromosomeIndex = -chromosomeIndex - 2;
+		}
+
+		int record = recordsStart + variantIndex * RECORD_SIZE;
+		return new BgenixVariantData(
+				chromosomes[chromosomeIndex],
+				buffer.getInt(record),
+				getString(buffer.getInt(record + 20)),
+				buffer.getInt(record + 16),
+				getString(buffer.getInt(record + 24)),
+				getString(buffer.getInt(record + 28)),
+				buffer.getLong(record + 4),
+				buffer.getInt(record + 12));
+	}
+
+	/**
+	 * @throws IOException if the string at offset is not within the index
+	 */
+	private void checkString(int offset) throws IOException {
+		if (offset == -1) {
+			return;
+		}
+		long stringsLength = buffer.capacity() - stringsStart;
+		if (offset < 0 || offset + 4L > stringsLength) {
+			throw new IOException("Corrupt bgenix index, invalid string offset");
+		}
+		int length = buffer.getInt(stringsStart + offset);
+		if (length < 0 || offset + 4L + length > stringsLength) {
+			throw new IOException("Corrupt bgenix index, invalid string length");
+		}
+	}
+
+	private String getString(int offset) {
+		if (offset < 0) {
+			return null;
+		}
+		ByteBuffer data = buffer.duplicate();
+		data.position(stringsStart + offset);
+		byte[] bytes = new byte[data.getInt()];
+		data.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Strings prefixed with their length in bytes
+	 */
+	private static final class StringTable {
+
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private final DataOutputStream output = new DataOutputStream(bytes);
+		private final Map<String, Integer> sharedStrings = new HashMap<>();
+
+		/**
+		 * @return offset of the string or -1 for null
+		 */
+		private int add(String string) throws IOException {
+			if (string == null) {
+				return -1;
+			}
+			if (string.length() <= MAX_SHARED_STRING_LENGTH) {
+				Integer offset = sharedStrings.get(string);
+				if (offset != null) {
+					return offset;
+				}
+			}
+			if (output.size() > Integer.MAX_VALUE / 2) {
+				throw new IOException("Too many variants in bgenix file for index");
+			}
+			int offset = output.size();
+			byte[] stringBytes = string.getBytes(StandardCharsets.UTF_8);
+			output.writeInt(stringBytes.length);
+			output.write(stringBytes);
+			if (string.length() <= MAX_SHARED_STRING_LENGTH) {
+				sharedStrings.put(string, offset);
+			}
+			return offset;
+		}
+
+		private int size() {
+			return output.size();
+		}
+
+		private void writeTo(ByteBuffer buffer) throws IOException {
+			output.flush();
+			buffer.put(bytes.toByteArray());
+		}
+	}
+
+}
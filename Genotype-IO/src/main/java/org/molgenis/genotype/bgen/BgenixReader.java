@@ -13,12 +13,16 @@ import java.util.LinkedHashSet;
 import org.molgenis.genotype.GenotypeDataException;
 
 /**
+ * Reads a bgenix file. Variant queries use a {@link BgenixIndex} of the
+ * bgenix file if possible, these queries do not lock and can be used by
+ * multiple threads at the same time.
  *
  * @author Patrick Deelen
  */
 public class BgenixReader {
 
 	private final Connection dbConnection;
+	private final BgenixIndex index;
 	private final PreparedStatement queryByChromosome;
 	private final PreparedStatement queryByPosition;
 	private final PreparedStatement queryByRange;
@@ -26,11 +30,25 @@ public class BgenixReader {
 	private final PreparedStatement queryAll;
 	private final PreparedStatement countAll;
 
+	/**
+	 * The index of the bgenix file is saved next to the bgenix file
+	 *
+	 * @param bgenixFile
+	 */
 	public BgenixReader(File bgenixFile) {
-		this(createNewConnection(bgenixFile));
+		this(createNewConnection(bgenixFile), bgenixFile);
 	}
 
+	/**
+	 * The index of the bgenix file is only kept in memory
+	 *
+	 * @param dbConnection
+	 */
 	public BgenixReader(Connection dbConnection) {
+		this(dbConnection, null);
+	}
+
+	private BgenixReader(Connection dbConnection, File bgenixFile) {
 		this.dbConnection = dbConnection;
 
 		try {
@@ -44,6 +62,8 @@ public class BgenixReader {
 			throw new GenotypeDataException("Unable to load bgenix file. Error: " + ex.getMessage(), ex);
 		}
 
+		index = BgenixIndex.load(dbConnection, bgenixFile);
+
 	}
 
 	public static Connection createNewConnection(File bgenixFile) {
@@ -65,7 +85,18 @@ public class BgenixReader {
 		return newDbConnection;
 	}
 
-	public synchronized BgenixVariantQueryResult getVariantsChromosome(String chr) {
+	public BgenixVariantQueryResult getVariantsChromosome(String chr) {
+		if (index != null) {
+			int chrIndex = index.getChromosomeIndex(chr);
+			if (chrIndex < 0) {
+				return new BgenixVariantQueryResult(index, 0, 0);
+			}
+			return new BgenixVariantQueryResult(index, index.getChromosomeStart(chrIndex), index.getChromosomeEnd(chrIndex));
+		}
+		return queryVariantsChromosome(chr);
+	}
+
+	private synchronized BgenixVariantQueryResult queryVariantsChromosome(String chr) {
 		try {
 			queryByChromosome.setString(1, chr);
 			return new BgenixVariantQueryResult(queryByChromosome.executeQuery());
@@ -74,7 +105,18 @@ public class BgenixReader {
 		}
 	}
 
-	public synchronized BgenixVariantQueryResult getVariantsPostion(String chr, int position) {
+	public BgenixVariantQueryResult getVariantsPostion(String chr, int position) {
+		if (index != null) {
+			int chrIndex = index.getChromosomeIndex(chr);
+			if (chrIndex < 0) {
+				return new BgenixVariantQueryResult(index, 0, 0);
+			}
+			return new BgenixVariantQueryResult(index, index.getFirstVariantFrom(chrIndex, position), index.getFirstVariantAfter(chrIndex, position));
+		}
+		return queryVariantsPostion(chr, position);
+	}
+
+	private synchronized BgenixVariantQueryResult queryVariantsPostion(String chr, int position) {
 		try {
 			queryByPosition.setString(1, chr);
 			queryByPosition.setInt(2, position);
@@ -84,7 +126,18 @@ public class BgenixReader {
 		}
 	}
 
-	public synchronized BgenixVariantQueryResult getVariantsRange(String chr, int from, int to) {
+	public BgenixVariantQueryResult getVariantsRange(String chr, int from, int to) {
+		if (index != null) {
+			int chrIndex = index.getChromosomeIndex(chr);
+			if (chrIndex < 0 || from > to) {
+				return new BgenixVariantQueryResult(index, 0, 0);
+			}
+			return new BgenixVariantQueryResult(index, index.getFirstVariantFrom(chrIndex, from), index.getFirstVariantAfter(chrIndex, to));
+		}
+		return queryVariantsRange(chr, from, to);
+	}
+
+	private synchronized BgenixVariantQueryResult queryVariantsRange(String chr, int from, int to) {
 		try {
 			queryByRange.setString(1, chr);
 			queryByRange.setInt(2, from);
@@ -95,7 +148,14 @@ public class BgenixReader {
 		}
 	}
 	
-	public synchronized BgenixVariantQueryResult getVariants() {
+	public BgenixVariantQueryResult getVariants() {
+		if (index != null) {
+			return new BgenixVariantQueryResult(index, 0, index.getVariantCount());
+		}
+		return queryVariants();
+	}
+
+	private synchronized BgenixVariantQueryResult queryVariants() {
 		try {
 			return new BgenixVariantQueryResult(queryAll.executeQuery());
 		} catch (SQLException ex) {
@@ -103,7 +163,14 @@ public class BgenixReader {
 		}
 	}
 
-	public synchronized LinkedHashSet<String> getChromosomes() {
+	public LinkedHashSet<String> getChromosomes() {
+		if (index != null) {
+			return new LinkedHashSet<>(index.getChromosomes());
+		}
+		return queryChromosomes();
+	}
+
+	private synchronized LinkedHashSet<String> queryChromosomes() {
 		try {
 			LinkedHashSet<String> sequences = new LinkedHashSet<>();
 			ResultSet chromosomeColumnResult = queryChromosomes.executeQuery();
@@ -116,7 +183,14 @@ public class BgenixReader {
 		}
 	}
 	
-	public synchronized int getVariantCount() {
+	public int getVariantCount() {
+		if (index != null) {
+			return index.getVariantCount();
+		}
+		return queryVariantCount();
+	}
+
+	private synchronized int queryVariantCount() {
 		try {
 			ResultSet countResult = countAll.executeQuery();
 			countResult.next();
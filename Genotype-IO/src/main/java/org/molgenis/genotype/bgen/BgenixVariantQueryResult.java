@@ -21,17 +21,40 @@ import org.molgenis.genotype.GenotypeDataException;
 public class BgenixVariantQueryResult implements Iterator<BgenixVariantData>, Closeable {
 
 	private final ResultSet result;
+	private final BgenixIndex index;
+	private int nextIndex;
+	private final int endIndex;
 	private boolean resultClosed;
 	private boolean hasNext;
 	private boolean didNext;
 
 	public BgenixVariantQueryResult(ResultSet resultSet) {
 		this.result = resultSet;
+		this.index = null;
+		this.endIndex = 0;
+	}
+
+	/**
+	 * Result with variants from the index
+	 *
+	 * @param index
+	 * @param startIndex first variant
+	 * @param endIndex end (exclusive)
+	 */
+	BgenixVariantQueryResult(BgenixIndex index, int startIndex, int endIndex) {
+		this.result = null;
+		this.index = index;
+		this.nextIndex = startIndex;
+		this.endIndex = endIndex;
 	}
 
 	@Override
 	public boolean hasNext() {
 		
+		if (index != null) {
+			return nextIndex < endIndex;
+		}
+
 		if(resultClosed){
 			return false;
 		}
@@ -57,6 +80,13 @@ public class BgenixVariantQueryResult implements Iterator<BgenixVariantData>, Cl
 	@Override
 	public BgenixVariantData next() {
 		
+		if (index != null) {
+			if (nextIndex >= endIndex) {
+				throw new GenotypeDataException("No more variants in query");
+			}
+			return index.getVariant(nextIndex++);
+		}
+
 		if(resultClosed){
 			throw new GenotypeDataException("Connection to bgenix already closed");
 		}
@@ -103,6 +133,10 @@ public class BgenixVariantQueryResult implements Iterator<BgenixVariantData>, Cl
 	
 	@Override
 	public void close() throws IOException {
+		if (index != null) {
+			nextIndex = endIndex;
+			return;
+		}
 		try {
 			if (!resultClosed) {
 				result.close();
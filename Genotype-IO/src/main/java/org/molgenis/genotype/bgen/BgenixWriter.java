@@ -102,11 +102,10 @@ public class BgenixWriter {
 	}
 
 	/**
-	 * Finalize writing variants and meta data to bgenix file.
-	 *
-	 * @return db connection for use as index
+	 * Finalize writing variants and meta data to bgenix file and close it.
+	 * Use a {@link BgenixReader} on the file to read the index.
 	 */
-	public BgenixReader finalizeIndex() {
+	public void finalizeIndex() {
 
 		try {
 
@@ -116,7 +115,8 @@ public class BgenixWriter {
 			}
 
 			dbConnection.setAutoCommit(true);//this is the default. Not sure if needed to set to true but just to be sure
-			return new BgenixReader(dbConnection);
+			addVariantStatement.close();
+			dbConnection.close();
 
 		} catch (SQLException ex) {
 			throw new GenotypeDataException("Unable to finalize bgenix file. Error: " + ex.getMessage(), ex);
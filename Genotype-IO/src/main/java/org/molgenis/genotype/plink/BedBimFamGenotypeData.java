@@ -12,8 +12,12 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -61,6 +65,15 @@ public class BedBimFamGenotypeData extends AbstractRandomAccessGenotypeData impl
 	private static final int HETEROZYGOTE = 2;
 	private static final int MISSING = 1;
 	private static final Alleles BI_ALLELIC_MISSING = Alleles.createAlleles(Allele.ZERO, Allele.ZERO);
+	/**
+	 * The 2-bit genotype codes of the 4 samples in each possible BED byte,
+	 * code of sample i in byte b at (b << 2) + i
+	 */
+	private static final byte[] GENOTYPE_CODES = createGenotypeCodes();
+	/**
+	 * Maximum size of a memory mapped part of the BED file
+	 */
+	private static final long MAX_MAPPED_BYTES = Integer.MAX_VALUE;
 	private static final org.apache.log4j.Logger LOGGER = org.apache.log4j.Logger.getLogger(BedBimFamGenotypeWriter.class);
 	private static final Charset FILE_ENCODING = Charset.forName("UTF-8");
 	private final ArrayList<Sample> samples;
@@ -69,6 +82,11 @@ public class BedBimFamGenotypeData extends AbstractRandomAccessGenotypeData impl
 	private final GeneticVariantRange snps;
 	private final TObjectIntHashMap<GeneticVariant> snpIndexces;
 	private final RandomAccessFile bedFileReader;
+	/**
+	 * Elements are set to null on close
+	 */
+	private final MappedByteBuffer[] bedFileBuffers;
+	private final int variantsPerBuffer;
 	private final SampleVariantsProvider sampleVariantProvider;
 	private final int sampleVariantProviderUniqueId;
 	private final int cacheSize;
@@ -89,6 +107,14 @@ public class BedBimFamGenotypeData extends AbstractRandomAccessGenotypeData impl
 	}
 
 	public BedBimFamGenotypeData(File bedFile, File bimFile, File famFile, int cacheSize) throws IOException {
+		this(bedFile, bimFile, famFile, cacheSize, MAX_MAPPED_BYTES);
+	}
+
+	/**
+	 * @param maxMappedBytes maximum size of a memory mapped part of the BED
+	 * file, parts always contain at least one variant
+	 */
+	BedBimFamGenotypeData(File bedFile, File bimFile, File famFile, int cacheSize, long maxMappedBytes) throws IOException {
 
 		if (bedFile == null) {
 			throw new IllegalArgumentException("BedFile is null");
@@ -151,17 +177,33 @@ public class BedBimFamGenotypeData extends AbstractRandomAccessGenotypeData impl
 
 		//Check first two bytes for magic number
 		bedFileReader = new RandomAccessFile(bedFile, "r");
-		if (bedFileReader.read() != MAGIC_NUMBER_1 || bedFileReader.read() != MAGIC_NUMBER_2) {
-			throw new GenotypeDataException("Error reading plink BED file, magic number not found. " + bedFile.getAbsolutePath());
-		}
+		try {
+			if (bedFileReader.read() != MAGIC_NUMBER_1 || bedFileReader.read() != MAGIC_NUMBER_2) {
+				throw new GenotypeDataException("Error reading plink BED file, magic number not found. " + bedFile.getAbsolutePath());
+			}
 
-		int bedFileMode = bedFileReader.read();
-		if (bedFileMode != MODE) {
-			if (bedFileMode == 0) {
-				throw new GenotypeDataException("Error reading BED file, only SNP major mode is supported. " + bedFile.getAbsolutePath());
-			} else {
-				throw new GenotypeDataException("Error reading BED file, ivalid mode byte detected. " + bedFile.getAbsolutePath());
+			int bedFileMode = bedFileReader.read();
+			if (bedFileMode != MODE) {
+				if (bedFileMode == 0) {
+					throw new GenotypeDataException("Error reading BED file, only SNP major mode is supported. " + bedFile.getAbsolutePath());
+				} else {
+					throw new GenotypeDataException("Error reading BED file, ivalid mode byte detected. " + bedFile.getAbsolutePath());
+				}
 			}
+
+			//Map the variants in parts of at most 2GB, each containing only complete variants
+			variantsPerBuffer = bytesPerVariant == 0 ? Integer.MAX_VALUE : (int) Math.max(1, Math.min(Integer.MAX_VALUE, maxMappedBytes / bytesPerVariant));
+			int bufferCount = originalSnpCount == 0 ? 0 : ((originalSnpCount - 1) / variantsPerBuffer) + 1;
+			bedFileBuffers = new MappedByteBuffer[bufferCount];
+			FileChannel bedFileChannel = bedFileReader.getChannel();
+			for (int i = 0; i < bufferCount; ++i) {
+				long firstVariant = (long) i * variantsPerBuffer;
+				long variantCount = Math.min(variantsPerBuffer, originalSnpCount - firstVariant);
+				bedFileBuffers[i] = bedFileChannel.map(FileChannel.MapMode.READ_ONLY, firstVariant * bytesPerVariant + 3, variantCount * bytesPerVariant);
+			}
+		} catch (IOException | RuntimeException ex) {
+			bedFileReader.close();
+			throw ex;
 		}
 
 	}
@@ -181,8 +223,14 @@ public class BedBimFamGenotypeData extends AbstractRandomAccessGenotypeData impl
 		return Collections.unmodifiableList(samples);
 	}
 
+	/**
+	 * Closes the BED file and drops the memory mapped parts. The mappings are
+	 * released by the garbage collector once reads that are still running
+	 * have finished, unmapping them directly is not safe for those reads.
+	 */
 	@Override
 	public void close() throws IOException {
+		Arrays.fill(bedFileBuffers, null);
 		bedFileReader.close();
 	}
 
@@ -214,68 +262,82 @@ public class BedBimFamGenotypeData extends AbstractRandomAccessGenotypeData impl
 	@Override
 	public List<Alleles> getSampleVariants(GeneticVariant variant) {
 
+		byte[] variantBytes = readVariantBytes(variant);
+		Alleles[] codeAlleles = getCodeAlleles(variant);
+
+		Alleles[] alleles = new Alleles[samples.size()];
+
+		int sampleCounter = 0;
+		for (int variantByte : variantBytes) {
+			int codesOffset = (variantByte & 0xFF) << 2;
+			for (int i = 0; i < 4 && sampleCounter < alleles.length; ++i) {
+				alleles[sampleCounter++] = codeAlleles[GENOTYPE_CODES[codesOffset + i]];
+			}
+		}
+
+		return Collections.unmodifiableList(Arrays.asList(alleles));
+
+	}
+
+	/**
+	 * Reads the packed genotypes of a variant. Safe to use from multiple
+	 * threads.
+	 */
+	private byte[] readVariantBytes(GeneticVariant variant) {
+
 		int index = snpIndexces.get(variant);
 		
 		if(index == -1){
 			throw new GenotypeDataException("Error reading variant from bed file. ID: " + variant.getPrimaryVariantId() + " chr: " + variant.getSequenceName() + " pos: " + variant.getStartPos() + " alleles" + variant.getVariantAlleles().toString());
 		}
 
-		long startByte = (index * bytesPerVariant) + 3;
+		MappedByteBuffer bedFileBuffer = bedFileBuffers[index / variantsPerBuffer];
+		if (bedFileBuffer == null) {
+			throw new GenotypeDataException("Error reading variant from bed file, file is closed. ID: " + variant.getPrimaryVariantId());
+		}
 
-		long stopByte = startByte + bytesPerVariant;
+		//Duplicate to get an independent position, the content is shared
+		ByteBuffer buffer = bedFileBuffer.duplicate();
+		buffer.position((int) ((index % variantsPerBuffer) * bytesPerVariant));
 
-		byte[] variantBytes = new byte[(int) (stopByte - startByte)];
-		try {
-			bedFileReader.seek(startByte);
-			if (bedFileReader.read(variantBytes) != variantBytes.length) {
-				throw new GenotypeDataException("Error reading bed file");
-			}
-		} catch (IOException ex) {
-			throw new GenotypeDataException("Error reading bed file", ex);
+		byte[] variantBytes = new byte[(int) bytesPerVariant];
+		buffer.get(variantBytes);
+
+		//Check the padding bits of the last byte
+		int paddingSamples = variantBytes.length * 4 - samples.size();
+		if (paddingSamples > 0 && (variantBytes[variantBytes.length - 1] & 0xFF) >>> ((4 - paddingSamples) * 2) != 0) {
+			throw new GenotypeDataException("Error reading BED file, found data in padding bits of variant: " + variant.getPrimaryVariantId());
 		}
 
-		ArrayList<Alleles> alleles = new ArrayList<Alleles>(samples.size());
+		return variantBytes;
+
+	}
+
+	/**
+	 * @return the alleles of each of the 4 genotype codes
+	 */
+	private static Alleles[] getCodeAlleles(GeneticVariant variant) {
 
 		Alleles heterozygote = variant.getVariantAlleles();
-		Alleles homozygoteFirst = Alleles.createAlleles(heterozygote.get(0), heterozygote.get(0));
-		Alleles homozygoteSecond = Alleles.createAlleles(heterozygote.get(1), heterozygote.get(1));
 
-		int sampleCounter = 0;
+		Alleles[] codeAlleles = new Alleles[4];
+		codeAlleles[HOMOZYGOTE_FIRST] = Alleles.createAlleles(heterozygote.get(0), heterozygote.get(0));
+		codeAlleles[HOMOZYGOTE_SECOND] = Alleles.createAlleles(heterozygote.get(1), heterozygote.get(1));
+		codeAlleles[HETEROZYGOTE] = heterozygote;
+		codeAlleles[MISSING] = BI_ALLELIC_MISSING;
+		return codeAlleles;
 
-		for (int variantByte : variantBytes) {
+	}
 
-			for (int i = 0; i < 4; ++i) {
+	private static byte[] createGenotypeCodes() {
 
-				if (sampleCounter < samples.size()) {
-					switch (variantByte & READER_MASK) {
-						case HOMOZYGOTE_FIRST:
-							alleles.add(homozygoteFirst);
-							break;
-						case HOMOZYGOTE_SECOND:
-							alleles.add(homozygoteSecond);
-							break;
-						case HETEROZYGOTE:
-							alleles.add(heterozygote);
-							break;
-						case MISSING:
-							alleles.add(BI_ALLELIC_MISSING);
-							break;
-						default:
-							throw new GenotypeDataException("Error reading BED, this should not be reachable");
-					}
-				} else {
-					if ((variantByte & READER_MASK) != 0) {
-						throw new GenotypeDataException("Error reading BED file, found data in padding bits of variant: " + variant.getPrimaryVariantId());
-					}
-				}
-				variantByte = variantByte >>> 2;
-				++sampleCounter;
+		byte[] genotypeCodes = new byte[256 * 4];
+		for (int variantByte = 0; variantByte < 256; ++variantByte) {
+			for (int i = 0; i < 4; ++i) {
+				genotypeCodes[(variantByte << 2) + i] = (byte) ((variantByte >>> (i * 2)) & READER_MASK);
 			}
-
 		}
-
-
-		return Collections.unmodifiableList(alleles);
+		return genotypeCodes;
 
 	}
 
@@ -301,14 +363,29 @@ public class BedBimFamGenotypeData extends AbstractRandomAccessGenotypeData impl
 
 	@Override
 	public byte[] getSampleCalledDosage(GeneticVariant variant) {
-		return CalledDosageConvertor.convertCalledAllelesToCalledDosage(getSampleVariants(variant),
+
+		byte[] variantBytes = readVariantBytes(variant);
+
+		//Convert the 4 possible genotypes once, so the samples only need a table lookup
+		byte[] codeDosages = CalledDosageConvertor.convertCalledAllelesToCalledDosage(Arrays.asList(getCodeAlleles(variant)),
 				variant.getVariantAlleles(), variant.getRefAllele());
+
+		byte[] calledDosages = new byte[samples.size()];
+
+		int sampleCounter = 0;
+		for (int variantByte : variantBytes) {
+			int codesOffset = (variantByte & 0xFF) << 2;
+			for (int i = 0; i < 4 && sampleCounter < calledDosages.length; ++i) {
+				calledDosages[sampleCounter++] = codeDosages[GENOTYPE_CODES[codesOffset + i]];
+			}
+		}
+
+		return calledDosages;
 	}
 
 	@Override
 	public float[] getSampleDosage(GeneticVariant variant) {
-		return CalledDosageConvertor.convertCalledAllelesToDosage(getSampleVariants(variant),
-				variant.getVariantAlleles(), variant.getRefAllele());
+		return CalledDosageConvertor.convertCalledDosageToDosage(getSampleCalledDosage(variant));
 	}
 
 	private void readFamFile(File famFile) throws FileNotFoundException, IOException {
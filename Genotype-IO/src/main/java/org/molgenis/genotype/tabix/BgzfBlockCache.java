@@ -0,0 +1,200 @@
+package org.molgenis.genotype.tabix;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.molgenis.genotype.util.WeightedCache;
+
+/**
+ * Reads and caches the decompressed blocks of a BGZF (bgzip) file. The file is
+ * opened once and read with positional reads, so one instance can be shared by
+ * any number of streams and threads. The least recently used blocks are
+ * evicted when the decompressed data exceeds the maximum cache size.
+ *
+ * Use a {@link CachedBlockCompressedInputStream} to read from the cached
+ * blocks.
+ */
+public class BgzfBlockCache implements Closeable
+{
+	private static final int BLOCK_HEADER_LENGTH = 18;
+	private static final int BLOCK_FOOTER_LENGTH = 8;
+	private static final int GZIP_ID1 = 31;
+	private static final int GZIP_ID2 = 139;
+	private static final int GZIP_FLG_EXTRA = 4;
+	private static final int BGZF_XLEN = 6;
+	private static final int BGZF_ID1 = 'B';
+	private static final int BGZF_ID2 = 'C';
+
+	private final File bgzipFile;
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final long fileLength;
+	private final WeightedCache<Long, Block> cache;
+
+	public BgzfBlockCache(File bgzipFile, long maxCacheBytes) throws IOException
+	{
+		this.bgzipFile = bgzipFile;
+		this.file = new RandomAccessFile(bgzipFile, "r");
+		this.channel = file.getChannel();
+		this.fileLength = channel.size();
+		this.cache = new WeightedCache<Long, Block>(Integer.MAX_VALUE, maxCacheBytes);
+	}
+
+	/**
+	 * @param blockAddress
+	 *            position of the block in the compressed file
+	 * @return the block or null if blockAddress is at the end of the file
+	 * @throws IOException
+	 */
+	public Block getBlock(long blockAddress) throws IOException
+	{
+		if (blockAddress >= fileLength) return null;
+
+		Long key = blockAddress;
+		Block block = cache.get(key);
+		if (block == null)
+		{
+			block = readBlock(blockAddress);
+			block = cache.putIfAbsent(key, block, block.data.length);
+		}
+		return block;
+	}
+
+	private Block readBlock(long blockAddress) throws IOException
+	{
+		ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_LENGTH);
+		readFully(header, blockAddress);
+		byte[] headerBytes = header.array();
+
+		if ((headerBytes[0] & 0xFF) != GZIP_ID1 || (headerBytes[1] & 0xFF) != GZIP_ID2
+				|| (headerBytes[3] & GZIP_FLG_EXTRA) == 0 || unpackInt16(headerBytes, 10) != BGZF_XLEN
+				|| headerBytes[12] != BGZF_ID1 || headerBytes[13] != BGZF_ID2)
+		{
+			throw new IOException("Invalid BGZF block header at " + blockAddress + " in " + bgzipFile.getAbsolutePath());
+		}
+
+		int blockLength = unpackInt16(headerBytes, 16) + 1;
+		if (blockLength < BLOCK_HEADER_LENGTH + BLOCK_FOOTER_LENGTH)
+		{
+			throw new IOException("Invalid BGZF block size at " + blockAddress + " in " + bgzipFile.getAbsolutePath());
+		}
+
+		ByteBuffer remaining = ByteBuffer.allocate(blockLength - BLOCK_HEADER_LENGTH);
+		readFully(remaining, blockAddress + BLOCK_HEADER_LENGTH);
+		byte[] compressed = remaining.array();
+
+		int compressedDataLength = compressed.length - BLOCK_FOOTER_LENGTH;
+		byte[] data = new byte[unpackInt32(compressed, compressedDataLength + 4)];
+
+		Inflater inflater = new Inflater(true);
+		try
+		{
+			inflater.setInput(compressed, 0, compressedDataLength);
+			int inflated = 0;
+			while (inflated < data.length && !inflater.finished())
+			{
+				int count = inflater.inflate(data, inflated, data.length - inflated);
+				if (count == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+				{
+					break;
+				}
+				inflated += count;
+			}
+			if (inflated != data.length)
+			{
+				throw new IOException("Did not inflate expected amount of data for BGZF block at " + blockAddress + " in "
+						+ bgzipFile.getAbsolutePath());
+			}
+		}
+		catch (DataFormatException e)
+		{
+			throw new IOException("Error inflating BGZF block at " + blockAddress + " in " + bgzipFile.getAbsolutePath(), e);
+		}
+		finally
+		{
+			inflater.end();
+		}
+
+		return new Block(data, blockLength);
+	}
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException
+	{
+		while (buffer.hasRemaining())
+		{
+			if (channel.read(buffer, position + buffer.position()) < 0)
+			{
+				throw new IOException("Unexpected end of BGZF file at " + (position + buffer.position()) + " in "
+						+ bgzipFile.getAbsolutePath());
+			}
+		}
+	}
+
+	private static int unpackInt16(byte[] buffer, int offset)
+	{
+		return (buffer[offset] & 0xFF) | ((buffer[offset + 1] & 0xFF) << 8);
+	}
+
+	private static int unpackInt32(byte[] buffer, int offset)
+	{
+		return (buffer[offset] & 0xFF) | ((buffer[offset + 1] & 0xFF) << 8) | ((buffer[offset + 2] & 0xFF) << 16)
+				| ((buffer[offset + 3] & 0xFF) << 24);
+	}
+
+	public File getBgzipFile()
+	{
+		return bgzipFile;
+	}
+
+	/**
+	 * @return estimated number of bytes of the cached decompressed blocks
+	 */
+	public long getCacheBytes()
+	{
+		return cache.getWeight();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		cache.clear();
+		file.close();
+	}
+
+	/**
+	 * A decompressed BGZF block
+	 */
+	public static final class Block
+	{
+		private final byte[] data;
+		private final int compressedLength;
+
+		private Block(byte[] data, int compressedLength)
+		{
+			this.data = data;
+			this.compressedLength = compressedLength;
+		}
+
+		/**
+		 * @return the decompressed data, must not be modified
+		 */
+		public byte[] getData()
+		{
+			return data;
+		}
+
+		/**
+		 * @return the size of the block in the compressed file
+		 */
+		public int getCompressedLength()
+		{
+			return compressedLength;
+		}
+	}
+}
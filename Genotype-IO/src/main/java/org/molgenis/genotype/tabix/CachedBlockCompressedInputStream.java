@@ -0,0 +1,180 @@
+package org.molgenis.genotype.tabix;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import net.sf.samtools.util.BlockCompressedInputStream;
+
+import org.molgenis.genotype.tabix.BgzfBlockCache.Block;
+
+/**
+ * BlockCompressedInputStream that reads the decompressed blocks from a shared
+ * {@link BgzfBlockCache}. The stream itself holds no file handle, so it is
+ * cheap to create one per query. A single stream must not be used by multiple
+ * threads at the same time.
+ *
+ * Supports the methods used to query a tabix index: seek, getFilePointer,
+ * readLine and read.
+ */
+public class CachedBlockCompressedInputStream extends BlockCompressedInputStream
+{
+	private static final byte EOL = '\n';
+	private static final byte EOL_CR = '\r';
+	private static final Charset CHARSET_UTF8 = Charset.forName("UTF-8");
+
+	private final BgzfBlockCache blockCache;
+	private long blockAddress = 0;
+	private Block block = null;
+	private int offset = 0;
+	private byte[] lineBuffer = new byte[1024];
+
+	public CachedBlockCompressedInputStream(BgzfBlockCache blockCache)
+	{
+		super(new ByteArrayInputStream(new byte[0]));
+		this.blockCache = blockCache;
+	}
+
+	/**
+	 * Moves to the next block if the current block is completely read
+	 *
+	 * @return number of bytes available in the current block, 0 at the end of
+	 *         the file
+	 * @throws IOException
+	 */
+	@Override
+	public int available() throws IOException
+	{
+		if (block == null)
+		{
+			block = blockCache.getBlock(blockAddress);
+			offset = 0;
+			if (block == null) return 0;
+		}
+		while (offset == block.getData().length)
+		{
+			Block nextBlock = blockCache.getBlock(blockAddress + block.getCompressedLength());
+			if (nextBlock == null) return 0;
+			blockAddress += block.getCompressedLength();
+			block = nextBlock;
+			offset = 0;
+		}
+		return block.getData().length - offset;
+	}
+
+	@Override
+	public void seek(long pos) throws IOException
+	{
+		long newBlockAddress = pos >>> 16;
+		int newOffset = (int) (pos & 0xFFFF);
+
+		if (block == null || newBlockAddress != blockAddress)
+		{
+			Block newBlock = blockCache.getBlock(newBlockAddress);
+			if (newBlock == null)
+			{
+				throw new IOException("Invalid file pointer: " + pos + " for " + blockCache.getBgzipFile().getAbsolutePath());
+			}
+			block = newBlock;
+			blockAddress = newBlockAddress;
+		}
+
+		if (newOffset > block.getData().length)
+		{
+			throw new IOException("Invalid file pointer: " + pos + " for " + blockCache.getBgzipFile().getAbsolutePath());
+		}
+		offset = newOffset;
+	}
+
+	@Override
+	public long getFilePointer()
+	{
+		if (block == null)
+		{
+			return blockAddress << 16;
+		}
+		else if (offset == block.getData().length)
+		{
+			return (blockAddress + block.getCompressedLength()) << 16;
+		}
+		else
+		{
+			return (blockAddress << 16) | offset;
+		}
+	}
+
+	@Override
+	public String readLine() throws IOException
+	{
+		if (available() == 0) return null;
+
+		int lineLength = 0;
+		while (available() > 0)
+		{
+			byte[] data = block.getData();
+			int end = offset;
+			while (end < data.length && data[end] != EOL)
+			{
+				++end;
+			}
+
+			int count = end - offset;
+			if (lineLength + count > lineBuffer.length)
+			{
+				lineBuffer = Arrays.copyOf(lineBuffer, Math.max(lineBuffer.length * 2, lineLength + count));
+			}
+			System.arraycopy(data, offset, lineBuffer, lineLength, count);
+			lineLength += count;
+
+			if (end < data.length)
+			{
+				offset = end + 1;
+				break;
+			}
+			offset = end;
+		}
+
+		if (lineLength > 0 && lineBuffer[lineLength - 1] == EOL_CR)
+		{
+			--lineLength;
+		}
+
+		return new String(lineBuffer, 0, lineLength, CHARSET_UTF8);
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		return available() > 0 ? block.getData()[offset++] & 0xFF : -1;
+	}
+
+	@Override
+	public int read(byte[] buffer) throws IOException
+	{
+		return read(buffer, 0, buffer.length);
+	}
+
+	@Override
+	public int read(byte[] buffer, int bufferOffset, int length) throws IOException
+	{
+		int read = 0;
+		while (read < length && available() > 0)
+		{
+			int count = Math.min(length - read, block.getData().length - offset);
+			System.arraycopy(block.getData(), offset, buffer, bufferOffset + read, count);
+			offset += count;
+			read += count;
+		}
+		return read == 0 && length > 0 ? -1 : read;
+	}
+
+	/**
+	 * Does not close the shared block cache
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		block = null;
+	}
+}
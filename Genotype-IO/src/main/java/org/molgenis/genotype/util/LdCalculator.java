@@ -64,6 +64,49 @@ public class LdCalculator
 			}
 		}
 
+		return calculateLd(variant1, variant2, genotypes, calledGenoypes);
+
+	}
+
+	/**
+	 * LD calculator using the genotype counts of two variants, for instance
+	 * counted using {@link PackedCalledDosages#countGenotypes}. Gives the same
+	 * result as {@link #calculateLd(GeneticVariant, GeneticVariant)} on the
+	 * variants.
+	 * 
+	 * @param variant1
+	 *            bi-allelic genetic variant
+	 * @param variant2
+	 *            bi-allelic genetic variant
+	 * @param genotypes
+	 *            genotypes[dosage variant 1][dosage variant 2] number of
+	 *            samples with these called dosages
+	 * @return LD information
+	 */
+	public static Ld calculateLd(GeneticVariant variant1, GeneticVariant variant2, int[][] genotypes)
+	{
+
+		if (variant1.getAlleleCount() != 2 || variant2.getAlleleCount() != 2)
+		{
+			throw new UnsupportedOperationException("Ld calculator currently only supports biallelic variants");
+		}
+
+		int calledGenoypes = 0;
+		for (int x = 0; x < 3; x++)
+		{
+			for (int y = 0; y < 3; y++)
+			{
+				calledGenoypes += genotypes[x][y];
+			}
+		}
+
+		return calculateLd(variant1, variant2, genotypes, calledGenoypes);
+
+	}
+
+	private static Ld calculateLd(GeneticVariant variant1, GeneticVariant variant2, int[][] genotypes, int calledGenoypes)
+	{
+
 		// matrix with freq for all combined genotypes
 		double[][] genotypesFreq = new double[3][3];
 		for (int x = 0; x < 3; x++)
@@ -0,0 +1,77 @@
+package org.molgenis.genotype.util;
+
+/**
+ * Called dosages of a bi-allelic variant packed as one bitset per dosage (0, 1
+ * and 2). Samples with a missing call (-1) are not set in any of the bitsets.
+ * The genotype counts between two variants are then calculated 64 samples at
+ * a time using popcounts.
+ */
+public final class PackedCalledDosages
+{
+
+	private final int sampleCount;
+	/**
+	 * [dosage][word]
+	 */
+	private final long[][] bits;
+
+	/**
+	 * @param calledDosages
+	 *            called dosages as returned by
+	 *            {@link org.molgenis.genotype.variant.GeneticVariant#getSampleCalledDosages()}
+	 */
+	public PackedCalledDosages(byte[] calledDosages)
+	{
+		this.sampleCount = calledDosages.length;
+		int words = (calledDosages.length + 63) >>> 6;
+		this.bits = new long[3][words];
+		for (int i = 0; i < calledDosages.length; ++i)
+		{
+			byte dosage = calledDosages[i];
+			if (dosage >= 0 && dosage <= 2)
+			{
+				bits[dosage][i >>> 6] |= 1L << i;
+			}
+		}
+	}
+
+	public int getSampleCount()
+	{
+		return sampleCount;
+	}
+
+	/**
+	 * Counts all combinations of the called dosages of this variant and the
+	 * other variant. Samples missing in either variant are ignored.
+	 *
+	 * @param other
+	 *            variant with the same number of samples
+	 * @return counts[dosage this][dosage other]
+	 */
+	public int[][] countGenotypes(PackedCalledDosages other)
+	{
+		if (sampleCount != other.sampleCount)
+		{
+			throw new IllegalArgumentException("Number of samples differ: " + sampleCount + " and "
+					+ other.sampleCount);
+		}
+
+		int[][] genotypes = new int[3][3];
+		for (int x = 0; x < 3; ++x)
+		{
+			long[] bitsX = bits[x];
+			for (int y = 0; y < 3; ++y)
+			{
+				long[] bitsY = other.bits[y];
+				int count = 0;
+				for (int w = 0; w < bitsX.length; ++w)
+				{
+					count += Long.bitCount(bitsX[w] & bitsY[w]);
+				}
+				genotypes[x][y] = count;
+			}
+		}
+		return genotypes;
+	}
+
+}
@@ -0,0 +1,235 @@
+package org.molgenis.genotype.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Least Recently Used (LRU) cache that is bounded both in number of entries
+ * and in total weight (for instance the estimated size in bytes of the
+ * values). The weight of an entry can grow after it is added.
+ *
+ * The cache is split in segments, each with its own lock, so threads
+ * accessing different keys rarely wait for each other. The limits apply to the
+ * cache as a whole: an entry can use the full weight budget. When the cache
+ * exceeds a limit the least recently used entry over all segments is evicted,
+ * which is found by comparing the least recently used entry of each segment.
+ * An entry heavier than the maximum weight is not cached.
+ *
+ * @param <K>
+ * @param <V>
+ */
+public class WeightedCache<K, V> {
+
+	private static final int MAX_SEGMENTS = 16;
+
+	private final Segment<K, V>[] segments;
+	private final int segmentMask;
+	private final int maxEntries;
+	private final long maxWeight;
+	private final AtomicInteger size = new AtomicInteger();
+	private final AtomicLong weight = new AtomicLong();
+	/**
+	 * Incremented on each access, orders the entries of all segments
+	 */
+	private final AtomicLong accessClock = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+
+	/**
+	 * @param maxEntries maximum number of entries
+	 * @param maxWeight maximum total weight of the entries
+	 */
+	@SuppressWarnings("unchecked")
+	public WeightedCache(int maxEntries, long maxWeight) {
+		int nrSegments = 1;
+		while (nrSegments * 2 <= Math.min(MAX_SEGMENTS, maxEntries)) {
+			nrSegments *= 2;
+		}
+		segments = new Segment[nrSegments];
+		segmentMask = nrSegments - 1;
+		this.maxEntries = maxEntries;
+		this.maxWeight = maxWeight;
+		for (int i = 0; i < nrSegments; ++i) {
+			segments[i] = new Segment<K, V>();
+		}
+	}
+
+	private Segment<K, V> getSegment(Object key) {
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return segments[h & segmentMask];
+	}
+
+	/**
+	 * @return the value mapped to key or null if not cached
+	 */
+	public V get(K key) {
+		Segment<K, V> segment = getSegment(key);
+		synchronized (segment) {
+			Entry<V> entry = segment.access(key, accessClock.incrementAndGet());
+			return entry == null ? null : entry.value;
+		}
+	}
+
+	/**
+	 * Adds a value if key is not yet cached. A value heavier than the maximum
+	 * weight is returned without caching it.
+	 *
+	 * @return the value already mapped to key, or value if it was added
+	 */
+	public V putIfAbsent(K key, V value, long weight) {
+		Segment<K, V> segment = getSegment(key);
+		synchronized (segment) {
+			Entry<V> entry = segment.access(key, accessClock.incrementAndGet());
+			if (entry != null) {
+				return entry.value;
+			}
+			if (weight > maxWeight) {
+				return value;
+			}
+			segment.put(key, new Entry<V>(value, weight, accessClock.incrementAndGet()));
+			size.incrementAndGet();
+			this.weight.addAndGet(weight);
+		}
+		evict();
+		return value;
+	}
+
+	/**
+	 * Increases the weight of an entry, if key is still mapped to value. This
+	 * can evict entries, including this one.
+	 */
+	public void addWeight(K key, V value, long weight) {
+		Segment<K, V> segment = getSegment(key);
+		synchronized (segment) {
+			Entry<V> entry = segment.access(key, accessClock.incrementAndGet());
+			if (entry == null || entry.value != value) {
+				return;
+			}
+			entry.weight += weight;
+			this.weight.addAndGet(weight);
+			if (entry.weight > maxWeight) {
+				// would evict all other entries before this one
+				segment.remove(key);
+				removed(entry);
+				evictionCount.incrementAndGet();
+				return;
+			}
+		}
+		evict();
+	}
+
+	/**
+	 * Evicts the least recently used entries until the cache is within its
+	 * limits. Holds at most one segment lock at a time.
+	 */
+	private void evict() {
+		while (isOverLimit()) {
+			Segment<K, V> oldestSegment = null;
+			long oldestAccess = Long.MAX_VALUE;
+			for (Segment<K, V> segment : segments) {
+				synchronized (segment) {
+					Entry<V> eldest = segment.eldest();
+					if (eldest != null && eldest.lastAccess < oldestAccess) {
+						oldestAccess = eldest.lastAccess;
+						oldestSegment = segment;
+					}
+				}
+			}
+			if (oldestSegment == null) {
+				return;
+			}
+			synchronized (oldestSegment) {
+				// other threads can have used or evicted the entry in the mean time
+				Iterator<Entry<V>> iterator = oldestSegment.values().iterator();
+				if (isOverLimit() && iterator.hasNext()) {
+					Entry<V> eldest = iterator.next();
+					if (eldest.lastAccess == oldestAccess) {
+						iterator.remove();
+						removed(eldest);
+						evictionCount.incrementAndGet();
+					}
+				}
+			}
+		}
+	}
+
+	private boolean isOverLimit() {
+		return size.get() > maxEntries || weight.get() > maxWeight;
+	}
+
+	private void removed(Entry<V> entry) {
+		size.decrementAndGet();
+		weight.addAndGet(-entry.weight);
+	}
+
+	public void clear() {
+		for (Segment<K, V> segment : segments) {
+			synchronized (segment) {
+				for (Entry<V> entry : segment.values()) {
+					removed(entry);
+				}
+				segment.clear();
+			}
+		}
+	}
+
+	/**
+	 * @return the number of cached entries
+	 */
+	public int size() {
+		return size.get();
+	}
+
+	/**
+	 * @return the total weight of the cached entries
+	 */
+	public long getWeight() {
+		return weight.get();
+	}
+
+	/**
+	 * @return the number of entries evicted since the cache was created
+	 */
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	private static final class Entry<V> {
+
+		private final V value;
+		private long weight;
+		private long lastAccess;
+
+		private Entry(V value, long weight, long lastAccess) {
+			this.value = value;
+			this.weight = weight;
+			this.lastAccess = lastAccess;
+		}
+	}
+
+	/**
+	 * Entries in access order, the first entry is the least recently used
+	 */
+	private static final class Segment<K, V> extends LinkedHashMap<K, Entry<V>> {
+
+		private static final long serialVersionUID = 1L;
+
+		private Segment() {
+			super(16, 0.75f, true);
+		}
+
+		private Entry<V> access(Object key, long time) {
+			Entry<V> entry = get(key);
+			if (entry != null) {
+				entry.lastAccess = time;
+			}
+			return entry;
+		}
+
+		private Entry<V> eldest() {
+			return isEmpty() ? null : values().iterator().next();
+		}
+	}
+}
@@ -1,10 +1,12 @@
 package org.molgenis.genotype.variant.sampleProvider;
 
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.molgenis.genotype.Alleles;
-import org.molgenis.genotype.util.Cache;
 import org.molgenis.genotype.util.FixedSizeIterable;
+import org.molgenis.genotype.util.WeightedCache;
 import org.molgenis.genotype.variant.GeneticVariant;
 import org.molgenis.genotype.variant.GenotypeRecord;
 
@@ -12,45 +14,72 @@ import org.molgenis.genotype.variant.GenotypeRecord;
  * Cached sample variant provider to prevent reloading a SNPs that is accessed
  * multiple times in a short period.
  *
+ * All representations of a variant (alleles, dosages, probabilities, ...)
+ * share one cache entry, so the cache holds at most cacheSize variants and at
+ * most maxCacheBytes of (estimated) data in total. The cache can be used from
+ * multiple threads.
+ *
  * @author Patrick Deelen
  *
  */
 public class CachedSampleVariantProvider implements SampleVariantsProvider {
 
+	private static final int ALLELES = 0;
+	private static final int PHASING = 1;
+	private static final int PHASED_PROBABILITIES_PRESENT = 2;
+	private static final int CALLED_DOSAGE = 3;
+	private static final int DOSAGE = 4;
+	private static final int PROBABILITIES = 5;
+	private static final int PROBABILITIES_COMPLEX = 6;
+	private static final int PROBABILITIES_PHASED = 7;
+	private static final int GENOTYPE_RECORDS = 8;
+	private static final int NR_REPRESENTATIONS = 9;
+
+	/**
+	 * Rough estimates of the memory used by objects and references, used to
+	 * weigh the cached data
+	 */
+	private static final long OBJECT_BYTES = 16;
+	private static final long REFERENCE_BYTES = 8;
+	private static final long GENOTYPE_RECORD_BYTES = 64;
+
 	private final SampleVariantsProvider sampleVariantProvider;
-	private final Cache<GeneticVariant, List<Alleles>> cache;
-	private final Cache<GeneticVariant, List<Boolean>> phasingCache;
-	private final Cache<GeneticVariant, Boolean> phasedProbCache;
-	private final Cache<GeneticVariant, byte[]> calledDosageCache;
-	private final Cache<GeneticVariant, float[]> dosageCache;
-	private final Cache<GeneticVariant, float[][]> probCache;
-	private final Cache<GeneticVariant, double[][]> probCacheComplex;
-	private final Cache<GeneticVariant, double[][][]> probCachePhased;
-	private final Cache<GeneticVariant, FixedSizeIterable<GenotypeRecord>> genotypeRecordCache;
+	private final WeightedCache<GeneticVariant, CachedVariant> cache;
 	private final int cacheSize;
+	private final long maxCacheBytes;
 	private final int sampleVariantProviderUniqueId;
+	private final AtomicLong cacheHits = new AtomicLong();
+	private final AtomicLong cacheMisses = new AtomicLong();
 
+	/**
+	 * Cache at most cacheSize variants, using at most a quarter of the maximum
+	 * heap size.
+	 */
 	public CachedSampleVariantProvider(SampleVariantsProvider sampleVariantProvider, int cacheSize) {
+		this(sampleVariantProvider, cacheSize, Runtime.getRuntime().maxMemory() / 4);
+	}
+
+	/**
+	 * @param cacheSize maximum number of variants to cache
+	 * @param maxCacheBytes maximum estimated number of bytes used by the cached
+	 * data of all variants
+	 */
+	public CachedSampleVariantProvider(SampleVariantsProvider sampleVariantProvider, int cacheSize, long maxCacheBytes) {
 		this.sampleVariantProvider = sampleVariantProvider;
-		this.cache = new Cache<GeneticVariant, List<Alleles>>(cacheSize);
-		this.phasingCache = new Cache<GeneticVariant, List<Boolean>>(cacheSize);
-		this.phasedProbCache = new Cache<GeneticVariant, Boolean>(cacheSize);
-		this.calledDosageCache = new Cache<GeneticVariant, byte[]>(cacheSize);
-		this.dosageCache = new Cache<GeneticVariant, float[]>(cacheSize);
-		this.probCache = new Cache<GeneticVariant, float[][]>(cacheSize);
-		this.probCacheComplex = new Cache<GeneticVariant, double[][]>(cacheSize);
-		this.probCachePhased = new Cache<GeneticVariant, double[][][]>(cacheSize);
-		this.genotypeRecordCache = new Cache<GeneticVariant, FixedSizeIterable<GenotypeRecord>>(cacheSize);
+		this.cache = new WeightedCache<GeneticVariant, CachedVariant>(cacheSize, maxCacheBytes);
 		this.cacheSize = cacheSize;
+		this.maxCacheBytes = maxCacheBytes;
 		sampleVariantProviderUniqueId = SampleVariantUniqueIdProvider.getNextUniqueId();
 	}
 
 	@Override
 	public List<Alleles> getSampleVariants(GeneticVariant variant) {
-		List<Alleles> variantAlleles = cache.get(variant);
+		CachedVariant cachedVariant = getCachedVariant(variant);
+		@SuppressWarnings("unchecked")
+		List<Alleles> variantAlleles = (List<Alleles>) getCached(cachedVariant, ALLELES);
 		if (variantAlleles == null) {
 			variantAlleles = sampleVariantProvider.getSampleVariants(variant);
-			cache.put(variant, variantAlleles);
+			variantAlleles = store(variant, cachedVariant, ALLELES, variantAlleles, weigh(variantAlleles));
 		}
 		return variantAlleles;
 
@@ -64,10 +93,12 @@ public class CachedSampleVariantProvider implements SampleVariantsProvider {
 	@Override
 	public List<Boolean> getSamplePhasing(GeneticVariant variant) {
 
-		List<Boolean> phasing = phasingCache.get(variant);
+		CachedVariant cachedVariant = getCachedVariant(variant);
+		@SuppressWarnings("unchecked")
+		List<Boolean> phasing = (List<Boolean>) getCached(cachedVariant, PHASING);
 		if (phasing == null) {
 			phasing = sampleVariantProvider.getSamplePhasing(variant);
-			phasingCache.put(variant, phasing);
+			phasing = store(variant, cachedVariant, PHASING, phasing, weigh(phasing));
 		}
 		return phasing;
 	}
@@ -75,13 +106,12 @@ public class CachedSampleVariantProvider implements SampleVariantsProvider {
 	@Override
 
 	public boolean arePhasedProbabilitiesPresent(GeneticVariant variant) {
-		if (phasedProbCache.containsKey(variant))
-		{
-			return phasedProbCache.get(variant);
+		CachedVariant cachedVariant = getCachedVariant(variant);
+		Boolean phasing = (Boolean) getCached(cachedVariant, PHASED_PROBABILITIES_PRESENT);
+		if (phasing == null) {
+			phasing = sampleVariantProvider.arePhasedProbabilitiesPresent(variant);
+			phasing = store(variant, cachedVariant, PHASED_PROBABILITIES_PRESENT, phasing, 0);
 		}
-
-		boolean phasing = sampleVariantProvider.arePhasedProbabilitiesPresent(variant);
-		phasedProbCache.put(variant, phasing);
 		return phasing;
 	}
 
@@ -94,10 +124,11 @@ public class CachedSampleVariantProvider implements SampleVariantsProvider {
 	@Override
 	public byte[] getSampleCalledDosage(GeneticVariant variant) {
 
-		byte[] calledDosage = calledDosageCache.get(variant);
+		CachedVariant cachedVariant = getCachedVariant(variant);
+		byte[] calledDosage = (byte[]) getCached(cachedVariant, CALLED_DOSAGE);
 		if (calledDosage == null) {
 			calledDosage = sampleVariantProvider.getSampleCalledDosage(variant);
-			calledDosageCache.put(variant, calledDosage);
+			calledDosage = store(variant, cachedVariant, CALLED_DOSAGE, calledDosage, weigh(calledDosage));
 		}
 		return calledDosage;
 	}
@@ -105,10 +136,11 @@ public class CachedSampleVariantProvider implements SampleVariantsProvider {
 	@Override
 	public float[] getSampleDosage(GeneticVariant variant) {
 
-		float[] dosage = dosageCache.get(variant);
+		CachedVariant cachedVariant = getCachedVariant(variant);
+		float[] dosage = (float[]) getCached(cachedVariant, DOSAGE);
 		if (dosage == null) {
 			dosage = sampleVariantProvider.getSampleDosage(variant);
-			dosageCache.put(variant, dosage);
+			dosage = store(variant, cachedVariant, DOSAGE, dosage, weigh(dosage));
 		}
 
 		return dosage;
@@ -117,10 +149,11 @@ public class CachedSampleVariantProvider implements SampleVariantsProvider {
 	@Override
 	public float[][] getSampleProbilities(GeneticVariant variant) {
 
-		float[][] probs = probCache.get(variant);
+		CachedVariant cachedVariant = getCachedVariant(variant);
+		float[][] probs = (float[][]) getCached(cachedVariant, PROBABILITIES);
 		if (probs == null) {
 			probs = sampleVariantProvider.getSampleProbilities(variant);
-			probCache.put(variant, probs);
+			probs = store(variant, cachedVariant, PROBABILITIES, probs, weigh(probs));
 		}
 		return probs;
 	}
@@ -128,10 +161,11 @@ public class CachedSampleVariantProvider implements SampleVariantsProvider {
 	@Override
 	public double[][] getSampleProbabilitiesComplex(GeneticVariant variant) {
 
-		double[][] probs = probCacheComplex.get(variant);
+		CachedVariant cachedVariant = getCachedVariant(variant);
+		double[][] probs = (double[][]) getCached(cachedVariant, PROBABILITIES_COMPLEX);
 		if (probs == null) {
 			probs = sampleVariantProvider.getSampleProbabilitiesComplex(variant);
-			probCacheComplex.put(variant, probs);
+			probs = store(variant, cachedVariant, PROBABILITIES_COMPLEX, probs, weigh(probs));
 		}
 		return probs;
 
@@ -140,10 +174,11 @@ public class CachedSampleVariantProvider implements SampleVariantsProvider {
 	@Override
 	public double[][][] getSampleProbabilitiesPhased(GeneticVariant variant) {
 
-		double[][][] probs = probCachePhased.get(variant);
+		CachedVariant cachedVariant = getCachedVariant(variant);
+		double[][][] probs = (double[][][]) getCached(cachedVariant, PROBABILITIES_PHASED);
 		if (probs == null) {
 			probs = sampleVariantProvider.getSampleProbabilitiesPhased(variant);
-			probCachePhased.put(variant, probs);
+			probs = store(variant, cachedVariant, PROBABILITIES_PHASED, probs, weigh(probs));
 		}
 		return probs;
 	}
@@ -151,12 +186,145 @@ public class CachedSampleVariantProvider implements SampleVariantsProvider {
 	@Override
 	public FixedSizeIterable<GenotypeRecord> getSampleGenotypeRecords(GeneticVariant variant) {
 
-		FixedSizeIterable<GenotypeRecord> sampleGenotypeRecords = genotypeRecordCache.get(variant);
+		CachedVariant cachedVariant = getCachedVariant(variant);
+		@SuppressWarnings("unchecked")
+		FixedSizeIterable<GenotypeRecord> sampleGenotypeRecords = (FixedSizeIterable<GenotypeRecord>) getCached(cachedVariant, GENOTYPE_RECORDS);
 		if (sampleGenotypeRecords == null) {
 			sampleGenotypeRecords = sampleVariantProvider.getSampleGenotypeRecords(variant);
-			genotypeRecordCache.put(variant, sampleGenotypeRecords);
+			long weight = sampleGenotypeRecords == null ? 0 : OBJECT_BYTES + sampleGenotypeRecords.size() * (REFERENCE_BYTES + GENOTYPE_RECORD_BYTES);
+			sampleGenotypeRecords = store(variant, cachedVariant, GENOTYPE_RECORDS, sampleGenotypeRecords, weight);
 		}
 
 		return sampleGenotypeRecords;
 	}
+
+	/**
+	 * @return number of requests answered from the cache
+	 */
+	public long getCacheHits() {
+		return cacheHits.get();
+	}
+
+	/**
+	 * @return number of requests passed on to the wrapped sample variant
+	 * provider
+	 */
+	public long getCacheMisses() {
+		return cacheMisses.get();
+	}
+
+	/**
+	 * @return number of variants removed from the cache to make room for
+	 * other variants
+	 */
+	public long getCacheEvictions() {
+		return cache.getEvictionCount();
+	}
+
+	/**
+	 * @return estimated number of bytes used by the cached data
+	 */
+	public long getCacheBytes() {
+		return cache.getWeight();
+	}
+
+	public long getMaxCacheBytes() {
+		return maxCacheBytes;
+	}
+
+	private CachedVariant getCachedVariant(GeneticVariant variant) {
+		CachedVariant cachedVariant = cache.get(variant);
+		if (cachedVariant == null) {
+			cachedVariant = cache.putIfAbsent(variant, new CachedVariant(), OBJECT_BYTES + NR_REPRESENTATIONS * REFERENCE_BYTES);
+		}
+		return cachedVariant;
+	}
+
+	private Object getCached(CachedVariant cachedVariant, int representation) {
+		Object value = cachedVariant.get(representation);
+		if (value == null) {
+			cacheMisses.incrementAndGet();
+		} else {
+			cacheHits.incrementAndGet();
+		}
+		return value;
+	}
+
+	/**
+	 * Stores a loaded representation of a variant. If an other thread stored
+	 * the same representation in the mean time that one is returned. Null
+	 * values are not cached.
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> T store(GeneticVariant variant, CachedVariant cachedVariant, int representation, T value, long weight) {
+		if (value == null) {
+			return null;
+		}
+		if (cachedVariant.compareAndSet(representation, null, value)) {
+			cache.addWeight(variant, cachedVariant, weight);
+			return value;
+		}
+		return (T) cachedVariant.get(representation);
+	}
+
+	private static long weigh(List<?> list) {
+		return list == null ? 0 : OBJECT_BYTES + list.size() * REFERENCE_BYTES;
+	}
+
+	private static long weigh(byte[] array) {
+		return array == null ? 0 : OBJECT_BYTES + array.length;
+	}
+
+	private static long weigh(float[] array) {
+		return array == null ? 0 : OBJECT_BYTES + array.length * 4L;
+	}
+
+	private static long weigh(double[] array) {
+		return array == null ? 0 : OBJECT_BYTES + array.length * 8L;
+	}
+
+	private static long weigh(float[][] array) {
+		if (array == null) {
+			return 0;
+		}
+		long weight = OBJECT_BYTES + array.length * REFERENCE_BYTES;
+		for (float[] row : array) {
+			weight += weigh(row);
+		}
+		return weight;
+	}
+
+	private static long weigh(double[][] array) {
+		if (array == null) {
+			return 0;
+		}
+		long weight = OBJECT_BYTES + array.length * REFERENCE_BYTES;
+		for (double[] row : array) {
+			weight += weigh(row);
+		}
+		return weight;
+	}
+
+	private static long weigh(double[][][] array) {
+		if (array == null) {
+			return 0;
+		}
+		long weight = OBJECT_BYTES + array.length * REFERENCE_BYTES;
+		for (double[][] matrix : array) {
+			weight += weigh(matrix);
+		}
+		return weight;
+	}
+
+	/**
+	 * The loaded representations of one variant
+	 */
+	private static final class CachedVariant extends AtomicReferenceArray<Object> {
+
+		private static final long serialVersionUID = 1L;
+
+		private CachedVariant() {
+			super(NR_REPRESENTATIONS);
+		}
+	}
 }
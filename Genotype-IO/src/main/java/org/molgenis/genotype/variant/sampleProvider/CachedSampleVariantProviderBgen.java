@@ -10,6 +10,11 @@ public class CachedSampleVariantProviderBgen extends CachedSampleVariantProvider
         this.sampleVariantProvider = sampleVariantProvider;
     }
 
+    public CachedSampleVariantProviderBgen(SampleVariantProviderBgen sampleVariantProvider, int cacheSize, long maxCacheBytes) {
+        super(sampleVariantProvider, cacheSize, maxCacheBytes);
+        this.sampleVariantProvider = sampleVariantProvider;
+    }
+
     @Override
     public ReadOnlyGeneticVariantBgen extendReadOnlyGeneticVariantBgen(ReadOnlyGeneticVariantBgen variant) {
         return sampleVariantProvider.extendReadOnlyGeneticVariantBgen(variant);
@@ -18,6 +18,8 @@ import org.molgenis.genotype.annotation.Annotation;
 import org.molgenis.genotype.annotation.SampleAnnotation;
 import org.molgenis.genotype.annotation.VcfAnnotation;
 import org.molgenis.genotype.bgen.BgenGenotypeData;
+import org.molgenis.genotype.tabix.BgzfBlockCache;
+import org.molgenis.genotype.tabix.CachedBlockCompressedInputStream;
 import org.molgenis.genotype.tabix.TabixFileNotFoundException;
 import org.molgenis.genotype.tabix.TabixIndex;
 import org.molgenis.genotype.tabix.TabixIndex.TabixIterator;
@@ -40,24 +42,29 @@ import org.molgenis.vcf.meta.VcfMetaInfo;
 
 import com.google.common.base.Function;
 import com.google.common.collect.Iterators;
-import org.apache.commons.io.IOUtils;
 import org.molgenis.genotype.Allele;
 import org.molgenis.genotype.variant.sampleProvider.CachedSampleVariantProvider;
 
 public class VcfGenotypeData extends AbstractRandomAccessGenotypeData implements SampleVariantsProvider {
 
     private static final org.apache.log4j.Logger LOG = org.apache.log4j.Logger.getLogger(VcfGenotypeData.class);
+    /**
+     * Default maximum size of the decompressed BGZF blocks kept in memory
+     */
+    public static final long DEFAULT_BLOCK_CACHE_BYTES = 64L * 1024 * 1024;
+    /**
+     * Positions less than a tabix linear index window apart are read in the
+     * same query by getVariantsByPositions
+     */
+    private static final int MAX_BATCH_POSITION_GAP = 1 << 14;
     private final File bzipVcfFile;
     private final TabixIndex tabixIndex;
+    private final BgzfBlockCache blockCache;
     private final int sampleVariantProviderUniqueId;
     private final SampleVariantsProvider variantProvider;
     private final VcfMeta vcfMeta;
     private transient Map<String, Annotation> cachedSampleAnnotationsMap;
-    private transient GeneticVariant cachedGeneticVariant;
-    private transient VcfRecord cachedVcfRecord;
-    private static int totalRandomAccessRequest = 0;
-    private static int currentlyOpenFileHandlers = 0;
-    private static int closedFileHandlers = 0;
+    private transient volatile CachedVcfRecord cachedVcfRecord;
     private final double minimumPosteriorProbabilityToCall;
     private MappedGenotypeField preferredGenotypeField;
 
@@ -89,6 +96,23 @@ public class VcfGenotypeData extends AbstractRandomAccessGenotypeData implements
 
     public VcfGenotypeData(File bzipVcfFile, File tabixIndexFile, int cacheSize, double minimumPosteriorProbabilityToCall) throws FileNotFoundException,
             IOException {
+        this(bzipVcfFile, tabixIndexFile, cacheSize, minimumPosteriorProbabilityToCall, DEFAULT_BLOCK_CACHE_BYTES);
+    }
+
+    /**
+     * VCF genotype reader
+     *
+     * @param bzipVcfFile
+     * @param tabixIndexFile
+     * @param cacheSize number of variants to cache
+     * @param minimumPosteriorProbabilityToCall
+     * @param blockCacheBytes maximum size of the decompressed parts of the VCF
+     * file kept in memory for random access
+     * @throws FileNotFoundException
+     * @throws IOException
+     */
+    public VcfGenotypeData(File bzipVcfFile, File tabixIndexFile, int cacheSize, double minimumPosteriorProbabilityToCall, long blockCacheBytes) throws FileNotFoundException,
+            IOException {
 
         if (!bzipVcfFile.isFile()) {
             throw new FileNotFoundException("VCF file not found at " + bzipVcfFile.getAbsolutePath());
@@ -112,6 +136,7 @@ public class VcfGenotypeData extends AbstractRandomAccessGenotypeData implements
 
         this.bzipVcfFile = bzipVcfFile;
         this.tabixIndex = new TabixIndex(tabixIndexFile, bzipVcfFile, null);
+        this.blockCache = new BgzfBlockCache(bzipVcfFile, blockCacheBytes);
         this.minimumPosteriorProbabilityToCall = minimumPosteriorProbabilityToCall;
 
         VcfReader vcfReader = new VcfReader(new BlockCompressedInputStream(bzipVcfFile));
@@ -332,15 +357,82 @@ public class VcfGenotypeData extends AbstractRandomAccessGenotypeData implements
 
     @Override
     public byte[] getSampleCalledDosage(GeneticVariant variant) {
+        byte[] calledDosages = readCalledDosageFromGenotypes(variant, getVcfLine(variant));
+        if (calledDosages != null) {
+            return calledDosages;
+        }
         return CalledDosageConvertor.convertCalledAllelesToCalledDosage(getSampleVariants(variant),
                 variant.getVariantAlleles(), variant.getRefAllele());
     }
 
+    /**
+     * Reads the called dosages directly from the GT field, if getSampleVariants
+     * would read the genotypes from GT.
+     *
+     * @return the called dosages or null if GT is not used or contains
+     * genotypes other than single digit allele indices.
+     */
+    private byte[] readCalledDosageFromGenotypes(GeneticVariant variant, VcfLine vcfLine) {
+
+        // getSampleVariants only reads GT from the first format field
+        if (!vcfLine.hasLine() || vcfLine.getNrSamples() == 0 || vcfLine.getFormatIndex("GT") != 0) {
+            return null;
+        }
+        if (canReadFromRequestedVcfFormat(new LinkedHashSet<>(Arrays.asList(MappedGenotypeField.GT, MappedGenotypeField.GP, MappedGenotypeField.DS)))
+                && !MappedGenotypeField.GT.equals(preferredGenotypeField)) {
+            return null;
+        }
+
+        // Dosage of each allele index, same as CalledDosageConvertor: -1 for missing, 1 for the dosage reference
+        Allele dosageRef = variant.getRefAllele() == null ? variant.getVariantAlleles().get(0) : variant.getRefAllele();
+        VcfRecord fixedColumnsRecord = vcfLine.getFixedColumnsRecord();
+        List<Allele> alternateAlleles = fixedColumnsRecord.getAlternateAlleles();
+        byte[] alleleDosages = new byte[alternateAlleles.size() + 1];
+        for (int a = 0; a < alleleDosages.length; ++a) {
+            Allele allele = a == 0 ? fixedColumnsRecord.getReferenceAllele() : alternateAlleles.get(a - 1);
+            alleleDosages[a] = (byte) (allele == null || allele == Allele.ZERO ? -1 : (allele == dosageRef ? 1 : 0));
+        }
+
+        int nrSamples = vcfLine.getNrSamples();
+        int[] bounds = vcfLine.getSampleFieldBounds(0);
+        byte[] calledDosages = new byte[nrSamples];
+        for (int i = 0; i < nrSamples; ++i) {
+            int start = bounds[i * 2];
+            int end = bounds[i * 2 + 1];
+            if (start < 0 || (end - start) % 2 == 0) {
+                return null;
+            }
+
+            boolean missing = false;
+            byte dosage = 0;
+            for (int c = start; c < end; c += 2) {
+                char alleleChar = vcfLine.charAt(c);
+                if (alleleChar == '.') {
+                    missing = true;
+                } else if (alleleChar >= '0' && alleleChar <= '9' && alleleChar - '0' < alleleDosages.length) {
+                    byte alleleDosage = alleleDosages[alleleChar - '0'];
+                    if (alleleDosage == -1) {
+                        missing = true;
+                    } else {
+                        dosage += alleleDosage;
+                    }
+                } else {
+                    return null;
+                }
+                if (c + 1 < end && vcfLine.charAt(c + 1) != '/' && vcfLine.charAt(c + 1) != '|') {
+                    return null;
+                }
+            }
+            calledDosages[i] = missing ? -1 : dosage;
+        }
+        return calledDosages;
+    }
+
     @Override
     public float[] getSampleDosage(GeneticVariant variant) {
-        VcfRecord vcfRecord = getVcfRecord(variant);
+        VcfLine vcfLine = getVcfLine(variant);
 
-        final int nrSamples = vcfRecord.getNrSamples();
+        final int nrSamples = vcfLine.getNrSamples();
         if (nrSamples == 0) {
             return new float[0];
         }
@@ -350,36 +442,59 @@ public class VcfGenotypeData extends AbstractRandomAccessGenotypeData implements
         boolean canReadFromRequestedVcfFormat = canReadFromRequestedVcfFormat(
                 new LinkedHashSet<>(Arrays.asList(MappedGenotypeField.DS, MappedGenotypeField.GP, MappedGenotypeField.GT)));
 
-        int idx = vcfRecord.getFormatIndex("DS");
+        int idx = vcfLine.getFormatIndex("DS");
         if (idx != -1 && (!canReadFromRequestedVcfFormat || MappedGenotypeField.DS.equals(preferredGenotypeField))) {
             // retrieve sample dosage from sample info
             dosages = new float[nrSamples];
-            int i = 0;
-            for (VcfSample vcfSample : vcfRecord.getSamples()) {
-                String dosage = vcfSample.getData(idx);
-                if (dosage == null) {
-                    //throw new GenotypeDataException("Missing DS format value for sample [" + vcfMeta.getSampleName(i) + "] at variant [" + variant.getPrimaryVariantId() + "]");
-                    dosages[i++] = -1;
-                } else {
-                    try {
-                        //Math abs to prevent -0 due to rounding
-                        dosages[i++] = Math.abs((Float.parseFloat(dosage) - 2) * -1);
-                    } catch (NumberFormatException e) {
-                        throw new GenotypeDataException("Error in sample dosage (DS) value for sample [" + vcfMeta.getSampleName(i) + "], found value: " + dosage);
+            if (vcfLine.hasLine()) {
+                int[] bounds = vcfLine.getSampleFieldBounds(idx);
+                for (int i = 0; i < nrSamples; ++i) {
+                    int start = bounds[i * 2];
+                    int end = bounds[i * 2 + 1];
+                    if (vcfLine.isMissing(start, end)) {
+                        dosages[i] = -1;
+                    } else {
+                        try {
+                            //Math abs to prevent -0 due to rounding
+                            dosages[i] = Math.abs((vcfLine.parseFloat(start, end) - 2) * -1);
+                        } catch (NumberFormatException e) {
+                            throw new GenotypeDataException("Error in sample dosage (DS) value for sample [" + vcfMeta.getSampleName(i) + "], found value: " + vcfLine.substring(start, end));
+                        }
                     }
                 }
+            } else {
+                int i = 0;
+                for (VcfSample vcfSample : vcfLine.getVcfRecord().getSamples()) {
+                    String dosage = vcfSample.getData(idx);
+                    if (dosage == null) {
+                        //throw new GenotypeDataException("Missing DS format value for sample [" + vcfMeta.getSampleName(i) + "] at variant [" + variant.getPrimaryVariantId() + "]");
+                        dosages[i++] = -1;
+                    } else {
+                        try {
+                            //Math abs to prevent -0 due to rounding
+                            dosages[i++] = Math.abs((Float.parseFloat(dosage) - 2) * -1);
+                        } catch (NumberFormatException e) {
+                            throw new GenotypeDataException("Error in sample dosage (DS) value for sample [" + vcfMeta.getSampleName(i) + "], found value: " + dosage);
+                        }
+                    }
 
+                }
             }
-        } else if (vcfRecord.getFormatIndex("GP") != -1 &&
+        } else if (vcfLine.getFormatIndex("GP") != -1 &&
                 (!canReadFromRequestedVcfFormat || MappedGenotypeField.GP.equals(preferredGenotypeField))) {
             dosages = ProbabilitiesConvertor.convertProbabilitiesToDosage(getSampleProbilities(variant), minimumPosteriorProbabilityToCall);
 
-        } else if (vcfRecord.getFormatIndex("GT") != -1 &&
+        } else if (vcfLine.getFormatIndex("GT") != -1 &&
                 (!canReadFromRequestedVcfFormat || MappedGenotypeField.GT.equals(preferredGenotypeField))) {
 
             // calculate sample dosage from called alleles
-            dosages = CalledDosageConvertor.convertCalledAllelesToDosage(getSampleVariants(variant),
-                    variant.getVariantAlleles(), variant.getRefAllele());
+            byte[] calledDosages = readCalledDosageFromGenotypes(variant, vcfLine);
+            if (calledDosages != null) {
+                dosages = CalledDosageConvertor.convertCalledDosageToDosage(calledDosages);
+            } else {
+                dosages = CalledDosageConvertor.convertCalledAllelesToDosage(getSampleVariants(variant),
+                        variant.getVariantAlleles(), variant.getRefAllele());
+            }
 
         } else {
             dosages = new float[nrSamples];
@@ -392,7 +507,7 @@ public class VcfGenotypeData extends AbstractRandomAccessGenotypeData implements
 
     @Override
     public void close() throws IOException {
-        // noop
+        blockCache.close();
     }
 
     @Override
@@ -402,9 +517,9 @@ public class VcfGenotypeData extends AbstractRandomAccessGenotypeData implements
 
     @Override
     public float[][] getSampleProbilities(GeneticVariant variant) {
-        VcfRecord vcfRecord = getVcfRecord(variant);
+        VcfLine vcfLine = getVcfLine(variant);
 
-        final int nrSamples = vcfRecord.getNrSamples();
+        final int nrSamples = vcfLine.getNrSamples();
         if (nrSamples == 0) {
             return new float[0][0];
         }
@@ -416,46 +531,30 @@ public class VcfGenotypeData extends AbstractRandomAccessGenotypeData implements
         boolean canReadFromRequestedVcfFormat = canReadFromRequestedVcfFormat(
                 new LinkedHashSet<>(Arrays.asList(MappedGenotypeField.GP, MappedGenotypeField.GT, MappedGenotypeField.DS)));
 
-        int idx = vcfRecord.getFormatIndex("GP");
+        int idx = vcfLine.getFormatIndex("GP");
         if (idx != -1 && (!canReadFromRequestedVcfFormat || MappedGenotypeField.GP.equals(preferredGenotypeField))) {
             // retrieve sample probabilities from sample info
-            probs = new float[nrSamples][3];
-            int i = 0;
-            for (VcfSample vcfSample : vcfRecord.getSamples()) {
-                String probabilitiesStr = vcfSample.getData(idx);
-                if (probabilitiesStr == null) {
-                    //throw new GenotypeDataException("Missing GP format value for sample [" + vcfMeta.getSampleName(i) + "]");
-                    probs[i] = new float[]{0, 0, 0};
-                } else {
-                    if (probabilitiesStr.matches(".*,+\\.,+.*")) {
-//                        System.out.println(probabilitiesStr);
-                        probabilitiesStr = probabilitiesStr.replaceAll("\\.", "0");
-//                        System.out.println(probabilitiesStr);
-                    }
-                    String[] probabilities = StringUtils.split(probabilitiesStr, ',');
-                    if (probabilities.length != 3 || numberOfAlleles != 2) {
-//                        throw new GenotypeDataException("Error in sample prob (GP) value for sample [" + vcfMeta.getSampleName(i) + "], found value: " + probabilitiesStr);
-                        probs[i] = new float[3];
-                    } else {
-                        for (int j = 0; j < 3; ++j) {
-                            try {
-                                probs[i][j] = Float.parseFloat(probabilities[j]);
-                            } catch (NumberFormatException e) {
-                                throw new GenotypeDataException("Error in sample prob (GP) value for sample [" + vcfMeta.getSampleName(i) + "], found value: " + probabilitiesStr);
-                            }
-                        }
-                    }
+            probs = new float[nrSamples][];
+            if (vcfLine.hasLine()) {
+                int[] bounds = vcfLine.getSampleFieldBounds(idx);
+                for (int i = 0; i < nrSamples; ++i) {
+                    probs[i] = readSampleProbabilities(vcfLine, bounds[i * 2], bounds[i * 2 + 1], numberOfAlleles, i);
+                }
+            } else {
+                int i = 0;
+                for (VcfSample vcfSample : vcfLine.getVcfRecord().getSamples()) {
+                    probs[i] = parseSampleProbabilities(vcfSample.getData(idx), numberOfAlleles, i);
+                    ++i;
                 }
-                ++i;
             }
 
-        } else if (vcfRecord.getFormatIndex("GT") != -1 &&
+        } else if (vcfLine.getFormatIndex("GT") != -1 &&
                 (!canReadFromRequestedVcfFormat || MappedGenotypeField.GT.equals(preferredGenotypeField))) {
 
             probs = ProbabilitiesConvertor.convertCalledAllelesToProbability(
                     getSampleVariants(variant), variant.getVariantAlleles());
 
-        } else if (vcfRecord.getFormatIndex("DS") != -1 &&
+        } else if (vcfLine.getFormatIndex("DS") != -1 &&
                 (!canReadFromRequestedVcfFormat || MappedGenotypeField.DS.equals(preferredGenotypeField))) {
 
             // calculate sample probabilities from sample dosage
@@ -467,6 +566,62 @@ public class VcfGenotypeData extends AbstractRandomAccessGenotypeData implements
         return probs;
     }
 
+    /**
+     * Reads the GP field of a sample directly from the line, falls back to
+     * parseSampleProbabilities for values with missing probabilities.
+     */
+    private float[] readSampleProbabilities(VcfLine vcfLine, int start, int end, int numberOfAlleles, int sampleIndex) {
+        if (vcfLine.isMissing(start, end)) {
+            return parseSampleProbabilities(null, numberOfAlleles, sampleIndex);
+        }
+        for (int c = start + 1; c < end - 1; ++c) {
+            if (vcfLine.charAt(c) == '.' && vcfLine.charAt(c - 1) == ',' && vcfLine.charAt(c + 1) == ',') {
+                return parseSampleProbabilities(vcfLine.substring(start, end), numberOfAlleles, sampleIndex);
+            }
+        }
+        if (numberOfAlleles != 2 || vcfLine.countValues(start, end, ',') != 3) {
+            return new float[3];
+        }
+        float[] probabilities = new float[3];
+        int valueStart = vcfLine.nextValue(start, end, ',');
+        for (int j = 0; j < 3; ++j) {
+            int valueEnd = vcfLine.valueEnd(valueStart, end, ',');
+            try {
+                probabilities[j] = vcfLine.parseFloat(valueStart, valueEnd);
+            } catch (NumberFormatException e) {
+                throw new GenotypeDataException("Error in sample prob (GP) value for sample [" + vcfMeta.getSampleName(sampleIndex) + "], found value: " + vcfLine.substring(start, end));
+            }
+            valueStart = vcfLine.nextValue(valueEnd, end, ',');
+        }
+        return probabilities;
+    }
+
+    private float[] parseSampleProbabilities(String probabilitiesStr, int numberOfAlleles, int sampleIndex) {
+        if (probabilitiesStr == null) {
+            //throw new GenotypeDataException("Missing GP format value for sample [" + vcfMeta.getSampleName(i) + "]");
+            return new float[]{0, 0, 0};
+        }
+        if (probabilitiesStr.matches(".*,+\\.,+.*")) {
+//            System.out.println(probabilitiesStr);
+            probabilitiesStr = probabilitiesStr.replaceAll("\\.", "0");
+//            System.out.println(probabilitiesStr);
+        }
+        String[] probabilities = StringUtils.split(probabilitiesStr, ',');
+        if (probabilities.length != 3 || numberOfAlleles != 2) {
+//            throw new GenotypeDataException("Error in sample prob (GP) value for sample [" + vcfMeta.getSampleName(i) + "], found value: " + probabilitiesStr);
+            return new float[3];
+        }
+        float[] sampleProbabilities = new float[3];
+        for (int j = 0; j < 3; ++j) {
+            try {
+                sampleProbabilities[j] = Float.parseFloat(probabilities[j]);
+            } catch (NumberFormatException e) {
+                throw new GenotypeDataException("Error in sample prob (GP) value for sample [" + vcfMeta.getSampleName(sampleIndex) + "], found value: " + probabilitiesStr);
+            }
+        }
+        return sampleProbabilities;
+    }
+
     @Override
     public double[][] getSampleProbabilitiesComplex(GeneticVariant variant) {
         VcfRecord vcfRecord = getVcfRecord(variant);
@@ -807,33 +962,17 @@ public class VcfGenotypeData extends AbstractRandomAccessGenotypeData implements
 
                 try {
 
-                    ++totalRandomAccessRequest;
-                    ++currentlyOpenFileHandlers;
-
                     return new Iterator<GeneticVariant>() {
-                        private final BlockCompressedInputStream stream = new BlockCompressedInputStream(bzipVcfFile);
+                        private final BlockCompressedInputStream stream = new CachedBlockCompressedInputStream(blockCache);
                         private final TabixIterator it = tabixIndex.queryTabixIndex(seqName, rangeStart, rangeEnd, stream);
                         private String line = readFirst(it);
 
                         private String readFirst(TabixIterator it) {
                             if (it == null) {
-                                try {
-                                    stream.close();
-                                } catch (IOException e) {
-                                    throw new GenotypeDataException(e);
-                                }
-                                --currentlyOpenFileHandlers;
-                                ++closedFileHandlers;
                                 return null;
                             } else {
                                 try {
-                                    String firstLine = it.next();
-                                    if (firstLine == null) {
-                                        --currentlyOpenFileHandlers;
-                                        ++closedFileHandlers;
-                                        it.close();
-                                    }
-                                    return firstLine;
+                                    return it.next();
                                 } catch (IOException e) {
                                     throw new GenotypeDataException(e);
                                 }
@@ -847,18 +986,13 @@ public class VcfGenotypeData extends AbstractRandomAccessGenotypeData implements
 
                         @Override
                         public GeneticVariant next() {
-                            VcfRecord vcfRecord = new VcfRecord(vcfMeta, StringUtils.split(line, '\t'));
+                            VcfLine vcfLine = new VcfLine(vcfMeta, line);
                             try {
                                 line = it.next();
-                                if (line == null) {
-                                    --currentlyOpenFileHandlers;
-                                    ++closedFileHandlers;
-                                    it.close();
-                                }
                             } catch (IOException e) {
                                 throw new GenotypeDataException(e);
                             }
-                            return toGeneticVariant(vcfRecord);
+                            return toGeneticVariant(vcfLine);
                         }
 
                         @Override
@@ -866,12 +1000,6 @@ public class VcfGenotypeData extends AbstractRandomAccessGenotypeData implements
                             throw new UnsupportedOperationException();
                         }
                     };
-                } catch (FileNotFoundException e) {
-                    if (e.getMessage().endsWith("(Too many open files)")) {
-                        throw new GenotypeDataException("VCF reader trying to open more file connections than allowed by operating system. Currently open connections: " + currentlyOpenFileHandlers + " total opened: " + totalRandomAccessRequest + " total closed: " + closedFileHandlers, e);
-                    } else {
-                        throw new GenotypeDataException(e);
-                    }
                 } catch (IOException e) {
                     throw new GenotypeDataException(e);
                 }
@@ -879,41 +1007,115 @@ public class VcfGenotypeData extends AbstractRandomAccessGenotypeData implements
         };
     }
 
-    private VcfRecord getVcfRecord(GeneticVariant variant) {
-        if (!variant.equals(cachedGeneticVariant)) {
-            TabixIterator it;
-            String line;
-            BlockCompressedInputStream stream = null;
-            ++totalRandomAccessRequest;
-            ++currentlyOpenFileHandlers;
+    /**
+     * Get the variants starting at any of the given positions of a sequence.
+     * Positions close to each other are fetched in one forward sweep over the
+     * VCF file, instead of one query per position.
+     *
+     * @param seqName
+     * @param positions the positions, in any order
+     * @return the variants ordered by position
+     */
+    public List<GeneticVariant> getVariantsByPositions(final String seqName, final int[] positions) {
 
-            try {
-                stream = new BlockCompressedInputStream(bzipVcfFile);
-                it = tabixIndex.queryTabixIndex(variant.getSequenceName(), variant.getStartPos() - 1, variant.getStartPos(), stream);
-                while ((line = it.next()) != null) {
-                    VcfRecord vcfRecord = new VcfRecord(vcfMeta, StringUtils.split(line, '\t'));
-                    if (variant.equals(toGeneticVariant(vcfRecord))) {
-                        cachedVcfRecord = vcfRecord;
-                        cachedGeneticVariant = variant;
-                        break;
+        int[] sortedPositions = positions.clone();
+        Arrays.sort(sortedPositions);
+
+        ArrayList<GeneticVariant> variants = new ArrayList<GeneticVariant>();
+        BlockCompressedInputStream stream = new CachedBlockCompressedInputStream(blockCache);
+
+        try {
+            int batchStart = 0;
+            while (batchStart < sortedPositions.length) {
+
+                if (sortedPositions[batchStart] <= 0) {
+                    throw new GenotypeDataException("Illegal pos for VCF variant query: " + sortedPositions[batchStart]);
+                }
+
+                int batchEnd = batchStart + 1;
+                while (batchEnd < sortedPositions.length && sortedPositions[batchEnd] - sortedPositions[batchEnd - 1] <= MAX_BATCH_POSITION_GAP) {
+                    ++batchEnd;
+                }
+
+                TabixIterator it = tabixIndex.queryTabixIndex(seqName, sortedPositions[batchStart] - 1, sortedPositions[batchEnd - 1], stream);
+                if (it != null) {
+                    int i = batchStart;
+                    String line;
+                    while ((line = it.next()) != null) {
+                        int pos = getPosition(line);
+                        while (i < batchEnd && sortedPositions[i] < pos) {
+                            ++i;
+                        }
+                        if (i == batchEnd) {
+                            break;
+                        }
+                        if (sortedPositions[i] == pos) {
+                            variants.add(toGeneticVariant(new VcfLine(vcfMeta, line)));
+                        }
                     }
                 }
-                stream.close();
-            } catch (FileNotFoundException e) {
-                if (e.getMessage().endsWith("(Too many open files)")) {
-                    throw new GenotypeDataException("VCF reader trying to open more file connections than allowed by operating system. Currently open connections: " + currentlyOpenFileHandlers + " total opened: " + totalRandomAccessRequest + " total closed: " + closedFileHandlers, e);
-                } else {
-                    throw new GenotypeDataException(e);
+
+                batchStart = batchEnd;
+            }
+        } catch (IOException e) {
+            throw new GenotypeDataException(e);
+        }
+
+        return variants;
+    }
+
+    /**
+     * @return the position (second column) of a VCF line without splitting the whole line
+     */
+    private static int getPosition(String line) {
+        int posStart = line.indexOf('\t') + 1;
+        int posEnd = line.indexOf('\t', posStart);
+        return Integer.parseInt(posEnd < 0 ? line.substring(posStart) : line.substring(posStart, posEnd));
+    }
+
+    private VcfRecord getVcfRecord(GeneticVariant variant) {
+        VcfLine vcfLine = getVcfLine(variant);
+        return vcfLine == null ? null : vcfLine.getVcfRecord();
+    }
+
+    /**
+     * Get the VCF line of a variant, the sample columns are only split when
+     * needed
+     *
+     * @param variant
+     * @return
+     */
+    private VcfLine getVcfLine(GeneticVariant variant) {
+        CachedVcfRecord cached = cachedVcfRecord;
+        if (cached != null && variant.equals(cached.geneticVariant)) {
+            return cached.vcfLine;
+        }
+
+        TabixIterator it;
+        String line;
+        VcfLine variantVcfLine = null;
+        BlockCompressedInputStream stream = new CachedBlockCompressedInputStream(blockCache);
+
+        try {
+            it = tabixIndex.queryTabixIndex(variant.getSequenceName(), variant.getStartPos() - 1, variant.getStartPos(), stream);
+            while ((line = it.next()) != null) {
+                VcfLine vcfLine = new VcfLine(vcfMeta, line);
+                if (variant.equals(toGeneticVariant(vcfLine))) {
+                    variantVcfLine = vcfLine;
+                    break;
                 }
-            } catch (IOException e) {
-                throw new GenotypeDataException(e);
-            } finally {
-                --currentlyOpenFileHandlers;
-                ++closedFileHandlers;
-                IOUtils.closeQuietly(stream);
             }
+        } catch (IOException e) {
+            throw new GenotypeDataException(e);
+        }
+
+        if (variantVcfLine == null) {
+            //Variant not found, return the last record read as this reader always did
+            cached = cachedVcfRecord;
+            return cached == null ? null : cached.vcfLine;
         }
-        return cachedVcfRecord;
+        cachedVcfRecord = new CachedVcfRecord(variant, variantVcfLine);
+        return variantVcfLine;
     }
 
     /**
@@ -923,6 +1125,17 @@ public class VcfGenotypeData extends AbstractRandomAccessGenotypeData implements
      * @return
      */
     private GeneticVariant toGeneticVariant(VcfRecord vcfRecord) {
+        return toGeneticVariant(new VcfLine(vcfRecord));
+    }
+
+    /**
+     * Convert VcfLine to GeneticVariant, using only the fixed columns
+     *
+     * @param vcfLine
+     * @return
+     */
+    private GeneticVariant toGeneticVariant(VcfLine vcfLine) {
+        VcfRecord vcfRecord = vcfLine.getFixedColumnsRecord();
         List<String> identifiers = vcfRecord.getIdentifiers();
         int pos = vcfRecord.getPosition();
         String sequenceName = vcfRecord.getChromosome();
@@ -949,11 +1162,25 @@ public class VcfGenotypeData extends AbstractRandomAccessGenotypeData implements
         GeneticVariantMeta geneticVariantMeta = new VcfGeneticVariantMeta(vcfMeta, Arrays.asList(vcfRecord.getFormat()));
         GeneticVariant geneticVariant = ReadOnlyGeneticVariant.createVariant(geneticVariantMeta, identifiers, pos, sequenceName, annotationMap, variantProvider, alleles, refAllele);
 
-        cachedVcfRecord = vcfRecord;
-        cachedGeneticVariant = geneticVariant;
+        cachedVcfRecord = new CachedVcfRecord(geneticVariant, vcfLine);
         return geneticVariant;
     }
 
+    /**
+     * The last read VCF record and its variant, replaced as a whole so
+     * concurrent readers never see a record with the wrong variant
+     */
+    private static final class CachedVcfRecord {
+
+        private final GeneticVariant geneticVariant;
+        private final VcfLine vcfLine;
+
+        private CachedVcfRecord(GeneticVariant geneticVariant, VcfLine vcfLine) {
+            this.geneticVariant = geneticVariant;
+            this.vcfLine = vcfLine;
+        }
+    }
+
     /**
      * Convert VcfSample to GenotypeRecord
      *
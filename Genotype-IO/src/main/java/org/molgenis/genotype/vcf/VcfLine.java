@@ -0,0 +1,249 @@
+package org.molgenis.genotype.vcf;
+
+import java.util.Arrays;
+
+import org.apache.commons.lang3.StringUtils;
+import org.molgenis.vcf.VcfRecord;
+import org.molgenis.vcf.meta.VcfMeta;
+
+/**
+ * A line of a VCF file that is only split in columns when needed. The fixed
+ * columns (CHROM up to FORMAT) are split directly; the sample columns can be
+ * read field by field without creating a String or VcfSample per sample.
+ * Columns and FORMAT fields are separated the same way as StringUtils.split,
+ * so results match those of {@link VcfRecord} and
+ * {@link org.molgenis.vcf.VcfSample}.
+ */
+final class VcfLine {
+
+    private static final int NR_FIXED_COLUMNS = 9;
+    private static final char COLUMN_SEPARATOR = '\t';
+    private static final char FIELD_SEPARATOR = ':';
+    /**
+     * Floats with at most this many significant digits and fraction digits
+     * are parsed directly, these are correctly rounded when converted from
+     * the exact double quotient
+     */
+    private static final int MAX_FAST_SIGNIFICANT_DIGITS = 7;
+    private static final int MAX_FAST_FRACTION_DIGITS = 9;
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9};
+
+    private final VcfMeta vcfMeta;
+    private final String line;
+    private final VcfRecord fixedColumnsRecord;
+    private final int samplesStart;
+    private final int nrSamples;
+    private volatile VcfRecord vcfRecord;
+
+    /**
+     * @param vcfMeta
+     * @param line data line of a VCF file
+     */
+    VcfLine(VcfMeta vcfMeta, String line) {
+        this.vcfMeta = vcfMeta;
+        this.line = line;
+
+        String[] fixedColumns = new String[NR_FIXED_COLUMNS];
+        int nrFixedColumns = 0;
+        int pos = skip(0, line.length(), COLUMN_SEPARATOR);
+        while (nrFixedColumns < NR_FIXED_COLUMNS && pos < line.length()) {
+            int end = find(pos, line.length(), COLUMN_SEPARATOR);
+            fixedColumns[nrFixedColumns++] = line.substring(pos, end);
+            pos = skip(end, line.length(), COLUMN_SEPARATOR);
+        }
+        this.fixedColumnsRecord = new VcfRecord(vcfMeta, nrFixedColumns == NR_FIXED_COLUMNS ? fixedColumns : Arrays.copyOf(fixedColumns, nrFixedColumns));
+        this.samplesStart = pos;
+
+        int sampleCount = 0;
+        while (pos < line.length()) {
+            ++sampleCount;
+            pos = skip(find(pos, line.length(), COLUMN_SEPARATOR), line.length(), COLUMN_SEPARATOR);
+        }
+        this.nrSamples = sampleCount;
+    }
+
+    /**
+     * Wraps an already split record, the sample fields can then only be read
+     * using the record.
+     *
+     * @param vcfRecord
+     */
+    VcfLine(VcfRecord vcfRecord) {
+        this.vcfMeta = vcfRecord.getVcfMeta();
+        this.line = null;
+        this.fixedColumnsRecord = vcfRecord;
+        this.samplesStart = -1;
+        this.nrSamples = vcfRecord.getNrSamples();
+        this.vcfRecord = vcfRecord;
+    }
+
+    /**
+     * @return the completely split record
+     */
+    VcfRecord getVcfRecord() {
+        VcfRecord record = vcfRecord;
+        if (record == null) {
+            record = new VcfRecord(vcfMeta, StringUtils.split(line, COLUMN_SEPARATOR));
+            vcfRecord = record;
+        }
+        return record;
+    }
+
+    /**
+     * @return record with only the fixed columns, no sample data
+     */
+    VcfRecord getFixedColumnsRecord() {
+        return fixedColumnsRecord;
+    }
+
+    /**
+     * @return true if the sample fields can be read directly from the line
+     */
+    boolean hasLine() {
+        return line != null;
+    }
+
+    int getNrSamples() {
+        return nrSamples;
+    }
+
+    int getFormatIndex(String format) {
+        return fixedColumnsRecord.getFormatIndex(format);
+    }
+
+    /**
+     * Locates a FORMAT field in all sample columns. The field of sample i
+     * starts at bounds[2i] and ends (exclusive) at bounds[2i + 1]. Both are
+     * -1 if the sample does not have the field.
+     *
+     * @param formatIndex
+     * @return the bounds
+     */
+    int[] getSampleFieldBounds(int formatIndex) {
+        int[] bounds = new int[nrSamples * 2];
+        int pos = samplesStart;
+        for (int i = 0; i < nrSamples; ++i) {
+            int columnEnd = find(pos, line.length(), COLUMN_SEPARATOR);
+
+            int fieldStart = skip(pos, columnEnd, FIELD_SEPARATOR);
+            for (int j = 0; j < formatIndex && fieldStart < columnEnd; ++j) {
+                fieldStart = skip(find(fieldStart, columnEnd, FIELD_SEPARATOR), columnEnd, FIELD_SEPARATOR);
+            }
+
+            if (fieldStart < columnEnd) {
+                bounds[i * 2] = fieldStart;
+                bounds[i * 2 + 1] = find(fieldStart, columnEnd, FIELD_SEPARATOR);
+            } else {
+                bounds[i * 2] = -1;
+                bounds[i * 2 + 1] = -1;
+            }
+
+            pos = skip(columnEnd, line.length(), COLUMN_SEPARATOR);
+        }
+        return bounds;
+    }
+
+    /**
+     * @return true if the part of the line is missing, so either not present
+     * (start -1) or a single dot
+     */
+    boolean isMissing(int start, int end) {
+        return start < 0 || (end - start == 1 && line.charAt(start) == '.');
+    }
+
+    char charAt(int index) {
+        return line.charAt(index);
+    }
+
+    String substring(int start, int end) {
+        return line.substring(start, end);
+    }
+
+    /**
+     * @return start of the next value separated by separator, or end if
+     * there is no next value
+     */
+    int nextValue(int valueEnd, int end, char separator) {
+        return skip(valueEnd, end, separator);
+    }
+
+    /**
+     * @return end (exclusive) of the value starting at start
+     */
+    int valueEnd(int start, int end, char separator) {
+        return find(start, end, separator);
+    }
+
+    /**
+     * @return the number of values separated by separator, empty values
+     * are not counted
+     */
+    int countValues(int start, int end, char separator) {
+        int count = 0;
+        int pos = skip(start, end, separator);
+        while (pos < end) {
+            ++count;
+            pos = skip(find(pos, end, separator), end, separator);
+        }
+        return count;
+    }
+
+    /**
+     * Parses a float, with the same result as Float.parseFloat on the
+     * substring. Simple decimals are parsed without creating a String.
+     *
+     * @throws NumberFormatException
+     */
+    float parseFloat(int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && line.charAt(i) == '-') {
+            negative = true;
+            ++i;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int significantDigits = 0;
+        int fractionDigits = 0;
+        boolean fraction = false;
+        for (; i < end; ++i) {
+            char c = line.charAt(i);
+            if (c >= '0' && c <= '9') {
+                ++digits;
+                if (mantissa != 0 || c != '0') {
+                    ++significantDigits;
+                }
+                mantissa = mantissa * 10 + (c - '0');
+                if (fraction) {
+                    ++fractionDigits;
+                }
+            } else if (c == '.' && !fraction) {
+                fraction = true;
+            } else {
+                break;
+            }
+        }
+
+        if (i < end || digits == 0 || significantDigits > MAX_FAST_SIGNIFICANT_DIGITS || fractionDigits > MAX_FAST_FRACTION_DIGITS) {
+            return Float.parseFloat(line.substring(start, end));
+        }
+
+        float value = (float) (mantissa / POWERS_OF_TEN[fractionDigits]);
+        return negative ? -value : value;
+    }
+
+    private int skip(int pos, int end, char separator) {
+        while (pos < end && line.charAt(pos) == separator) {
+            ++pos;
+        }
+        return pos;
+    }
+
+    private int find(int pos, int end, char separator) {
+        while (pos < end && line.charAt(pos) != separator) {
+            ++pos;
+        }
+        return pos;
+    }
+}
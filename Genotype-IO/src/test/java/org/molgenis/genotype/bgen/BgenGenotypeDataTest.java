@@ -440,5 +440,38 @@ public class BgenGenotypeDataTest extends ResourceTest {
 			assertProbabilityEquality(actualProbabilities, expectedProbabilities, 0);
 		}
 	}
+
+	@Test
+	public void testDecodeVariants() throws URISyntaxException, IOException {
+		// Get the bgen input file to test with
+		File bgenFile = getTestResourceFile("/bgenExamples/example.16bits.zstd.bgen");
+
+		// Copy the input file
+		Path target = Paths.get(folder.toString(), "decode." + bgenFile.getName());
+		Files.copy(bgenFile.toPath(), target);
+
+		bgenGenotypeData = new BgenGenotypeData(target.toFile(), null, 0);
+		List<GeneticVariant> variants = new ArrayList<>();
+		for (GeneticVariant variant : bgenGenotypeData) {
+			variants.add(variant);
+		}
+
+		// Decode the variants in parallel and compare with the dosages of the individual variants
+		float[][] dosages = new float[variants.size()][];
+		bgenGenotypeData.decodeVariants(variants, dosages);
+		for (int i = 0; i < variants.size(); i++) {
+			assertEquals(dosages[i], variants.get(i).getSampleDosages());
+		}
+		bgenGenotypeData.close();
+
+		// The read contexts of all threads are released
+		try {
+			bgenGenotypeData.decodeVariants(variants, dosages);
+			fail("Decoding variants of a closed bgen file should fail");
+		} catch (GenotypeDataException ex) {
+			// the fork-join pool can wrap the exception of a worker thread
+			assertTrue(ex.getMessage().contains("Bgen file is closed"), ex.getMessage());
+		}
+	}
 }
 
@@ -0,0 +1,145 @@
+package org.molgenis.genotype.bgen;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import static org.testng.Assert.*;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.molgenis.genotype.ResourceTest;
+
+/**
+ * Tests the saved index of a bgenix file. An index that is outdated, truncated
+ * or corrupt must be recreated.
+ */
+public class BgenixIndexNGTest extends ResourceTest {
+
+	/**
+	 * Old modification time of the index file, changes when the index file is
+	 * written
+	 */
+	private static final long OLD_TIME = 1000000000000L;
+
+	private File bgenixFile;
+	private File indexFile;
+	private List<String> expectedVariants;
+
+	@BeforeMethod
+	public void setUpMethod() throws Exception {
+		File tmpFolder = Files.createTempDirectory("BgenixIndexNGTest").toFile();
+		bgenixFile = new File(tmpFolder, "complex.bgen.bgi");
+		Files.copy(getTestResourceFile("/bgenExamples/complex.bgen.bgi").toPath(), bgenixFile.toPath());
+		indexFile = new File(bgenixFile.getPath() + ".idx");
+
+		Connection connection = BgenixReader.createNewConnection(bgenixFile);
+		expectedVariants = toStrings(new BgenixVariantQueryResult(connection.createStatement().executeQuery("SELECT * FROM Variant")));
+		connection.close();
+		assertTrue(expectedVariants.size() > 1);
+	}
+
+	@Test
+	public void testIndexSaved() throws Exception {
+		assertFalse(indexFile.exists());
+		assertIndexEqualsBgenix();
+		assertTrue(indexFile.isFile());
+
+		// the saved index is used
+		assertTrue(indexFile.setLastModified(OLD_TIME));
+		assertIndexEqualsBgenix();
+		assertEquals(indexFile.lastModified(), OLD_TIME);
+	}
+
+	@Test
+	public void testOutdatedModificationTime() throws Exception {
+		assertIndexEqualsBgenix();
+		assertTrue(indexFile.setLastModified(OLD_TIME));
+
+		assertTrue(bgenixFile.setLastModified(bgenixFile.lastModified() - 100000));
+		assertIndexEqualsBgenix();
+		assertNotEquals(indexFile.lastModified(), OLD_TIME);
+
+		// the recreated index is up to date
+		assertTrue(indexFile.setLastModified(OLD_TIME));
+		assertIndexEqualsBgenix();
+		assertEquals(indexFile.lastModified(), OLD_TIME);
+	}
+
+	@Test
+	public void testOutdatedLength() throws Exception {
+		assertIndexEqualsBgenix();
+		try (RandomAccessFile index = new RandomAccessFile(indexFile, "rw")) {
+			// length of the bgenix file in the header
+			index.seek(8);
+			index.writeLong(bgenixFile.length() + 1);
+		}
+		assertTrue(indexFile.setLastModified(OLD_TIME));
+
+		assertIndexEqualsBgenix();
+		assertNotEquals(indexFile.lastModified(), OLD_TIME);
+	}
+
+	@Test
+	public void testTruncatedIndex() throws Exception {
+		assertIndexEqualsBgenix();
+		long length = indexFile.length();
+
+		// truncated in the header, the variant records and the strings
+		for (long truncatedLength : new long[]{20, 40, length / 2, length - 1}) {
+			try (RandomAccessFile index = new RandomAccessFile(indexFile, "rw")) {
+				index.setLength(truncatedLength);
+			}
+			assertIndexEqualsBgenix();
+			assertEquals(indexFile.length(), length);
+		}
+	}
+
+	@Test
+	public void testCorruptIndex() throws Exception {
+		assertIndexEqualsBgenix();
+		long length = indexFile.length();
+
+		// variant count, chromosome count, first chromosome name offset,
+		// first chromosome start and rsid offset of the first variant
+		int chromosomeCount;
+		try (RandomAccessFile index = new RandomAccessFile(indexFile, "r")) {
+			index.seek(28);
+			chromosomeCount = index.readInt();
+		}
+		long[] offsets = {24, 28, 32, 36, 32 + chromosomeCount * 8 + 20};
+		for (long offset : offsets) {
+			for (int value : new int[]{-5, Integer.MAX_VALUE}) {
+				try (RandomAccessFile index = new RandomAccessFile(indexFile, "rw")) {
+					index.seek(offset);
+					index.writeInt(value);
+				}
+				assertTrue(indexFile.setLastModified(OLD_TIME));
+				assertIndexEqualsBgenix();
+				assertNotEquals(indexFile.lastModified(), OLD_TIME, "offset " + offset + " value " + value);
+				assertEquals(indexFile.length(), length);
+			}
+		}
+	}
+
+	private void assertIndexEqualsBgenix() throws Exception {
+		Connection connection = BgenixReader.createNewConnection(bgenixFile);
+		BgenixIndex index = BgenixIndex.load(connection, bgenixFile);
+		assertNotNull(index);
+		assertEquals(toStrings(new BgenixVariantQueryResult(index, 0, index.getVariantCount())), expectedVariants);
+		connection.close();
+	}
+
+	private static List<String> toStrings(BgenixVariantQueryResult variants) {
+		List<String> strings = new ArrayList<>();
+		while (variants.hasNext()) {
+			BgenixVariantData variant = variants.next();
+			strings.add(variant.getChromosome() + "\t" + variant.getPosition() + "\t" + variant.getRsid()
+					+ "\t" + variant.getNumber_of_alleles() + "\t" + variant.getAllele1() + "\t" + variant.getAllele2()
+					+ "\t" + variant.getFile_start_position() + "\t" + variant.getSize_in_bytes());
+		}
+		return strings;
+	}
+
+}
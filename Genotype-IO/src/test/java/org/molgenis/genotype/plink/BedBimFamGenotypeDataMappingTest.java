@@ -0,0 +1,150 @@
+package org.molgenis.genotype.plink;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.molgenis.genotype.Allele;
+import org.molgenis.genotype.Alleles;
+import org.molgenis.genotype.GenotypeDataException;
+import org.molgenis.genotype.ResourceTest;
+import org.molgenis.genotype.util.CalledDosageConvertor;
+import org.molgenis.genotype.variant.GeneticVariant;
+import org.testng.annotations.Test;
+
+/**
+ * Compares the genotypes read from the memory mapped BED file with the
+ * decoding of the BED file variant by variant, also when the BED file is
+ * mapped in many small parts.
+ */
+public class BedBimFamGenotypeDataMappingTest extends ResourceTest
+{
+
+	/**
+	 * Not multiples of the bytes per variant, so a variant does not fit in the
+	 * remaining bytes of a part and starts the next part
+	 */
+	private static final long[] MAX_MAPPED_BYTES = {1, 5, 7, 11, Integer.MAX_VALUE};
+
+	@Test
+	public void testSamples9() throws Exception
+	{
+		assertEqualsOldDecoding(getTestBed9(), getTestBim9(), getTestFam9());
+	}
+
+	@Test
+	public void testSamples8() throws Exception
+	{
+		assertEqualsOldDecoding(getTestBed8(), getTestBim8(), getTestFam8());
+	}
+
+	@Test
+	public void testSamples7() throws Exception
+	{
+		assertEqualsOldDecoding(getTestBed7(), getTestBim7(), getTestFam7());
+	}
+
+	@Test
+	public void testSamples6() throws Exception
+	{
+		assertEqualsOldDecoding(getTestBed6(), getTestBim6(), getTestFam6());
+	}
+
+	@Test
+	public void testClose() throws Exception
+	{
+		BedBimFamGenotypeData genotypeData = new BedBimFamGenotypeData(getTestBed9(), getTestBim9(), getTestFam9(), 0, 7);
+		GeneticVariant variant = genotypeData.iterator().next();
+		assertEquals(variant.getSampleCalledDosages().length, 9);
+		genotypeData.close();
+
+		try
+		{
+			variant.getSampleCalledDosages();
+			fail("Reading a closed BED file should fail");
+		}
+		catch (GenotypeDataException ex)
+		{
+		}
+		// closing twice is allowed
+		genotypeData.close();
+	}
+
+	private void assertEqualsOldDecoding(File bedFile, File bimFile, File famFile) throws Exception
+	{
+		for (long maxMappedBytes : MAX_MAPPED_BYTES)
+		{
+			BedBimFamGenotypeData genotypeData = new BedBimFamGenotypeData(bedFile, bimFile, famFile, 0, maxMappedBytes);
+			int sampleCount = genotypeData.getSamples().size();
+			RandomAccessFile bedFileReader = new RandomAccessFile(bedFile, "r");
+
+			int variantIndex = 0;
+			for (GeneticVariant variant : genotypeData)
+			{
+				String message = bedFile.getName() + " variant " + variantIndex + " max mapped bytes " + maxMappedBytes;
+				List<Alleles> expectedAlleles = readVariantOld(bedFileReader, variantIndex, sampleCount, variant.getVariantAlleles());
+
+				assertEquals(variant.getSampleVariants(), expectedAlleles, message);
+				assertEquals(variant.getSampleCalledDosages(), CalledDosageConvertor.convertCalledAllelesToCalledDosage(expectedAlleles,
+						variant.getVariantAlleles(), variant.getRefAllele()), message);
+				assertEquals(variant.getSampleDosages(), CalledDosageConvertor.convertCalledAllelesToDosage(expectedAlleles,
+						variant.getVariantAlleles(), variant.getRefAllele()), message);
+
+				++variantIndex;
+			}
+			assertEquals(variantIndex, 10);
+
+			bedFileReader.close();
+			genotypeData.close();
+		}
+	}
+
+	/**
+	 * The decoding of a variant before the BED file was memory mapped
+	 */
+	private static List<Alleles> readVariantOld(RandomAccessFile bedFileReader, int index, int sampleCount, Alleles heterozygote) throws IOException
+	{
+		int bytesPerVariant = sampleCount % 4 == 0 ? sampleCount / 4 : (sampleCount / 4 + 1);
+		byte[] variantBytes = new byte[bytesPerVariant];
+		bedFileReader.seek(((long) index * bytesPerVariant) + 3);
+		assertEquals(bedFileReader.read(variantBytes), bytesPerVariant);
+
+		Alleles homozygoteFirst = Alleles.createAlleles(heterozygote.get(0), heterozygote.get(0));
+		Alleles homozygoteSecond = Alleles.createAlleles(heterozygote.get(1), heterozygote.get(1));
+		ArrayList<Alleles> alleles = new ArrayList<Alleles>(sampleCount);
+
+		int sampleCounter = 0;
+		for (int variantByte : variantBytes)
+		{
+			for (int i = 0; i < 4; ++i)
+			{
+				if (sampleCounter < sampleCount)
+				{
+					switch (variantByte & 3)
+					{
+						case 0:
+							alleles.add(homozygoteFirst);
+							break;
+						case 3:
+							alleles.add(homozygoteSecond);
+							break;
+						case 2:
+							alleles.add(heterozygote);
+							break;
+						default:
+							alleles.add(Alleles.createAlleles(Allele.ZERO, Allele.ZERO));
+					}
+				}
+				variantByte = variantByte >>> 2;
+				++sampleCounter;
+			}
+		}
+		return alleles;
+	}
+
+}
@@ -0,0 +1,283 @@
+package org.molgenis.genotype.tabix;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.sf.samtools.util.BlockCompressedInputStream;
+import net.sf.samtools.util.BlockCompressedOutputStream;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class BgzfBlockCacheTest
+{
+	private static final Charset CHARSET_UTF8 = Charset.forName("UTF-8");
+	private static final int NR_LINES = 20000;
+
+	private File bgzipFile;
+	private List<String> lines;
+	private byte[] content;
+	private List<Long> filePointers;
+
+	@BeforeClass
+	public void beforeClass() throws IOException
+	{
+		bgzipFile = File.createTempFile("BgzfBlockCacheTest", ".gz");
+
+		// lines of varying length, some with multi byte characters and a
+		// windows line end, spread over many blocks
+		Random random = new Random(1);
+		lines = new ArrayList<String>(NR_LINES);
+		ByteArrayOutputStream expectedContent = new ByteArrayOutputStream();
+		BlockCompressedOutputStream out = new BlockCompressedOutputStream(bgzipFile);
+		for (int i = 0; i < NR_LINES; ++i)
+		{
+			StringBuilder line = new StringBuilder();
+			line.append(i).append('\t');
+			int length = random.nextInt(i % 1000 == 0 ? 70000 : 100);
+			for (int j = 0; j < length; ++j)
+			{
+				line.append(i % 7 == 0 && j % 10 == 0 ? '\u00e9' : (char) ('A' + random.nextInt(26)));
+			}
+			lines.add(line.toString());
+			byte[] bytes = (line + (i % 11 == 0 ? "\r\n" : "\n")).getBytes(CHARSET_UTF8);
+			out.write(bytes);
+			expectedContent.write(bytes);
+		}
+		out.close();
+		content = expectedContent.toByteArray();
+
+		filePointers = new ArrayList<Long>(NR_LINES);
+		BlockCompressedInputStream in = new BlockCompressedInputStream(bgzipFile);
+		filePointers.add(0L);
+		for (int i = 1; i < NR_LINES; ++i)
+		{
+			in.readLine();
+			filePointers.add(in.getFilePointer());
+		}
+		in.close();
+
+		assertTrue(bgzipFile.length() > 10 * 65536, "Test file should span many blocks");
+	}
+
+	@AfterClass
+	public void afterClass()
+	{
+		bgzipFile.delete();
+		lines = null;
+		content = null;
+		filePointers = null;
+	}
+
+	@Test
+	public void readLines() throws IOException
+	{
+		BgzfBlockCache cache = new BgzfBlockCache(bgzipFile, 1L << 30);
+		try
+		{
+			assertLines(new CachedBlockCompressedInputStream(cache));
+		}
+		finally
+		{
+			cache.close();
+		}
+	}
+
+	@Test
+	public void read() throws IOException
+	{
+		BgzfBlockCache cache = new BgzfBlockCache(bgzipFile, 1L << 30);
+		try
+		{
+			CachedBlockCompressedInputStream in = new CachedBlockCompressedInputStream(cache);
+			ByteArrayOutputStream readContent = new ByteArrayOutputStream();
+			byte[] buffer = new byte[1000];
+			int count;
+			while ((count = in.read(buffer, 0, buffer.length)) > 0)
+			{
+				readContent.write(buffer, 0, count);
+				int b = in.read();
+				if (b >= 0)
+				{
+					readContent.write(b);
+				}
+			}
+			assertEquals(count, -1);
+			assertEquals(readContent.toByteArray(), content);
+		}
+		finally
+		{
+			cache.close();
+		}
+	}
+
+	@Test
+	public void seek() throws IOException
+	{
+		BgzfBlockCache cache = new BgzfBlockCache(bgzipFile, 1L << 30);
+		try
+		{
+			CachedBlockCompressedInputStream in = new CachedBlockCompressedInputStream(cache);
+			for (int i = NR_LINES - 1; i >= 0; i -= 7)
+			{
+				in.seek(filePointers.get(i));
+				assertEquals(in.readLine(), lines.get(i));
+			}
+		}
+		finally
+		{
+			cache.close();
+		}
+	}
+
+	@Test
+	public void filePointerAfterLine() throws IOException
+	{
+		BgzfBlockCache cache = new BgzfBlockCache(bgzipFile, 1L << 30);
+		try
+		{
+			// the pointer after a line ending at a block boundary must lead to
+			// the next line, like it does for the original stream
+			CachedBlockCompressedInputStream in = new CachedBlockCompressedInputStream(cache);
+			CachedBlockCompressedInputStream seeker = new CachedBlockCompressedInputStream(cache);
+			for (int i = 0; i < NR_LINES - 1; ++i)
+			{
+				in.readLine();
+				seeker.seek(in.getFilePointer());
+				assertEquals(seeker.readLine(), lines.get(i + 1));
+			}
+			assertEquals(in.readLine(), lines.get(NR_LINES - 1));
+			assertNull(in.readLine());
+		}
+		finally
+		{
+			cache.close();
+		}
+	}
+
+	@Test
+	public void eviction() throws IOException
+	{
+		long maxCacheBytes = 200000;
+		BgzfBlockCache cache = new BgzfBlockCache(bgzipFile, maxCacheBytes);
+		try
+		{
+			assertLines(new CachedBlockCompressedInputStream(cache));
+			assertTrue(cache.getCacheBytes() <= maxCacheBytes, "Cache exceeds maximum size: " + cache.getCacheBytes());
+
+			// blocks that are evicted are read again
+			assertLines(new CachedBlockCompressedInputStream(cache));
+		}
+		finally
+		{
+			cache.close();
+		}
+
+		// too small to hold any block
+		cache = new BgzfBlockCache(bgzipFile, 1000);
+		try
+		{
+			assertLines(new CachedBlockCompressedInputStream(cache));
+			assertEquals(cache.getCacheBytes(), 0);
+		}
+		finally
+		{
+			cache.close();
+		}
+	}
+
+	@Test
+	public void concurrentReaders() throws Exception
+	{
+		final BgzfBlockCache cache = new BgzfBlockCache(bgzipFile, 500000);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try
+		{
+			List<Callable<Void>> readers = new ArrayList<Callable<Void>>();
+			for (int t = 0; t < 16; ++t)
+			{
+				final int seed = t;
+				readers.add(new Callable<Void>()
+				{
+					@Override
+					public Void call() throws Exception
+					{
+						CachedBlockCompressedInputStream in = new CachedBlockCompressedInputStream(cache);
+						Random random = new Random(seed);
+						for (int q = 0; q < 500; ++q)
+						{
+							int i = random.nextInt(NR_LINES - 10);
+							in.seek(filePointers.get(i));
+							for (int j = i; j < i + 10; ++j)
+							{
+								assertEquals(in.readLine(), lines.get(j));
+							}
+						}
+						return null;
+					}
+				});
+			}
+			for (Future<Void> result : executor.invokeAll(readers))
+			{
+				result.get();
+			}
+		}
+		finally
+		{
+			executor.shutdown();
+			cache.close();
+		}
+	}
+
+	@Test
+	public void emptyFile() throws IOException
+	{
+		File emptyFile = File.createTempFile("BgzfBlockCacheTestEmpty", ".gz");
+		try
+		{
+			new BlockCompressedOutputStream(emptyFile).close();
+			BgzfBlockCache cache = new BgzfBlockCache(emptyFile, 1L << 20);
+			try
+			{
+				CachedBlockCompressedInputStream in = new CachedBlockCompressedInputStream(cache);
+				assertNull(in.readLine());
+				assertEquals(in.read(), -1);
+			}
+			finally
+			{
+				cache.close();
+			}
+		}
+		finally
+		{
+			emptyFile.delete();
+		}
+	}
+
+	private void assertLines(CachedBlockCompressedInputStream in) throws IOException
+	{
+		List<String> readLines = new ArrayList<String>(NR_LINES);
+		String line;
+		while ((line = in.readLine()) != null)
+		{
+			readLines.add(line);
+		}
+		assertEquals(readLines, lines);
+		assertEquals(in.available(), 0);
+		assertEquals(in.read(), -1);
+	}
+}
@@ -259,6 +259,44 @@ public class LdCalculatorTest extends ResourceTest
 	}
 			
 
+	@Test
+	public void calculateLdPackedCalledDosages() throws LdCalculatorException, Exception
+	{
+
+		RandomAccessGenotypeData testData = new VcfGenotypeData(getLdTestVcf(), getLdTestVcfTbi(), 0.8);
+		try
+		{
+			ArrayList<GeneticVariant> variants = new ArrayList<GeneticVariant>();
+			for (GeneticVariant variant : testData)
+			{
+				if (variant.isBiallelic())
+				{
+					variants.add(variant);
+				}
+			}
+
+			for (GeneticVariant variant1 : variants)
+			{
+				PackedCalledDosages packed1 = new PackedCalledDosages(variant1.getSampleCalledDosages());
+				for (GeneticVariant variant2 : variants)
+				{
+					PackedCalledDosages packed2 = new PackedCalledDosages(variant2.getSampleCalledDosages());
+
+					Ld expected = LdCalculator.calculateLd(variant1, variant2);
+					Ld ld = LdCalculator.calculateLd(variant1, variant2, packed1.countGenotypes(packed2));
+
+					assertEquals(ld.getR2(), expected.getR2());
+					assertEquals(ld.getDPrime(), expected.getDPrime());
+					assertEquals(ld.getHaplotypesFreq(), expected.getHaplotypesFreq());
+				}
+			}
+		}
+		finally
+		{
+			testData.close();
+		}
+	}
+
 	public void assertEqualsDoubleCollection(Collection<Double> observed, Collection<Double> expected, double delta)
 			throws AssertionError
 	{
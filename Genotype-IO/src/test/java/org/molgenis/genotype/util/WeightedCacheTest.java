@@ -0,0 +1,205 @@
+package org.molgenis.genotype.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.testng.annotations.Test;
+
+public class WeightedCacheTest
+{
+
+	@Test
+	public void putIfAbsent()
+	{
+		WeightedCache<String, String> cache = new WeightedCache<String, String>(1, 100);
+		String value = new String("a");
+
+		assertSame(cache.putIfAbsent("key", value, 10), value);
+		assertSame(cache.putIfAbsent("key", new String("a"), 10), value);
+		assertSame(cache.get("key"), value);
+		assertEquals(cache.size(), 1);
+		assertEquals(cache.getWeight(), 10);
+	}
+
+	@Test
+	public void evictOnSize()
+	{
+		WeightedCache<Integer, String> cache = new WeightedCache<Integer, String>(1, 100);
+		cache.putIfAbsent(1, "a", 10);
+		cache.putIfAbsent(2, "b", 10);
+
+		assertNull(cache.get(1));
+		assertEquals(cache.get(2), "b");
+		assertEquals(cache.size(), 1);
+		assertEquals(cache.getWeight(), 10);
+		assertEquals(cache.getEvictionCount(), 1);
+	}
+
+	@Test
+	public void evictOnWeight()
+	{
+		WeightedCache<Integer, String> cache = new WeightedCache<Integer, String>(1, 100);
+		String value = "a";
+		cache.putIfAbsent(1, value, 10);
+
+		cache.addWeight(1, "other", 1000);
+		assertEquals(cache.getWeight(), 10);
+
+		cache.addWeight(1, value, 50);
+		assertEquals(cache.getWeight(), 60);
+
+		cache.addWeight(1, value, 50);
+		assertNull(cache.get(1));
+		assertEquals(cache.getWeight(), 0);
+		assertEquals(cache.getEvictionCount(), 1);
+	}
+
+	@Test
+	public void evictLeastRecentlyUsed()
+	{
+		WeightedCache<Integer, String> cache = new WeightedCache<Integer, String>(1000, 16 * 30);
+		for (int i = 0; i < 1000; ++i)
+		{
+			cache.putIfAbsent(i, "v" + i, 10);
+			cache.get(0);
+		}
+
+		assertEquals(cache.get(0), "v0");
+		assertEquals(cache.get(999), "v999");
+		assertEquals(cache.getWeight(), cache.size() * 10);
+		assertEquals(cache.size() + cache.getEvictionCount(), 1000);
+	}
+
+	@Test
+	public void entryCanUseFullWeight()
+	{
+		WeightedCache<Integer, String> cache = new WeightedCache<Integer, String>(1000, 100);
+		cache.putIfAbsent(1, "a", 10);
+		cache.putIfAbsent(2, "b", 90);
+
+		assertEquals(cache.get(1), "a");
+		assertEquals(cache.get(2), "b");
+		assertEquals(cache.getWeight(), 100);
+		assertEquals(cache.getEvictionCount(), 0);
+	}
+
+	@Test
+	public void entryHeavierThanMaxWeightNotCached()
+	{
+		WeightedCache<Integer, String> cache = new WeightedCache<Integer, String>(1000, 100);
+		cache.putIfAbsent(1, "a", 10);
+
+		assertEquals(cache.putIfAbsent(2, "b", 101), "b");
+		assertNull(cache.get(2));
+		assertEquals(cache.get(1), "a");
+		assertEquals(cache.getWeight(), 10);
+
+		// growing beyond the maximum only evicts this entry
+		cache.putIfAbsent(3, "c", 10);
+		cache.addWeight(3, "c", 91);
+		assertNull(cache.get(3));
+		assertEquals(cache.get(1), "a");
+		assertEquals(cache.getWeight(), 10);
+		assertEquals(cache.getEvictionCount(), 1);
+	}
+
+	@Test
+	public void entriesOfOneSegmentUseAllEntries()
+	{
+		// keys that are multiples of 16 are all in the same segment
+		WeightedCache<Integer, String> cache = new WeightedCache<Integer, String>(16, 16 * 10);
+		for (int i = 0; i < 16; ++i)
+		{
+			cache.putIfAbsent(i * 16, "v" + i, 10);
+		}
+		assertEquals(cache.size(), 16);
+		assertEquals(cache.getEvictionCount(), 0);
+
+		cache.putIfAbsent(1, "other segment", 10);
+		assertEquals(cache.size(), 16);
+		assertNull(cache.get(0));
+		assertEquals(cache.get(16), "v1");
+		assertEquals(cache.get(1), "other segment");
+	}
+
+	@Test
+	public void evictLeastRecentlyUsedOverSegments()
+	{
+		WeightedCache<Integer, String> cache = new WeightedCache<Integer, String>(3, 1000);
+		cache.putIfAbsent(1, "a", 10);
+		cache.putIfAbsent(2, "b", 10);
+		cache.putIfAbsent(3, "c", 10);
+		cache.get(1);
+		cache.putIfAbsent(4, "d", 10);
+
+		assertNull(cache.get(2));
+		assertEquals(cache.get(1), "a");
+		assertEquals(cache.get(3), "c");
+		assertEquals(cache.get(4), "d");
+
+		// weight evicts the least recently used entries until the new one fits
+		cache.putIfAbsent(5, "e", 990);
+		assertNull(cache.get(1));
+		assertNull(cache.get(3));
+		assertEquals(cache.get(4), "d");
+		assertEquals(cache.get(5), "e");
+		assertEquals(cache.getWeight(), 1000);
+	}
+
+	@Test
+	public void concurrentAccessStaysWithinLimits() throws Exception
+	{
+		final WeightedCache<Integer, String> cache = new WeightedCache<Integer, String>(100, 1000);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (int t = 0; t < 8; ++t)
+		{
+			final Random random = new Random(t);
+			futures.add(executor.submit(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					for (int i = 0; i < 20000; ++i)
+					{
+						int key = random.nextInt(500);
+						String value = cache.putIfAbsent(key, "v" + key, 1 + key % 20);
+						assertEquals(value, "v" + key);
+						cache.addWeight(key, value, random.nextInt(3));
+					}
+				}
+			}));
+		}
+		for (Future<?> future : futures)
+		{
+			future.get();
+		}
+		executor.shutdown();
+
+		assertTrue(cache.size() <= 100);
+		assertTrue(cache.getWeight() <= 1000);
+		assertTrue(cache.size() > 0);
+	}
+
+	@Test
+	public void clear()
+	{
+		WeightedCache<Integer, String> cache = new WeightedCache<Integer, String>(10, 100);
+		cache.putIfAbsent(1, "a", 10);
+		cache.putIfAbsent(2, "b", 10);
+		cache.clear();
+
+		assertNull(cache.get(1));
+		assertEquals(cache.size(), 0);
+		assertEquals(cache.getWeight(), 0);
+	}
+}
@@ -154,6 +154,54 @@ public class VcfGenotypeDataTest extends ResourceTest
 		assertFalse(genotypeData.getVariantsByPos("bogus", 8).iterator().hasNext());
 	}
 
+	@Test
+	public void testGetVariantsByPositions()
+	{
+		// batches of nearby positions, a far away position, duplicates, positions without variants and unsorted input
+		assertVariantsByPositions(genotypeData, "1", new int[]{6097450, 3172273, 565286, 3171929, 3172062, 3172062, 3172000, 2243618, 1, 100000000});
+		assertVariantsByPositions(genotypeData, "2", new int[]{7569187});
+		assertVariantsByPositions(genotypeData, "bogus", new int[]{8});
+		assertVariantsByPositions(genotypeData, "1", new int[0]);
+
+		// two variants at position 7
+		assertVariantsByPositions(complexGenotypeData, "01", new int[]{10, 7, 1, 2, 6, 9, 3, 8, 4, 5});
+
+		assertEquals(genotypeData.getVariantsByPositions("1", new int[]{3171929, 3172062, 3172273}).size(), 3);
+		assertEquals(complexGenotypeData.getVariantsByPositions("01", new int[]{7}).size(), 2);
+	}
+
+	/**
+	 * Checks that a batch lookup returns the same variants as looking up
+	 * each position on its own
+	 */
+	private static void assertVariantsByPositions(VcfGenotypeData data, String seqName, int[] positions)
+	{
+		TreeSet<Integer> sortedPositions = new TreeSet<Integer>();
+		for (int position : positions)
+		{
+			sortedPositions.add(position);
+		}
+		List<GeneticVariant> expected = new ArrayList<GeneticVariant>();
+		for (int position : sortedPositions)
+		{
+			expected.addAll(Lists.newArrayList(data.getVariantsByPos(seqName, position)));
+		}
+
+		List<GeneticVariant> variants = data.getVariantsByPositions(seqName, positions);
+		assertEquals(variants.size(), expected.size());
+		for (int i = 0; i < variants.size(); ++i)
+		{
+			GeneticVariant variant = variants.get(i);
+			GeneticVariant expectedVariant = expected.get(i);
+			assertEquals(variant.getSequenceName(), expectedVariant.getSequenceName());
+			assertEquals(variant.getStartPos(), expectedVariant.getStartPos());
+			assertEquals(variant.getVariantId().getVariantIds(), expectedVariant.getVariantId().getVariantIds());
+			assertEquals(variant.getVariantAlleles(), expectedVariant.getVariantAlleles());
+			assertEquals(variant.getSampleVariants(), expectedVariant.getSampleVariants());
+			assertEquals(variant.getSampleDosages(), expectedVariant.getSampleDosages());
+		}
+	}
+
 	@Test
 	public void testgetSequenceGeneticVariants() throws IOException
 	{
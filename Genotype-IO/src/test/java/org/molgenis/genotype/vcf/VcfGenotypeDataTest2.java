@@ -1,13 +1,21 @@
 package org.molgenis.genotype.vcf;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.Iterator;
+import net.sf.samtools.util.BlockCompressedInputStream;
 import org.molgenis.genotype.Allele;
 import org.molgenis.genotype.Alleles;
 import org.molgenis.genotype.ResourceTest;
+import org.molgenis.genotype.util.CalledDosageConvertor;
 import org.molgenis.genotype.variant.GeneticVariant;
+import org.molgenis.vcf.VcfReader;
+import org.molgenis.vcf.VcfRecord;
+import org.molgenis.vcf.VcfSample;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
@@ -66,6 +74,67 @@ public class VcfGenotypeDataTest2 extends ResourceTest
 		assertEquals(var.getSampleGenotypeProbilities()[2][2],0.042, 0.01);
 		
 	}
-	
+
+	/**
+	 * The DS and GP values read directly from the lines must equal those
+	 * parsed from the split records
+	 */
+	@Test
+	public void dosagesAndProbabilitiesEqualSplitRecords() throws IOException, URISyntaxException {
+
+		VcfReader reader = new VcfReader(new BlockCompressedInputStream(getTestVcfGz2()));
+		try {
+			Iterator<VcfRecord> records = reader.iterator();
+			int nrVariants = 0;
+			for (GeneticVariant variant : genotypeData) {
+				assertTrue(records.hasNext());
+				VcfRecord record = records.next();
+				assertEquals(variant.getStartPos(), record.getPosition());
+
+				int dsIndex = record.getFormatIndex("DS");
+				int gpIndex = record.getFormatIndex("GP");
+				float[] dosages = variant.getSampleDosages();
+				float[][] probabilities = variant.getSampleGenotypeProbilities();
+				int i = 0;
+				for (VcfSample sample : record.getSamples()) {
+					assertEquals(dosages[i], Math.abs((Float.parseFloat(sample.getData(dsIndex)) - 2) * -1), 0);
+					String[] gp = sample.getData(gpIndex).split(",");
+					for (int j = 0; j < 3; ++j) {
+						assertEquals(probabilities[i][j], Float.parseFloat(gp[j]), 0);
+					}
+					++i;
+				}
+				assertEquals(i, dosages.length);
+				++nrVariants;
+			}
+			assertFalse(records.hasNext());
+			assertTrue(nrVariants > 0);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * The called dosages read directly from the GT field must equal those
+	 * converted from the sample alleles
+	 */
+	@Test
+	public void calledDosagesEqualSampleAlleles() throws IOException, URISyntaxException {
+		assertCalledDosages(new VcfGenotypeData(getTestVcfGz(), getTestVcfGzTbi(), 0.8));
+		assertCalledDosages(new VcfGenotypeData(getLdTestVcf(), getLdTestVcfTbi(), 0.8));
+		assertCalledDosages(new VcfGenotypeData(getTestResourceFile("/bgenExamples/complex.vcf.gz"), getTestResourceFile("/bgenExamples/complex.vcf.gz.tbi"), 0.0));
+	}
+
+	private static void assertCalledDosages(VcfGenotypeData data) throws IOException {
+		try {
+			for (GeneticVariant variant : data) {
+				byte[] expected = CalledDosageConvertor.convertCalledAllelesToCalledDosage(variant.getSampleVariants(),
+						variant.getVariantAlleles(), variant.getRefAllele());
+				assertEquals(data.getSampleCalledDosage(variant), expected, variant.getPrimaryVariantId());
+			}
+		} finally {
+			data.close();
+		}
+	}
 
 }
@@ -0,0 +1,222 @@
+package org.molgenis.genotype.vcf;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Random;
+
+import org.apache.commons.lang3.StringUtils;
+import org.molgenis.vcf.VcfReader;
+import org.molgenis.vcf.VcfRecord;
+import org.molgenis.vcf.VcfSample;
+import org.molgenis.vcf.meta.VcfMeta;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class VcfLineTest
+{
+	private static final String FIXED_COLUMNS = "1\t100\trs1\tA\tG\t.\tPASS\t.\t";
+
+	private VcfMeta vcfMeta;
+
+	@BeforeClass
+	public void beforeClass() throws IOException
+	{
+		VcfReader reader = new VcfReader(new StringReader("##fileformat=VCFv4.1\n"
+				+ "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tsample1\tsample2\tsample3\tsample4\n"));
+		try
+		{
+			vcfMeta = reader.getVcfMeta();
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+	@Test
+	public void parseFloat()
+	{
+		String[] values = {
+				// zeros and signs
+				"0", "-0", "0.0", "-0.0", "00", "000.000", "+1", "-1",
+				// missing digits before or after the dot
+				"1.", ".5", "-.5", "-1.", "0.", ".0",
+				// exponents and special values, parsed by Float.parseFloat
+				"1e-3", "1E3", "2.5e+2", "NaN", "-NaN", "Infinity", "-Infinity",
+				// 7 significant digits are parsed directly, 8 are not
+				"1.234567", "1.2345678", "0.1234567", "0.12345678", "1234567", "12345678", "9999999", "99999999",
+				"0.0000001", "0.00000001", "0.000000001", "0.0000000001", "0001234567", "1.9999999", "1.99999999",
+				// rounding of the float
+				"0.1", "0.2", "0.3", "0.7", "1.1", "1.999", "2", "0.333", "0.6666667", "16777215", "16777217",
+				// not a number
+				".", "-", "-.", "..5", "1.2.3", "1,5", "a", "1a", "0x10", " 1", "1 ", "1f", "1d"};
+
+		for (String value : values)
+		{
+			assertParseFloat(value);
+		}
+	}
+
+	@Test
+	public void parseFloatRandom()
+	{
+		Random random = new Random(1);
+		for (int i = 0; i < 100000; ++i)
+		{
+			StringBuilder value = new StringBuilder();
+			if (random.nextInt(4) == 0)
+			{
+				value.append('-');
+			}
+			int digits = 1 + random.nextInt(10);
+			int dot = random.nextInt(digits + 1);
+			for (int d = 0; d < digits; ++d)
+			{
+				if (d == dot)
+				{
+					value.append('.');
+				}
+				value.append((char) ('0' + random.nextInt(10)));
+			}
+			assertParseFloat(value.toString());
+		}
+	}
+
+	private void assertParseFloat(String value)
+	{
+		// the value as DS field of the second sample, surrounded by other fields
+		String line = FIXED_COLUMNS + "GT:DS\t0/0:1\t0/1:" + value + "\t1/1:2";
+		VcfLine vcfLine = new VcfLine(vcfMeta, line);
+		int[] bounds = vcfLine.getSampleFieldBounds(1);
+		int start = bounds[2];
+		int end = bounds[3];
+		assertEquals(vcfLine.substring(start, end), value);
+
+		Float expected;
+		try
+		{
+			expected = Float.parseFloat(value);
+		}
+		catch (NumberFormatException e)
+		{
+			expected = null;
+		}
+
+		try
+		{
+			float actual = vcfLine.parseFloat(start, end);
+			if (expected == null)
+			{
+				fail("Expected NumberFormatException for: \"" + value + "\"");
+			}
+			assertEquals(Float.floatToIntBits(actual), Float.floatToIntBits(expected), "Parsing: \"" + value + "\"");
+		}
+		catch (NumberFormatException e)
+		{
+			if (expected != null)
+			{
+				fail("Unexpected NumberFormatException for: \"" + value + "\"");
+			}
+		}
+	}
+
+	@Test
+	public void getSampleFieldBounds()
+	{
+		String[] sampleColumns = {
+				"0/1:0.5:0.25,0.5,0.25\t1/1:2:0,0,1\t./.:.:.\t0|0:0:1,0,0",
+				// short and missing fields
+				"0/1\t1/1:2\t.\t0/0:.:0.9,0.1,0",
+				// empty fields, separators are skipped like StringUtils.split
+				"0/1::0.5\t:1/1:2:\t0/0:1:0.1,,0.9\t.:",
+				// more fields than in FORMAT
+				"0/1:1:0.1,0.8,0.1:extra\t1/1:2:0,0,1:extra:more\t0/0\t0/0"};
+
+		for (String samples : sampleColumns)
+		{
+			String line = FIXED_COLUMNS + "GT:DS:GP\t" + samples;
+			VcfLine vcfLine = new VcfLine(vcfMeta, line);
+			VcfRecord vcfRecord = new VcfRecord(vcfMeta, StringUtils.split(line, '\t'));
+			assertEquals(vcfLine.getNrSamples(), vcfRecord.getNrSamples(), line);
+			assertEquals(vcfLine.getFormatIndex("DS"), vcfRecord.getFormatIndex("DS"));
+			assertEquals(vcfLine.getVcfRecord(), vcfRecord);
+
+			for (int formatIndex = 0; formatIndex < 4; ++formatIndex)
+			{
+				int[] bounds = vcfLine.getSampleFieldBounds(formatIndex);
+				int i = 0;
+				for (VcfSample vcfSample : vcfRecord.getSamples())
+				{
+					String expected = vcfSample.getData(formatIndex);
+					int start = bounds[i * 2];
+					int end = bounds[i * 2 + 1];
+					String message = line + " sample " + i + " field " + formatIndex;
+					if (expected == null)
+					{
+						// VcfSample returns null for both absent fields and a dot
+						assertTrue(vcfLine.isMissing(start, end), message);
+						assertTrue(start == -1 || vcfLine.substring(start, end).equals("."), message);
+					}
+					else
+					{
+						assertEquals(vcfLine.substring(start, end), expected, message);
+						assertFalse(vcfLine.isMissing(start, end), message);
+					}
+					++i;
+				}
+			}
+		}
+	}
+
+	@Test
+	public void getSampleFieldBoundsWithoutSamples()
+	{
+		VcfLine vcfLine = new VcfLine(vcfMeta, "1\t100\trs1\tA\tG\t.\tPASS\t.");
+		assertEquals(vcfLine.getNrSamples(), 0);
+		assertEquals(vcfLine.getFormatIndex("GT"), -1);
+		assertEquals(vcfLine.getSampleFieldBounds(0).length, 0);
+	}
+
+	@Test
+	public void values()
+	{
+		String[] fields = {"0.1,0.8,0.1", "1,0", ",0.1,0.2,0.7", "0.1,,0.9", "0.1,0.9,", ",,", "1"};
+		for (String field : fields)
+		{
+			String line = FIXED_COLUMNS + "GP\t" + field;
+			VcfLine vcfLine = new VcfLine(vcfMeta, line);
+			int[] bounds = vcfLine.getSampleFieldBounds(0);
+			int start = bounds[0];
+			int end = bounds[1];
+
+			String[] expected = StringUtils.split(vcfLine.substring(start, end), ',');
+			assertEquals(vcfLine.countValues(start, end, ','), expected.length, field);
+
+			int valueStart = vcfLine.nextValue(start, end, ',');
+			for (String expectedValue : expected)
+			{
+				int valueEnd = vcfLine.valueEnd(valueStart, end, ',');
+				assertEquals(vcfLine.substring(valueStart, valueEnd), expectedValue, field);
+				valueStart = vcfLine.nextValue(valueEnd, end, ',');
+			}
+			assertEquals(valueStart, end, field);
+		}
+	}
+
+	@Test
+	public void wrappedRecord()
+	{
+		String line = FIXED_COLUMNS + "GT:DS\t0/0:1\t0/1:0.5";
+		VcfRecord vcfRecord = new VcfRecord(vcfMeta, StringUtils.split(line, '\t'));
+		VcfLine vcfLine = new VcfLine(vcfRecord);
+		assertFalse(vcfLine.hasLine());
+		assertEquals(vcfLine.getNrSamples(), 2);
+		assertEquals(vcfLine.getVcfRecord(), vcfRecord);
+		assertTrue(new VcfLine(vcfMeta, line).hasLine());
+	}
+}
@@ -0,0 +1,158 @@
+package nl.systemsgenetics.eqtlinteractionanalyser.eqtlinteractionanalyser;
+
+/**
+ * Least squares fit of expression ~ intercept + genotype + covariate +
+ * genotype * covariate for one covariate and many SNPs. The model is solved
+ * from the 4x4 normal equations with a Cholesky decomposition, without
+ * allocating per fit. The covariate is centered once; centering the genotypes
+ * and covariate does not change the interaction term but keeps the normal
+ * equations well conditioned.
+ *
+ * Not thread safe, use one instance per thread.
+ */
+class InteractionRegression {
+
+	private static final double SINGULAR_TOLERANCE = 1e-10;
+
+	private final int nrSamples;
+	private final double[] covariate;
+	private final double sumCovariate;
+	private final double sumCovariateSquared;
+	private final double[][] xtx = new double[4][4];
+	private final double[] xty = new double[4];
+	private final double[] beta = new double[4];
+	private double interactionBeta;
+	private double interactionStandardError;
+
+	/**
+	 * @param covariate values of the covariate per sample, will not be
+	 * modified
+	 */
+	InteractionRegression(double[] covariate) {
+		this.nrSamples = covariate.length;
+
+		double mean = 0;
+		for (int s = 0; s < nrSamples; s++) {
+			mean += covariate[s];
+		}
+		mean /= nrSamples;
+
+		this.covariate = new double[nrSamples];
+		double sum = 0;
+		double sumSquared = 0;
+		for (int s = 0; s < nrSamples; s++) {
+			double c = covariate[s] - mean;
+			this.covariate[s] = c;
+			sum += c;
+			sumSquared += c * c;
+		}
+		this.sumCovariate = sum;
+		this.sumCovariateSquared = sumSquared;
+	}
+
+	/**
+	 * Fits the model. The genotypes are best centered by the caller.
+	 *
+	 * @param genotypes
+	 * @param expression
+	 * @return false if the model is singular, the interaction beta and
+	 * standard error are then not updated
+	 */
+	boolean fit(double[] genotypes, double[] expression) {
+
+		double sumG = 0, sumGG = 0, sumGC = 0, sumGGC = 0, sumGCC = 0, sumGGCC = 0;
+		double sumY = 0, sumGY = 0, sumCY = 0, sumGCY = 0;
+		for (int s = 0; s < nrSamples; s++) {
+			double g = genotypes[s];
+			double c = covariate[s];
+			double y = expression[s];
+			double gc = g * c;
+			sumG += g;
+			sumGG += g * g;
+			sumGC += gc;
+			sumGGC += g * gc;
+			sumGCC += gc * c;
+			sumGGCC += gc * gc;
+			sumY += y;
+			sumGY += g * y;
+			sumCY += c * y;
+			sumGCY += gc * y;
+		}
+
+		// columns: intercept, genotype, covariate, interaction. Only the lower triangle is used
+		xtx[0][0] = nrSamples;
+		xtx[1][0] = sumG;
+		xtx[1][1] = sumGG;
+		xtx[2][0] = sumCovariate;
+		xtx[2][1] = sumGC;
+		xtx[2][2] = sumCovariateSquared;
+		xtx[3][0] = sumGC;
+		xtx[3][1] = sumGGC;
+		xtx[3][2] = sumGCC;
+		xtx[3][3] = sumGGCC;
+		xty[0] = sumY;
+		xty[1] = sumGY;
+		xty[2] = sumCY;
+		xty[3] = sumGCY;
+
+		// in place Cholesky decomposition, xtx = L * L'
+		for (int j = 0; j < 4; j++) {
+			double diagonal = xtx[j][j];
+			double pivot = diagonal;
+			for (int k = 0; k < j; k++) {
+				pivot -= xtx[j][k] * xtx[j][k];
+			}
+			if (pivot <= SINGULAR_TOLERANCE * diagonal) {
+				return false;
+			}
+			double l = Math.sqrt(pivot);
+			xtx[j][j] = l;
+			for (int i = j + 1; i < 4; i++) {
+				double v = xtx[i][j];
+				for (int k = 0; k < j; k++) {
+					v -= xtx[i][k] * xtx[j][k];
+				}
+				xtx[i][j] = v / l;
+			}
+		}
+
+		// solve L * z = xty, then L' * beta = z
+		for (int i = 0; i < 4; i++) {
+			double v = xty[i];
+			for (int k = 0; k < i; k++) {
+				v -= xtx[i][k] * beta[k];
+			}
+			beta[i] = v / xtx[i][i];
+		}
+		for (int i = 3; i >= 0; i--) {
+			double v = beta[i];
+			for (int k = i + 1; k < 4; k++) {
+				v -= xtx[k][i] * beta[k];
+			}
+			beta[i] = v / xtx[i][i];
+		}
+
+		double residualSumOfSquares = 0;
+		for (int s = 0; s < nrSamples; s++) {
+			double g = genotypes[s];
+			double c = covariate[s];
+			double r = expression[s] - beta[0] - beta[1] * g - beta[2] * c - beta[3] * g * c;
+			residualSumOfSquares += r * r;
+		}
+
+		// last diagonal element of the inverse of L * L' is 1 / L33^2
+		double l33 = xtx[3][3];
+		interactionBeta = beta[3];
+		interactionStandardError = Math.sqrt(residualSumOfSquares / (nrSamples - 4)) / l33;
+		return true;
+	}
+
+	double getInteractionBeta() {
+		return interactionBeta;
+	}
+
+	double getInteractionStandardError() {
+		return interactionStandardError;
+	}
+
+}
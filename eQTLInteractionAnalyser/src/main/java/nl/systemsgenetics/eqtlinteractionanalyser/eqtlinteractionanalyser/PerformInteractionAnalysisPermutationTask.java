@@ -7,8 +7,7 @@ package nl.systemsgenetics.eqtlinteractionanalyser.eqtlinteractionanalyser;
 
 import gnu.trove.set.hash.TIntHashSet;
 import java.util.concurrent.Callable;
-import org.apache.commons.math3.linear.SingularMatrixException;
-import org.apache.commons.math3.stat.regression.SimpleRegression;
+import org.apache.commons.math3.distribution.TDistribution;
 
 /**
  *
@@ -22,8 +21,12 @@ public class PerformInteractionAnalysisPermutationTask implements Callable<Doubl
 	ExpressionDataset datasetCovariatesPCAForceNormal;
 	public int covToTest = -1;
 	public int nrSamples = -1;
-	public org.apache.commons.math3.stat.regression.OLSMultipleLinearRegression regression = null;
 	public cern.jet.random.tdouble.StudentT tDistColt = null;
+	private final InteractionRegression regression;
+	private final TDistribution corrTDistribution;
+	private final double[] covariatePCAForceNormalCentered;
+	private final double covariatePCAForceNormalSumSquares;
+	private final double[] genotypesCentered;
 	private final SkippedInteractionTracker skippedTracker;
 	private final SkippedInteractionWriter skippedWriter;
 	private final TIntHashSet snpsToTest;
@@ -39,10 +42,28 @@ public class PerformInteractionAnalysisPermutationTask implements Callable<Doubl
 		this.skippedWriter = skippedWriter;
 		this.snpsToTest = snpsToTest;
 
-		this.regression = new org.apache.commons.math3.stat.regression.OLSMultipleLinearRegression();
+		this.regression = new InteractionRegression(datasetCovariates.rawData[covToTest]);
 		cern.jet.random.tdouble.engine.DoubleRandomEngine randomEngine = new cern.jet.random.tdouble.engine.DRand();
 		this.tDistColt = new cern.jet.random.tdouble.StudentT(this.nrSamples - 4, randomEngine);
 
+		// the covariate is the same for all SNPs, so center it only once
+		double[] covariatePCAForceNormal = datasetCovariatesPCAForceNormal.rawData[covToTest];
+		this.covariatePCAForceNormalCentered = new double[covariatePCAForceNormal.length];
+		double mean = 0;
+		for (int s = 0; s < covariatePCAForceNormal.length; s++) {
+			mean += covariatePCAForceNormal[s];
+		}
+		mean /= covariatePCAForceNormal.length;
+		double sumSquares = 0;
+		for (int s = 0; s < covariatePCAForceNormal.length; s++) {
+			double x = covariatePCAForceNormal[s] - mean;
+			covariatePCAForceNormalCentered[s] = x;
+			sumSquares += x * x;
+		}
+		this.covariatePCAForceNormalSumSquares = sumSquares;
+		this.corrTDistribution = covariatePCAForceNormal.length > 2 ? new TDistribution(covariatePCAForceNormal.length - 2) : null;
+		this.genotypesCentered = new double[nrSamples];
+
 	}
 
 	@Override
@@ -55,20 +76,13 @@ public class PerformInteractionAnalysisPermutationTask implements Callable<Doubl
 				continue;
 			}
 			
-			double corrPvalue = correlateCovariateWithGenotype(snp);
+			centerGenotypes(snp);
+			double corrPvalue = correlateCovariateWithGenotype();
 			if (corrPvalue > corrPvalueThreshold) { // don't compute the interaction if the covariate expression is affected by this SNP
-				try {
+				if (regression.fit(genotypesCentered, datasetExpression.rawData[snp])) {
 
-					double[][] valsX = new double[nrSamples][3];
-					for (int s = 0; s < nrSamples; s++) {
-						valsX[s][0] = datasetGenotypes.rawData[snp][s];
-						valsX[s][1] = datasetCovariates.rawData[covToTest][s];
-						valsX[s][2] = valsX[s][0] * valsX[s][1];
-					}
-					double[] valsY = datasetExpression.rawData[snp];
-					regression.newSampleData(valsY, valsX);
-					double betaInteraction = regression.estimateRegressionParameters()[3];
-					double seInteraction = regression.estimateRegressionParametersStandardErrors()[3];
+					double betaInteraction = regression.getInteractionBeta();
+					double seInteraction = regression.getInteractionStandardError();
 					double tInteraction = betaInteraction / seInteraction;
 					double pValueInteraction = 1;
 					double zScoreInteraction = 0;
@@ -86,7 +100,7 @@ public class PerformInteractionAnalysisPermutationTask implements Callable<Doubl
 						zScoreInteraction = -cern.jet.stat.tdouble.Probability.normalInverse(pValueInteraction);
 					}
 					zScores[snp] = zScoreInteraction;
-				} catch (SingularMatrixException e) {
+				} else {
 					zScores[snp] = 0;
 					skippedTracker.addSkipped(SkippedInteractionTracker.Reason.SINGULAR, datasetGenotypes.probeNames[snp]);
 				}
@@ -102,17 +116,43 @@ public class PerformInteractionAnalysisPermutationTask implements Callable<Doubl
 		return new DoubleArrayIntegerObject(zScores, covToTest);
 	}
 
-	private double correlateCovariateWithGenotype(int snp){
-		SimpleRegression simpleRegression = new SimpleRegression();
-		double[] expression = datasetCovariatesPCAForceNormal.rawData[covToTest];
+	void centerGenotypes(int snp) {
 		double[] genotypes = datasetGenotypes.rawData[snp];
-		for (int s = 0; s < expression.length; s++) {
-			simpleRegression.addData(expression[s], genotypes[s]);
+		double mean = 0;
+		for (int s = 0; s < nrSamples; s++) {
+			mean += genotypes[s];
+		}
+		mean /= nrSamples;
+		for (int s = 0; s < nrSamples; s++) {
+			genotypesCentered[s] = genotypes[s] - mean;
+		}
+	}
+
+	/**
+	 * Significance of the slope of the genotypes regressed on the covariate,
+	 * computed the same way as SimpleRegression.getSignificance() but from
+	 * the centered data.
+	 *
+	 * @return p-value or NaN if the slope can not be tested
+	 */
+	double correlateCovariateWithGenotype(){
+		if (corrTDistribution == null) {
+			return Double.NaN;
+		}
+		double sumXY = 0;
+		double sumYY = 0;
+		for (int s = 0; s < nrSamples; s++) {
+			double y = genotypesCentered[s];
+			sumXY += covariatePCAForceNormalCentered[s] * y;
+			sumYY += y * y;
 		}
+		double slope = sumXY / covariatePCAForceNormalSumSquares;
+		double meanSquareError = Math.max(0d, sumYY - sumXY * sumXY / covariatePCAForceNormalSumSquares) / (nrSamples - 2);
+		double slopeStdErr = Math.sqrt(meanSquareError / covariatePCAForceNormalSumSquares);
 		//This is not working now that we have the _rs next to the gene names
 //		if (datasetGenotypes.probeNames[snp].equals(datasetCovariatesPCAForceNormal.probeNames[covToTest])){
 //			System.out.println("Same gene! " + datasetGenotypes.probeNames[snp] + "\t" + datasetCovariatesPCAForceNormal.probeNames[covToTest] + "\t" + simpleRegression.getSignificance() + "\t" + simpleRegression.getR());
 //		}
-		return simpleRegression.getSignificance();
+		return 2d * (1d - corrTDistribution.cumulativeProbability(Math.abs(slope) / slopeStdErr));
 	}
 }
@@ -0,0 +1,237 @@
+package nl.systemsgenetics.eqtlinteractionanalyser.eqtlinteractionanalyser;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import junit.framework.TestCase;
+import org.apache.commons.math3.linear.SingularMatrixException;
+import org.apache.commons.math3.stat.regression.OLSMultipleLinearRegression;
+import org.apache.commons.math3.stat.regression.SimpleRegression;
+
+/**
+ * Compares InteractionRegression and the permutation task with the
+ * OLSMultipleLinearRegression and SimpleRegression they replace.
+ *
+ * @author Patrick Deelen
+ */
+public class InteractionRegressionTest extends TestCase {
+
+	private static final int NR_SAMPLES = 150;
+	private static final int NR_SNPS = 60;
+	private static final int[] MONOMORPHIC_SNPS = {3, 17, 31};
+	private static final int COLLINEAR_SNP = 40;
+	private static final int SHARED_QTL_SNP = 45;
+	private static final double RELATIVE_DELTA = 1e-8;
+
+	private ExpressionDataset genotypes;
+	private ExpressionDataset expression;
+	private ExpressionDataset covariates;
+	private ExpressionDataset covariatesPCAForceNormal;
+
+	public InteractionRegressionTest(String testName) {
+		super(testName);
+	}
+
+	@Override
+	protected void setUp() {
+		Random random = new Random(42);
+		int nrCovariates = 3;
+
+		covariates = new ExpressionDataset(nrCovariates, NR_SAMPLES);
+		covariatesPCAForceNormal = new ExpressionDataset(nrCovariates, NR_SAMPLES);
+		for (int c = 0; c < nrCovariates; c++) {
+			for (int s = 0; s < NR_SAMPLES; s++) {
+				covariates.rawData[c][s] = 3 + random.nextGaussian();
+				covariatesPCAForceNormal.rawData[c][s] = random.nextGaussian();
+			}
+		}
+
+		genotypes = new ExpressionDataset(NR_SNPS, NR_SAMPLES);
+		expression = new ExpressionDataset(NR_SNPS, NR_SAMPLES);
+		for (int snp = 0; snp < NR_SNPS; snp++) {
+			double maf = 0.05 + random.nextDouble() * 0.45;
+			double interaction = snp % 3 == 0 ? random.nextGaussian() : 0;
+			for (int s = 0; s < NR_SAMPLES; s++) {
+				double g;
+				if (Arrays.binarySearch(MONOMORPHIC_SNPS, snp) >= 0) {
+					g = MONOMORPHIC_SNPS[0] == snp ? 0 : MONOMORPHIC_SNPS[1] == snp ? 1 : 2;
+				} else if (snp == COLLINEAR_SNP) {
+					// dosage that is a linear function of the first covariate
+					g = 0.5 + 0.25 * covariates.rawData[0][s];
+				} else if (snp == SHARED_QTL_SNP) {
+					g = covariatesPCAForceNormal.rawData[0][s] > 0 ? 2 : 0;
+				} else {
+					g = (random.nextDouble() < maf ? 1 : 0) + (random.nextDouble() < maf ? 1 : 0);
+				}
+				genotypes.rawData[snp][s] = g;
+				expression.rawData[snp][s] = 10 + 0.5 * g + 0.3 * covariates.rawData[0][s] + interaction * g * covariates.rawData[0][s] + random.nextGaussian();
+			}
+		}
+	}
+
+	public void testFitEqualsOls() {
+		for (int c = 0; c < covariates.nrProbes; c++) {
+			InteractionRegression regression = new InteractionRegression(covariates.rawData[c]);
+			int nrFitted = 0;
+			for (int snp = 0; snp < NR_SNPS; snp++) {
+
+				double[] expected = fitOls(snp, c);
+				boolean fitted = regression.fit(centered(genotypes.rawData[snp]), expression.rawData[snp]);
+
+				assertEquals("covariate " + c + " SNP " + snp, expected != null, fitted);
+				if (Arrays.binarySearch(MONOMORPHIC_SNPS, snp) >= 0 || (snp == COLLINEAR_SNP && c == 0)) {
+					assertFalse("covariate " + c + " SNP " + snp, fitted);
+				}
+				if (!fitted) {
+					continue;
+				}
+				++nrFitted;
+
+				double beta = regression.getInteractionBeta();
+				double se = regression.getInteractionStandardError();
+				assertEquals("beta covariate " + c + " SNP " + snp, expected[0], beta, Math.abs(expected[0]) * RELATIVE_DELTA);
+				assertEquals("se covariate " + c + " SNP " + snp, expected[1], se, expected[1] * RELATIVE_DELTA);
+				double expectedZ = zScore(expected[0] / expected[1]);
+				assertEquals("z covariate " + c + " SNP " + snp, expectedZ, zScore(beta / se), Math.max(1, Math.abs(expectedZ)) * RELATIVE_DELTA);
+			}
+			assertTrue(nrFitted > NR_SNPS / 2);
+		}
+	}
+
+	public void testScreeningEqualsSimpleRegression() throws IOException {
+		File skippedFile = File.createTempFile("InteractionRegressionTest", ".txt");
+		skippedFile.deleteOnExit();
+		SkippedInteractionWriter skippedWriter = new SkippedInteractionWriter(skippedFile);
+		PerformInteractionAnalysisPermutationTask task = new PerformInteractionAnalysisPermutationTask(genotypes, expression, covariates, covariatesPCAForceNormal, 0, skippedWriter, null);
+		skippedWriter.close();
+
+		for (int snp = 0; snp < NR_SNPS; snp++) {
+			SimpleRegression simpleRegression = new SimpleRegression();
+			for (int s = 0; s < NR_SAMPLES; s++) {
+				simpleRegression.addData(covariatesPCAForceNormal.rawData[0][s], genotypes.rawData[snp][s]);
+			}
+			double expected = simpleRegression.getSignificance();
+
+			task.centerGenotypes(snp);
+			double p = task.correlateCovariateWithGenotype();
+			if (Double.isNaN(expected)) {
+				assertTrue("SNP " + snp + " p " + p, Double.isNaN(p));
+			} else {
+				assertEquals("SNP " + snp, expected, p, Math.max(1e-12, expected * RELATIVE_DELTA));
+			}
+		}
+	}
+
+	public void testTaskEqualsOls() throws Exception {
+		for (int c = 0; c < covariates.nrProbes; c++) {
+			File skippedFile = File.createTempFile("InteractionRegressionTest", ".txt");
+			skippedFile.deleteOnExit();
+			SkippedInteractionWriter skippedWriter = new SkippedInteractionWriter(skippedFile);
+			DoubleArrayIntegerObject result = new PerformInteractionAnalysisPermutationTask(genotypes, expression, covariates, covariatesPCAForceNormal, c, skippedWriter, null).call();
+			skippedWriter.close();
+
+			assertEquals(c, result.intValue);
+
+			// the interaction analysis as done before InteractionRegression
+			ArrayList<String> expectedSingular = new ArrayList<String>();
+			ArrayList<String> expectedSharedQtl = new ArrayList<String>();
+			for (int snp = 0; snp < NR_SNPS; snp++) {
+				SimpleRegression simpleRegression = new SimpleRegression();
+				for (int s = 0; s < NR_SAMPLES; s++) {
+					simpleRegression.addData(covariatesPCAForceNormal.rawData[c][s], genotypes.rawData[snp][s]);
+				}
+				double expectedZ;
+				if (simpleRegression.getSignificance() > 0.0001) {
+					double[] expected = fitOls(snp, c);
+					if (expected == null) {
+						expectedSingular.add(genotypes.probeNames[snp]);
+						expectedZ = 0;
+					} else {
+						expectedZ = zScore(expected[0] / expected[1]);
+					}
+				} else {
+					expectedSharedQtl.add(genotypes.probeNames[snp]);
+					expectedZ = 0;
+				}
+				assertEquals("covariate " + c + " SNP " + snp, expectedZ, result.doubleArray[snp], Math.max(1, Math.abs(expectedZ)) * RELATIVE_DELTA);
+			}
+
+			String[] skipped = readLines(skippedFile).get(1).split("\t", -1);
+			assertEquals(covariates.probeNames[c], skipped[0]);
+			assertEquals(expectedSingular.toString(), Arrays.asList(splitQtls(skipped[3])).toString());
+			assertEquals(expectedSharedQtl.toString(), Arrays.asList(splitQtls(skipped[4])).toString());
+			assertTrue(expectedSingular.contains(genotypes.probeNames[MONOMORPHIC_SNPS[0]]) || expectedSharedQtl.contains(genotypes.probeNames[MONOMORPHIC_SNPS[0]]));
+			if (c == 0) {
+				assertTrue(expectedSingular.contains(genotypes.probeNames[COLLINEAR_SNP]));
+				assertTrue(expectedSharedQtl.contains(genotypes.probeNames[SHARED_QTL_SNP]));
+			}
+		}
+	}
+
+	/**
+	 * @return interaction beta and standard error or null if singular
+	 */
+	private double[] fitOls(int snp, int covariate) {
+		double[][] valsX = new double[NR_SAMPLES][3];
+		for (int s = 0; s < NR_SAMPLES; s++) {
+			valsX[s][0] = genotypes.rawData[snp][s];
+			valsX[s][1] = covariates.rawData[covariate][s];
+			valsX[s][2] = valsX[s][0] * valsX[s][1];
+		}
+		OLSMultipleLinearRegression regression = new OLSMultipleLinearRegression();
+		regression.newSampleData(expression.rawData[snp], valsX);
+		try {
+			return new double[]{regression.estimateRegressionParameters()[3], regression.estimateRegressionParametersStandardErrors()[3]};
+		} catch (SingularMatrixException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Same conversion as in PerformInteractionAnalysisPermutationTask
+	 */
+	private static double zScore(double tInteraction) {
+		cern.jet.random.tdouble.StudentT tDistColt = new cern.jet.random.tdouble.StudentT(NR_SAMPLES - 4, new cern.jet.random.tdouble.engine.DRand());
+		double pValueInteraction;
+		if (tInteraction < 0) {
+			pValueInteraction = Math.max(tDistColt.cdf(tInteraction), 2.0E-323);
+			return cern.jet.stat.tdouble.Probability.normalInverse(pValueInteraction);
+		} else {
+			pValueInteraction = Math.max(tDistColt.cdf(-tInteraction), 2.0E-323);
+			return -cern.jet.stat.tdouble.Probability.normalInverse(pValueInteraction);
+		}
+	}
+
+	private static double[] centered(double[] values) {
+		double mean = 0;
+		for (double v : values) {
+			mean += v;
+		}
+		mean /= values.length;
+		double[] centered = new double[values.length];
+		for (int s = 0; s < values.length; s++) {
+			centered[s] = values[s] - mean;
+		}
+		return centered;
+	}
+
+	private static String[] splitQtls(String qtls) {
+		return qtls.isEmpty() ? new String[0] : qtls.split(";");
+	}
+
+	private static ArrayList<String> readLines(File file) throws IOException {
+		ArrayList<String> lines = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		String line;
+		while ((line = reader.readLine()) != null) {
+			lines.add(line);
+		}
+		reader.close();
+		return lines;
+	}
+
+}
@@ -306,6 +306,8 @@ public class Ase {
 			AseCalculator.startAseCalculators(aseVariants, configuration.getThreads());
 
 			System.out.println("Completed ASE calculations");
+			System.out.println("Note: the beta binomial p and theta are not rounded to a grid of 0.001 and whole numbers like in earlier versions");
+			LOGGER.info("The beta binomial p and theta are not rounded to a grid of 0.001 and whole numbers like in earlier versions");
 			
 			//int numberOfTests = aseVariants.length;
 			//double bonferroniCutoff = 0.05 / numberOfTests;
@@ -488,7 +488,7 @@ public class AseConfiguration {
 	}
 
 	public static void printHelp() {
-		new HelpFormatter().printHelp(" ", OPTIONS);
+		new HelpFormatter().printHelp(" ", "", OPTIONS, "\nThe second LikelihoodRatioP column and LikelihoodRatioTheta are the maximum likelihood p and theta of the beta binomial model. They are no longer rounded to the grid of earlier versions (steps of 0.001 for p and whole numbers for theta).");
 	}
 
 	public List<File> getInputFiles() {
@@ -0,0 +1,79 @@
+package eqtlmappingpipeline.ase;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The allele counts and sample indices of one ASE variant, stored as int
+ * columns. Loader threads append without locking: each count reserves a slot
+ * with an atomic counter. The slots are in segments that double in size, so
+ * a full segment never needs to be copied while other threads write to it.
+ *
+ * The counts can be read once the threads that append them are done.
+ */
+class AseCounts {
+
+	private static final int FIRST_SEGMENT_SIZE_LOG2 = 2;
+	private static final int FIELDS = 3;
+
+	private final AtomicInteger size;
+	/**
+	 * Segment s holds 4 << s counts, each as a1 count, a2 count and sample
+	 * index
+	 */
+	private final AtomicReferenceArray<int[]> segments;
+
+	AseCounts() {
+		size = new AtomicInteger(0);
+		segments = new AtomicReferenceArray<int[]>(32 - FIRST_SEGMENT_SIZE_LOG2);
+	}
+
+	void add(int a1Count, int a2Count, int sampleIndex) {
+
+		int index = size.getAndIncrement();
+
+		int segmentIndex = 31 - Integer.numberOfLeadingZeros((index >> FIRST_SEGMENT_SIZE_LOG2) + 1);
+		int offset = FIELDS * (index - (((1 << segmentIndex) - 1) << FIRST_SEGMENT_SIZE_LOG2));
+
+		int[] segment = segments.get(segmentIndex);
+		if (segment == null) {
+			segments.compareAndSet(segmentIndex, null, new int[FIELDS << (FIRST_SEGMENT_SIZE_LOG2 + segmentIndex)]);
+			segment = segments.get(segmentIndex);
+		}
+
+		segment[offset] = a1Count;
+		segment[offset + 1] = a2Count;
+		segment[offset + 2] = sampleIndex;
+
+	}
+
+	int size() {
+		return size.get();
+	}
+
+	/**
+	 * Copies the counts to contiguous arrays, in the order they were added.
+	 *
+	 * @param a1Counts at least size() long
+	 * @param a2Counts at least size() long
+	 * @param sampleIndices at least size() long
+	 * @return the number of counts copied
+	 */
+	int copyTo(int[] a1Counts, int[] a2Counts, int[] sampleIndices) {
+
+		int count = Math.min(size.get(), a1Counts.length);
+		int i = 0;
+		for (int segmentIndex = 0; i < count; ++segmentIndex) {
+			int[] segment = segments.get(segmentIndex);
+			int segmentCount = Math.min(count - i, 1 << (FIRST_SEGMENT_SIZE_LOG2 + segmentIndex));
+			for (int j = 0; j < segmentCount; ++j, ++i) {
+				a1Counts[i] = segment[FIELDS * j];
+				a2Counts[i] = segment[FIELDS * j + 1];
+				sampleIndices[i] = segment[FIELDS * j + 2];
+			}
+		}
+		return count;
+
+	}
+
+}
@@ -66,38 +66,41 @@ public class AseMle {
 
 	public AseMle(IntArrayList a1Counts, IntArrayList a2Counts) {
 
-		double provisionalMaxLogLikelihood = Double.NEGATIVE_INFINITY;
-		double provisionalMaxLogLikelihoodP = 0.5;
-
-
-		//First calculate binominal coefficients
-		double[] logBinominalCoefficients = new double[a1Counts.size()];
+		//The binominal likelihood only depends on the summed counts, the binominal coefficients are a constant
+		double sumLogBinominalCoefficients = 0;
+		long sumA1Counts = 0;
+		long sumA2Counts = 0;
 		for (int i = 0; i < a1Counts.size(); ++i) {
 			int a1Count = a1Counts.getQuick(i);
-			int totalReads = a1Count + a2Counts.getQuick(i);
-			logBinominalCoefficients[i] = lnbico(totalReads, a1Count);
+			int a2Count = a2Counts.getQuick(i);
+			sumLogBinominalCoefficients += lnbico(a1Count + a2Count, a1Count);
+			sumA1Counts += a1Count;
+			sumA2Counts += a2Count;
 		}
 
-		double logLikelihoodNull = Double.NaN;
+		double provisionalMaxLogLikelihood = Double.NEGATIVE_INFINITY;
+		double provisionalMaxLogLikelihoodP = 0.5;
 
-		for (int i = 0; i < probabilities.length; ++i) {
+		//The log likelihood is concave in p so the maximum on the grid is next
+		//to the closed form estimate. Also check the neighbours to be robust to rounding
+		double mleP = sumA1Counts + sumA2Counts == 0 ? 0 : sumA1Counts / (double) (sumA1Counts + sumA2Counts);
+		int stepsBelowMleP = (int) (mleP / probabilityStep.doubleValue());
+		int firstIndex = Math.max(0, stepsBelowMleP - 2);
+		int lastIndex = Math.min(probabilities.length - 1, stepsBelowMleP + 1);
 
-			double sumLogLikelihood = 0;
-			for (int s = 0; s < a1Counts.size(); ++s) {
-				sumLogLikelihood += logBinominalCoefficients[s] + (double) a1Counts.getQuick(s) * logProbabilities[i] + (double) a2Counts.getQuick(s) * log1minProbabilities[i];
-			}
+		for (int i = firstIndex; i <= lastIndex; ++i) {
+
+			double sumLogLikelihood = sumLogBinominalCoefficients + sumA1Counts * logProbabilities[i] + sumA2Counts * log1minProbabilities[i];
 
 			if (sumLogLikelihood > provisionalMaxLogLikelihood) {
 				provisionalMaxLogLikelihood = sumLogLikelihood;
 				provisionalMaxLogLikelihoodP = probabilities[i];
 			}
-			
-			if(probabilities[i] == 0.5){
-				logLikelihoodNull = sumLogLikelihood;
-			}
 
 		}
-		
+
+		double logLikelihoodNull = sumLogBinominalCoefficients + (sumA1Counts + sumA2Counts) * Math.log(0.5);
+
 		if(Double.isNaN(logLikelihoodNull)){
 			throw new RuntimeException("Something went wrong during ASE analysis. This should nog happen, please contact developers");
 		}
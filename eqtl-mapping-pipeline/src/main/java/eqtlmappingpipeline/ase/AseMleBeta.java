@@ -2,9 +2,15 @@ package eqtlmappingpipeline.ase;
 
 import cern.colt.list.tint.IntArrayList;
 import cern.jet.stat.tdouble.Probability;
-import java.math.BigDecimal;
-import java.math.MathContext;
-import java.math.RoundingMode;
+import gnu.trove.map.hash.TLongIntHashMap;
+import java.util.Arrays;
+import org.apache.commons.math3.analysis.UnivariateFunction;
+import org.apache.commons.math3.optim.MaxEval;
+import org.apache.commons.math3.optim.nonlinear.scalar.GoalType;
+import org.apache.commons.math3.optim.univariate.BrentOptimizer;
+import org.apache.commons.math3.optim.univariate.SearchInterval;
+import org.apache.commons.math3.optim.univariate.UnivariateObjectiveFunction;
+import org.apache.commons.math3.optim.univariate.UnivariatePointValuePair;
 import org.apache.log4j.Logger;
 
 /**
@@ -27,11 +33,13 @@ public class AseMleBeta {
 	private static final int NTOP = 2000;
 	private static final double[] aa = new double[NTOP];
 	private static final Logger LOGGER = Logger.getLogger(AseMleBeta.class);
-	private static final BigDecimal probabilityStep = new BigDecimal(0.001);
-	private static final MathContext mathContextProbability = new MathContext(3, RoundingMode.HALF_UP);//Must fit step percision
-	protected static final double[] probabilities;
-	protected static final double[] oneMinProbabilities;
 	private static final int maxThetaToTest = 1000;
+	private static final double[] coarseProbabilities;
+	private static final double[] coarseThetas;
+	private static final int COARSE_THETA_STEPS = 15;
+	private static final double RELATIVE_TOLERANCE = 1e-10;
+	private static final double ABSOLUTE_TOLERANCE = 1e-12;
+	private static final MaxEval MAX_EVAL = new MaxEval(1000);
 
 	static {
 		a[0] = 1.;
@@ -44,69 +52,69 @@ public class AseMleBeta {
 	}
 
 	static {
-		BigDecimal one = new BigDecimal(1);
 
-		int stepCount = ((int) (1 / probabilityStep.doubleValue())) - 1;
-
-		probabilities = new double[stepCount];
-		oneMinProbabilities = new double[stepCount];
-
-		int i = 0;
-		for (BigDecimal p = probabilityStep; p.compareTo(one) < 0; p = p.add(probabilityStep)) {
-
-			double p2 = p.round(mathContextProbability).doubleValue();
-			probabilities[i] = p2;
-			oneMinProbabilities[i] = 1 - p2;
+		//0.001, 0.02, 0.04 ... 0.98, 0.999. Includes 0.5
+		coarseProbabilities = new double[51];
+		coarseProbabilities[0] = 0.001;
+		for (int i = 1; i < 50; ++i) {
+			coarseProbabilities[i] = i / 50d;
+		}
+		coarseProbabilities[50] = 0.999;
 
-			++i;
+		//Log scale from 1 to maxThetaToTest
+		coarseThetas = new double[COARSE_THETA_STEPS + 1];
+		for (int i = 0; i <= COARSE_THETA_STEPS; ++i) {
+			coarseThetas[i] = Math.pow(maxThetaToTest, i / (double) COARSE_THETA_STEPS);
 		}
+		coarseThetas[0] = 1;
+		coarseThetas[COARSE_THETA_STEPS] = maxThetaToTest;
 
 	}
 
+	/**
+	 * Maximum likelihood estimate of the beta binominal model with p between
+	 * 0.001 and 0.999 and theta between 1 and 1000. The likelihood is
+	 * calculated from the distinct count pairs and the optimum is found by
+	 * refining the best point of a coarse scan with Brent's method, first for
+	 * theta on a log scale and within that for p.
+	 *
+	 * @param a1Counts
+	 * @param a2Counts
+	 */
 	public AseMleBeta(IntArrayList a1Counts, IntArrayList a2Counts) {
 
-		double provisionalMaxLogLikelihood = Double.NEGATIVE_INFINITY;
-		double provisionalMaxLogLikelihoodP = 0.5;
-		double provisionalMaxLogLikelihoodTheta = Double.NaN;
-
-
-		//First calculate binominal coefficients
-		double[] logBinominalCoefficients = new double[a1Counts.size()];
-		for (int i = 0; i < a1Counts.size(); ++i) {
-			int a1Count = a1Counts.getQuick(i);
-			int totalReads = a1Count + a2Counts.getQuick(i);
-			logBinominalCoefficients[i] = lnbico(totalReads, a1Count);
-		}
-
-		for (int i = 0; i < probabilities.length; ++i) {
-
-			for (int theta = 1; theta <= maxThetaToTest; ++theta) {
-
-				double sumLogLikelihood = 0;
-				for (int s = 0; s < a1Counts.size(); ++s) {
-					double alfa = theta * oneMinProbabilities[i];
-					double beta = theta * probabilities[i];
-					sumLogLikelihood += logBinominalCoefficients[s] + betaln(a2Counts.getQuick(s) + alfa, a1Counts.getQuick(s) + beta) - betaln(alfa, beta);
-				}
-
-				if (sumLogLikelihood > provisionalMaxLogLikelihood) {
-					provisionalMaxLogLikelihood = sumLogLikelihood;
-					provisionalMaxLogLikelihoodP = probabilities[i];
-					provisionalMaxLogLikelihoodTheta = theta;
-				}
+		final BetaBinominalLikelihood likelihood = new BetaBinominalLikelihood(a1Counts, a2Counts);
 
+		double[] coarseThetaOptimums = new double[coarseThetas.length];
+		int bestCoarseTheta = 0;
+		for (int i = 0; i < coarseThetas.length; ++i) {
+			coarseThetaOptimums[i] = likelihood.maximizeP(coarseThetas[i]);
+			if (coarseThetaOptimums[i] > coarseThetaOptimums[bestCoarseTheta]) {
+				bestCoarseTheta = i;
 			}
+		}
 
+		if (likelihood.getSampleCount() > 0) {
+			final double lowerLogTheta = Math.log(coarseThetas[Math.max(0, bestCoarseTheta - 1)]);
+			final double upperLogTheta = Math.log(coarseThetas[Math.min(coarseThetas.length - 1, bestCoarseTheta + 1)]);
+			new BrentOptimizer(RELATIVE_TOLERANCE, ABSOLUTE_TOLERANCE).optimize(
+					MAX_EVAL,
+					new UnivariateObjectiveFunction(new UnivariateFunction() {
+						@Override
+						public double value(double logTheta) {
+							return likelihood.maximizeP(Math.exp(logTheta));
+						}
+					}),
+					GoalType.MAXIMIZE,
+					new SearchInterval(lowerLogTheta, upperLogTheta, Math.log(coarseThetas[bestCoarseTheta])));
 		}
 
-		double logLikelihoodNullTheta = provisionalMaxLogLikelihoodTheta;
-		double logLikelihoodNull = 0;
+		double provisionalMaxLogLikelihood = likelihood.getMaxLogLikelihood();
+		double provisionalMaxLogLikelihoodP = likelihood.getMaxLogLikelihoodP();
+		double provisionalMaxLogLikelihoodTheta = likelihood.getMaxLogLikelihoodTheta();
 
-		for (int s = 0; s < a1Counts.size(); ++s) {
-			double alfa = logLikelihoodNullTheta * 0.5;
-			double beta = logLikelihoodNullTheta * 0.5;
-			logLikelihoodNull += logBinominalCoefficients[s] + betaln(a2Counts.getQuick(s) + alfa, a1Counts.getQuick(s) + beta) - betaln(alfa, beta);
-		}
+		double logLikelihoodNullTheta = provisionalMaxLogLikelihoodTheta;
+		double logLikelihoodNull = likelihood.logLikelihood(0.5, logLikelihoodNullTheta);
 
 		if (Double.isInfinite(logLikelihoodNull)) {
 			throw new RuntimeException("Something went wrong during ASE analysis. This should nog happen, please contact developers");
@@ -243,4 +251,125 @@ public class AseMleBeta {
 		}
 		return factln(n) - factln(k) - factln(n - k);
 	}
+
+	/**
+	 * Beta binominal log likelihood calculated from the distinct count pairs,
+	 * weighted by the number of samples with that pair. Keeps track of the
+	 * best parameters found by {@link #maximizeP(double)}.
+	 */
+	private static class BetaBinominalLikelihood {
+
+		private final int[] a1Counts;
+		private final int[] a2Counts;
+		private final int[] weights;
+		private final int sampleCount;
+		private final double sumLogBinominalCoefficients;
+		private double maxLogLikelihood = Double.NEGATIVE_INFINITY;
+		private double maxLogLikelihoodP = 0.5;
+		private double maxLogLikelihoodTheta = Double.NaN;
+
+		public BetaBinominalLikelihood(IntArrayList a1Counts, IntArrayList a2Counts) {
+
+			TLongIntHashMap pairWeights = new TLongIntHashMap();
+			double sumLogBinominalCoefficientsTmp = 0;
+			for (int s = 0; s < a1Counts.size(); ++s) {
+				int a1Count = a1Counts.getQuick(s);
+				int a2Count = a2Counts.getQuick(s);
+				sumLogBinominalCoefficientsTmp += lnbico(a1Count + a2Count, a1Count);
+				pairWeights.adjustOrPutValue(((long) a1Count << 32) | a2Count, 1, 1);
+			}
+
+			//Sorted so the summation order does not depend on the order of the samples
+			long[] pairs = pairWeights.keys();
+			Arrays.sort(pairs);
+
+			this.a1Counts = new int[pairs.length];
+			this.a2Counts = new int[pairs.length];
+			this.weights = new int[pairs.length];
+			for (int i = 0; i < pairs.length; ++i) {
+				this.a1Counts[i] = (int) (pairs[i] >>> 32);
+				this.a2Counts[i] = (int) pairs[i];
+				this.weights[i] = pairWeights.get(pairs[i]);
+			}
+
+			this.sampleCount = a1Counts.size();
+			this.sumLogBinominalCoefficients = sumLogBinominalCoefficientsTmp;
+
+		}
+
+		public double logLikelihood(double p, double theta) {
+
+			double alfa = theta * (1 - p);
+			double beta = theta * p;
+
+			double sumLogLikelihood = 0;
+			for (int i = 0; i < weights.length; ++i) {
+				sumLogLikelihood += weights[i] * (gammln(a2Counts[i] + alfa) + gammln(a1Counts[i] + beta) - gammln(a1Counts[i] + a2Counts[i] + theta));
+			}
+
+			return sumLogBinominalCoefficients + sumLogLikelihood - sampleCount * betaln(alfa, beta);
+
+		}
+
+		/**
+		 * @param theta
+		 * @return the maximum log likelihood over p for this theta
+		 */
+		public double maximizeP(final double theta) {
+
+			int bestCoarseP = 0;
+			double bestLogLikelihood = Double.NEGATIVE_INFINITY;
+			for (int i = 0; i < coarseProbabilities.length; ++i) {
+				double logLikelihood = logLikelihood(coarseProbabilities[i], theta);
+				if (logLikelihood > bestLogLikelihood) {
+					bestLogLikelihood = logLikelihood;
+					bestCoarseP = i;
+				}
+			}
+			double bestP = coarseProbabilities[bestCoarseP];
+
+			if (sampleCount > 0) {
+				UnivariatePointValuePair optimum = new BrentOptimizer(RELATIVE_TOLERANCE, ABSOLUTE_TOLERANCE).optimize(
+						MAX_EVAL,
+						new UnivariateObjectiveFunction(new UnivariateFunction() {
+							@Override
+							public double value(double p) {
+								return logLikelihood(p, theta);
+							}
+						}),
+						GoalType.MAXIMIZE,
+						new SearchInterval(coarseProbabilities[Math.max(0, bestCoarseP - 1)], coarseProbabilities[Math.min(coarseProbabilities.length - 1, bestCoarseP + 1)], bestP));
+				if (optimum.getValue() > bestLogLikelihood) {
+					bestLogLikelihood = optimum.getValue();
+					bestP = optimum.getPoint();
+				}
+			}
+
+			if (bestLogLikelihood > maxLogLikelihood) {
+				maxLogLikelihood = bestLogLikelihood;
+				maxLogLikelihoodP = bestP;
+				maxLogLikelihoodTheta = theta;
+			}
+
+			return bestLogLikelihood;
+
+		}
+
+		public int getSampleCount() {
+			return sampleCount;
+		}
+
+		public double getMaxLogLikelihood() {
+			return maxLogLikelihood;
+		}
+
+		public double getMaxLogLikelihoodP() {
+			return maxLogLikelihoodP;
+		}
+
+		public double getMaxLogLikelihoodTheta() {
+			return maxLogLikelihoodTheta;
+		}
+
+	}
 }
@@ -4,12 +4,11 @@
  */
 package eqtlmappingpipeline.ase;
 
-import gnu.trove.map.hash.TIntObjectHashMap;
-import java.util.HashMap;
+import com.google.common.collect.Iterators;
 import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
 import org.molgenis.genotype.Allele;
 import org.molgenis.genotype.variant.id.GeneticVariantId;
-import umcg.genetica.collections.ChrPosMap;
 
 /**
  *
@@ -17,43 +16,79 @@ import umcg.genetica.collections.ChrPosMap;
  */
 public class AseResults implements Iterable<AseVariantAppendable> {
 
-	private final ChrPosMap<AseVariantAppendable> results; //Empty chr hashmaps will crash the iterator
-	private boolean encounteredBaseQuality = false;
+	private final ConcurrentHashMap<String, ConcurrentHashMap<Integer, AseVariantAppendable>> results;
+	private final AseSampleIndex sampleIndex;
+	private volatile boolean encounteredBaseQuality = false;
 
 	public AseResults() {
-		results = new ChrPosMap<AseVariantAppendable>();
+		results = new ConcurrentHashMap<String, ConcurrentHashMap<Integer, AseVariantAppendable>>();
+		sampleIndex = new AseSampleIndex();
 	}
 
-	public synchronized void addResult(String chr, int pos, GeneticVariantId id, Allele a1, Allele a2, int a1Count, int a2Count, String sampleId, double a1MeanBaseQuality, double a2MeanBaseQuality) {
-		
-		addToResults(chr, pos, id, a1, a2, a1Count, a2Count, sampleId, a1MeanBaseQuality, a2MeanBaseQuality);
-		encounteredBaseQuality = true;
-	}
-	
-	public synchronized void addResult(String chr, int pos, GeneticVariantId id, Allele a1, Allele a2, int a1Count, int a2Count, String sampleId) {
+	/**
+	 * The loader threads use this to add counts without a global lock: the
+	 * variant is looked up or created in the concurrent maps and the counts
+	 * are appended to it with {@link AseVariantAppendable#addCounts(int, int, int)}.
+	 *
+	 * @return the variant at this position, a new variant if there was none
+	 */
+	public AseVariantAppendable getOrCreateVariant(String chr, int pos, GeneticVariantId id, Allele a1, Allele a2) {
+
+		ConcurrentHashMap<Integer, AseVariantAppendable> chrResults = results.get(chr);
+		if (chrResults == null) {
+			ConcurrentHashMap<Integer, AseVariantAppendable> newChrResults = new ConcurrentHashMap<Integer, AseVariantAppendable>();
+			chrResults = results.putIfAbsent(chr, newChrResults);
+			if (chrResults == null) {
+				chrResults = newChrResults;
+			}
+		}
 
-		addToResults(chr, pos, id, a1, a2, a1Count, a2Count, sampleId, Double.NaN, Double.NaN);
+		AseVariantAppendable aseVariant = chrResults.get(pos);
+		if (aseVariant == null) {
+			AseVariantAppendable newAseVariant = new AseVariantAppendable(chr, pos, id, a1, a2, sampleIndex);
+			aseVariant = chrResults.putIfAbsent(pos, newAseVariant);
+			if (aseVariant == null) {
+				aseVariant = newAseVariant;
+			}
+		}
+		return aseVariant;
 
 	}
-	
-	private synchronized void addToResults(String chr, int pos, GeneticVariantId id, Allele a1, Allele a2, int a1Count, int a2Count, String sampleId, double a1MeanBaseQuality, double a2MeanBaseQuality) {
 
-		AseVariantAppendable aseVariant = results.get(chr, pos);
-		if (aseVariant == null) {
-			aseVariant = new AseVariantAppendable(chr, pos, id, a1, a2);
-			results.put(chr, pos, aseVariant);
+	/**
+	 * @return the index of the sample ids used by the variants
+	 */
+	public AseSampleIndex getSampleIndex() {
+		return sampleIndex;
+	}
+
+	public void setEncounteredBaseQuality() {
+		if (!encounteredBaseQuality) {
+			encounteredBaseQuality = true;
 		}
-		aseVariant.addCounts(a1Count, a2Count, sampleId, a1MeanBaseQuality, a2MeanBaseQuality);
-		
 	}
 	
+	/**
+	 * @param chr
+	 * @return null if there are no results on this chr
+	 */
 	public Iterator<AseVariantAppendable> chrIterator(String chr){
-		return results.chrIterator(chr);
+		ConcurrentHashMap<Integer, AseVariantAppendable> chrResults = results.get(chr);
+		return chrResults == null ? null : chrResults.values().iterator();
 	}
 
 	@Override
 	public Iterator<AseVariantAppendable> iterator() {
-		return results.iterator();
+
+		Iterator[] chrIterators = new Iterator[results.size()];
+
+		int i = 0;
+		for (ConcurrentHashMap<Integer, AseVariantAppendable> chrResults : results.values()) {
+			chrIterators[i] = chrResults.values().iterator();
+			++i;
+		}
+		return Iterators.concat(chrIterators);
+
 	}
 	
 	public boolean isEncounteredBaseQuality() {
@@ -61,7 +96,11 @@ public class AseResults implements Iterable<AseVariantAppendable> {
 	}
 	
 	public int getCount(){
-		return results.size();
+		int count = 0;
+		for (ConcurrentHashMap<Integer, AseVariantAppendable> chrResults : results.values()) {
+			count += chrResults.size();
+		}
+		return count;
 	}
 	
 }
\ No newline at end of file
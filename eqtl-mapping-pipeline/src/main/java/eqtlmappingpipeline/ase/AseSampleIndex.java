@@ -0,0 +1,57 @@
+package eqtlmappingpipeline.ase;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Gives every sample id a fixed index, so the counts of the ASE variants can
+ * store an int per sample instead of a String. Loader threads look up the
+ * indices once per input file.
+ */
+public class AseSampleIndex {
+
+	private final ConcurrentHashMap<String, Integer> sampleIndices;
+	private final ArrayList<String> sampleIds;
+
+	public AseSampleIndex() {
+		sampleIndices = new ConcurrentHashMap<String, Integer>();
+		sampleIds = new ArrayList<String>();
+	}
+
+	/**
+	 * @param sampleId
+	 * @return the index of the sample, a new index if the sample was not seen
+	 * before
+	 */
+	public int getIndex(String sampleId) {
+
+		Integer index = sampleIndices.get(sampleId);
+		if (index != null) {
+			return index;
+		}
+
+		synchronized (sampleIds) {
+			index = sampleIndices.get(sampleId);
+			if (index == null) {
+				index = sampleIds.size();
+				sampleIds.add(sampleId);
+				sampleIndices.put(sampleId, index);
+			}
+			return index;
+		}
+
+	}
+
+	public String getSampleId(int index) {
+		synchronized (sampleIds) {
+			return sampleIds.get(index);
+		}
+	}
+
+	public int getSampleCount() {
+		synchronized (sampleIds) {
+			return sampleIds.size();
+		}
+	}
+
+}
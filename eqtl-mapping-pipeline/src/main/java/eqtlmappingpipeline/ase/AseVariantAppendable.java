@@ -21,35 +21,33 @@ public class AseVariantAppendable implements AseVariant{
 	private final GeneticVariantId id;
 	private final Allele a1;
 	private final Allele a2;
-	private final IntArrayList a1Counts;
-	private final IntArrayList a2Counts;
+	private final AseCounts counts;
+	private final AseSampleIndex sampleIndex;
 	//private final DoubleArrayList a1MeanBaseQualities;
 	//private final DoubleArrayList a2MeanBaseQualities;
-	private final DoubleArrayList pValues;
-	private final ArrayList<String> sampleIds;
-	private double metaZscore;
-	private double metaPvalue;
-	private double countPearsonR;
-	private AseMleBeta mle;
+	private volatile Statistics statistics;
 	private static final BinomialTest btest = new BinomialTest();
 	private static final double LARGEST_ZSCORE = Probability.normalInverse(Double.MIN_NORMAL);
 
 	public AseVariantAppendable(String chr, int pos, GeneticVariantId id, Allele a1, Allele a2) {
+		this(chr, pos, id, a1, a2, new AseSampleIndex());
+	}
+
+	/**
+	 * @param sampleIndex the index of the sample ids used by addCounts, shared
+	 * by all variants of the same results
+	 */
+	public AseVariantAppendable(String chr, int pos, GeneticVariantId id, Allele a1, Allele a2, AseSampleIndex sampleIndex) {
 		this.chr = chr;
 		this.pos = pos;
 		this.id = id;
 		this.a1 = a1;
 		this.a2 = a2;
-		this.a1Counts = new IntArrayList();
-		this.a2Counts = new IntArrayList();
-		this.pValues = new DoubleArrayList();
+		this.counts = new AseCounts();
+		this.sampleIndex = sampleIndex;
 		//this.a1MeanBaseQualities = new DoubleArrayList();
 		//this.a2MeanBaseQualities = new DoubleArrayList();
-		this.sampleIds = new ArrayList<String>();
-		this.metaZscore = Double.NaN;
-		this.metaPvalue = Double.NaN;
-		this.countPearsonR = Double.NaN;
-		this.mle = null;
+		this.statistics = null;
 	}
 
 	@Override
@@ -79,12 +77,12 @@ public class AseVariantAppendable implements AseVariant{
 
 	@Override
 	public IntArrayList getA1Counts() {
-		return a1Counts;
+		return getStatistics().a1Counts;
 	}
 
 	@Override
 	public IntArrayList getA2Counts() {
-		return a2Counts;
+		return getStatistics().a2Counts;
 	}
 
 //	public DoubleArrayList getA1MeanBaseQualities() {
@@ -97,77 +95,52 @@ public class AseVariantAppendable implements AseVariant{
 	
 	@Override
 	public void calculateStatistics() {
-
-		double zscoreSum = 0;
-
-		SimpleRegression regression = new SimpleRegression();
-
-		for (int i = 0 ; i < a1Counts.size() ; ++i){
-
-			regression.addData(a1Counts.getQuick(i), a2Counts.getQuick(i));
-
-			final double pvalue = pValues.getQuick(i);
-
-			// we used 2 sided test so divide by 2
-			//double zscore = normalDist.inverseCumulativeProbability(pvalue/2);
-			final double pvalueDiv2 = pvalue / 2;
-			final double zscore;
-			if (pvalueDiv2 < Double.MIN_NORMAL){
-				zscore = LARGEST_ZSCORE;	
-			} else {
-				zscore = Probability.normalInverse(pvalueDiv2);
-			}
-			// Min / plus might look counter intuative but i omit 1 - p/2 above so here I have to swap
-			if(a1Counts.getQuick(i) < a2Counts.getQuick(i)){
-				zscoreSum -= zscore;
-			} else {
-				zscoreSum += zscore;
-			}
-		}
-
-		countPearsonR = regression.getR();
-		metaZscore = zscoreSum / Math.sqrt(a1Counts.size());
-		metaPvalue = 2 * Probability.normal(-Math.abs(metaZscore));
-		mle = new AseMleBeta(a1Counts, a2Counts);
-
+		getStatistics().getMle();
 	}
+
 	@Override
 	public double getMetaZscore() {
-		if(Double.isNaN(metaZscore)){
-			calculateStatistics();
-		}
-		return metaZscore;
+		Statistics current = getStatistics();
+		current.getMle();
+		return current.metaZscore;
 	}
 
 	@Override
 	public double getMetaPvalue() {
-		if(Double.isNaN(metaZscore)){
-			calculateStatistics();
-		}
-		return metaPvalue;
+		Statistics current = getStatistics();
+		current.getMle();
+		return current.metaPvalue;
 	}
 
-	public synchronized void addCounts(int a1Count, int a2Count, String sampleId) {
-		addCounts(a1Count, a2Count, sampleId, Double.NaN, Double.NaN);
+	public void addCounts(int a1Count, int a2Count, String sampleId) {
+		addCounts(a1Count, a2Count, sampleIndex.getIndex(sampleId));
 	}
-	
-	public synchronized void addCounts(int a1Count, int a2Count, String sampleId, double a1MeanBaseQuality, double a2MeanBaseQuality) {
-
-		this.metaZscore = Double.NaN;//Reset meta Z-score when adding new data
-		this.metaPvalue = Double.NaN;
-		this.countPearsonR = Double.NaN;
-		this.mle = null;
 
-		a1Counts.add(a1Count);
-		a2Counts.add(a2Count);
-		
-		pValues.add(btest.binomialTest(a1Count + a2Count, a1Count, 0.5, AlternativeHypothesis.TWO_SIDED));
-		
-		//a1MeanBaseQualities.add(a1MeanBaseQuality);
-		//a2MeanBaseQualities.add(a2MeanBaseQuality);
-		
-		sampleIds.add(sampleId);
+	/**
+	 * Can be called by several threads at the same time. The counts and
+	 * statistics can be read once all counts are added.
+	 *
+	 * @param a1Count
+	 * @param a2Count
+	 * @param sampleIndex index of the sample in the sample index of this
+	 * variant
+	 */
+	public void addCounts(int a1Count, int a2Count, int sampleIndex) {
+		counts.add(a1Count, a2Count, sampleIndex);
+	}
 
+	/**
+	 * The statistics of the current counts. Calculated without locking: if
+	 * two threads calculate them at the same time, both get the same values
+	 * and one of them is kept.
+	 */
+	private Statistics getStatistics() {
+		Statistics current = statistics;
+		if (current == null || current.sampleCount != counts.size()) {
+			current = new Statistics(counts);
+			statistics = current;
+		}
+		return current;
 	}
 
 	@Override
@@ -183,33 +156,34 @@ public class AseVariantAppendable implements AseVariant{
 
 	@Override
 	public int getSampleCount() {
-		return a1Counts.size();
+		return counts.size();
 	}
 
 	@Override
 	public double getCountPearsonR() {
-		if(Double.isNaN(countPearsonR)){
-			calculateStatistics();
-		}
-		return countPearsonR;
+		Statistics current = getStatistics();
+		current.getMle();
+		return current.countPearsonR;
 	}
 
 	@Override
 	public ArrayList<String> getSampleIds() {
+		int[] sampleIndices = getStatistics().sampleIndices;
+		ArrayList<String> sampleIds = new ArrayList<String>(sampleIndices.length);
+		for (int sample : sampleIndices) {
+			sampleIds.add(sampleIndex.getSampleId(sample));
+		}
 		return sampleIds;
 	}
 
 	@Override
 	public DoubleArrayList getPValues() {
-		return pValues;
+		return getStatistics().getPValues();
 	}
 
 	@Override
 	public AseMleBeta getMle() {
-		if(mle == null){
-			calculateStatistics();
-		}
-		return mle;
+		return getStatistics().getMle();
 	}
 
 	@Override
@@ -226,5 +200,102 @@ public class AseVariantAppendable implements AseVariant{
 	public double getEffect() {
 		return getMle().getMaxLikelihoodP();
 	}
+
+	/**
+	 * Contiguous copy of the counts with the statistics calculated from them.
+	 * The binomial tests and the MLE are done on first use, so they are done
+	 * by the calculator threads and not while loading. The fields are only
+	 * written before the object is published or, for the lazy fields, by
+	 * whichever thread calculates them first; the values do not depend on
+	 * the thread.
+	 */
+	private static final class Statistics {
+
+		private final int sampleCount;
+		private final IntArrayList a1Counts;
+		private final IntArrayList a2Counts;
+		private final int[] sampleIndices;
+		private volatile DoubleArrayList pValues;
+		private volatile AseMleBeta mle;
+		private double metaZscore;
+		private double metaPvalue;
+		private double countPearsonR;
+
+		private Statistics(AseCounts counts) {
+			int size = counts.size();
+			int[] a1 = new int[size];
+			int[] a2 = new int[size];
+			int[] samples = new int[size];
+			counts.copyTo(a1, a2, samples);
+			sampleCount = size;
+			a1Counts = new IntArrayList(a1);
+			a2Counts = new IntArrayList(a2);
+			sampleIndices = samples;
+		}
+
+		private DoubleArrayList getPValues() {
+			DoubleArrayList current = pValues;
+			if (current == null) {
+				current = new DoubleArrayList(sampleCount);
+				for (int i = 0; i < sampleCount; ++i) {
+					int a1Count = a1Counts.getQuick(i);
+					current.add(btest.binomialTest(a1Count + a2Counts.getQuick(i), a1Count, 0.5, AlternativeHypothesis.TWO_SIDED));
+				}
+				pValues = current;
+			}
+			return current;
+		}
+
+		/**
+		 * Also calculates the meta z-score and count correlation. They are
+		 * written before the volatile mle, so they are visible to every
+		 * thread that sees the mle.
+		 */
+		private AseMleBeta getMle() {
+
+			AseMleBeta current = mle;
+			if (current != null) {
+				return current;
+			}
+
+			double zscoreSum = 0;
+
+			SimpleRegression regression = new SimpleRegression();
+
+			DoubleArrayList currentPValues = getPValues();
+
+			for (int i = 0 ; i < sampleCount ; ++i){
+
+				regression.addData(a1Counts.getQuick(i), a2Counts.getQuick(i));
+
+				final double pvalue = currentPValues.getQuick(i);
+
+				// we used 2 sided test so divide by 2
+				//double zscore = normalDist.inverseCumulativeProbability(pvalue/2);
+				final double pvalueDiv2 = pvalue / 2;
+				final double zscore;
+				if (pvalueDiv2 < Double.MIN_NORMAL){
+					zscore = LARGEST_ZSCORE;	
+				} else {
+					zscore = Probability.normalInverse(pvalueDiv2);
+				}
+				// Min / plus might look counter intuative but i omit 1 - p/2 above so here I have to swap
+				if(a1Counts.getQuick(i) < a2Counts.getQuick(i)){
+					zscoreSum -= zscore;
+				} else {
+					zscoreSum += zscore;
+				}
+			}
+
+			countPearsonR = regression.getR();
+			metaZscore = zscoreSum / Math.sqrt(sampleCount);
+			metaPvalue = 2 * Probability.normal(-Math.abs(metaZscore));
+			current = new AseMleBeta(a1Counts, a2Counts);
+			mle = current;
+			return current;
+
+		}
+
+	}
 	
 }
\ No newline at end of file
@@ -126,8 +126,10 @@ public class ReadCountsLoader implements Runnable {
 
 				List<Sample> samples = genotypeData.getSamples();
 				ArrayList<String> sampleIds = new ArrayList<String>(samples.size());
+				int[] sampleIndices = new int[samples.size()];
 				for(Sample sample : samples){
-					sampleIds.add(sample.getId().intern());
+					sampleIndices[sampleIds.size()] = aseResults.getSampleIndex().getIndex(sample.getId());
+					sampleIds.add(sample.getId());
 				}
 
 				Iterable<GeneticVariant> variants = (chr == null) ? genotypeData : genotypeData.getVariantsByRange(chr, start, stop);
@@ -142,13 +144,18 @@ public class ReadCountsLoader implements Runnable {
 
 						GeneticVariantId variantId = variant.getVariantId();
 						
-						Iterator<String> sampleIdIterator = sampleIds.iterator();
+						int sample = 0;
 
 						List<Alleles> referenceVariantAlleles = null;
 
+						//Created when the first sample passes the filters
+						AseVariantAppendable aseVariant = null;
+
 						for (GenotypeRecord record : variant.getSampleGenotypeRecords()) {
 
-							String sampleId = sampleIdIterator.next();
+							String sampleId = sampleIds.get(sample);
+							int sampleIndex = sampleIndices[sample];
+							++sample;
 
 							try {
 								Alleles alleles;
@@ -212,11 +219,13 @@ public class ReadCountsLoader implements Runnable {
 										&& (minReads / totalReads) >= configuration.getMinAlleleReadFraction()) {
 
 									if (variant.getVariantMeta().getRecordType("RQ") == GeneticVariantMeta.Type.FLOAT_LIST) {
-										List<Double> meanAlleleBaseQualties = (List<Double>) record.getGenotypeRecordData("RQ");
-										aseResults.addResult(variant.getSequenceName(), variant.getStartPos(), variantId, variant.getVariantAlleles().get(0), variant.getVariantAlleles().get(1), a1Count, a2Count, sampleId, meanAlleleBaseQualties.get(0), meanAlleleBaseQualties.get(1));
-									} else {
-										aseResults.addResult(variant.getSequenceName(), variant.getStartPos(), variantId, variant.getVariantAlleles().get(0), variant.getVariantAlleles().get(1), a1Count, a2Count, sampleId);
+										aseResults.setEncounteredBaseQuality();
+									}
+
+									if (aseVariant == null) {
+										aseVariant = aseResults.getOrCreateVariant(variant.getSequenceName(), variant.getStartPos(), variantId, variant.getVariantAlleles().get(0), variant.getVariantAlleles().get(1));
 									}
+									aseVariant.addCounts(a1Count, a2Count, sampleIndex);
 										
 								}
 
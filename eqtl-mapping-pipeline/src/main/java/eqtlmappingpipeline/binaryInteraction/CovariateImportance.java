@@ -11,7 +11,7 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.List;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.OptionBuilder;
@@ -20,7 +20,6 @@ import org.apache.commons.cli.ParseException;
 import org.apache.commons.cli.PosixParser;
 import umcg.genetica.io.binInteraction.BinaryInteractionFile;
 import umcg.genetica.io.binInteraction.BinaryInteractionFileException;
-import umcg.genetica.io.binInteraction.BinaryInteractionQueryResult;
 import umcg.genetica.io.binInteraction.gene.BinaryInteractionGene;
 import umcg.genetica.io.binInteraction.variant.BinaryInteractionVariant;
 
@@ -140,6 +139,8 @@ public class CovariateImportance {
 
 		BinaryInteractionFile inputFile = BinaryInteractionFile.load(inputInteractionFile, true);
 
+		List<String> covariateNames = inputFile.getCovariates();
+
 		TObjectDoubleHashMap<String> sumChi2 = new TObjectDoubleHashMap<String>(20000, 0.75f, Double.NaN);
 
 		int reporter = 0;
@@ -157,21 +158,24 @@ public class CovariateImportance {
 					continue genes;
 				}
 
+				final int[] covariatePointers = inputFile.getVariantGeneCovariates(variantName, gene.getName());
+				final double[] metaZscores = inputFile.readVariantGeneInteractionZscores(variantName, gene.getName(), BinaryInteractionFile.META_ANALYSIS_INDEX);
+
 				covariates:
-				for (Iterator<BinaryInteractionQueryResult> iterator = inputFile.readVariantGeneResults(variantName, gene.getName()); iterator.hasNext();) {
+				for (int i = 0; i < covariatePointers.length; ++i) {
 
-					BinaryInteractionQueryResult interation = iterator.next();
+					String covariateName = covariateNames.get(covariatePointers[i]);
 
-					if (covariantsToInclude != null && !covariantsToInclude.contains(interation.getCovariateName())) {
+					if (covariantsToInclude != null && !covariantsToInclude.contains(covariateName)) {
 						continue covariates;
 					}
 
-					double metaZ = interation.getInteractionZscores().getZscoreInteractionMeta();
+					double metaZ = metaZscores[i];
 					if (Double.isNaN(metaZ)) {
 						continue covariates;
 					}
 					double chi2 = metaZ * metaZ;
-					sumChi2.adjustOrPutValue(interation.getCovariateName(), chi2, chi2);
+					sumChi2.adjustOrPutValue(covariateName, chi2, chi2);
 
 				}
 
@@ -14,10 +14,13 @@ import java.io.UnsupportedEncodingException;
 import java.io.Writer;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.OptionBuilder;
@@ -31,6 +34,7 @@ import umcg.genetica.io.binInteraction.BinaryInteractionFile;
 import umcg.genetica.io.binInteraction.BinaryInteractionFileException;
 import umcg.genetica.io.binInteraction.BinaryInteractionQtlZscores;
 import umcg.genetica.io.binInteraction.BinaryInteractionQueryResult;
+import umcg.genetica.io.binInteraction.BinaryInteractionScanResult;
 import umcg.genetica.io.binInteraction.BinaryInteractionZscores;
 import umcg.genetica.io.binInteraction.gene.BinaryInteractionGene;
 import umcg.genetica.io.binInteraction.variant.BinaryInteractionVariant;
@@ -89,7 +93,7 @@ public class QueryBinaryInteraction {
 
 		OptionBuilder.withArgName("double");
 		OptionBuilder.hasArg();
-		OptionBuilder.withDescription("Minimum absolute interaction z-score (not yet implemented)");
+		OptionBuilder.withDescription("Minimum absolute interaction z-score, of the meta analysis or of the only cohort (optional)");
 		OptionBuilder.withLongOpt("interactionZ");
 		OPTIONS.addOption(OptionBuilder.create("iz"));
 
@@ -251,6 +255,20 @@ public class QueryBinaryInteraction {
 			throw new Exception("No meta analysis information detected cannot use option: --onlyMetaZ");
 		}
 
+		final int filterCohortIndex;
+		if (queryMinAbsInteractionZ > 0) {
+			if (inputFile.isMetaAnalysis()) {
+				filterCohortIndex = BinaryInteractionFile.META_ANALYSIS_INDEX;
+			} else if (inputFile.getCohortCount() == 1) {
+				filterCohortIndex = 0;
+			} else {
+				throw new Exception("Option --interactionZ only possible on meta analysis or on a single cohort");
+			}
+		} else {
+			filterCohortIndex = 0;
+		}
+		final InteractionFilter filter = new InteractionFilter(queryMinAbsInteractionZ, filterCohortIndex);
+
 		final String[] row;
 
 		if (onlyOutputMetaZ) {
@@ -316,15 +334,21 @@ public class QueryBinaryInteraction {
 				for (InteractoinQuery interactionQuery : interactionQueries) {
 					covariateNames.add(interactionQuery.getCovariate());
 				}
-				doQueryCovariates(covariateNames, inputFile, tableWriter, row, onlyOutputMetaZ);
+				if (filter.isActive()) {
+					doScan(covariateNames, inputFile, tableWriter, row, onlyOutputMetaZ, filter);
+				} else {
+					doQueryCovariates(covariateNames, inputFile, tableWriter, row, onlyOutputMetaZ);
+				}
 			} else {
 				for (InteractoinQuery interactionQuery : interactionQueries) {
-					doQuery(interactionQuery.getGene(), interactionQuery.getVariant(), interactionQuery.getCovariate(), inputFile, tableWriter, row, onlyOutputMetaZ);
+					doQuery(interactionQuery.getGene(), interactionQuery.getVariant(), interactionQuery.getCovariate(), inputFile, tableWriter, row, onlyOutputMetaZ, filter);
 				}
 			}
 			
+		} else if (filter.isActive() && queryGeneName == null && queryVariantName == null) {
+			doScan(queryCovariateName == null ? null : Collections.singleton(queryCovariateName), inputFile, tableWriter, row, onlyOutputMetaZ, filter);
 		} else {
-			doQuery(queryGeneName, queryVariantName, queryCovariateName, inputFile, tableWriter, row, onlyOutputMetaZ);
+			doQuery(queryGeneName, queryVariantName, queryCovariateName, inputFile, tableWriter, row, onlyOutputMetaZ, filter);
 		}
 
 
@@ -334,6 +358,12 @@ public class QueryBinaryInteraction {
 
 	}
 
+	private static void addRow(BinaryInteractionQueryResult queryRestult, BinaryInteractionFile inputFile, CSVWriter tableWriter, String[] row, boolean onlyOutputMetaZ, InteractionFilter filter) throws BinaryInteractionFileException, IOException {
+		if (filter.passes(queryRestult)) {
+			addRow(queryRestult, inputFile, tableWriter, row, onlyOutputMetaZ);
+		}
+	}
+
 	@SuppressWarnings({"null", "ConstantConditions"})
 	private static void addRow(BinaryInteractionQueryResult queryRestult, BinaryInteractionFile inputFile, CSVWriter tableWriter, String[] row, boolean onlyOutputMetaZ) throws BinaryInteractionFileException, IOException {
 
@@ -392,16 +422,16 @@ public class QueryBinaryInteraction {
 		tableWriter.writeNext(row);
 	}
 
-	private static void doQuery(final String queryGeneName, final String queryVariantName, final String queryCovariateName, BinaryInteractionFile inputFile, CSVWriter tableWriter, String[] row, boolean onlyOutputMetaZ) throws IOException, BinaryInteractionFileException {
+	private static void doQuery(final String queryGeneName, final String queryVariantName, final String queryCovariateName, BinaryInteractionFile inputFile, CSVWriter tableWriter, String[] row, boolean onlyOutputMetaZ, InteractionFilter filter) throws IOException, BinaryInteractionFileException {
 
 		if (queryGeneName != null && queryVariantName != null && queryCovariateName != null) {
 
-			addRow(inputFile.readVariantGeneCovariateResults(queryVariantName, queryGeneName, queryCovariateName), inputFile, tableWriter, row, onlyOutputMetaZ);
+			addRow(inputFile.readVariantGeneCovariateResults(queryVariantName, queryGeneName, queryCovariateName), inputFile, tableWriter, row, onlyOutputMetaZ, filter);
 
 		} else if (queryGeneName != null && queryVariantName != null) {
 
 			for (Iterator<BinaryInteractionQueryResult> iterator = inputFile.readVariantGeneResults(queryVariantName, queryGeneName); iterator.hasNext();) {
-				addRow(iterator.next(), inputFile, tableWriter, row, onlyOutputMetaZ);
+				addRow(iterator.next(), inputFile, tableWriter, row, onlyOutputMetaZ, filter);
 			}
 
 		} else if (queryVariantName != null) {
@@ -413,12 +443,12 @@ public class QueryBinaryInteraction {
 				if (queryCovariateName != null) {
 
 					if (inputFile.containsInteraction(queryVariantName, gene.getName(), queryCovariateName)) {
-						addRow(inputFile.readVariantGeneCovariateResults(queryVariantName, gene.getName(), queryCovariateName), inputFile, tableWriter, row, onlyOutputMetaZ);
+						addRow(inputFile.readVariantGeneCovariateResults(queryVariantName, gene.getName(), queryCovariateName), inputFile, tableWriter, row, onlyOutputMetaZ, filter);
 					}
 
 				} else {
 					for (Iterator<BinaryInteractionQueryResult> iterator = inputFile.readVariantGeneResults(queryVariantName, gene.getName()); iterator.hasNext();) {
-						addRow(iterator.next(), inputFile, tableWriter, row, onlyOutputMetaZ);
+						addRow(iterator.next(), inputFile, tableWriter, row, onlyOutputMetaZ, filter);
 					}
 				}
 
@@ -433,12 +463,12 @@ public class QueryBinaryInteraction {
 				if (queryCovariateName != null) {
 
 					if (inputFile.containsInteraction(variant.getName(), queryGeneName, queryCovariateName)) {
-						addRow(inputFile.readVariantGeneCovariateResults(variant.getName(), queryGeneName, queryCovariateName), inputFile, tableWriter, row, onlyOutputMetaZ);
+						addRow(inputFile.readVariantGeneCovariateResults(variant.getName(), queryGeneName, queryCovariateName), inputFile, tableWriter, row, onlyOutputMetaZ, filter);
 					}
 
 				} else {
 					for (Iterator<BinaryInteractionQueryResult> iterator = inputFile.readVariantGeneResults(variant.getName(), queryGeneName); iterator.hasNext();) {
-						addRow(iterator.next(), inputFile, tableWriter, row, onlyOutputMetaZ);
+						addRow(iterator.next(), inputFile, tableWriter, row, onlyOutputMetaZ, filter);
 					}
 				}
 
@@ -458,12 +488,12 @@ public class QueryBinaryInteraction {
 					if (queryCovariateName != null) {
 
 						if (inputFile.containsInteraction(variantName, gene.getName(), queryCovariateName)) {
-							addRow(inputFile.readVariantGeneCovariateResults(variantName, gene.getName(), queryCovariateName), inputFile, tableWriter, row, onlyOutputMetaZ);
+							addRow(inputFile.readVariantGeneCovariateResults(variantName, gene.getName(), queryCovariateName), inputFile, tableWriter, row, onlyOutputMetaZ, filter);
 						}
 
 					} else {
 						for (Iterator<BinaryInteractionQueryResult> iterator = inputFile.readVariantGeneResults(variantName, gene.getName()); iterator.hasNext();) {
-							addRow(iterator.next(), inputFile, tableWriter, row, onlyOutputMetaZ);
+							addRow(iterator.next(), inputFile, tableWriter, row, onlyOutputMetaZ, filter);
 						}
 					}
 
@@ -501,6 +531,34 @@ public class QueryBinaryInteraction {
 
 	}
 
+	/**
+	 * Scans all interaction z-scores of the filter cohort in parallel, only
+	 * the interactions passing the threshold are read completely.
+	 *
+	 * @param queryCovariateNames covariates to output, null for all
+	 */
+	private static void doScan(final Set<String> queryCovariateNames, BinaryInteractionFile inputFile, CSVWriter tableWriter, String[] row, boolean onlyOutputMetaZ, InteractionFilter filter) throws IOException, BinaryInteractionFileException {
+
+		BinaryInteractionScanResult scanResult = inputFile.scanInteractionZscores(filter.getCohortIndex(), filter.getMinAbsInteractionZ());
+
+		List<String> covariateNames = inputFile.getCovariates();
+		int[] variantPointers = scanResult.getVariants();
+		int[] genePointers = scanResult.getGenes();
+		int[] covariatePointers = scanResult.getCovariates();
+
+		for (int i = 0; i < scanResult.size(); ++i) {
+
+			String covariateName = covariateNames.get(covariatePointers[i]);
+			if (queryCovariateNames != null && !queryCovariateNames.contains(covariateName)) {
+				continue;
+			}
+
+			addRow(inputFile.readVariantGeneCovariateResults(inputFile.getVariant(variantPointers[i]).getName(), inputFile.getGene(genePointers[i]).getName(), covariateName), inputFile, tableWriter, row, onlyOutputMetaZ);
+
+		}
+
+	}
+
 	private static Pair<LinkedHashSet<InteractoinQuery>, Boolean> loadInteractionQueries(File queryFile) throws FileNotFoundException, IOException, Exception {
 
 		LinkedHashSet<InteractoinQuery> interactionQueries = new LinkedHashSet<InteractoinQuery>();
@@ -565,6 +623,43 @@ public class QueryBinaryInteraction {
 		return new Pair(interactionQueries, variantCol == -1 && geneCol == -1);
 	}
 
+	/**
+	 * Minimum absolute interaction z-score of the meta analysis or of a
+	 * cohort. Not active if the minimum is not larger than 0.
+	 */
+	private static class InteractionFilter {
+
+		private final double minAbsInteractionZ;
+		private final int cohortIndex;
+
+		public InteractionFilter(double minAbsInteractionZ, int cohortIndex) {
+			this.minAbsInteractionZ = minAbsInteractionZ;
+			this.cohortIndex = cohortIndex;
+		}
+
+		public boolean isActive() {
+			return minAbsInteractionZ > 0;
+		}
+
+		public double getMinAbsInteractionZ() {
+			return minAbsInteractionZ;
+		}
+
+		public int getCohortIndex() {
+			return cohortIndex;
+		}
+
+		public boolean passes(BinaryInteractionQueryResult queryResult) {
+			if (!isActive()) {
+				return true;
+			}
+			BinaryInteractionZscores zscores = queryResult.getInteractionZscores();
+			double zscore = cohortIndex == BinaryInteractionFile.META_ANALYSIS_INDEX ? zscores.getZscoreInteractionMeta() : zscores.getZscoreInteractionCohort()[cohortIndex];
+			return zscore >= minAbsInteractionZ || zscore <= -minAbsInteractionZ;
+		}
+
+	}
+
 	private static class InteractoinQuery {
 
 		private final String variant;
@@ -13,8 +13,8 @@ import java.io.InputStreamReader;
 import java.io.Writer;
 import java.text.NumberFormat;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.HelpFormatter;
@@ -316,8 +316,10 @@ public class ReplicateInteractions {
 
 		int reporter = 0;
 
+		List<String> covariateNames = inputFile.getCovariates();
+
 		LinkedHashMap<String, CovariateCount> covariateCounts = new LinkedHashMap<String, CovariateCount>(inputFile.getCovariateCount());
-		for (String covariate : inputFile.getCovariates()) {
+		for (String covariate : covariateNames) {
 			covariateCounts.put(covariate, new CovariateCount());
 		}
 
@@ -359,23 +361,29 @@ public class ReplicateInteractions {
 					continue genes;
 				}
 
+				// Only the meta z-scores are read, the full results only for significant interactions
+				final int[] covariatePointers = inputFile.getVariantGeneCovariates(variantName, gene.getName());
+				final double[] metaZscores = inputFile.readVariantGeneInteractionZscores(variantName, gene.getName(), BinaryInteractionFile.META_ANALYSIS_INDEX);
+
 				covairates:
-				for (Iterator<BinaryInteractionQueryResult> iterator = inputFile.readVariantGeneResults(variantName, gene.getName()); iterator.hasNext();) {
+				for (int i = 0; i < covariatePointers.length; ++i) {
 
-					BinaryInteractionQueryResult interaction = iterator.next();
+					String covariateName = covariateNames.get(covariatePointers[i]);
 
-					if (covariantsToInclude != null && !covariantsToInclude.contains(interaction.getCovariateName())) {
+					if (covariantsToInclude != null && !covariantsToInclude.contains(covariateName)) {
 						continue covairates;
 					}
 
-					double metaInteractionZ = interaction.getInteractionZscores().getZscoreInteractionMeta();
+					double metaInteractionZ = metaZscores[i];
 
 					if (metaInteractionZ >= minAbsInteractionZ || metaInteractionZ <= -minAbsInteractionZ) {
 						++significant;
 
-						if (replicationVariant != null && replicationFile.containsInteraction(replicationVariant.getName(), gene.getName(), interaction.getCovariateName()) && (genesReplicationToInclude == null || genesReplicationToInclude.contains(interaction.getGeneName()) && (covariantsReplicationToInclude == null || covariantsToInclude.contains(interaction.getCovariateName())) )) {
+						BinaryInteractionQueryResult interaction = inputFile.readVariantGeneCovariateResults(variantName, gene.getName(), covariateName);
+
+						if (replicationVariant != null && replicationFile.containsInteraction(replicationVariant.getName(), gene.getName(), covariateName) && (genesReplicationToInclude == null || genesReplicationToInclude.contains(gene.getName()) && (covariantsReplicationToInclude == null || covariantsToInclude.contains(covariateName)) )) {
 
-							BinaryInteractionZscores replicationZscores = replicationFile.readInteractionResults(replicationVariant.getName(), gene.getName(), interaction.getCovariateName());
+							BinaryInteractionZscores replicationZscores = replicationFile.readInteractionResults(replicationVariant.getName(), gene.getName(), covariateName);
 							double replicationInteractionZscore = replicationZscores.getZscoreInteractionMeta();
 
 							BinaryInteractionQtlZscores replicationQtlRes = replicationFile.readQtlResults(replicationVariant.getName(), gene.getName());
@@ -423,12 +431,12 @@ public class ReplicateInteractions {
 
 					if (metaInteractionZ >= minAbsInteractionZCovariateCount || metaInteractionZ <= -minAbsInteractionZCovariateCount) {
 
-						CovariateCount thisCovariateCounts = covariateCounts.get(interaction.getCovariateName());
+						CovariateCount thisCovariateCounts = covariateCounts.get(covariateName);
 						thisCovariateCounts.incrementCovariateSignificant();
 
-						if (replicationVariant != null && replicationFile.containsInteraction(replicationVariant.getName(), gene.getName(), interaction.getCovariateName())) {
+						if (replicationVariant != null && replicationFile.containsInteraction(replicationVariant.getName(), gene.getName(), covariateName)) {
 
-							BinaryInteractionZscores replicationZscores = replicationFile.readInteractionResults(replicationVariant.getName(), gene.getName(), interaction.getCovariateName());
+							BinaryInteractionZscores replicationZscores = replicationFile.readInteractionResults(replicationVariant.getName(), gene.getName(), covariateName);
 							double replicationInteractionZscore = replicationZscores.getZscoreInteractionMeta();
 
 							if (!Double.isNaN(replicationInteractionZscore)) {
@@ -7,6 +7,7 @@ package eqtlmappingpipeline.conditionalanalysis;
 import eqtlmappingpipeline.metaqtl3.EQTLRegression;
 import eqtlmappingpipeline.metaqtl3.FDR;
 import eqtlmappingpipeline.metaqtl3.MetaQTL3;
+import eqtlmappingpipeline.metaqtl3.containers.WorkPackage;
 import eqtlmappingpipeline.normalization.Normalizer;
 import eqtlmappingpipeline.util.QTLFileMerger;
 import gnu.trove.set.hash.THashSet;
@@ -14,6 +15,7 @@ import umcg.genetica.console.ConsoleGUIElems;
 import umcg.genetica.containers.Pair;
 import umcg.genetica.io.Gpio;
 import umcg.genetica.io.text.TextFile;
+import umcg.genetica.io.trityper.SNPLoader;
 import umcg.genetica.io.trityper.TriTyperExpressionData;
 import umcg.genetica.io.trityper.TriTyperGeneticalGenomicsDataset;
 import umcg.genetica.math.matrix2.DoubleMatrixDataset;
@@ -22,11 +24,25 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.IntStream;
 
 /**
+ * Maps eQTLs, regresses the significant eQTLs out of the expression data and
+ * maps the significant probes again, until an iteration has no significant
+ * results.
+ *
+ * By default this is a stepwise forward selection per gene that keeps its
+ * data in memory: the datasets stay loaded for all iterations and only the
+ * expression of probes that gained eQTLs is residualized again. From the
+ * second iteration on, the genotypes of the cis SNPs of the genes that are
+ * still being conditioned stay resident (see ResidentSNPLoader): each SNP is
+ * read from disk once, and the permutations and later iterations, which only
+ * map a subset of these genes, test it from memory. The first iteration maps
+ * all genes and reads the genotypes as MetaQTL3 does.
+ *
  * @author harm-jan
  */
 public class IterativeConditionalAnalysis extends MetaQTL3 {
@@ -56,7 +72,9 @@ public class IterativeConditionalAnalysis extends MetaQTL3 {
 	}
 
 	private Integer startIter = 1;
+	private boolean incremental = true;
 	boolean useOLS = true;
+	ResidentSNPLoader[] residentLoaders;
 
 	public void run(String xmlSettingsFile, String texttoreplace, String texttoreplacewith,
 					String ingt, String inexp, String inexpplatform, String inexpannot, String gte,
@@ -77,6 +95,15 @@ public class IterativeConditionalAnalysis extends MetaQTL3 {
 
 		EQTLRegression eqr = new EQTLRegression();
 
+		// covariates are permuted in place, so these datasets need to be reloaded each iteration
+		boolean incremental = this.incremental && !m_settings.permuteCovariates;
+		TriTyperGeneticalGenomicsDataset[] residualDatasets = m_gg;
+		ArrayList<HashMap<Integer, double[]>> originalExpression = new ArrayList<HashMap<Integer, double[]>>();
+		HashSet<Pair<String, String>> regressedEQTLs = new HashSet<Pair<String, String>>();
+		for (int d = 0; d < m_gg.length; d++) {
+			originalExpression.add(new HashMap<Integer, double[]>());
+		}
+
 		while (prevIterHasSignResults) {
 			m_settings.outputReportsDir = origOutputDir + "/Iteration" + iteration + "/";
 			m_settings.plotOutputDirectory = origOutputDir + "/Iteration" + iteration + "/";
@@ -89,6 +116,9 @@ public class IterativeConditionalAnalysis extends MetaQTL3 {
 //				if (saveIntermediateResiduals) {
 //					exportResidualsToDisk(origOutputDir, iteration);
 //				}
+				if (incremental) {
+					useUnpermutedDatasets(residualDatasets);
+				}
 				mapEQTLs();
 			} else {
 
@@ -132,17 +162,36 @@ public class IterativeConditionalAnalysis extends MetaQTL3 {
 						System.exit(-1);
 					}
 
-					// reset the datasets
-					reinit();
-
-					// regress significant eQTLs
-					try {
-
-						eqr.setLog(m_settings.outputReportsDir, iteration);
-						eqr.regressOutEQTLEffects(toRegress, m_gg, useOLS);
-					} catch (Exception e) {
-						e.printStackTrace();
-						System.exit(-1);
+					if (incremental) {
+						// only residualize the genes that gained eQTLs and keep the rest of the data as is
+						ArrayList<Pair<String, String>> toUpdate = collectEQTLsForUpdatedProbes(toRegress, regressedEQTLs);
+						restoreOriginalExpression(residualDatasets, originalExpression, toUpdate);
+						regressedEQTLs.addAll(toRegress);
+
+						try {
+							eqr.setLog(m_settings.outputReportsDir, iteration);
+							eqr.regressOutEQTLEffects(toUpdate, residualDatasets, useOLS);
+						} catch (Exception e) {
+							e.printStackTrace();
+							System.exit(-1);
+						}
+
+						useUnpermutedDatasets(residualDatasets);
+						initWorkPackages();
+						keepCisGenotypesResident();
+					} else {
+						// reset the datasets
+						reinit();
+
+						// regress significant eQTLs
+						try {
+
+							eqr.setLog(m_settings.outputReportsDir, iteration);
+							eqr.regressOutEQTLEffects(toRegress, m_gg, useOLS);
+						} catch (Exception e) {
+							e.printStackTrace();
+							System.exit(-1);
+						}
 					}
 
 					if (saveIntermediateResiduals) {
@@ -173,6 +222,12 @@ public class IterativeConditionalAnalysis extends MetaQTL3 {
 		}
 
 
+		if (residentLoaders != null) {
+			for (ResidentSNPLoader loader : residentLoaders) {
+				System.out.println(loader.getNrLoadedFromDisk() + " of " + loader.getNrLoaded() + " SNPs loaded during the conditional iterations were read from disk.");
+			}
+		}
+
 		System.out.println("Done with iterations. Will now save residual expression matrix.");
 
 
@@ -181,6 +236,10 @@ public class IterativeConditionalAnalysis extends MetaQTL3 {
 
 		if (toRegress.isEmpty()) {
 			System.out.println("No significant eQTLs found, and thus no need to save residual gene expression matrix.");
+		} else if (incremental && regressedEQTLs.containsAll(toRegress)) {
+			// the resident datasets already have all eQTLs regressed out
+			m_gg = residualDatasets;
+			exportResidualsToDisk(origOutputDir, 0);
 		} else {
 			// get the significant probes from the previous run
 			m_settings.tsProbesConfine = null;
@@ -284,6 +343,10 @@ public class IterativeConditionalAnalysis extends MetaQTL3 {
 		System.out.println(ConsoleGUIElems.LINE);
 		System.out.println("");
 
+		initWorkPackages();
+	}
+
+	private void initWorkPackages() throws IOException, Exception {
 		System.out.println("Accumulating available data...");
 		System.out.print(ConsoleGUIElems.LINE);
 
@@ -314,6 +377,96 @@ public class IterativeConditionalAnalysis extends MetaQTL3 {
 		printSummary();
 	}
 
+	/**
+	 * Keeps the genotypes of the SNPs of the current work packages, the cis
+	 * SNPs of the genes that are conditioned in this iteration, in memory and
+	 * drops the SNPs of genes that are done.
+	 */
+	private void keepCisGenotypesResident() throws IOException {
+		if (residentLoaders == null) {
+			residentLoaders = new ResidentSNPLoader[m_gg.length];
+			for (int d = 0; d < m_gg.length; d++) {
+				residentLoaders[d] = new ResidentSNPLoader(m_gg[d].getGenotypeData(), m_settings.numberOfVariantsToBuffer);
+			}
+		}
+		for (int d = 0; d < m_gg.length; d++) {
+			HashSet<Integer> cisSNPs = new HashSet<Integer>();
+			for (WorkPackage wp : m_workPackages) {
+				if (wp != null && wp.getSnps()[d] != null) {
+					cisSNPs.add(wp.getSnps()[d].getId());
+				}
+			}
+			residentLoaders[d].retain(cisSNPs);
+		}
+	}
+
+	@Override
+	protected SNPLoader createSNPLoader(int d) throws IOException {
+		if (residentLoaders != null) {
+			return residentLoaders[d];
+		}
+		return super.createSNPLoader(d);
+	}
+
+	/**
+	 * Sample labels are permuted during the eQTL mapping. Mapping on copies of
+	 * the datasets keeps the resident datasets unpermuted for the next
+	 * iteration.
+	 */
+	private void useUnpermutedDatasets(TriTyperGeneticalGenomicsDataset[] residualDatasets) {
+		m_gg = new TriTyperGeneticalGenomicsDataset[residualDatasets.length];
+		for (int d = 0; d < residualDatasets.length; d++) {
+			m_gg[d] = residualDatasets[d].copyWithExpressionData(residualDatasets[d].getExpressionData());
+		}
+	}
+
+	/**
+	 * Selects all eQTLs of the probes that have eQTLs that were not regressed
+	 * out yet. The order of the eQTLs is kept, so the regression of these
+	 * probes is identical to regressing all eQTLs from the original data.
+	 */
+	private ArrayList<Pair<String, String>> collectEQTLsForUpdatedProbes(ArrayList<Pair<String, String>> eqtls, HashSet<Pair<String, String>> regressedEQTLs) {
+		HashSet<String> updatedProbes = new HashSet<String>();
+		for (Pair<String, String> eqtl : eqtls) {
+			if (!regressedEQTLs.contains(eqtl)) {
+				updatedProbes.add(eqtl.getRight());
+			}
+		}
+
+		ArrayList<Pair<String, String>> output = new ArrayList<Pair<String, String>>();
+		for (Pair<String, String> eqtl : eqtls) {
+			if (updatedProbes.contains(eqtl.getRight())) {
+				output.add(eqtl);
+			}
+		}
+		System.out.println(updatedProbes.size() + " probes have new eQTLs, " + output.size() + " eQTLs will be regressed out for these probes.");
+		return output;
+	}
+
+	/**
+	 * Resets the expression of the probes of these eQTLs to the data before
+	 * the first regression. Rows are saved the first time a probe is
+	 * regressed.
+	 */
+	private void restoreOriginalExpression(TriTyperGeneticalGenomicsDataset[] residualDatasets, ArrayList<HashMap<Integer, double[]>> originalExpression, ArrayList<Pair<String, String>> eqtls) {
+		for (int d = 0; d < residualDatasets.length; d++) {
+			TriTyperExpressionData expressionData = residualDatasets[d].getExpressionData();
+			double[][] matrix = expressionData.getMatrix();
+			HashMap<Integer, double[]> originalRows = originalExpression.get(d);
+			for (Pair<String, String> eqtl : eqtls) {
+				int probeId = expressionData.getProbeToId().get(eqtl.getRight());
+				if (probeId != -9) {
+					double[] originalRow = originalRows.get(probeId);
+					if (originalRow == null) {
+						originalRows.put(probeId, matrix[probeId].clone());
+					} else {
+						System.arraycopy(originalRow, 0, matrix[probeId], 0, originalRow.length);
+					}
+				}
+			}
+		}
+	}
+
 	private ArrayList<Pair<String, String>> collectEQTLs(String origOutputDir, int currentIteration, double fdr) throws IOException {
 
 		HashSet<Pair<String, String>> eqtls = new HashSet<Pair<String, String>>();
@@ -382,4 +535,12 @@ public class IterativeConditionalAnalysis extends MetaQTL3 {
 
 		this.startIter = startiter;
 	}
+
+	/**
+	 * @param incremental false to reload the datasets and regress out all
+	 * eQTLs again in each iteration
+	 */
+	public void setIncremental(boolean incremental) {
+		this.incremental = incremental;
+	}
 }
@@ -0,0 +1,111 @@
+package eqtlmappingpipeline.conditionalanalysis;
+
+import umcg.genetica.io.trityper.SNP;
+import umcg.genetica.io.trityper.SNPLoader;
+import umcg.genetica.io.trityper.TriTyperGenotypeData;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Set;
+
+/**
+ * Keeps the genotypes of the cis SNPs of the genes that are still being
+ * conditioned in memory. A SNP is read from disk the first time it is
+ * loaded; later iterations and their permutations get it from memory.
+ *
+ * mapEQTLs() closes its loaders when it is done; the genotype file is opened
+ * again when a SNP that is not resident is loaded. Not thread safe: the
+ * WorkPackageProducer loads the SNPs of a dataset from a single thread.
+ */
+class ResidentSNPLoader extends SNPLoader {
+
+	private final TriTyperGenotypeData genotypeData;
+	private final int numberOfVariantsToBuffer;
+	private final boolean hasDosageInformation;
+	private SNPLoader diskLoader;
+	private final Boolean[] isIncluded;
+	private final Boolean[] isFemale;
+	private final HashMap<Integer, byte[][]> residentAlleles = new HashMap<Integer, byte[][]>();
+	private final HashMap<Integer, byte[]> residentDosages = new HashMap<Integer, byte[]>();
+	private int nrLoaded;
+	private int nrLoadedFromDisk;
+
+	ResidentSNPLoader(TriTyperGenotypeData genotypeData, int numberOfVariantsToBuffer) throws IOException {
+		super(null, null, genotypeData.getIsIncluded(), genotypeData.getIsFemale(), numberOfVariantsToBuffer);
+		this.genotypeData = genotypeData;
+		this.numberOfVariantsToBuffer = numberOfVariantsToBuffer;
+		this.isIncluded = genotypeData.getIsIncluded();
+		this.isFemale = genotypeData.getIsFemale();
+		this.diskLoader = genotypeData.createSNPLoader(numberOfVariantsToBuffer);
+		this.hasDosageInformation = diskLoader.hasDosageInformation();
+		setNumIndividuals(diskLoader.getNumIndividuals());
+	}
+
+	@Override
+	public void loadGenotypes(SNP snp) throws IOException {
+		nrLoaded++;
+		byte[][] alleles = residentAlleles.get(snp.getId());
+		if (alleles == null) {
+			getDiskLoader().loadGenotypes(snp);
+			residentAlleles.put(snp.getId(), new byte[][]{snp.getAllele1().clone(), snp.getAllele2().clone()});
+			nrLoadedFromDisk++;
+		} else {
+			snp.setAlleles(alleles[0].clone(), alleles[1].clone(), isIncluded, isFemale);
+		}
+	}
+
+	@Override
+	public void loadDosage(SNP snp) throws IOException {
+		if (!hasDosageInformation) {
+			return;
+		}
+		byte[] dosage = residentDosages.get(snp.getId());
+		if (dosage == null) {
+			getDiskLoader().loadDosage(snp);
+			residentDosages.put(snp.getId(), snp.getDosage().clone());
+		} else {
+			snp.setDosage(dosage.clone());
+		}
+	}
+
+	@Override
+	public boolean hasDosageInformation() {
+		return hasDosageInformation;
+	}
+
+	private SNPLoader getDiskLoader() throws IOException {
+		if (diskLoader == null) {
+			diskLoader = genotypeData.createSNPLoader(numberOfVariantsToBuffer);
+		}
+		return diskLoader;
+	}
+
+	/**
+	 * Drops the genotypes of the SNPs that are not in snpIds, for instance
+	 * because the genes they are cis to have no eQTLs left.
+	 */
+	void retain(Set<Integer> snpIds) {
+		residentAlleles.keySet().retainAll(snpIds);
+		residentDosages.keySet().retainAll(snpIds);
+	}
+
+	/**
+	 * @return the number of SNPs loaded, from disk or from memory
+	 */
+	int getNrLoaded() {
+		return nrLoaded;
+	}
+
+	int getNrLoadedFromDisk() {
+		return nrLoadedFromDisk;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (diskLoader != null) {
+			diskLoader.close();
+			diskLoader = null;
+		}
+	}
+
+}
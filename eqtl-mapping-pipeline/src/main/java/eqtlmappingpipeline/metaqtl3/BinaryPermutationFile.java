@@ -0,0 +1,224 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package eqtlmappingpipeline.metaqtl3;
+
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import umcg.genetica.io.Gpio;
+import umcg.genetica.io.bin.BinaryFile;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Compact, column oriented version of a PermutedEQTLsPermutationRound text
+ * file, containing only what is needed for the FDR calculation.
+ * <p>
+ * Layout (big endian): magic number, number of results, number of unique
+ * SNPs, probes and genes, followed by the p-values (double, sorted ascending)
+ * and the SNP, probe and gene ids (int) of all results, one column after the
+ * other. Ids are only meaningful within a file; a missing name ("-") has id
+ * -1. The p-values are stored at full precision, the text file rounds them.
+ * The FDR estimates of both files only differ when a real p-value falls
+ * between a permuted p-value and its rounded value.
+ */
+public class BinaryPermutationFile {
+
+	public static final int MAGIC_NUMBER = 0x50455251;
+	private static final int HEADER_SIZE = 5 * 4;
+	private static final String NULL_STR = "-";
+
+	private final TDoubleArrayList pvalues;
+	private final TIntArrayList snpIds;
+	private final TIntArrayList probeIds;
+	private final TIntArrayList geneIds;
+	private final TObjectIntHashMap<String> snpIndex;
+	private final TObjectIntHashMap<String> probeIndex;
+	private final TObjectIntHashMap<String> geneIndex;
+
+	private final int nrResults;
+	private final int nrSNPs;
+	private final int nrProbes;
+	private final int nrGenes;
+	private final DoubleBuffer pvalueColumn;
+	private final IntBuffer snpColumn;
+	private final IntBuffer probeColumn;
+	private final IntBuffer geneColumn;
+
+	/**
+	 * Creates an empty file, to be filled with add() and written with
+	 * write().
+	 */
+	public BinaryPermutationFile(int expectedNrResults) {
+		pvalues = new TDoubleArrayList(expectedNrResults);
+		snpIds = new TIntArrayList(expectedNrResults);
+		probeIds = new TIntArrayList(expectedNrResults);
+		geneIds = new TIntArrayList(expectedNrResults);
+		snpIndex = new TObjectIntHashMap<String>();
+		probeIndex = new TObjectIntHashMap<String>();
+		geneIndex = new TObjectIntHashMap<String>();
+
+		nrResults = 0;
+		nrSNPs = 0;
+		nrProbes = 0;
+		nrGenes = 0;
+		pvalueColumn = null;
+		snpColumn = null;
+		probeColumn = null;
+		geneColumn = null;
+	}
+
+	private BinaryPermutationFile(String fileName) throws IOException {
+		pvalues = null;
+		snpIds = null;
+		probeIds = null;
+		geneIds = null;
+		snpIndex = null;
+		probeIndex = null;
+		geneIndex = null;
+
+		RandomAccessFile raf = new RandomAccessFile(fileName, "r");
+		FileChannel channel = raf.getChannel();
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		channel.close();
+		raf.close();
+
+		if (buffer.getInt() != MAGIC_NUMBER) {
+			throw new IOException("File is not a binary permutation file: " + fileName);
+		}
+		nrResults = buffer.getInt();
+		nrSNPs = buffer.getInt();
+		nrProbes = buffer.getInt();
+		nrGenes = buffer.getInt();
+
+		if (buffer.capacity() != HEADER_SIZE + nrResults * (8L + 3 * 4)) {
+			throw new IOException("Binary permutation file is truncated: " + fileName);
+		}
+
+		// the capacity check above keeps all positions within the int range of the buffer
+		long position = HEADER_SIZE;
+		buffer.position((int) position);
+		pvalueColumn = buffer.slice().asDoubleBuffer();
+		position += nrResults * 8L;
+		buffer.position((int) position);
+		snpColumn = buffer.slice().asIntBuffer();
+		position += nrResults * 4L;
+		buffer.position((int) position);
+		probeColumn = buffer.slice().asIntBuffer();
+		position += nrResults * 4L;
+		buffer.position((int) position);
+		geneColumn = buffer.slice().asIntBuffer();
+	}
+
+	/**
+	 * Opens a file for reading. The file is memory mapped; the columns are
+	 * read on demand.
+	 */
+	public static BinaryPermutationFile open(String fileName) throws IOException {
+		return new BinaryPermutationFile(fileName);
+	}
+
+	public static String getFileName(String dir, int permutationRound) {
+		return dir + "PermutedEQTLsPermutationRound" + permutationRound + ".dat";
+	}
+
+	/**
+	 * @return true if a binary permutation file exists for permutation rounds
+	 * 1 to nrPermutations in dir.
+	 */
+	public static boolean exists(String dir, int nrPermutations) {
+		for (int permutationRound = 1; permutationRound <= nrPermutations; permutationRound++) {
+			if (!Gpio.exists(getFileName(dir, permutationRound))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Appends a result. Results need to be added in order of ascending
+	 * p-value.
+	 */
+	public void add(double pvalue, String snp, String probe, String gene) {
+		if (!pvalues.isEmpty() && pvalue < pvalues.get(pvalues.size() - 1)) {
+			throw new IllegalArgumentException("P-values should be added in ascending order.");
+		}
+		pvalues.add(pvalue);
+		snpIds.add(getId(snpIndex, snp));
+		probeIds.add(getId(probeIndex, probe));
+		geneIds.add(getId(geneIndex, gene));
+	}
+
+	private int getId(TObjectIntHashMap<String> index, String name) {
+		if (name == null || name.equals(NULL_STR)) {
+			return -1;
+		}
+		if (index.containsKey(name)) {
+			return index.get(name);
+		}
+		int id = index.size();
+		index.put(name, id);
+		return id;
+	}
+
+	public void write(String fileName) throws IOException {
+		BinaryFile out = new BinaryFile(fileName, BinaryFile.W, 1048576, false);
+		out.writeInt(MAGIC_NUMBER);
+		out.writeInt(pvalues.size());
+		out.writeInt(snpIndex.size());
+		out.writeInt(probeIndex.size());
+		out.writeInt(geneIndex.size());
+		for (int i = 0; i < pvalues.size(); i++) {
+			out.writeDouble(pvalues.get(i));
+		}
+		writeColumn(out, snpIds);
+		writeColumn(out, probeIds);
+		writeColumn(out, geneIds);
+		out.close();
+	}
+
+	private void writeColumn(BinaryFile out, TIntArrayList column) throws IOException {
+		for (int i = 0; i < column.size(); i++) {
+			out.writeInt(column.get(i));
+		}
+	}
+
+	public int size() {
+		return nrResults;
+	}
+
+	public int getNrSNPs() {
+		return nrSNPs;
+	}
+
+	public int getNrProbes() {
+		return nrProbes;
+	}
+
+	public int getNrGenes() {
+		return nrGenes;
+	}
+
+	public double getPvalue(int i) {
+		return pvalueColumn.get(i);
+	}
+
+	public int getSNPId(int i) {
+		return snpColumn.get(i);
+	}
+
+	public int getProbeId(int i) {
+		return probeColumn.get(i);
+	}
+
+	public int getGeneId(int i) {
+		return geneColumn.get(i);
+	}
+}
@@ -0,0 +1,221 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package eqtlmappingpipeline.metaqtl3;
+
+import umcg.genetica.io.trityper.TriTyperExpressionData;
+
+import java.util.Arrays;
+
+/**
+ * Calculates the correlation between a block of SNPs and all probes of a
+ * dataset as a single dense matrix product, instead of testing each SNP-probe
+ * pair separately.
+ * <p>
+ * Genotypes are standardized per SNP before they are put in the block, so
+ * that the product of the block with the (mean centered) expression matrix
+ * directly yields the covariance scaled by the genotype standard deviation.
+ * Samples with a missing genotype get a zero in the block; for these SNPs the
+ * expression mean and variance over the remaining samples is derived from the
+ * per probe sums, corrected for the missing samples only.
+ * <p>
+ * An instance keeps its buffers between blocks and is not thread safe: use one
+ * per CalculationThread.
+ */
+class BlockedTransCalculator {
+
+	private static final int PROBE_TILE = 32;
+	private static final int SAMPLE_TILE = 1024;
+
+	private final TriTyperExpressionData[] m_expressiondata;
+	private final int m_blockSize;
+	private final double[][] m_probeSum;
+	private final double[][] m_probeSumOfSquares;
+	private final double[][] m_probeStdev;
+
+	private final double[][] m_genotypeBlock;
+	private final double[][] m_correlations;
+	private final int[][] m_missingSamples;
+	private final int[] m_nrMissingSamples;
+	private final int[] m_nrSamples;
+
+	BlockedTransCalculator(TriTyperExpressionData[] expressiondata, int blockSize) {
+		m_expressiondata = expressiondata;
+		m_blockSize = blockSize;
+
+		int maxNrSamples = 0;
+		int maxNrProbes = 0;
+		m_probeSum = new double[expressiondata.length][0];
+		m_probeSumOfSquares = new double[expressiondata.length][0];
+		m_probeStdev = new double[expressiondata.length][0];
+		for (int d = 0; d < expressiondata.length; d++) {
+			double[][] rawData = expressiondata[d].getMatrix();
+			double[] varY = expressiondata[d].getProbeVariance();
+			int sampleCount = expressiondata[d].getIndividuals().length;
+
+			m_probeSum[d] = new double[rawData.length];
+			m_probeSumOfSquares[d] = new double[rawData.length];
+			m_probeStdev[d] = new double[rawData.length];
+			for (int p = 0; p < rawData.length; p++) {
+				double[] y = rawData[p];
+				double sum = 0;
+				double sumOfSquares = 0;
+				for (int s = 0; s < sampleCount; s++) {
+					sum += y[s];
+					sumOfSquares += y[s] * y[s];
+				}
+				m_probeSum[d][p] = sum;
+				m_probeSumOfSquares[d][p] = sumOfSquares;
+				m_probeStdev[d][p] = Math.sqrt(varY[p]);
+			}
+
+			if (sampleCount > maxNrSamples) {
+				maxNrSamples = sampleCount;
+			}
+			if (rawData.length > maxNrProbes) {
+				maxNrProbes = rawData.length;
+			}
+		}
+
+		m_genotypeBlock = new double[blockSize][maxNrSamples];
+		m_correlations = new double[blockSize][maxNrProbes];
+		m_missingSamples = new int[blockSize][maxNrSamples];
+		m_nrMissingSamples = new int[blockSize];
+		m_nrSamples = new int[blockSize];
+	}
+
+	int getBlockSize() {
+		return m_blockSize;
+	}
+
+	/**
+	 * Correlates a block of SNPs with all probes of dataset d.
+	 *
+	 * @param d dataset
+	 * @param genotypes per SNP the mean centered genotypes of the samples that
+	 * have a genotype (as produced by SNP.selectGenotypes())
+	 * @param variances per SNP the variance of the genotypes
+	 * @param includeExpressionSample per SNP which expression samples have a
+	 * genotype
+	 * @param nrSnps number of SNPs in this block
+	 * @return per SNP the correlation with each probe (dataset probe ids), NaN
+	 * if the correlation could not be determined. The returned arrays are reused
+	 * for the next block.
+	 */
+	double[][] correlate(int d, double[][] genotypes, double[] variances, boolean[][] includeExpressionSample, int nrSnps) {
+		if (nrSnps > m_blockSize) {
+			throw new IllegalArgumentException("Number of SNPs (" + nrSnps + ") exceeds block size: " + m_blockSize);
+		}
+
+		double[][] rawData = m_expressiondata[d].getMatrix();
+		int sampleCount = m_expressiondata[d].getIndividuals().length;
+		int nrProbes = rawData.length;
+
+		// standardize the genotypes into the block, missing samples become 0
+		for (int j = 0; j < nrSnps; j++) {
+			double[] x = genotypes[j];
+			double[] g = m_genotypeBlock[j];
+			double scale = 1d / ((x.length - 1) * Math.sqrt(variances[j]));
+			m_nrSamples[j] = x.length;
+			m_nrMissingSamples[j] = 0;
+			if (x.length == sampleCount) {
+				for (int s = 0; s < sampleCount; s++) {
+					g[s] = x[s] * scale;
+				}
+			} else {
+				boolean[] include = includeExpressionSample[j];
+				int itr = 0;
+				for (int s = 0; s < sampleCount; s++) {
+					if (include[s]) {
+						g[s] = x[itr] * scale;
+						itr++;
+					} else {
+						g[s] = 0;
+						m_missingSamples[j][m_nrMissingSamples[j]] = s;
+						m_nrMissingSamples[j]++;
+					}
+				}
+			}
+		}
+
+		multiply(m_genotypeBlock, nrSnps, rawData, nrProbes, sampleCount, m_correlations);
+
+		double[] stdevY = m_probeStdev[d];
+		double[] sumY = m_probeSum[d];
+		double[] sumOfSquaresY = m_probeSumOfSquares[d];
+		for (int j = 0; j < nrSnps; j++) {
+			double[] r = m_correlations[j];
+			int nrMissing = m_nrMissingSamples[j];
+			if (nrMissing == 0) {
+				for (int p = 0; p < nrProbes; p++) {
+					if (stdevY[p] == 0) {
+						r[p] = Double.NaN;
+					} else {
+						r[p] = validate(r[p] / stdevY[p], variances[j], stdevY[p] * stdevY[p]);
+					}
+				}
+			} else {
+				int[] missing = m_missingSamples[j];
+				double n = m_nrSamples[j];
+				for (int p = 0; p < nrProbes; p++) {
+					double[] y = rawData[p];
+					double sum = sumY[p];
+					double sumOfSquares = sumOfSquaresY[p];
+					for (int m = 0; m < nrMissing; m++) {
+						double ym = y[missing[m]];
+						sum -= ym;
+						sumOfSquares -= ym * ym;
+					}
+					double varianceY = (sumOfSquares - (sum * sum) / n) / (n - 1);
+					if (varianceY <= 0) {
+						r[p] = Double.NaN;
+					} else {
+						r[p] = validate(r[p] / Math.sqrt(varianceY), variances[j], varianceY);
+					}
+				}
+			}
+		}
+
+		return m_correlations;
+	}
+
+	private static double validate(double correlation, double varianceX, double varianceY) {
+		if (correlation >= -1 && correlation <= 1) {
+			return correlation;
+		}
+		// Ususally if the genotype variance is very low
+		System.err.println("Error! correlation invalid: " + correlation + "; genotype variance = " + varianceX + "; expression variance = " + varianceY);
+		return Double.NaN;
+	}
+
+	/**
+	 * out[j][p] = sum over s of g[j][s] * y[p][s], tiled over probes and
+	 * samples so the expression tile stays in cache while the SNP block is
+	 * iterated.
+	 */
+	private static void multiply(double[][] g, int nrSnps, double[][] y, int nrProbes, int nrSamples, double[][] out) {
+		for (int j = 0; j < nrSnps; j++) {
+			Arrays.fill(out[j], 0, nrProbes, 0d);
+		}
+
+		for (int s0 = 0; s0 < nrSamples; s0 += SAMPLE_TILE) {
+			int s1 = Math.min(s0 + SAMPLE_TILE, nrSamples);
+			for (int p0 = 0; p0 < nrProbes; p0 += PROBE_TILE) {
+				int p1 = Math.min(p0 + PROBE_TILE, nrProbes);
+				for (int j = 0; j < nrSnps; j++) {
+					double[] gj = g[j];
+					double[] outj = out[j];
+					for (int p = p0; p < p1; p++) {
+						double[] yp = y[p];
+						double sum = 0;
+						for (int s = s0; s < s1; s++) {
+							sum += gj[s] * yp[s];
+						}
+						outj[p] += sum;
+					}
+				}
+			}
+		}
+	}
+}
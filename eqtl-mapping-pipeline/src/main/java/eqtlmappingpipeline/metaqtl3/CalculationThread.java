@@ -21,7 +21,11 @@ import umcg.genetica.math.stats.Correlation;
 import umcg.genetica.math.stats.Descriptives;
 import umcg.genetica.math.stats.ZScores;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.concurrent.LinkedBlockingQueue;
 
 /**
@@ -29,17 +33,20 @@ import java.util.concurrent.LinkedBlockingQueue;
  */
 class CalculationThread extends Thread {
 
-    final TriTyperExpressionData[] m_expressiondata;
+    private TriTyperExpressionData[] m_expressiondata;
+    private final TriTyperExpressionData[][] m_roundExpressiondata;
     final IntMatrix2D m_probeTranslation;
     int m_name;
     private int m_numProbes;
     private int m_numDatasets;
-    private final int[][] m_expressionToGenotypeIds;
+    private int[][] m_expressionToGenotypeIds;
+    private final int[][][] m_roundExpressionToGenotypeIds;
     //    private final double[][] probeVariance;
 //    private final double[][] probeMean;
 //    private final String[][] probeName;
     private final LinkedBlockingQueue<WorkPackage> m_workpackage_queue;
-    private final LinkedBlockingQueue<WorkPackage> m_result_queue;
+    private LinkedBlockingQueue<WorkPackage> m_result_queue;
+    private final List<LinkedBlockingQueue<WorkPackage>> m_roundResultQueues;
     int testsPerformed = 0;
     public boolean done = false;
     //    private int failedQC;
@@ -47,7 +54,9 @@ class CalculationThread extends Thread {
     //    private boolean cisTrans;
     private boolean transOnly;
     //    private boolean useAbsolutePValues;
-    private final EQTLPlotter m_eQTLPlotter;
+    private EQTLPlotter m_eQTLPlotter;
+    private final EQTLPlotter m_roundZeroPlotter;
+    private boolean m_clearGenotypes = true;
     private final double m_pvaluePlotThreshold;
     private boolean determinebeta = false;
     private boolean determinefoldchange = false;
@@ -60,17 +69,44 @@ class CalculationThread extends Thread {
     private boolean metaAnalyseInteractionTerms = false;
     private boolean metaAnalyseModelCorrelationYHat = false;
     private static DRand randomEngine = new cern.jet.random.tdouble.engine.DRand();
+    private BlockedTransCalculator m_blockCalculator;
+    private final BlockedTransCalculator[] m_roundBlockCalculators;
+    private double[] m_dosageBuffer = new double[0];
+    private double[] m_genotypeBuffer = new double[0];
+    // [work package in block][dataset], exact length because the consumers use the length as sample count
+    private double[][][] m_meanCorrectedBuffers = new double[0][][];
+    private double[][][] m_originalGenotypeBuffers = new double[0][][];
+    private boolean[][][] m_includeBuffers = new boolean[0][][];
 
     CalculationThread(int i, LinkedBlockingQueue<WorkPackage> packageQueue, LinkedBlockingQueue<WorkPackage> resultQueue, TriTyperExpressionData[] expressiondata,
                       DoubleMatrixDataset<String, String>[] covariates,
                       IntMatrix2D probeTranslationTable,
                       int[][] expressionToGenotypeIds, Settings settings, EQTLPlotter plotter, boolean binaryoutput, boolean useAbsoluteZScores, boolean testSNPsPresentInBothDatasets) {
+        this(i, packageQueue, Collections.singletonList(resultQueue), new TriTyperExpressionData[][]{expressiondata}, covariates, probeTranslationTable, new int[][][]{expressionToGenotypeIds},
+                settings, plotter, binaryoutput, useAbsoluteZScores, testSNPsPresentInBothDatasets);
+    }
+
+    /**
+     * Creates a calculation thread that tests each work package for multiple
+     * rounds in one go: for round r the expression data expressiondata[r] and
+     * the expression to genotype coupling expressionToGenotypeIds[r] are used
+     * and the result is put in resultQueues.get(r). Rounds can be sample label
+     * permutations of the same expression data, or different versions of the
+     * expression data with the same samples and probes. The plotter is only
+     * used for the first round.
+     */
+    CalculationThread(int i, LinkedBlockingQueue<WorkPackage> packageQueue, List<LinkedBlockingQueue<WorkPackage>> resultQueues, TriTyperExpressionData[][] expressiondata,
+                      DoubleMatrixDataset<String, String>[] covariates,
+                      IntMatrix2D probeTranslationTable,
+                      int[][][] expressionToGenotypeIds, Settings settings, EQTLPlotter plotter, boolean binaryoutput, boolean useAbsoluteZScores, boolean testSNPsPresentInBothDatasets) {
 //        m_binaryoutput = binaryoutput;
         m_name = i;
         m_workpackage_queue = packageQueue;
-        m_result_queue = resultQueue;
+        m_roundResultQueues = resultQueues;
+        m_result_queue = resultQueues.get(0);
         m_probeTranslation = probeTranslationTable;
-        m_expressiondata = expressiondata;
+        m_roundExpressiondata = expressiondata;
+        m_expressiondata = expressiondata[0];
         boolean m_cis = settings.cisAnalysis;
         boolean m_trans = settings.transAnalysis;
         metaAnalyseInteractionTerms = settings.metaAnalyseInteractionTerms;
@@ -79,7 +115,8 @@ class CalculationThread extends Thread {
         m_name = i;
         m_numProbes = m_probeTranslation.columns();
         m_numDatasets = m_probeTranslation.rows();
-        m_expressionToGenotypeIds = expressionToGenotypeIds;
+        m_roundExpressionToGenotypeIds = expressionToGenotypeIds;
+        m_expressionToGenotypeIds = expressionToGenotypeIds[0];
 
 //        probeVariance = new double[m_numDatasets][0];
 //        probeMean = new double[m_numDatasets][0];
@@ -108,7 +145,22 @@ class CalculationThread extends Thread {
         }
 
         m_eQTLPlotter = plotter;
+        m_roundZeroPlotter = plotter;
         m_pvaluePlotThreshold = settings.plotOutputPValueCutOff;
+
+        // fold changes require the expression per SNP-probe pair, so these are always tested one by one
+        // rounds with the same expression data share a calculator
+        m_roundBlockCalculators = new BlockedTransCalculator[expressiondata.length];
+        if (!cisOnly && settings.transBlockSize > 1 && !determinefoldchange) {
+            for (int r = 0; r < expressiondata.length; r++) {
+                if (r > 0 && expressiondata[r] == expressiondata[r - 1]) {
+                    m_roundBlockCalculators[r] = m_roundBlockCalculators[r - 1];
+                } else {
+                    m_roundBlockCalculators[r] = new BlockedTransCalculator(expressiondata[r], settings.transBlockSize);
+                }
+            }
+        }
+        m_blockCalculator = m_roundBlockCalculators[0];
     }
 
     @Override
@@ -118,7 +170,12 @@ class CalculationThread extends Thread {
             try {
                 WorkPackage pack = m_workpackage_queue.take();
                 if (!pack.getPoison()) {
-                    analyze(pack);
+                    ArrayList<WorkPackage> block = new ArrayList<WorkPackage>();
+                    block.add(pack);
+                    if (m_blockCalculator != null) {
+                        poison = fillBlock(block);
+                    }
+                    analyzeRounds(block);
                 } else {
                     poison = pack.getPoison();
                 }
@@ -152,49 +209,7 @@ class CalculationThread extends Thread {
         double[][] originalgenotypes = new double[m_numDatasets][0];
         boolean[][] includeExpressionSample = new boolean[m_numDatasets][0];
 
-        for (int d = 0; d < m_numDatasets; d++) {
-            SNP dSNP = snps[d];
-
-            if (dSNP != null) {
-
-                double[] x = dSNP.selectGenotypes(m_expressionToGenotypeIds[d], false, true);
-                originalgenotypes[d] = dSNP.selectGenotypes(m_expressionToGenotypeIds[d], false, false);
-
-
-                int xLen = x.length;
-                double meanX = JSci.maths.ArrayMath.mean(x);
-
-                snpmeancorrectedgenotypes[d] = new double[xLen];
-
-                for (int i = 0; i < xLen; i++) {
-                    snpmeancorrectedgenotypes[d][i] = x[i] - meanX;
-                }
-
-                double varianceX = JSci.maths.ArrayMath.variance(x);
-                if (varianceX != 0) {
-                    snpvariances[d] = varianceX;
-
-                    int inds[] = m_expressionToGenotypeIds[d];
-                    int sampleCount = m_expressionToGenotypeIds[d].length;
-                    includeExpressionSample[d] = new boolean[sampleCount];
-                    byte[] genotypes = dSNP.getGenotypes();
-                    for (int s = 0; s < sampleCount; s++) {
-                        int ind = inds[s];
-                        double valX = genotypes[ind]; // loadedSNPGenotype[ind];
-                        if (valX != -1) {
-                            includeExpressionSample[d][s] = true;
-                        } else {
-                            includeExpressionSample[d][s] = false;
-                        }
-                    }
-                } else {
-                    dSNP.clearGenotypes();
-                    dSNP = null;
-                    wp.getFlipSNPAlleles()[d] = null;
-                    snps[d] = null;
-                }
-            }
-        }
+        prepareGenotypes(wp, 0, snpvariances, snpmeancorrectedgenotypes, originalgenotypes, includeExpressionSample);
 
         if (cisOnly) {
             dsResults = new Result(m_numDatasets, wp.getProbes().length, wp.getId());
@@ -305,6 +320,249 @@ class CalculationThread extends Thread {
             }
         }
 
+        finishWorkPackage(wp, dsResults);
+
+//        System.out.println("Analyze: "+t1.getTimeDesc());
+    }
+
+    /**
+     * Runs the analysis of the given work packages for each of the rounds of
+     * this thread. Genotypes are only cleared after the last round,
+     * which receives the original work packages; earlier rounds get a copy
+     * that shares the SNP objects, but has its own SNP array, allele flips and
+     * results, so SNPs dropped or flipped in one round do not affect the next.
+     */
+    private void analyzeRounds(ArrayList<WorkPackage> block) {
+        int nrRounds = m_roundResultQueues.size();
+        for (int round = 0; round < nrRounds; round++) {
+            m_expressionToGenotypeIds = m_roundExpressionToGenotypeIds[round];
+            m_expressiondata = m_roundExpressiondata[round];
+            m_blockCalculator = m_roundBlockCalculators[round];
+            m_result_queue = m_roundResultQueues.get(round);
+            m_eQTLPlotter = (round == 0) ? m_roundZeroPlotter : null;
+            m_clearGenotypes = (round == nrRounds - 1);
+
+            ArrayList<WorkPackage> roundBlock = block;
+            if (round < nrRounds - 1) {
+                roundBlock = new ArrayList<WorkPackage>(block.size());
+                for (WorkPackage wp : block) {
+                    roundBlock.add(copyForRound(wp));
+                }
+            }
+
+            if (m_blockCalculator != null) {
+                analyzeBlock(roundBlock);
+            } else {
+                for (WorkPackage wp : roundBlock) {
+                    analyze(wp);
+                }
+            }
+        }
+    }
+
+    static WorkPackage copyForRound(WorkPackage wp) {
+        WorkPackage copy = new WorkPackage();
+        copy.setId(wp.getId());
+        copy.setMetaSNPId(wp.getMetaSNPId());
+        copy.setSnps(wp.getSnps().clone());
+        copy.setProbes(wp.getProbes());
+        copy.setFlipSNPAlleles(wp.getFlipSNPAlleles().clone());
+        copy.setDatasetsPassingQC(wp.getDatasetsPassingQC());
+        return copy;
+    }
+
+    /**
+     * Adds the work packages that are already waiting in the queue to the
+     * block, up to the block size.
+     *
+     * @return true if a poison package was taken from the queue
+     */
+    private boolean fillBlock(ArrayList<WorkPackage> block) {
+        int blockSize = m_blockCalculator.getBlockSize();
+        while (block.size() < blockSize) {
+            WorkPackage next = m_workpackage_queue.poll();
+            if (next == null) {
+                break;
+            } else if (next.getPoison()) {
+                return true;
+            }
+            block.add(next);
+        }
+        return false;
+    }
+
+    /**
+     * Analyzes the given work packages together, by correlating all their SNPs
+     * with all probes in one go.
+     */
+    private void analyzeBlock(ArrayList<WorkPackage> block) {
+        int nrWps = block.size();
+        double[][] snpvariances = new double[nrWps][m_numDatasets];
+        double[][][] snpmeancorrectedgenotypes = new double[nrWps][m_numDatasets][0];
+        double[][][] originalgenotypes = new double[nrWps][m_numDatasets][0];
+        boolean[][][] includeExpressionSample = new boolean[nrWps][m_numDatasets][0];
+        Result[] results = new Result[nrWps];
+        for (int w = 0; w < nrWps; w++) {
+            WorkPackage wp = block.get(w);
+            wp.setNumTested(0);
+            prepareGenotypes(wp, w, snpvariances[w], snpmeancorrectedgenotypes[w], originalgenotypes[w], includeExpressionSample[w]);
+            results[w] = new Result(m_numDatasets, m_numProbes, wp.getId());
+        }
+
+        int[] blockWps = new int[nrWps];
+        double[][] blockGenotypes = new double[nrWps][0];
+        double[] blockVariances = new double[nrWps];
+        boolean[][] blockIncludeExpressionSample = new boolean[nrWps][0];
+        for (int d = 0; d < m_numDatasets; d++) {
+            int nrSnps = 0;
+            for (int w = 0; w < nrWps; w++) {
+                results[w].numSamples[d] = snpmeancorrectedgenotypes[w][d].length;
+                if (block.get(w).getSnps()[d] != null) {
+                    blockWps[nrSnps] = w;
+                    blockGenotypes[nrSnps] = snpmeancorrectedgenotypes[w][d];
+                    blockVariances[nrSnps] = snpvariances[w][d];
+                    blockIncludeExpressionSample[nrSnps] = includeExpressionSample[w][d];
+                    nrSnps++;
+                } else {
+                    Arrays.fill(results[w].correlations[d], Double.NaN);
+                    Arrays.fill(results[w].zscores[d], Double.NaN);
+                }
+            }
+
+            if (nrSnps == 0) {
+                continue;
+            }
+
+            double[][] correlations = m_blockCalculator.correlate(d, blockGenotypes, blockVariances, blockIncludeExpressionSample, nrSnps);
+            for (int j = 0; j < nrSnps; j++) {
+                WorkPackage wp = block.get(blockWps[j]);
+                Result dsResults = results[blockWps[j]];
+                int nrSamples = blockGenotypes[j].length;
+
+                // in trans-only mode, the probes of the work package are the cis probes to exclude
+                boolean[] excludeProbe = null;
+                if (transOnly && wp.getProbes() != null) {
+                    excludeProbe = new boolean[m_numProbes];
+                    for (int pid : wp.getProbes()) {
+                        excludeProbe[pid] = true;
+                    }
+                }
+
+                for (int pid = 0; pid < m_numProbes; pid++) {
+                    int probeId = m_probeTranslation.getQuick(d, pid);
+                    double correlation = Double.NaN;
+                    if (probeId != -9 && (excludeProbe == null || !excludeProbe[pid])) {
+                        correlation = correlations[j][probeId];
+                    }
+                    if (Double.isNaN(correlation)) {
+                        dsResults.correlations[d][pid] = Double.NaN;
+                        dsResults.zscores[d][pid] = Double.NaN;
+                    } else {
+                        dsResults.correlations[d][pid] = correlation;
+                        dsResults.zscores[d][pid] = Correlation.convertCorrelationToZScore(nrSamples, correlation);
+                    }
+                }
+            }
+        }
+
+        for (int w = 0; w < nrWps; w++) {
+            testsPerformed = 0;
+            finishWorkPackage(block.get(w), results[w]);
+        }
+    }
+
+    /**
+     * Selects the genotypes of the SNPs of the work package for the current
+     * round. The arrays are per thread buffers that are reused for the next
+     * work package in the same slot, they are only valid until then.
+     *
+     * @param slot index of the work package in the block that is analyzed
+     * together, 0 when analyzing one work package at a time
+     */
+    private void prepareGenotypes(WorkPackage wp, int slot, double[] snpvariances, double[][] snpmeancorrectedgenotypes, double[][] originalgenotypes, boolean[][] includeExpressionSample) {
+        if (m_meanCorrectedBuffers.length <= slot) {
+            int nrSlots = Math.max(slot + 1, m_meanCorrectedBuffers.length * 2);
+            m_meanCorrectedBuffers = Arrays.copyOf(m_meanCorrectedBuffers, nrSlots);
+            m_originalGenotypeBuffers = Arrays.copyOf(m_originalGenotypeBuffers, nrSlots);
+            m_includeBuffers = Arrays.copyOf(m_includeBuffers, nrSlots);
+        }
+        if (m_meanCorrectedBuffers[slot] == null) {
+            m_meanCorrectedBuffers[slot] = new double[m_numDatasets][];
+            m_originalGenotypeBuffers[slot] = new double[m_numDatasets][];
+            m_includeBuffers[slot] = new boolean[m_numDatasets][];
+        }
+
+        SNP[] snps = wp.getSnps();
+        for (int d = 0; d < m_numDatasets; d++) {
+            SNP dSNP = snps[d];
+
+            if (dSNP != null) {
+
+                // select dosages, genotypes and included samples in one pass over the samples
+                int[] inds = m_expressionToGenotypeIds[d];
+                int sampleCount = inds.length;
+                if (m_dosageBuffer.length < sampleCount) {
+                    m_dosageBuffer = new double[sampleCount];
+                    m_genotypeBuffer = new double[sampleCount];
+                }
+                boolean[] include = m_includeBuffers[slot][d];
+                if (include == null || include.length != sampleCount) {
+                    include = new boolean[sampleCount];
+                    m_includeBuffers[slot][d] = include;
+                }
+                int xLen = dSNP.selectGenotypes(inds, m_dosageBuffer, m_genotypeBuffer, include);
+                double[] originalGenotypes = exactLengthBuffer(m_originalGenotypeBuffers[slot], d, xLen);
+                System.arraycopy(m_genotypeBuffer, 0, originalGenotypes, 0, xLen);
+
+                // same arithmetic as JSci.maths.ArrayMath.mean() and variance()
+                double[] x = m_dosageBuffer;
+                double sumX = 0;
+                for (int i = 0; i < xLen; i++) {
+                    sumX += x[i];
+                }
+                double meanX = sumX / xLen;
+
+                double[] meancorrected = exactLengthBuffer(m_meanCorrectedBuffers[slot], d, xLen);
+                double sumOfSquares = 0;
+                for (int i = 0; i < xLen; i++) {
+                    double v = x[i] - meanX;
+                    meancorrected[i] = v;
+                    sumOfSquares += v * v;
+                }
+                snpmeancorrectedgenotypes[d] = meancorrected;
+                originalgenotypes[d] = originalGenotypes;
+
+                double varianceX = sumOfSquares / (xLen - 1);
+                if (xLen > 0 && varianceX != 0) {
+                    snpvariances[d] = varianceX;
+                    includeExpressionSample[d] = include;
+                } else {
+                    if (m_clearGenotypes) {
+                        dSNP.clearGenotypes();
+                    }
+                    dSNP = null;
+                    wp.getFlipSNPAlleles()[d] = null;
+                    snps[d] = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return buffers[d] if it has the requested length, otherwise a new
+     * array that replaces it. The length only changes when the number of
+     * samples with a genotype changes.
+     */
+    private static double[] exactLengthBuffer(double[][] buffers, int d, int length) {
+        double[] buffer = buffers[d];
+        if (buffer == null || buffer.length != length) {
+            buffer = new double[length];
+            buffers[d] = buffer;
+        }
+        return buffer;
+    }
+
+    private void finishWorkPackage(WorkPackage wp, Result dsResults) {
         convertResultsToPValues(wp, dsResults);
 
         if (m_eQTLPlotter != null) {
@@ -318,8 +576,8 @@ class CalculationThread extends Thread {
             }
         }
 
-        snps = wp.getSnps();
-        if (snps != null) {
+        SNP[] snps = wp.getSnps();
+        if (snps != null && m_clearGenotypes) {
             for (SNP snp : snps) {
                 if (snp != null) {
                     snp.clearGenotypes();
@@ -338,8 +596,6 @@ class CalculationThread extends Thread {
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
-
-//        System.out.println("Analyze: "+t1.getTimeDesc());
     }
 
 
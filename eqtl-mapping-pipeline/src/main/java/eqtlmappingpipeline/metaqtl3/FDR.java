@@ -10,6 +10,7 @@ import cern.colt.matrix.tdouble.impl.DenseLargeDoubleMatrix2D;
 import eqtlmappingpipeline.metaqtl3.graphics.QQPlot;
 import gnu.trove.list.array.TCharArrayList;
 import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.hash.TDoubleIntHashMap;
 import gnu.trove.set.hash.THashSet;
 
@@ -17,6 +18,7 @@ import java.io.IOException;
 import java.lang.management.MemoryUsage;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.concurrent.*;
 
@@ -41,11 +43,26 @@ public class FDR {
 
 	public enum FileFormat {
 
-		LARGE, REDUCED
+		LARGE, REDUCED, BINARY
 	}
 
 	;
 
+	/**
+	 * Distribution of the permuted p-values: the sorted unique p-values, and
+	 * for each of these the average number of permuted p-values (per
+	 * permutation round) that are smaller or equal.
+	 */
+	static class PermutedPvalues {
+		final double[] uniquePvalues;
+		final double[] cumulativeCounts;
+
+		private PermutedPvalues(double[] uniquePvalues, double[] cumulativeCounts) {
+			this.uniquePvalues = uniquePvalues;
+			this.cumulativeCounts = cumulativeCounts;
+		}
+	}
+
 	/**
 	 * calculate the FalseDiscoveryRate for the discovered eQTLS
 	 *
@@ -59,6 +76,19 @@ public class FDR {
 	 * @throws IOException
 	 */
 	public static void calculateFDR(String eQTLTextFileLoc, int nrPermutationsFDR, int maxNrMostSignificantEQTLs, double fdrcutoff, boolean createQQPlot, String outputDir, String permutationDir, FDRMethod fdrType, boolean createLargeFdrFiles) throws IOException {
+		calculateFDR(eQTLTextFileLoc, nrPermutationsFDR, maxNrMostSignificantEQTLs, fdrcutoff, createQQPlot, outputDir, permutationDir, fdrType, createLargeFdrFiles, false);
+	}
+
+	/**
+	 * calculate the FalseDiscoveryRate for the discovered eQTLS
+	 *
+	 * @param useBinaryPermutationFiles read the permuted p-values from the
+	 * binary permutation files written alongside the text files, instead of
+	 * from the text files. Only set this if the binary files were written by
+	 * the same run.
+	 * @throws IOException
+	 */
+	public static void calculateFDR(String eQTLTextFileLoc, int nrPermutationsFDR, int maxNrMostSignificantEQTLs, double fdrcutoff, boolean createQQPlot, String outputDir, String permutationDir, FDRMethod fdrType, boolean createLargeFdrFiles, boolean useBinaryPermutationFiles) throws IOException {
 
 		if (eQTLTextFileLoc == null || eQTLTextFileLoc.length() == 0) {
 			throw new IllegalArgumentException("File containing real effects is not specified.");
@@ -83,6 +113,28 @@ public class FDR {
 			outputDir = eQTLTextFileLoc;
 		}
 
+		FDRMethod[] methods;
+		if (fdrType.equals(FDRMethod.ALL)) {
+			methods = new FDRMethod[]{FDRMethod.FULL, FDRMethod.GENELEVEL, FDRMethod.PROBELEVEL, FDRMethod.SNPLEVEL};
+		} else {
+			methods = new FDRMethod[]{fdrType};
+		}
+
+		if (useBinaryPermutationFiles && !BinaryPermutationFile.exists(permutationDir + "/", nrPermutationsFDR)) {
+			System.out.println("Binary permutation files are missing for one or more permutation rounds, using the text files instead.");
+			useBinaryPermutationFiles = false;
+		}
+
+		if (useBinaryPermutationFiles) {
+			// the permuted p-values for all methods are determined in a single pass over the binary files
+			System.out.println("Using binary permutation files.");
+			PermutedPvalues[] permutedPvalues = readBinaryPermutationFiles(permutationDir, nrPermutationsFDR, maxNrMostSignificantEQTLs, methods);
+			for (int i = 0; i < methods.length; i++) {
+				runFDR(eQTLTextFileLoc, nrPermutationsFDR, maxNrMostSignificantEQTLs, fdrcutoff, FileFormat.BINARY, methods[i], outputDir, permutationDir, createQQPlot, createLargeFdrFiles, permutedPvalues[i]);
+			}
+			return;
+		}
+
 		String fileString = permutationDir + "/PermutedEQTLsPermutationRound" + 1 + ".txt.gz";
 		TextFile tf = new TextFile(fileString, TextFile.R);
 		tf.readLine();
@@ -103,13 +155,8 @@ public class FDR {
 				format = FileFormat.REDUCED;
 			}
 
-			if (fdrType.equals(FDRMethod.ALL)) {
-				runFDR(eQTLTextFileLoc, nrPermutationsFDR, maxNrMostSignificantEQTLs, fdrcutoff, format, FDRMethod.FULL, outputDir, permutationDir, createQQPlot, createLargeFdrFiles);
-				runFDR(eQTLTextFileLoc, nrPermutationsFDR, maxNrMostSignificantEQTLs, fdrcutoff, format, FDRMethod.GENELEVEL, outputDir, permutationDir, createQQPlot, createLargeFdrFiles);
-				runFDR(eQTLTextFileLoc, nrPermutationsFDR, maxNrMostSignificantEQTLs, fdrcutoff, format, FDRMethod.PROBELEVEL, outputDir, permutationDir, createQQPlot, createLargeFdrFiles);
-				runFDR(eQTLTextFileLoc, nrPermutationsFDR, maxNrMostSignificantEQTLs, fdrcutoff, format, FDRMethod.SNPLEVEL, outputDir, permutationDir, createQQPlot, createLargeFdrFiles);
-			} else {
-				runFDR(eQTLTextFileLoc, nrPermutationsFDR, maxNrMostSignificantEQTLs, fdrcutoff, format, fdrType, outputDir, permutationDir, createQQPlot, createLargeFdrFiles);
+			for (FDRMethod method : methods) {
+				runFDR(eQTLTextFileLoc, nrPermutationsFDR, maxNrMostSignificantEQTLs, fdrcutoff, format, method, outputDir, permutationDir, createQQPlot, createLargeFdrFiles, null);
 			}
 		}
 
@@ -117,9 +164,8 @@ public class FDR {
 
 	//
 	private static void runFDR(String baseDir, int nrPermutationsFDR, int maxNrMostSignificantEQTLs,
-							   double fdrcutoff, FileFormat f, FDRMethod m, String outputDir, String permutationDir, boolean createQQPlot, boolean createLargeFdrFiles) throws IOException {
-		//Load permuted data:
-		// load values for each permutation round:
+							   double fdrcutoff, FileFormat f, FDRMethod m, String outputDir, String permutationDir, boolean createQQPlot, boolean createLargeFdrFiles,
+							   PermutedPvalues permutedPvalues) throws IOException {
 		System.out.println("");
 
 		if (m == FDRMethod.GENELEVEL) {
@@ -132,74 +178,11 @@ public class FDR {
 			System.out.println("Determining the FDR using all data");
 		}
 
-
-//        ProgressBar pb = new ProgressBar(nrPermutationsFDR, "Reading permuted data:");
-		System.out.println("Reading permuted files from: " + permutationDir + ".\nAssuming " + maxNrMostSignificantEQTLs + " effects");
-		TDoubleIntHashMap permutedPvalues = new TDoubleIntHashMap(10000, 0.5f);
-		Executor ex = Executors.newWorkStealingPool();
-		ExecutorCompletionService<TDoubleIntHashMap> service = new ExecutorCompletionService<>(ex);
-		int submit = 0;
-		MultiThreadProgressBar pb = new MultiThreadProgressBar(nrPermutationsFDR);
-		for (int permutationRound = 0; permutationRound < nrPermutationsFDR; permutationRound++) {
-			// run files in parallel
-			// String permutationDir, int permutationRound, FileFormat f, int maxNrMostSignificantEQTLs, FDRMethod m
-			ReadPermutationFile t = new ReadPermutationFile(permutationDir, permutationRound, f, maxNrMostSignificantEQTLs, m, pb);
-			service.submit(t);
-			submit++;
-		}
-
-		while (!pb.allCompleted()) {
-			pb.display();
-			try {
-				Thread.sleep(2000);
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			}
-		}
-
-		System.out.println();
-		int returned = 0;
-		while (returned < submit) {
-			try {
-				Future<TDoubleIntHashMap> h = service.take();
-				TDoubleIntHashMap result = h.get();
-				// update final hash
-				if (h != null) {
-					for (double d : result.keys()) {
-						int val;
-						if (!permutedPvalues.containsKey(d)) {
-							val = 0;
-						} else {
-							val = permutedPvalues.get(d);
-						}
-						permutedPvalues.put(d, val + result.get(d));
-					}
-					returned++;
-				}
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			} catch (ExecutionException e) {
-				e.printStackTrace();
-			}
-		}
-
-		int nreqtl = 0;
-		for (double k : permutedPvalues.keys()) {
-			nreqtl += permutedPvalues.get(k);
+		if (permutedPvalues == null) {
+			permutedPvalues = readPermutationFiles(permutationDir, nrPermutationsFDR, maxNrMostSignificantEQTLs, f, m);
 		}
-		System.out.println("After loading: " + submit + " permutation files, found " + permutedPvalues.keys().length + " unique p-values and " + nreqtl + " overall eqtl, or " + (nreqtl / nrPermutationsFDR) + " per file.");
-		double[] uniquePermutedPvalues = permutedPvalues.keys();
-		Arrays.sort(uniquePermutedPvalues);
-
-		double[] uniquePermutedPvaluesCounts = new double[uniquePermutedPvalues.length];
-
-		long cummulativeCount = 0;
-		double nrPermutationsFDRd = (double) nrPermutationsFDR;
-		for (int i = 0; i < uniquePermutedPvalues.length; ++i) {
-			cummulativeCount += permutedPvalues.get(uniquePermutedPvalues[i]);
-			uniquePermutedPvaluesCounts[i] = cummulativeCount / nrPermutationsFDRd;
-		}
-		permutedPvalues = null;
+		double[] uniquePermutedPvalues = permutedPvalues.uniquePvalues;
+		double[] uniquePermutedPvaluesCounts = permutedPvalues.cumulativeCounts;
 		System.out.println("Number of unique permutation p-values: " + uniquePermutedPvalues.length);
 
 		if (outputDir == null) {
@@ -207,6 +190,7 @@ public class FDR {
 		}
 
 		String fileSuffix = "";
+
 		if (m == FDRMethod.GENELEVEL) {
 			fileSuffix = "-GeneLevel";
 		} else if (m == FDRMethod.PROBELEVEL) {
@@ -517,6 +501,245 @@ public class FDR {
 		}
 	}
 
+	/**
+	 * Reads the permuted p-values for FDR method m from the permutation text
+	 * files, one thread per file.
+	 */
+	static PermutedPvalues readPermutationFiles(String permutationDir, int nrPermutationsFDR, int maxNrMostSignificantEQTLs, FileFormat f, FDRMethod m) {
+		// load values for each permutation round:
+//        ProgressBar pb = new ProgressBar(nrPermutationsFDR, "Reading permuted data:");
+		System.out.println("Reading permuted files from: " + permutationDir + ".\nAssuming " + maxNrMostSignificantEQTLs + " effects");
+		TDoubleIntHashMap permutedPvalueCounts = new TDoubleIntHashMap(10000, 0.5f);
+		Executor ex = Executors.newWorkStealingPool();
+		ExecutorCompletionService<TDoubleIntHashMap> service = new ExecutorCompletionService<>(ex);
+		int submit = 0;
+		MultiThreadProgressBar pb = new MultiThreadProgressBar(nrPermutationsFDR);
+		for (int permutationRound = 0; permutationRound < nrPermutationsFDR; permutationRound++) {
+			// run files in parallel
+			// String permutationDir, int permutationRound, FileFormat f, int maxNrMostSignificantEQTLs, FDRMethod m
+			ReadPermutationFile t = new ReadPermutationFile(permutationDir, permutationRound, f, maxNrMostSignificantEQTLs, m, pb);
+			service.submit(t);
+			submit++;
+		}
+
+		while (!pb.allCompleted()) {
+			pb.display();
+			try {
+				Thread.sleep(2000);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
+
+		System.out.println();
+		int returned = 0;
+		while (returned < submit) {
+			try {
+				Future<TDoubleIntHashMap> h = service.take();
+				TDoubleIntHashMap result = h.get();
+				// update final hash
+				if (h != null) {
+					for (double d : result.keys()) {
+						int val;
+						if (!permutedPvalueCounts.containsKey(d)) {
+							val = 0;
+						} else {
+							val = permutedPvalueCounts.get(d);
+						}
+						permutedPvalueCounts.put(d, val + result.get(d));
+					}
+					returned++;
+				}
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			} catch (ExecutionException e) {
+				e.printStackTrace();
+			}
+		}
+
+		int nreqtl = 0;
+		for (double k : permutedPvalueCounts.keys()) {
+			nreqtl += permutedPvalueCounts.get(k);
+		}
+		System.out.println("After loading: " + submit + " permutation files, found " + permutedPvalueCounts.keys().length + " unique p-values and " + nreqtl + " overall eqtl, or " + (nreqtl / nrPermutationsFDR) + " per file.");
+		double[] uniquePermutedPvalues = permutedPvalueCounts.keys();
+		Arrays.sort(uniquePermutedPvalues);
+
+		double[] uniquePermutedPvaluesCounts = new double[uniquePermutedPvalues.length];
+
+		long cummulativeCount = 0;
+		double nrPermutationsFDRd = (double) nrPermutationsFDR;
+		for (int i = 0; i < uniquePermutedPvalues.length; ++i) {
+			cummulativeCount += permutedPvalueCounts.get(uniquePermutedPvalues[i]);
+			uniquePermutedPvaluesCounts[i] = cummulativeCount / nrPermutationsFDRd;
+		}
+		return new PermutedPvalues(uniquePermutedPvalues, uniquePermutedPvaluesCounts);
+	}
+
+	/**
+	 * Determines the permuted p-value distributions for several FDR methods in
+	 * a single pass over the binary permutation files. The files are sorted on
+	 * p-value, so they are merged: the p-values come out in ascending order
+	 * over all permutation rounds, and each method keeps the most significant
+	 * effect per SNP, probe or gene (or all effects, for the full FDR) of the
+	 * first maxNrMostSignificantEQTLs effects in each round. This gives the
+	 * same distributions as reading the text files once per method.
+	 */
+	static PermutedPvalues[] readBinaryPermutationFiles(String permutationDir, int nrPermutationsFDR, int maxNrMostSignificantEQTLs, FDRMethod[] methods) throws IOException {
+		System.out.println("Reading binary permuted files from: " + permutationDir + ".\nAssuming " + maxNrMostSignificantEQTLs + " effects");
+		BinaryPermutationFile[] files = new BinaryPermutationFile[nrPermutationsFDR];
+		for (int permutationRound = 0; permutationRound < nrPermutationsFDR; permutationRound++) {
+			files[permutationRound] = BinaryPermutationFile.open(BinaryPermutationFile.getFileName(permutationDir + "/", permutationRound + 1));
+		}
+
+		// per method and permutation round: the effects seen, and the number of effects taken
+		BitSet[][] visited = new BitSet[methods.length][nrPermutationsFDR];
+		int[][] nrEffects = new int[methods.length][nrPermutationsFDR];
+		TDoubleArrayList[] uniquePvalues = new TDoubleArrayList[methods.length];
+		TIntArrayList[] uniquePvalueCounts = new TIntArrayList[methods.length];
+		for (int i = 0; i < methods.length; i++) {
+			for (int permutationRound = 0; permutationRound < nrPermutationsFDR; permutationRound++) {
+				visited[i][permutationRound] = new BitSet();
+			}
+			uniquePvalues[i] = new TDoubleArrayList();
+			uniquePvalueCounts[i] = new TIntArrayList();
+		}
+
+		// min-heap of permutation rounds, on the p-value at their current position
+		int[] position = new int[nrPermutationsFDR];
+		int[] heap = new int[nrPermutationsFDR];
+		int heapSize = 0;
+		for (int permutationRound = 0; permutationRound < nrPermutationsFDR; permutationRound++) {
+			if (files[permutationRound].size() > 0) {
+				heap[heapSize] = permutationRound;
+				heapSize++;
+			}
+		}
+		for (int i = heapSize / 2 - 1; i >= 0; i--) {
+			siftDown(heap, i, heapSize, files, position);
+		}
+
+		while (heapSize > 0) {
+			int permutationRound = heap[0];
+			BinaryPermutationFile file = files[permutationRound];
+			int row = position[permutationRound];
+			double p = file.getPvalue(row);
+
+			boolean roundDone = true;
+			for (int i = 0; i < methods.length; i++) {
+				if (nrEffects[i][permutationRound] >= maxNrMostSignificantEQTLs) {
+					continue;
+				}
+				boolean take;
+				if (methods[i] == FDRMethod.FULL) {
+					take = true;
+				} else {
+					int id = getEffectId(file, row, methods[i]);
+					take = id >= 0 && !visited[i][permutationRound].get(id);
+					if (take) {
+						visited[i][permutationRound].set(id);
+					}
+				}
+				if (take) {
+					nrEffects[i][permutationRound]++;
+					int last = uniquePvalues[i].size() - 1;
+					if (last >= 0 && uniquePvalues[i].get(last) == p) {
+						uniquePvalueCounts[i].set(last, uniquePvalueCounts[i].get(last) + 1);
+					} else {
+						uniquePvalues[i].add(p);
+						uniquePvalueCounts[i].add(1);
+					}
+				}
+				if (nrEffects[i][permutationRound] < maxNrMostSignificantEQTLs) {
+					roundDone = false;
+				}
+			}
+
+			position[permutationRound]++;
+			if (roundDone || position[permutationRound] == file.size()) {
+				heapSize--;
+				heap[0] = heap[heapSize];
+			}
+			siftDown(heap, 0, heapSize, files, position);
+		}
+
+		PermutedPvalues[] output = new PermutedPvalues[methods.length];
+		double nrPermutationsFDRd = (double) nrPermutationsFDR;
+		for (int i = 0; i < methods.length; i++) {
+			double[] pvalues = uniquePvalues[i].toArray();
+			double[] cumulativeCounts = new double[pvalues.length];
+			long cummulativeCount = 0;
+			for (int j = 0; j < pvalues.length; j++) {
+				cummulativeCount += uniquePvalueCounts[i].get(j);
+				cumulativeCounts[j] = cummulativeCount / nrPermutationsFDRd;
+			}
+			System.out.println(methods[i] + ": found " + pvalues.length + " unique p-values and " + cummulativeCount + " overall eqtl, or " + (cummulativeCount / nrPermutationsFDR) + " per file.");
+			output[i] = new PermutedPvalues(pvalues, cumulativeCounts);
+		}
+		return output;
+	}
+
+	/**
+	 * @return the id of the SNP, probe or gene of a result in a binary
+	 * permutation file, or -1 if it is missing. The full FDR uses probes, as
+	 * the QQ plot does for reduced text files.
+	 */
+	private static int getEffectId(BinaryPermutationFile file, int row, FDRMethod m) {
+		if (m == FDRMethod.SNPLEVEL) {
+			return file.getSNPId(row);
+		} else if (m == FDRMethod.GENELEVEL) {
+			return file.getGeneId(row);
+		} else {
+			return file.getProbeId(row);
+		}
+	}
+
+	private static void siftDown(int[] heap, int pos, int heapSize, BinaryPermutationFile[] files, int[] position) {
+		while (true) {
+			int child = 2 * pos + 1;
+			if (child >= heapSize) {
+				return;
+			}
+			if (child + 1 < heapSize && compareHeads(heap[child + 1], heap[child], files, position) < 0) {
+				child++;
+			}
+			if (compareHeads(heap[child], heap[pos], files, position) >= 0) {
+				return;
+			}
+			int tmp = heap[pos];
+			heap[pos] = heap[child];
+			heap[child] = tmp;
+			pos = child;
+		}
+	}
+
+	private static int compareHeads(int a, int b, BinaryPermutationFile[] files, int[] position) {
+		int c = Double.compare(files[a].getPvalue(position[a]), files[b].getPvalue(position[b]));
+		if (c == 0) {
+			return Integer.compare(a, b);
+		}
+		return c;
+	}
+
+	/**
+	 * Fills row permutationRound of the QQ plot matrix with the p-values of
+	 * the most significant effect per SNP, probe or gene, as for reduced text
+	 * files.
+	 */
+	private static void readBinaryQQPvalues(String permutationDir, int permutationRound, int maxNrMostSignificantEQTLs, FDRMethod m, DoubleMatrix2D permutedPValues) throws IOException {
+		BinaryPermutationFile file = BinaryPermutationFile.open(BinaryPermutationFile.getFileName(permutationDir + "/", permutationRound + 1));
+		BitSet visitedEffects = new BitSet();
+		int itr = 0;
+		for (int row = 0; row < file.size() && itr < maxNrMostSignificantEQTLs; row++) {
+			int id = getEffectId(file, row, m);
+			if (id >= 0 && !visitedEffects.get(id)) {
+				visitedEffects.set(id);
+				permutedPValues.setQuick(permutationRound, itr, file.getPvalue(row));
+				itr++;
+			}
+		}
+	}
+
 	private static void createQQPlots(String permutationDir, int nrPermutationsFDR, int maxNrMostSignificantEQTLs,
 									  double fdrcutoff, FileFormat f, FDRMethod m, double[] pValueRealData, ArrayList<Boolean> significantPvalue, int nrSignificantEQTLs, String fileName) throws IOException {
 		DoubleMatrix2D permutedPValues;
@@ -531,6 +754,10 @@ public class FDR {
 		permutedPValues.assign(1);
 
 		for (int permutationRound = 0; permutationRound < nrPermutationsFDR; permutationRound++) {
+			if (f == FileFormat.BINARY) {
+				readBinaryQQPvalues(permutationDir, permutationRound, maxNrMostSignificantEQTLs, m, permutedPValues);
+				continue;
+			}
 			String fileString = permutationDir + "/PermutedEQTLsPermutationRound" + (permutationRound + 1) + ".txt.gz";
 			// read the permuted eqtl output
 			TextFile gz = new TextFile(fileString, TextFile.R);
@@ -1004,6 +1004,13 @@ public class MetaQTL3 {
 		probeLog.close();
 	}
 
+	/**
+	 * @return the loader that mapEQTLs() reads the genotypes of dataset d with
+	 */
+	protected SNPLoader createSNPLoader(int d) throws IOException {
+		return m_gg[d].getGenotypeData().createSNPLoader(m_settings.numberOfVariantsToBuffer);
+	}
+
 	public void mapEQTLs() throws IOException {
 
 		// create work packages
@@ -1018,7 +1025,7 @@ public class MetaQTL3 {
 		SNPLoader[] snploaders = new SNPLoader[m_gg.length];
 		TriTyperExpressionData[] expressiondata = new TriTyperExpressionData[m_gg.length];
 		for (int d = 0; d < snploaders.length; d++) {
-			snploaders[d] = m_gg[d].getGenotypeData().createSNPLoader(m_settings.numberOfVariantsToBuffer);
+			snploaders[d] = createSNPLoader(d);
 			expressiondata[d] = m_gg[d].getExpressionData();
 		}
 
@@ -1061,6 +1068,13 @@ public class MetaQTL3 {
 
 		System.setProperty("java.util.concurrent.ForkJoinPool.common.parallelism", "" + m_settings.nrThreads);
 
+		// covariates are permuted in place, so these can only be handled one round at a time
+		boolean runRoundsInPasses = m_settings.permutationsPerPass > 1 && permEnd - permStart > 1 && !m_settings.permuteCovariates;
+		if (runRoundsInPasses) {
+			hasResults = mapEQTLsInPasses(permStart, permEnd, snploaders, expressiondata, covariateData, pool.length);
+			permStart = permEnd;
+		}
+
 		for (int permutationRound = permStart; permutationRound < permEnd; permutationRound++) {
 			RunTimer permtime = new RunTimer();
 
@@ -1095,16 +1109,7 @@ public class MetaQTL3 {
 			}
 
 			LinkedBlockingQueue<WorkPackage> resultQueue = new LinkedBlockingQueue<WorkPackage>(100000);
-			ResultProcessorThread resultthread = new ResultProcessorThread(m_settings.nrThreads, resultQueue, m_settings.createBinaryOutputFiles,
-					m_gg, m_settings, m_probeTranslationTable, permuting, permutationRound, m_snpList, m_probeList, m_workPackages);
-			resultthread.setName("ResultProcessorThread");
-			if (m_settings.dumpeverythingtodisk) {
-				System.out.println("-------------------------------------");
-				System.out.println("WARNING: dumping all results to disk!");
-				System.out.println("-------------------------------------");
-				resultthread.setDumpEverything();
-			}
-			resultthread.start();
+			ResultProcessorThread[] resultthreads = startResultProcessorThreads(resultQueue, permuting, permutationRound, "ResultProcessorThread", m_gg, m_settings.outputReportsDir);
 
 			// start production in advance
 			LinkedBlockingQueue<WorkPackage> packageQueue = new LinkedBlockingQueue<WorkPackage>(100000);
@@ -1134,10 +1139,7 @@ public class MetaQTL3 {
 					pool[threadNum].join();
 				}
 
-				WorkPackage poison = new WorkPackage();
-				poison.results = new Result(true);
-				resultQueue.put(poison);
-				resultthread.join();
+				stopResultProcessorThreads(resultthreads, resultQueue);
 
 			} catch (InterruptedException e) {
 				System.err.println("Exception: Main Thread interrupted.");
@@ -1152,36 +1154,15 @@ public class MetaQTL3 {
 			packageQueue = null;
 			permtime = null;
 			producer = null;
-			resultthread = null;
+			resultthreads = null;
 			expressionToGenotypeIds = null;
 			for (int i = 0; i < pool.length; i++) {
 				pool[i] = null;
 			}
 
 			// check whether there were results..
-			if (m_settings.createTEXTOutputFiles) {
-				String fileName;
-				if (permutationRound > 0) {
-					fileName = m_settings.outputReportsDir + "PermutedEQTLsPermutationRound" + permutationRound + ".txt.gz";
-				} else {
-					fileName = m_settings.outputReportsDir + "eQTLs.txt.gz";
-				}
-				TextFile tf = new TextFile(fileName, TextFile.R);
-				tf.readLine(); // skip header
-				int lnCounter = 0;
-				String line = tf.readLine();
-				while (line != null) {
-					lnCounter++;
-					if (lnCounter > 1) {
-						break;
-					}
-					line = tf.readLine();
-				}
-				tf.close();
-				if (lnCounter == 0) {
-					System.err.println("WARNING: QTL Mapping did not yield any results.");
-					hasResults = false;
-				}
+			if (!roundHasResults(m_settings.outputReportsDir, permutationRound)) {
+				hasResults = false;
 			}
 		}
 
@@ -1190,17 +1171,30 @@ public class MetaQTL3 {
 		}
 
 
+		calculateFDR(m_settings.outputReportsDir, hasResults);
+
+		System.out.print(ConsoleGUIElems.DOUBLELINE);
+
+		System.out.println("eQTL mapping elapsed:\t" + t.getTimeDesc() + "\n");
+	}
+
+	/**
+	 * Calculates the FDR for the results in outputDir and draws the dot plot
+	 * if requested, unless this is disabled in the settings or there are no
+	 * results.
+	 */
+	private void calculateFDR(String outputDir, boolean hasResults) throws IOException {
 		if (!m_settings.skipFDRCalculation || (!m_settings.runOnlyPermutations && hasResults)) {
 			if (m_settings.createTEXTOutputFiles && m_settings.nrPermutationsFDR > 0) {
 				System.out.println("Calculating FDR:\n" + ConsoleGUIElems.LINE);
-				FDR.calculateFDR(m_settings.outputReportsDir, m_settings.nrPermutationsFDR, m_settings.maxNrMostSignificantEQTLs,
-						m_settings.fdrCutOff, m_settings.createQQPlot, null, null, m_settings.fdrType, m_settings.fullFdrOutput);
+				FDR.calculateFDR(outputDir, m_settings.nrPermutationsFDR, m_settings.maxNrMostSignificantEQTLs,
+						m_settings.fdrCutOff, m_settings.createQQPlot, null, null, m_settings.fdrType, m_settings.fullFdrOutput, m_settings.binaryPermutationOutput);
 
 				if (m_settings.createDotPlot) {
 					EQTLDotPlot edp = new EQTLDotPlot();
 					try {
-						if (new File(m_settings.outputReportsDir + "/eQTLsFDR" + m_settings.fdrCutOff + ".txt.gz").exists()) {
-							edp.draw(m_settings.outputReportsDir + "/eQTLsFDR" + m_settings.fdrCutOff + ".txt.gz", m_settings.outputReportsDir + "/DotPlot-FDR" + m_settings.fdrCutOff + ".pdf", EQTLDotPlot.Output.PDF); // "/eQTLsFDR" + fdrCutOff + ".txt", outputReportsDir + "/eQTLsFDR" + fdrCutOff + "DotPlot.png"
+						if (new File(outputDir + "/eQTLsFDR" + m_settings.fdrCutOff + ".txt.gz").exists()) {
+							edp.draw(outputDir + "/eQTLsFDR" + m_settings.fdrCutOff + ".txt.gz", outputDir + "/DotPlot-FDR" + m_settings.fdrCutOff + ".pdf", EQTLDotPlot.Output.PDF); // "/eQTLsFDR" + fdrCutOff + ".txt", outputReportsDir + "/eQTLsFDR" + fdrCutOff + "DotPlot.png"
 						}
 					} catch (DocumentException ex) {
 						Logger.getLogger(MetaQTL3.class.getName()).log(Level.SEVERE, null, ex);
@@ -1220,13 +1214,369 @@ public class MetaQTL3 {
 			}
 			System.out.println("Skipping FDR calculation. Reason: " + reason);
 		}
+	}
+
+	/**
+	 * Splits the rounds permStart (inclusive) to permEnd (exclusive) in passes
+	 * of at most roundsPerPass rounds. The real analysis (round 0) always gets
+	 * a pass of its own: the WorkPackageProducer applies a different SNP QC
+	 * for the real data and for permutations (see
+	 * confineSNPsToSNPsPresentInAllDatasets), so all rounds in a pass must be
+	 * either real data or permutations.
+	 *
+	 * @return {passStart, passEnd} per pass, passEnd is exclusive
+	 */
+	static List<int[]> planPasses(int permStart, int permEnd, int roundsPerPass) {
+		roundsPerPass = Math.max(1, roundsPerPass);
+		List<int[]> passes = new ArrayList<int[]>();
+		int passStart = permStart;
+		while (passStart < permEnd) {
+			int passEnd = (passStart == 0) ? 1 : Math.min(passStart + roundsPerPass, permEnd);
+			passes.add(new int[]{passStart, passEnd});
+			passStart = passEnd;
+		}
+		return passes;
+	}
+
+	/**
+	 * Runs permutation rounds permStart (inclusive) to permEnd (exclusive) in
+	 * passes of at most m_settings.permutationsPerPass rounds, planned by
+	 * planPasses(). Within a pass, each SNP is loaded from disk once and
+	 * tested against each of the (permuted) sample labels of the pass. Each
+	 * round has its own ResultProcessorThread, so the output is the same as
+	 * when running the rounds one by one.
+	 *
+	 * @return false if any of the rounds did not yield results
+	 */
+	private boolean mapEQTLsInPasses(int permStart, int permEnd, SNPLoader[] snploaders, TriTyperExpressionData[] expressiondata,
+									 DoubleMatrixDataset<String, String>[] covariateData, int nrThreads) throws IOException {
+		boolean hasResults = true;
+		for (int[] pass : planPasses(permStart, permEnd, m_settings.permutationsPerPass)) {
+			RunTimer passtime = new RunTimer();
+			int passStart = pass[0];
+			int passEnd = pass[1];
+			int nrRounds = passEnd - passStart;
+			boolean passHasRealData = (passStart == 0);
+
+			System.out.print("Running rounds " + passStart + " to " + (passEnd - 1) + " of " + m_settings.nrPermutationsFDR + " in a single pass\n" + ConsoleGUIElems.LINE);
+
+			// permute in the same order as the round by round analysis, so the permutations are identical
+			int[][][] expressionToGenotypeIds = new int[nrRounds][m_gg.length][0];
+			TriTyperExpressionData[][] roundExpressiondata = new TriTyperExpressionData[nrRounds][];
+			for (int r = 0; r < nrRounds; r++) {
+				roundExpressiondata[r] = expressiondata;
+				for (int d = 0; d < m_gg.length; d++) {
+					if (passStart + r > 0) {
+						m_gg[d].permuteSampleLables(m_settings.randomNumberGenerator);
+					}
+					expressionToGenotypeIds[r][d] = m_gg[d].getExpressionToGenotypeIdArray();
+				}
+			}
+
+			List<LinkedBlockingQueue<WorkPackage>> resultQueues = new ArrayList<LinkedBlockingQueue<WorkPackage>>(nrRounds);
+			ResultProcessorThread[][] resultthreads = new ResultProcessorThread[nrRounds][];
+			for (int r = 0; r < nrRounds; r++) {
+				int permutationRound = passStart + r;
+				resultQueues.add(new LinkedBlockingQueue<WorkPackage>(100000));
+				resultthreads[r] = startResultProcessorThreads(resultQueues.get(r), permutationRound > 0, permutationRound, "ResultProcessorThread-" + permutationRound, m_gg, m_settings.outputReportsDir);
+			}
+
+			LinkedBlockingQueue<WorkPackage> packageQueue = new LinkedBlockingQueue<WorkPackage>(100000);
+			WorkPackageProducer producer = new WorkPackageProducer(packageQueue, m_workPackages, m_snpList, m_probeList, m_probeTranslationTable, m_snpTranslationTable, m_gg, snploaders, m_settings, !passHasRealData);
+			producer.setName("WorkPackageProducerThread");
+			producer.start();
+
+			CalculationThread[] pool = new CalculationThread[nrThreads];
+			for (int tnum = 0; tnum < pool.length; tnum++) {
+				EQTLPlotter plotter = null;
+				if (passHasRealData) {
+					plotter = new EQTLPlotter(m_gg, m_settings, m_probeList, m_probeTranslationTable);
+				}
+				pool[tnum] = new CalculationThread(passStart, packageQueue, resultQueues, roundExpressiondata, covariateData, m_probeTranslationTable, expressionToGenotypeIds, m_settings, plotter, m_settings.createBinaryOutputFiles, m_settings.useAbsoluteZScorePValue, m_settings.confineSNPsToSNPsPresentInAllDatasets);
+				pool[tnum].setName("CalcThread-" + tnum);
+				pool[tnum].start();
+			}
+
+			try {
+				producer.join();
+				for (int threadNum = 0; threadNum < pool.length; threadNum++) {
+					pool[threadNum].join();
+				}
+
+				for (int r = 0; r < nrRounds; r++) {
+					stopResultProcessorThreads(resultthreads[r], resultQueues.get(r));
+				}
+			} catch (InterruptedException e) {
+				System.err.println("Exception: Main Thread interrupted.");
+			}
+			System.out.print(ConsoleGUIElems.LINE);
+			System.out.println("Pass done. Elapsed time:\t" + passtime.getTimeDesc());
+			System.out.println("");
+
+			for (int r = 0; r < nrRounds; r++) {
+				if (!roundHasResults(m_settings.outputReportsDir, passStart + r)) {
+					hasResults = false;
+				}
+			}
+		}
+		return hasResults;
+	}
+
+	/**
+	 * Maps eQTLs for several versions of the expression data of the loaded
+	 * datasets, for instance expression data corrected for an increasing
+	 * number of principal components. Within a pass over the genotype data,
+	 * each SNP is loaded once and tested against all versions for one or more
+	 * permutation rounds. All versions get the same sample label permutations
+	 * and each version writes its results and FDR output to its own
+	 * directory, so the output is the same as calling mapEQTLs() for each
+	 * version.
+	 * <p>
+	 * Memory: the caller holds the expression data of all sets. Each round of
+	 * each set has its own result stream, which keeps up to
+	 * m_settings.maxNrMostSignificantEQTLs results per result processor
+	 * thread. A pass has m_settings.permutationsPerPass / number of sets
+	 * permutation rounds, so at most max(permutationsPerPass, number of sets)
+	 * streams are open at the same time.
+	 *
+	 * @param expressionSets expressionSets[set][dataset], with the same probes
+	 * and individuals as the expression data of m_gg[dataset]
+	 * @param outputDirs output directory per set
+	 * @throws IOException
+	 */
+	public void mapEQTLsForExpressionSets(TriTyperExpressionData[][] expressionSets, String[] outputDirs) throws IOException {
+
+		RunTimer t = new RunTimer();
+		if (m_settings.numberOfVariantsToBuffer > m_snpList.length) {
+			m_settings.numberOfVariantsToBuffer = m_snpList.length;
+			System.out.println("Resetting buffer size to: " + m_snpList.length);
+		}
+
+		int nrSets = expressionSets.length;
+
+		// the results of a set are described using the expression data of that set
+		TriTyperGeneticalGenomicsDataset[][] setDatasets = new TriTyperGeneticalGenomicsDataset[nrSets][m_gg.length];
+		for (int s = 0; s < nrSets; s++) {
+			for (int d = 0; d < m_gg.length; d++) {
+				setDatasets[s][d] = m_gg[d].copyWithExpressionData(expressionSets[s][d]);
+			}
+			if (!Gpio.exists(outputDirs[s])) {
+				Gpio.createDir(outputDirs[s]);
+			}
+		}
+
+		SNPLoader[] snploaders = new SNPLoader[m_gg.length];
+		for (int d = 0; d < snploaders.length; d++) {
+			snploaders[d] = m_gg[d].getGenotypeData().createSNPLoader(m_settings.numberOfVariantsToBuffer);
+		}
+
+		// initialize lookup tables
+		int maxNrSamples = 0;
+		for (int d = 0; d < m_gg.length; d++) {
+			if (m_gg[d].getExpressionToGenotypeIdArray().length > maxNrSamples) {
+				maxNrSamples = m_gg[d].getExpressionToGenotypeIdArray().length;
+			}
+		}
+		Correlation.correlationToZScore(maxNrSamples);
+		Descriptives.lookupSqrt(numAvailableInds);            // pre-calculate a square root lookup table
+		Descriptives.initializeZScoreToPValue();
+
+		DoubleMatrixDataset<String, String>[] covariateData = null;
+		if (dataHasCovariates) {
+			covariateData = new DoubleMatrixDataset[m_gg.length];
+			for (int d = 0; d < m_gg.length; d++) {
+				covariateData[d] = m_gg[d].getCovariateData();
+			}
+		}
+
+		System.setProperty("java.util.concurrent.ForkJoinPool.common.parallelism", "" + m_settings.nrThreads);
+
+		// covariates are permuted in place, so these can only be handled one round at a time
+		int permutationsPerPass = Math.max(1, m_settings.permutationsPerPass / nrSets);
+		if (m_settings.permuteCovariates) {
+			permutationsPerPass = 1;
+		}
+
+		boolean[] hasResults = new boolean[nrSets];
+		Arrays.fill(hasResults, true);
+		int permEnd = m_settings.nrPermutationsFDR + 1;
+		for (int[] pass : planPasses(0, permEnd, permutationsPerPass)) {
+			RunTimer passtime = new RunTimer();
+			int passStart = pass[0];
+			int passEnd = pass[1];
+			int nrRounds = (passEnd - passStart) * nrSets;
+			boolean passHasRealData = (passStart == 0);
+
+			System.out.print("Running rounds " + passStart + " to " + (passEnd - 1) + " of " + m_settings.nrPermutationsFDR + " for " + nrSets + " expression data sets in a single pass\n" + ConsoleGUIElems.LINE);
+
+			// round r tests set r % nrSets, with the permutation of round passStart + r / nrSets
+			int[][][] expressionToGenotypeIds = new int[nrRounds][][];
+			TriTyperExpressionData[][] roundExpressiondata = new TriTyperExpressionData[nrRounds][];
+			List<LinkedBlockingQueue<WorkPackage>> resultQueues = new ArrayList<LinkedBlockingQueue<WorkPackage>>(nrRounds);
+			ResultProcessorThread[][] resultthreads = new ResultProcessorThread[nrRounds][];
+			for (int permutationRound = passStart; permutationRound < passEnd; permutationRound++) {
+				int[][] permutationExpressionToGenotypeIds = new int[m_gg.length][0];
+				for (int d = 0; d < m_gg.length; d++) {
+					if (permutationRound > 0) {
+						m_gg[d].permuteSampleLables(m_settings.randomNumberGenerator);
+						if (m_settings.permuteCovariates) {
+							m_gg[d].permuteCovariates(m_settings.randomNumberGenerator);
+						}
+					}
+					permutationExpressionToGenotypeIds[d] = m_gg[d].getExpressionToGenotypeIdArray();
+				}
+
+				for (int s = 0; s < nrSets; s++) {
+					int r = (permutationRound - passStart) * nrSets + s;
+					expressionToGenotypeIds[r] = permutationExpressionToGenotypeIds;
+					roundExpressiondata[r] = expressionSets[s];
+					resultQueues.add(new LinkedBlockingQueue<WorkPackage>(100000));
+					resultthreads[r] = startResultProcessorThreads(resultQueues.get(r), permutationRound > 0, permutationRound, "ResultProcessorThread-" + s + "-" + permutationRound, setDatasets[s], outputDirs[s]);
+				}
+			}
+
+			LinkedBlockingQueue<WorkPackage> packageQueue = new LinkedBlockingQueue<WorkPackage>(100000);
+			WorkPackageProducer producer = new WorkPackageProducer(packageQueue, m_workPackages, m_snpList, m_probeList, m_probeTranslationTable, m_snpTranslationTable, m_gg, snploaders, m_settings, !passHasRealData);
+			producer.setName("WorkPackageProducerThread");
+			producer.start();
+
+			CalculationThread[] pool = new CalculationThread[m_settings.nrThreads];
+			for (int tnum = 0; tnum < pool.length; tnum++) {
+				EQTLPlotter plotter = null;
+				if (passHasRealData) {
+					plotter = new EQTLPlotter(m_gg, m_settings, m_probeList, m_probeTranslationTable);
+				}
+				pool[tnum] = new CalculationThread(passStart, packageQueue, resultQueues, roundExpressiondata, covariateData, m_probeTranslationTable, expressionToGenotypeIds, m_settings, plotter, m_settings.createBinaryOutputFiles, m_settings.useAbsoluteZScorePValue, m_settings.confineSNPsToSNPsPresentInAllDatasets);
+				pool[tnum].setName("CalcThread-" + tnum);
+				pool[tnum].start();
+			}
+
+			try {
+				producer.join();
+				for (int threadNum = 0; threadNum < pool.length; threadNum++) {
+					pool[threadNum].join();
+				}
+
+				for (int r = 0; r < nrRounds; r++) {
+					stopResultProcessorThreads(resultthreads[r], resultQueues.get(r));
+				}
+			} catch (InterruptedException e) {
+				System.err.println("Exception: Main Thread interrupted.");
+			}
+			System.out.print(ConsoleGUIElems.LINE);
+			System.out.println("Pass done. Elapsed time:\t" + passtime.getTimeDesc());
+			System.out.println("");
+
+			for (int r = 0; r < nrRounds; r++) {
+				int s = r % nrSets;
+				if (!roundHasResults(outputDirs[s], passStart + r / nrSets)) {
+					hasResults[s] = false;
+				}
+			}
+		}
 
+		for (int d = 0; d < snploaders.length; d++) {
+			snploaders[d].close();
+		}
+
+		for (int s = 0; s < nrSets; s++) {
+			calculateFDR(outputDirs[s], hasResults[s]);
+		}
 
 		System.out.print(ConsoleGUIElems.DOUBLELINE);
 
 		System.out.println("eQTL mapping elapsed:\t" + t.getTimeDesc() + "\n");
 	}
 
+	/**
+	 * Starts m_settings.resultProcessorThreads threads consuming the results
+	 * of one permutation round from resultQueue. With more than one thread,
+	 * each thread is a shard with its own binary output segment and top-N
+	 * results, which are merged in stopResultProcessorThreads(). Each shard
+	 * can keep m_settings.maxNrMostSignificantEQTLs results, so the top-N
+	 * results of a round can take up to resultProcessorThreads times as much
+	 * memory as with a single thread. The output is
+	 * written to outputDir and the results are described using the expression
+	 * data of gg.
+	 */
+	private ResultProcessorThread[] startResultProcessorThreads(LinkedBlockingQueue<WorkPackage> resultQueue, boolean permuting, int permutationRound, String name,
+																TriTyperGeneticalGenomicsDataset[] gg, String outputDir) {
+		int nrShards = m_settings.resultProcessorThreads;
+		if (m_settings.dumpeverythingtodisk) {
+			System.out.println("-------------------------------------");
+			System.out.println("WARNING: dumping all results to disk!");
+			System.out.println("-------------------------------------");
+			// all results go to a single dump file
+			nrShards = 1;
+		}
+		if (nrShards < 1) {
+			nrShards = 1;
+		}
+
+		ProgressBar progressBar = null;
+		if (nrShards > 1) {
+			System.out.println("Using " + nrShards + " result processor threads, each keeping at most " + m_settings.maxNrMostSignificantEQTLs + " results in memory.");
+			progressBar = new ProgressBar(m_workPackages.length);
+		}
+
+		ResultProcessorThread[] resultthreads = new ResultProcessorThread[nrShards];
+		for (int s = 0; s < nrShards; s++) {
+			resultthreads[s] = new ResultProcessorThread(m_settings.nrThreads, resultQueue, m_settings.createBinaryOutputFiles,
+					gg, m_settings, outputDir, m_probeTranslationTable, permuting, permutationRound, m_snpList, m_probeList, m_workPackages);
+			if (nrShards > 1) {
+				resultthreads[s].setShard(s, nrShards, progressBar);
+				resultthreads[s].setName(name + "-" + s);
+			} else {
+				resultthreads[s].setName(name);
+			}
+			if (m_settings.dumpeverythingtodisk) {
+				resultthreads[s].setDumpEverything();
+			}
+			resultthreads[s].start();
+		}
+		return resultthreads;
+	}
+
+	private void stopResultProcessorThreads(ResultProcessorThread[] resultthreads, LinkedBlockingQueue<WorkPackage> resultQueue) throws InterruptedException, IOException {
+		for (int s = 0; s < resultthreads.length; s++) {
+			WorkPackage poison = new WorkPackage();
+			poison.results = new Result(true);
+			resultQueue.put(poison);
+		}
+		for (int s = 0; s < resultthreads.length; s++) {
+			resultthreads[s].join();
+		}
+		ResultProcessorThread.mergeShards(resultthreads);
+	}
+
+	private boolean roundHasResults(String outputDir, int permutationRound) throws IOException {
+		if (m_settings.createTEXTOutputFiles) {
+			String fileName;
+			if (permutationRound > 0) {
+				fileName = outputDir + "PermutedEQTLsPermutationRound" + permutationRound + ".txt.gz";
+			} else {
+				fileName = outputDir + "eQTLs.txt.gz";
+			}
+			TextFile tf = new TextFile(fileName, TextFile.R);
+			tf.readLine(); // skip header
+			int lnCounter = 0;
+			String line = tf.readLine();
+			while (line != null) {
+				lnCounter++;
+				if (lnCounter > 1) {
+					break;
+				}
+				line = tf.readLine();
+			}
+			tf.close();
+			if (lnCounter == 0) {
+				System.err.println("WARNING: QTL Mapping did not yield any results.");
+				return false;
+			}
+		}
+		return true;
+	}
+
 	protected long determineSNPProbeCombinations() throws IOException {
 		String loc = m_settings.outputReportsDir + "excludedSNPsBySNPProbeCombinationFilter.txt.gz";
 		TextFile excludedSNPs = new TextFile(loc, TextFile.W);
@@ -19,6 +19,8 @@ import umcg.genetica.io.trityper.util.BaseAnnot;
 
 import javax.xml.bind.annotation.adapters.HexBinaryAdapter;
 import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.Arrays;
@@ -63,13 +65,8 @@ public class ResultProcessorThread extends Thread {
 	private final LinkedBlockingQueue<WorkPackage> m_queue;
 	private final WorkPackage[] m_availableWorkPackages;
 	private long nrTestsPerformed = 0;
-	private QTL[] finalEQTLs;
-	private double maxSavedPvalue = -Double.MAX_VALUE;
-	private int locationToStoreResult = 0;
-	private boolean bufferHasOverFlown = false;
-	private boolean sorted = false;
+	private final TopQTLBuffer topEQTLs;
 	private int m_maxResults = 0;
-	public double highestP = Double.MAX_VALUE;
 	private int nrSNPsTested = 0;
 	private final boolean m_useAbsoluteZScore;
 	private BinaryFile[] zScoreBinaryFile;
@@ -78,19 +75,35 @@ public class ResultProcessorThread extends Thread {
 	private TextFile[] zScoreRowNamesFile;
 	private boolean usemd5 = true;
 	private boolean m_dumpEverythingToDisk;
+	private boolean m_createBinaryPermutationFile;
 	private int minNrOfDatasetsPerEQTL;
 	private boolean omitDatasetSummaryStats = false;
+	private int m_shard = 0;
+	private int m_nrShards = 1;
+	private ProgressBar m_progressBar = null;
+	private static final String META_ROWNAMES_HEADER = "SNP\tAlleles\tMinorAllele\tAlleleAssessed\tNrCalled";
+	private static final String DATASET_ROWNAMES_HEADER = "SNP\tAlleles\tMinorAllele\tAlleleAssessed\tNrCalled\tMaf\tHWE\tCallRate";
 
 	public ResultProcessorThread(int nrThreads, LinkedBlockingQueue<WorkPackage> queue, boolean chargeOutput,
 								 TriTyperGeneticalGenomicsDataset[] gg, Settings settings, IntMatrix2D pprobeTranslation,
 								 boolean permuting, int round, String[] snplist, String[] probelist, WorkPackage[] allPackages) {
+		this(nrThreads, queue, chargeOutput, gg, settings, settings.outputReportsDir, pprobeTranslation, permuting, round, snplist, probelist, allPackages);
+	}
+
+	/**
+	 * Writes the output to outputDir in stead of settings.outputReportsDir.
+	 */
+	public ResultProcessorThread(int nrThreads, LinkedBlockingQueue<WorkPackage> queue, boolean chargeOutput,
+								 TriTyperGeneticalGenomicsDataset[] gg, Settings settings, String outputDir, IntMatrix2D pprobeTranslation,
+								 boolean permuting, int round, String[] snplist, String[] probelist, WorkPackage[] allPackages) {
 		m_availableWorkPackages = allPackages;
 		m_createBinaryFiles = settings.createBinaryOutputFiles;
 		m_createTEXTFiles = settings.createTEXTOutputFiles;
+		m_createBinaryPermutationFile = settings.binaryPermutationOutput;
 		m_useAbsoluteZScore = settings.useAbsoluteZScorePValue;
 		m_createBinaryFilesOnlyMetaAnalysis = settings.createBinaryFilesOnlyMetaAnalysis;
 		m_queue = queue;
-		m_outputdir = settings.outputReportsDir;
+		m_outputdir = outputDir;
 		m_permuting = permuting;
 		m_permutationround = round;
 		m_probeTranslation = pprobeTranslation;
@@ -103,22 +116,12 @@ public class ResultProcessorThread extends Thread {
 		omitDatasetSummaryStats = settings.omitDatasetSummaryStats;
 
 		usemd5 = settings.usemd5hash;
-		int tmpbuffersize = (m_maxResults / 10);
-
-		if (tmpbuffersize == 0) {
-			tmpbuffersize = 10;
-		} else if (tmpbuffersize > 250000) {
-			tmpbuffersize = 250000;
-		} else if (m_maxResults < 1000000) {
-			tmpbuffersize = 1000000;
-		}
 
 //        m_totalNumberOfProbes = probelist.length;
 //        m_pvaluePlotThreshold = settings.plotOutputPValueCutOff;
-//        tmpEQTLBuffer = new QTL[tmpbuffersize];
 //        m_result_counter = 0;   
 //        m_numdatasets = m_gg.length;
-		finalEQTLs = new QTL[(m_maxResults + tmpbuffersize)];
+		topEQTLs = new TopQTLBuffer(m_maxResults, gg.length);
 		nrSNPsTested = 0;
 	}
 
@@ -126,57 +129,30 @@ public class ResultProcessorThread extends Thread {
 		this.m_dumpEverythingToDisk = true;
 	}
 
+	/**
+	 * Makes this thread one of nrShards consumers of the same queue. Each
+	 * shard writes its binary z-scores to its own segment files and keeps
+	 * its own top-N results; mergeShards() combines them once all shards
+	 * are done.
+	 * <p>
+	 * The top-N of a shard is not capped at maxResults / nrShards: the
+	 * results are distributed over the shards in arrival order, so a single
+	 * shard can hold all of the overall most significant results. The
+	 * buffers grow on demand, but a round with many significant results can
+	 * keep up to nrShards times maxResults results in memory.
+	 */
+	public void setShard(int shard, int nrShards, ProgressBar progressBar) {
+		m_shard = shard;
+		m_nrShards = nrShards;
+		m_progressBar = progressBar;
+	}
+
 	@Override
 	public void run() {
 //        nrProcessed = 0;
 		try {
 			if (m_createBinaryFiles) {
-				if (!m_createBinaryFilesOnlyMetaAnalysis) {
-					zScoreBinaryFile = new BinaryFile[m_gg.length];
-				}
-
-				zScoreRowNamesFile = new TextFile[m_gg.length];
-				if (m_gg.length > 1) {
-					String metaAnalysisFileName = m_outputdir + "MetaAnalysis";
-					if (m_permuting) {
-						metaAnalysisFileName += "-PermutationRound-" + m_permutationround;
-					}
-					zScoreMetaAnalysisFile = new BinaryFile(metaAnalysisFileName + ".dat", BinaryFile.W);
-					// write magic number (1 if this is a cis dataset)
-					if (m_cisOnly) {
-						zScoreMetaAnalysisFile.writeInt(1);
-					} else {
-						zScoreMetaAnalysisFile.writeInt(0);
-					}
-
-					zScoreMetaAnalysisRowNamesFile = new TextFile(metaAnalysisFileName + "-RowNames.txt.gz", TextFile.W);
-					zScoreMetaAnalysisRowNamesFile.writeln("SNP\tAlleles\tMinorAllele\tAlleleAssessed\tNrCalled");
-					TextFile tf = new TextFile(metaAnalysisFileName + "-ColNames.txt.gz", TextFile.W);
-					tf.writeList(Arrays.asList(m_probeList));
-					tf.close();
-				}
-				if (!m_createBinaryFilesOnlyMetaAnalysis) {
-					for (int d = 0; d < m_gg.length; d++) {
-						String fileName = m_outputdir + m_gg[d].getSettings().name;
-						if (m_permuting) {
-							fileName += "-PermutationRound-" + m_permutationround;
-						}
-
-						zScoreBinaryFile[d] = new BinaryFile(fileName + ".dat", BinaryFile.W, 1048576, usemd5);
-						// write magic number
-						if (m_cisOnly) {
-							zScoreBinaryFile[d].writeInt(1);
-						} else {
-							zScoreBinaryFile[d].writeInt(0);
-						}
-
-						TextFile tf = new TextFile(fileName + "-ColNames.txt.gz", TextFile.W);
-						tf.writeList(Arrays.asList(m_probeList));
-						tf.close();
-						zScoreRowNamesFile[d] = new TextFile(fileName + "-RowNames.txt.gz", TextFile.W);
-						zScoreRowNamesFile[d].writeln("SNP\tAlleles\tMinorAllele\tAlleleAssessed\tNrCalled\tMaf\tHWE\tCallRate");
-					}
-				}
+				openBinaryFiles();
 			}
 
 			TextFile etdump = null;
@@ -190,7 +166,10 @@ public class ResultProcessorThread extends Thread {
 				}
 			}
 
-			ProgressBar progressbar = new ProgressBar(m_availableWorkPackages.length);
+			ProgressBar progressbar = m_progressBar;
+			if (progressbar == null) {
+				progressbar = new ProgressBar(m_availableWorkPackages.length);
+			}
 			boolean poison = false;
 
 			while (!poison) {
@@ -220,99 +199,10 @@ public class ResultProcessorThread extends Thread {
 						for (int p = 0; p < pvalues.length; p++) {
 							double pval = pvalues[p];
 
-							if ((!Double.isNaN(pval) && pval <= highestP) || m_dumpEverythingToDisk) {
-								double[][] corr = r.correlations;
-								double[] correlations = new double[corr.length];
-								double[] zscores = new double[corr.length];
-								int[] samples = new int[corr.length];
-
-								double[] fc = new double[corr.length];
-								double[] beta = new double[corr.length];
-								double[] betase = new double[corr.length];
-
-								for (int d = 0; d < correlations.length; d++) {
-									if (Double.isNaN(corr[d][p])) {
-										correlations[d] = Double.NaN;
-										zscores[d] = Double.NaN;
-										samples[d] = -9;
-										fc[d] = Double.NaN;
-										beta[d] = Double.NaN;
-										betase[d] = Double.NaN;
-									} else {
-										correlations[d] = corr[d][p];
-										if (m_useAbsoluteZScore) {
-											zscores[d] = Math.abs(r.zscores[d][p]);
-										} else {
-											zscores[d] = r.zscores[d][p];
-										}
-
-										samples[d] = r.numSamples[d];
-										fc[d] = r.fc[d][p];
-										beta[d] = r.beta[d][p];
-										betase[d] = r.se[d][p];
-									}
-								}
-//
-								byte allele = -1;
-								byte[] alleles = null;
-								SNP[] snps = wp.getSnps();
-								for (int d = 0; d < snps.length; d++) {
-									if (snps[d] != null) {
-										allele = snps[d].getMinorAllele();
-										alleles = snps[d].getAlleles();
-										break;
-									}
-								}
-
-								if (alleles == null) {
-									System.err.println("SNP has null alleles: ");
-									for (int d = 0; d < snps.length; d++) {
-
-										if (snps[d] != null) {
-
-											allele = snps[d].getMinorAllele();
-											System.err.println(allele);
-											alleles = snps[d].getAlleles();
-											System.err.println(alleles);
-											break;
-										}
-									}
-								}
-
-								double Zfinal = r.finalZScore[p];
-								double finalbeta = r.finalBeta[p];
-								double finalbetase = r.finalBetaSe[p];
-								int pid;
-								if (m_cisOnly) {
-									pid = wp.getProbes()[p];
-								} else {
-									pid = p;
-								}
-								int nrNonNan = 0;
-								for (int d = 0; d < zscores.length; d++) {
-									if (!Double.isNaN(zscores[d])) {
-										nrNonNan++;
-									}
-								}
-								if (m_dumpEverythingToDisk) {
-
-									// count number of valid z-scores
-									if (nrNonNan >= m_minNrOfDatasetsPerEQTL) {
-										QTL q = new QTL(pval, pid, wp.getId(), allele, Zfinal, alleles, zscores, samples, correlations, fc, beta, betase, finalbeta, finalbetase);
-										String desc = null;
-										if (m_permuting) {
-											desc = q.getPermutationDescription(m_availableWorkPackages, m_probeTranslation, m_gg, m_midpointprobedist);
-										} else {
-											desc = q.getDescription(m_availableWorkPackages, m_probeTranslation, m_gg, m_midpointprobedist, omitDatasetSummaryStats);
-										}
-										etdump.writeln(desc);
-									}
-								} else {
-									if (nrNonNan >= m_minNrOfDatasetsPerEQTL) {
-										addEQTL(pid, wp.getId(), pval, Zfinal, correlations, zscores, samples, alleles, allele, fc, beta, betase, finalbeta, finalbetase);
-									}
-								}
-
+							if (m_dumpEverythingToDisk) {
+								dumpEQTL(etdump, wp, r, p, pval);
+							} else if (!Double.isNaN(pval) && topEQTLs.accepts(pval)) {
+								addEQTL(wp, r, p, pval);
 							}
 						}
 					}
@@ -323,11 +213,16 @@ public class ResultProcessorThread extends Thread {
 					wp.clearResults();
 				}
 
-				progressbar.iterate();
+				if (m_progressBar == null) {
+					progressbar.iterate();
+				} else if (!poison) {
+					progressbar.iterateSynched();
+				}
 			}
 
-
-			progressbar.close();
+			if (m_progressBar == null) {
+				progressbar.close();
+			}
 
 			//Is this working?
 			if (m_dumpEverythingToDisk) {
@@ -335,94 +230,219 @@ public class ResultProcessorThread extends Thread {
 			}
 
 			if (m_createBinaryFiles) {
-				String fileName = "check";
-				if (m_permuting) {
-					fileName += "-PermutationRound-" + m_permutationround;
-				}
-				fileName += ".md5";
+				closeBinaryFiles();
+			}
 
-				if (usemd5) {
-					HexBinaryAdapter md5Parser = new HexBinaryAdapter();
-					BufferedWriter md5writer = new BufferedWriter(new FileWriter(m_outputdir + fileName));
+			// shards are finished off by mergeShards()
+			if (m_nrShards == 1) {
+				if (m_createBinaryFiles && usemd5) {
+					writeMD5(zScoreBinaryFile, zScoreMetaAnalysisFile);
+				}
+				if (m_createTEXTFiles && !m_dumpEverythingToDisk) {
+					topEQTLs.sort();
+					writeTextResults();
+				}
+			}
 
-					if (!m_createBinaryFilesOnlyMetaAnalysis) {
+		} catch (IOException e1) {
+			e1.printStackTrace();
+		} catch (InterruptedException e2) {
+			e2.printStackTrace();
+		}
+	}
 
-						for (int d = 0; d < m_gg.length; d++) {
-							zScoreBinaryFile[d].close();
+	private String getOutputFileName(String name) {
+		String fileName = m_outputdir + name;
+		if (m_permuting) {
+			fileName += "-PermutationRound-" + m_permutationround;
+		}
+		return fileName;
+	}
 
-							fileName = m_gg[d].getSettings().name;
-							if (m_permuting) {
-								fileName += "-PermutationRound-" + m_permutationround;
-							}
-							fileName += ".dat";
-							md5writer.write(md5Parser.marshal(zScoreBinaryFile[d].getWrittenHash()) + "  " + fileName + '\n');
+	private static String getShardSuffix(int shard) {
+		return ".shard" + shard;
+	}
 
-							zScoreRowNamesFile[d].close();
-						}
-					}
-					if (m_gg.length > 1) {
-						zScoreMetaAnalysisFile.close();
+	private void openBinaryFiles() throws IOException {
+		boolean sharded = m_nrShards > 1;
+		String shardSuffix = getShardSuffix(m_shard);
 
-						fileName = "MetaAnalysis";
-						if (m_permuting) {
-							fileName += "-PermutationRound-" + m_permutationround;
-						}
-						fileName += ".dat";
-						md5writer.write(md5Parser.marshal(zScoreMetaAnalysisFile.getWrittenHash()) + "  " + fileName + '\n');
+		if (!m_createBinaryFilesOnlyMetaAnalysis) {
+			zScoreBinaryFile = new BinaryFile[m_gg.length];
+		}
 
-						zScoreMetaAnalysisRowNamesFile.close();
-					}
+		zScoreRowNamesFile = new TextFile[m_gg.length];
+		if (m_gg.length > 1) {
+			String metaAnalysisFileName = getOutputFileName("MetaAnalysis");
+			if (sharded) {
+				zScoreMetaAnalysisFile = new BinaryFile(metaAnalysisFileName + ".dat" + shardSuffix, BinaryFile.W);
+				zScoreMetaAnalysisRowNamesFile = new TextFile(metaAnalysisFileName + "-RowNames.txt" + shardSuffix, TextFile.W);
+			} else {
+				zScoreMetaAnalysisFile = new BinaryFile(metaAnalysisFileName + ".dat", BinaryFile.W, 32 * 1024, usemd5);
+				writeMagicNumber(zScoreMetaAnalysisFile);
+
+				zScoreMetaAnalysisRowNamesFile = new TextFile(metaAnalysisFileName + "-RowNames.txt.gz", TextFile.W);
+				zScoreMetaAnalysisRowNamesFile.writeln(META_ROWNAMES_HEADER);
+			}
+			if (m_shard == 0) {
+				TextFile tf = new TextFile(metaAnalysisFileName + "-ColNames.txt.gz", TextFile.W);
+				tf.writeList(Arrays.asList(m_probeList));
+				tf.close();
+			}
+		}
+		if (!m_createBinaryFilesOnlyMetaAnalysis) {
+			for (int d = 0; d < m_gg.length; d++) {
+				String fileName = getOutputFileName(m_gg[d].getSettings().name);
 
-					md5writer.close();
+				if (sharded) {
+					zScoreBinaryFile[d] = new BinaryFile(fileName + ".dat" + shardSuffix, BinaryFile.W, 1048576, false);
+					zScoreRowNamesFile[d] = new TextFile(fileName + "-RowNames.txt" + shardSuffix, TextFile.W);
 				} else {
-					if (!m_createBinaryFilesOnlyMetaAnalysis) {
-						for (int d = 0; d < m_gg.length; d++) {
-							zScoreBinaryFile[d].close();
+					zScoreBinaryFile[d] = new BinaryFile(fileName + ".dat", BinaryFile.W, 1048576, usemd5);
+					writeMagicNumber(zScoreBinaryFile[d]);
+					zScoreRowNamesFile[d] = new TextFile(fileName + "-RowNames.txt.gz", TextFile.W);
+					zScoreRowNamesFile[d].writeln(DATASET_ROWNAMES_HEADER);
+				}
 
-							fileName = m_gg[d].getSettings().name;
-							if (m_permuting) {
-								fileName += "-PermutationRound-" + m_permutationround;
-							}
-							fileName += ".dat";
+				if (m_shard == 0) {
+					TextFile tf = new TextFile(fileName + "-ColNames.txt.gz", TextFile.W);
+					tf.writeList(Arrays.asList(m_probeList));
+					tf.close();
+				}
+			}
+		}
+	}
 
-							zScoreRowNamesFile[d].close();
-						}
-					}
-					if (m_gg.length > 1) {
-						zScoreMetaAnalysisFile.close();
+	// magic number: 1 if this is a cis dataset
+	private void writeMagicNumber(BinaryFile file) throws IOException {
+		if (m_cisOnly) {
+			file.writeInt(1);
+		} else {
+			file.writeInt(0);
+		}
+	}
 
-						fileName = "MetaAnalysis";
-						if (m_permuting) {
-							fileName += "-PermutationRound-" + m_permutationround;
-						}
-						fileName += ".dat";
+	private void closeBinaryFiles() throws IOException {
+		if (!m_createBinaryFilesOnlyMetaAnalysis) {
+			for (int d = 0; d < m_gg.length; d++) {
+				zScoreBinaryFile[d].close();
+				zScoreRowNamesFile[d].close();
+			}
+		}
+		if (m_gg.length > 1) {
+			zScoreMetaAnalysisFile.close();
+			zScoreMetaAnalysisRowNamesFile.close();
+		}
+	}
 
-						zScoreMetaAnalysisRowNamesFile.close();
-					}
+	private void writeMD5(BinaryFile[] datasetFiles, BinaryFile metaAnalysisFile) throws IOException {
+		HexBinaryAdapter md5Parser = new HexBinaryAdapter();
+		BufferedWriter md5writer = new BufferedWriter(new FileWriter(getOutputFileName("check") + ".md5"));
 
-				}
+		if (!m_createBinaryFilesOnlyMetaAnalysis) {
+			for (int d = 0; d < m_gg.length; d++) {
+				String fileName = new File(getOutputFileName(m_gg[d].getSettings().name)).getName() + ".dat";
+				md5writer.write(md5Parser.marshal(datasetFiles[d].getWrittenHash()) + "  " + fileName + '\n');
 			}
+		}
+		if (m_gg.length > 1) {
+			String fileName = new File(getOutputFileName("MetaAnalysis")).getName() + ".dat";
+			md5writer.write(md5Parser.marshal(metaAnalysisFile.getWrittenHash()) + "  " + fileName + '\n');
+		}
 
-			if (m_createTEXTFiles && !m_dumpEverythingToDisk) {
-				if (!sorted) {
-					if (locationToStoreResult != 0) {
+		md5writer.close();
+	}
 
-						Arrays.parallelSort(finalEQTLs, 0, locationToStoreResult);
-//                        SmoothSort.sort(finalEQTLs, 0, locationToStoreResult);
-//                        inplaceArrayQuickSort.sort(finalEQTLs, 0, locationToStoreResult);
+	/**
+	 * Combines the output of the shards of a permutation round, after all of
+	 * them have finished: the binary segment files are concatenated behind
+	 * the usual header (so the files are identical in format to those of a
+	 * single ResultProcessorThread), and the top-N results of all shards are
+	 * merged and written as text.
+	 */
+	public static void mergeShards(ResultProcessorThread[] shards) throws IOException {
+		ResultProcessorThread first = shards[0];
+		if (first.m_nrShards == 1) {
+			return;
+		}
+		first.m_progressBar.close();
 
-					}
-				}
-				writeTextResults();
+		if (first.m_createBinaryFiles) {
+			first.mergeBinaryFiles();
+		}
+
+		for (int s = 1; s < shards.length; s++) {
+			first.topEQTLs.addAll(shards[s].topEQTLs);
+			first.nrTestsPerformed += shards[s].nrTestsPerformed;
+			first.nrSNPsTested += shards[s].nrSNPsTested;
+		}
+
+		if (first.m_createTEXTFiles && !first.m_dumpEverythingToDisk) {
+			first.topEQTLs.sort();
+			first.writeTextResults();
+		}
+	}
+
+	private void mergeBinaryFiles() throws IOException {
+		BinaryFile[] datasetFiles = null;
+		BinaryFile metaAnalysisFile = null;
+		if (!m_createBinaryFilesOnlyMetaAnalysis) {
+			datasetFiles = new BinaryFile[m_gg.length];
+			for (int d = 0; d < m_gg.length; d++) {
+				String fileName = getOutputFileName(m_gg[d].getSettings().name);
+				datasetFiles[d] = new BinaryFile(fileName + ".dat", BinaryFile.W, 1048576, usemd5);
+				mergeBinarySegments(datasetFiles[d], fileName + ".dat");
+				mergeRowNameSegments(fileName + "-RowNames.txt", DATASET_ROWNAMES_HEADER);
 			}
+		}
+		if (m_gg.length > 1) {
+			String metaAnalysisFileName = getOutputFileName("MetaAnalysis");
+			metaAnalysisFile = new BinaryFile(metaAnalysisFileName + ".dat", BinaryFile.W, 32 * 1024, usemd5);
+			mergeBinarySegments(metaAnalysisFile, metaAnalysisFileName + ".dat");
+			mergeRowNameSegments(metaAnalysisFileName + "-RowNames.txt", META_ROWNAMES_HEADER);
+		}
+		if (usemd5) {
+			writeMD5(datasetFiles, metaAnalysisFile);
+		}
+	}
 
-		} catch (IOException e1) {
-			e1.printStackTrace();
-		} catch (InterruptedException e2) {
-			e2.printStackTrace();
+	private void mergeBinarySegments(BinaryFile out, String fileName) throws IOException {
+		writeMagicNumber(out);
+		byte[] buffer = new byte[1048576];
+		for (int s = 0; s < m_nrShards; s++) {
+			File segment = new File(fileName + getShardSuffix(s));
+			FileInputStream in = new FileInputStream(segment);
+			int len = in.read(buffer);
+			while (len != -1) {
+				if (len == buffer.length) {
+					out.writeBytes(buffer);
+				} else {
+					out.writeBytes(Arrays.copyOf(buffer, len));
+				}
+				len = in.read(buffer);
+			}
+			in.close();
+			segment.delete();
 		}
+		out.close();
 	}
 
+	private void mergeRowNameSegments(String fileName, String header) throws IOException {
+		TextFile out = new TextFile(fileName + ".gz", TextFile.W);
+		out.writeln(header);
+		for (int s = 0; s < m_nrShards; s++) {
+			String segmentName = fileName + getShardSuffix(s);
+			TextFile in = new TextFile(segmentName, TextFile.R);
+			String line = in.readLine();
+			while (line != null) {
+				out.writeln(line);
+				line = in.readLine();
+			}
+			in.close();
+			new File(segmentName).delete();
+		}
+		out.close();
+	}
 
 	private void writeBinaryResult(Result r) throws IOException {
 
@@ -585,63 +605,159 @@ public class ResultProcessorThread extends Thread {
 		}
 	}
 
-	private void addEQTL(int pid, int sid, double pval, double zscore, double[] correlations,
-						 double[] zscores, int[] numSamples, byte[] alleles, byte assessedAllele, double[] fc, double[] beta,
-						 double[] betase, double finalbeta, double finalbetase) {
-
-		if (bufferHasOverFlown) {
-			if (pval <= maxSavedPvalue) {
+	private static int countNonNaN(double[][] corr, int p) {
+		int nrNonNan = 0;
+		for (int d = 0; d < corr.length; d++) {
+			if (!Double.isNaN(corr[d][p])) {
+				nrNonNan++;
+			}
+		}
+		return nrNonNan;
+	}
 
-				sorted = false;
+	private static SNP getFirstSNP(WorkPackage wp) {
+		SNP[] snps = wp.getSnps();
+		for (int d = 0; d < snps.length; d++) {
+			if (snps[d] != null) {
+				return snps[d];
+			}
+		}
+		System.err.println("SNP has null alleles: ");
+		return null;
+	}
 
-				finalEQTLs[locationToStoreResult] = new QTL(pval, pid, sid, assessedAllele, zscore, alleles, zscores, numSamples, correlations, fc, beta, betase, finalbeta, finalbetase);
-				locationToStoreResult++;
+	private void dumpEQTL(TextFile etdump, WorkPackage wp, Result r, int p, double pval) throws IOException {
+		double[][] corr = r.correlations;
 
-				if (locationToStoreResult == finalEQTLs.length) {
+		// count number of valid z-scores
+		if (countNonNaN(corr, p) < m_minNrOfDatasetsPerEQTL) {
+			return;
+		}
 
-					Arrays.parallelSort(finalEQTLs);
-//                    SmoothSort.sort(finalEQTLs);
-//                    inplaceArrayQuickSort.sort(finalEQTLs);
-					sorted = true;
-					locationToStoreResult = m_maxResults;
-					maxSavedPvalue = finalEQTLs[(m_maxResults - 1)].getPvalue();
+		double[] correlations = new double[corr.length];
+		double[] zscores = new double[corr.length];
+		int[] samples = new int[corr.length];
+		double[] fc = new double[corr.length];
+		double[] beta = new double[corr.length];
+		double[] betase = new double[corr.length];
+
+		for (int d = 0; d < correlations.length; d++) {
+			if (Double.isNaN(corr[d][p])) {
+				correlations[d] = Double.NaN;
+				zscores[d] = Double.NaN;
+				samples[d] = -9;
+				fc[d] = Double.NaN;
+				beta[d] = Double.NaN;
+				betase[d] = Double.NaN;
+			} else {
+				correlations[d] = corr[d][p];
+				if (m_useAbsoluteZScore) {
+					zscores[d] = Math.abs(r.zscores[d][p]);
+				} else {
+					zscores[d] = r.zscores[d][p];
 				}
+				samples[d] = r.numSamples[d];
+				fc[d] = r.fc[d][p];
+				beta[d] = r.beta[d][p];
+				betase[d] = r.se[d][p];
 			}
+		}
+
+		SNP snp = getFirstSNP(wp);
+		byte allele = -1;
+		byte[] alleles = null;
+		if (snp != null) {
+			allele = snp.getMinorAllele();
+			alleles = snp.getAlleles();
+		}
 
+		QTL q = new QTL(pval, getProbeId(wp, p), wp.getId(), allele, r.finalZScore[p], alleles, zscores, samples, correlations, fc, beta, betase, r.finalBeta[p], r.finalBetaSe[p]);
+		String desc = null;
+		if (m_permuting) {
+			desc = q.getPermutationDescription(m_availableWorkPackages, m_probeTranslation, m_gg, m_midpointprobedist);
 		} else {
-			if (pval > maxSavedPvalue) {
-				maxSavedPvalue = pval;
-			}
+			desc = q.getDescription(m_availableWorkPackages, m_probeTranslation, m_gg, m_midpointprobedist, omitDatasetSummaryStats);
+		}
+		etdump.writeln(desc);
+	}
 
-			finalEQTLs[locationToStoreResult] = new QTL(pval, pid, sid, assessedAllele, zscore, alleles, zscores, numSamples, correlations, fc, beta, betase, finalbeta, finalbetase);
-			locationToStoreResult++;
+	/**
+	 * Offers the result for probe p of this work package to the top-N buffer.
+	 * The per dataset statistics are only copied when the result is kept.
+	 */
+	private void addEQTL(WorkPackage wp, Result r, int p, double pval) {
+		double[][] corr = r.correlations;
+		if (countNonNaN(corr, p) < m_minNrOfDatasetsPerEQTL) {
+			return;
+		}
+
+		SNP snp = getFirstSNP(wp);
+		byte allele = -1;
+		byte[] alleles = null;
+		if (snp != null) {
+			allele = snp.getMinorAllele();
+			alleles = snp.getAlleles();
+		}
+
+		int slot = topEQTLs.add(pval, getProbeId(wp, p), wp.getId(), allele, r.finalZScore[p], alleles, r.finalBeta[p], r.finalBetaSe[p]);
+		if (slot < 0) {
+			return;
+		}
 
-			if (locationToStoreResult == m_maxResults) {
-				bufferHasOverFlown = true;
+		for (int d = 0; d < corr.length; d++) {
+			if (Double.isNaN(corr[d][p])) {
+				topEQTLs.setMissingDatasetResult(slot, d);
+			} else {
+				double z = r.zscores[d][p];
+				if (m_useAbsoluteZScore) {
+					z = Math.abs(z);
+				}
+				topEQTLs.setDatasetResult(slot, d, corr[d][p], z, r.numSamples[d], r.fc[d][p], r.beta[d][p], r.se[d][p]);
 			}
 		}
 	}
 
+	private int getProbeId(WorkPackage wp, int p) {
+		if (m_cisOnly) {
+			return wp.getProbes()[p];
+		} else {
+			return p;
+		}
+	}
+
 	private void writeTextResults() throws IOException {
 
-		int nrOfEntriesToWrite = m_maxResults;
-		if (locationToStoreResult < m_maxResults) {
-			nrOfEntriesToWrite = locationToStoreResult;
-		}
+		int nrOfEntriesToWrite = topEQTLs.size();
 
 		System.out.println("Writing " + nrOfEntriesToWrite + " results out of " + nrTestsPerformed + " tests performed. " + nrSNPsTested + " SNPs finally tested.");
 
 		if (m_permuting) {
 			TextFile gz = new TextFile((m_outputdir + "PermutedEQTLsPermutationRound" + m_permutationround + ".txt.gz"), TextFile.W);
 			gz.writeln("PValue\tSNP\tProbe\tGene\tAlleles\tAlleleAssessed\tZScore");
+			BinaryPermutationFile bin = null;
+			if (m_createBinaryPermutationFile) {
+				bin = new BinaryPermutationFile(nrOfEntriesToWrite);
+			}
 			for (int i = 0; i < nrOfEntriesToWrite; i++) {
-				gz.writeln(finalEQTLs[i].getPermutationDescription(m_availableWorkPackages, m_probeTranslation, m_gg, m_midpointprobedist));
+				QTL qtl = topEQTLs.getQTL(i);
+				String desc = qtl.getPermutationDescription(m_availableWorkPackages, m_probeTranslation, m_gg, m_midpointprobedist);
+				gz.writeln(desc);
+				if (bin != null && desc != null) {
+					bin.add(qtl.getPvalue(), qtl.getSNPName(m_availableWorkPackages), qtl.getProbeName(m_probeTranslation, m_gg), qtl.getGeneName(m_probeTranslation, m_gg));
+				}
 			}
 			gz.close();
+			String binFileName = BinaryPermutationFile.getFileName(m_outputdir, m_permutationround);
+			if (bin != null) {
+				bin.write(binFileName);
+			} else {
+				// a binary file of an earlier run no longer matches the text file
+				new File(binFileName).delete();
+			}
 		} else {
 			QTLTextFile et = new QTLTextFile((m_outputdir + "eQTLs.txt.gz"), QTLTextFile.W);
 			for (int i = 0; i < nrOfEntriesToWrite; i++) {
-				et.writeln(finalEQTLs[i].getDescription(m_availableWorkPackages, m_probeTranslation, m_gg, m_midpointprobedist, omitDatasetSummaryStats));
+				et.writeln(topEQTLs.getQTL(i).getDescription(m_availableWorkPackages, m_probeTranslation, m_gg, m_midpointprobedist, omitDatasetSummaryStats));
 			}
 			et.close();
 		}
@@ -0,0 +1,297 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package eqtlmappingpipeline.metaqtl3;
+
+import eqtlmappingpipeline.metaqtl3.containers.QTL;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the maxResults most significant QTLs, in the order defined by
+ * QTL.compareTo(), without creating a QTL object per candidate.
+ * <p>
+ * The results are stored in primitive arrays (one slot per result, the per
+ * dataset statistics at slot * nrDatasets + d). A bounded max-heap over the
+ * slots keeps the least significant result on top, so inserting a candidate
+ * costs O(log n) and never requires re-sorting the buffer. The arrays grow on
+ * demand up to maxResults slots. QTL objects are only created in
+ * getQTL(), after sort() has been called.
+ * <p>
+ * Not thread safe.
+ */
+class TopQTLBuffer {
+
+	private final int m_maxResults;
+	private final int m_nrDatasets;
+	private int m_size = 0;
+	private boolean m_sorted = false;
+
+	// heap of slots, least significant result at position 0
+	private int[] m_heap;
+
+	private double[] m_pvalue;
+	private double[] m_zscore;
+	private int[] m_pid;
+	private int[] m_sid;
+	private byte[] m_assessedAllele;
+	private byte[][] m_alleles;
+	private double[] m_finalBeta;
+	private double[] m_finalBetaSe;
+
+	private double[] m_datasetCorrelation;
+	private double[] m_datasetZScore;
+	private int[] m_datasetSamples;
+	private double[] m_datasetFC;
+	private double[] m_datasetBeta;
+	private double[] m_datasetBetaSe;
+
+	TopQTLBuffer(int maxResults, int nrDatasets) {
+		m_maxResults = maxResults;
+		m_nrDatasets = nrDatasets;
+		allocate(Math.min(maxResults, 4096));
+	}
+
+	private void allocate(int capacity) {
+		int datasetCapacity = capacity * m_nrDatasets;
+		if (m_heap == null) {
+			m_heap = new int[capacity];
+			m_pvalue = new double[capacity];
+			m_zscore = new double[capacity];
+			m_pid = new int[capacity];
+			m_sid = new int[capacity];
+			m_assessedAllele = new byte[capacity];
+			m_alleles = new byte[capacity][];
+			m_finalBeta = new double[capacity];
+			m_finalBetaSe = new double[capacity];
+			m_datasetCorrelation = new double[datasetCapacity];
+			m_datasetZScore = new double[datasetCapacity];
+			m_datasetSamples = new int[datasetCapacity];
+			m_datasetFC = new double[datasetCapacity];
+			m_datasetBeta = new double[datasetCapacity];
+			m_datasetBetaSe = new double[datasetCapacity];
+		} else {
+			m_heap = Arrays.copyOf(m_heap, capacity);
+			m_pvalue = Arrays.copyOf(m_pvalue, capacity);
+			m_zscore = Arrays.copyOf(m_zscore, capacity);
+			m_pid = Arrays.copyOf(m_pid, capacity);
+			m_sid = Arrays.copyOf(m_sid, capacity);
+			m_assessedAllele = Arrays.copyOf(m_assessedAllele, capacity);
+			m_alleles = Arrays.copyOf(m_alleles, capacity);
+			m_finalBeta = Arrays.copyOf(m_finalBeta, capacity);
+			m_finalBetaSe = Arrays.copyOf(m_finalBetaSe, capacity);
+			m_datasetCorrelation = Arrays.copyOf(m_datasetCorrelation, datasetCapacity);
+			m_datasetZScore = Arrays.copyOf(m_datasetZScore, datasetCapacity);
+			m_datasetSamples = Arrays.copyOf(m_datasetSamples, datasetCapacity);
+			m_datasetFC = Arrays.copyOf(m_datasetFC, datasetCapacity);
+			m_datasetBeta = Arrays.copyOf(m_datasetBeta, datasetCapacity);
+			m_datasetBetaSe = Arrays.copyOf(m_datasetBetaSe, datasetCapacity);
+		}
+	}
+
+	int size() {
+		return m_size;
+	}
+
+	/**
+	 * Cheap pre-check: returns false if a result with this p-value can never
+	 * make it into the buffer.
+	 */
+	boolean accepts(double pval) {
+		if (m_size < m_maxResults) {
+			return true;
+		}
+		return m_size > 0 && pval <= m_pvalue[m_heap[0]];
+	}
+
+	/**
+	 * Offers a result to the buffer. If it is among the maxResults most
+	 * significant results seen so far, it replaces the least significant
+	 * result (if the buffer is full) and the slot to store its per dataset
+	 * statistics in is returned (see setDatasetResult() and
+	 * setMissingDatasetResult()). Otherwise -1 is returned.
+	 */
+	int add(double pval, int pid, int sid, byte assessedAllele, double zscore, byte[] alleles, double finalbeta, double finalbetase) {
+		if (m_maxResults <= 0) {
+			return -1;
+		}
+		if (m_sorted) {
+			throw new IllegalStateException("Can not add results to a sorted buffer.");
+		}
+
+		int slot;
+		if (m_size < m_maxResults) {
+			if (m_size == m_heap.length) {
+				allocate((int) Math.min((long) m_heap.length * 2, m_maxResults));
+			}
+			slot = m_size;
+			set(slot, pval, pid, sid, assessedAllele, zscore, alleles, finalbeta, finalbetase);
+			m_heap[m_size] = slot;
+			m_size++;
+			siftUp(m_size - 1);
+		} else {
+			slot = m_heap[0];
+			if (compare(pval, zscore, sid, pid, slot) >= 0) {
+				return -1;
+			}
+			set(slot, pval, pid, sid, assessedAllele, zscore, alleles, finalbeta, finalbetase);
+			siftDown(0, m_size);
+		}
+		return slot;
+	}
+
+	private void set(int slot, double pval, int pid, int sid, byte assessedAllele, double zscore, byte[] alleles, double finalbeta, double finalbetase) {
+		m_pvalue[slot] = pval;
+		m_pid[slot] = pid;
+		m_sid[slot] = sid;
+		m_assessedAllele[slot] = assessedAllele;
+		m_zscore[slot] = zscore;
+		m_alleles[slot] = alleles;
+		m_finalBeta[slot] = finalbeta;
+		m_finalBetaSe[slot] = finalbetase;
+	}
+
+	void setDatasetResult(int slot, int d, double correlation, double zscore, int nrSamples, double fc, double beta, double betase) {
+		int i = slot * m_nrDatasets + d;
+		m_datasetCorrelation[i] = correlation;
+		m_datasetZScore[i] = zscore;
+		m_datasetSamples[i] = nrSamples;
+		m_datasetFC[i] = fc;
+		m_datasetBeta[i] = beta;
+		m_datasetBetaSe[i] = betase;
+	}
+
+	void setMissingDatasetResult(int slot, int d) {
+		setDatasetResult(slot, d, Double.NaN, Double.NaN, -9, Double.NaN, Double.NaN, Double.NaN);
+	}
+
+	/**
+	 * Offers all results of another buffer (with the same number of datasets)
+	 * to this buffer.
+	 */
+	void addAll(TopQTLBuffer other) {
+		for (int i = 0; i < other.m_size; i++) {
+			int otherSlot = other.m_heap[i];
+			if (!accepts(other.m_pvalue[otherSlot])) {
+				continue;
+			}
+			int slot = add(other.m_pvalue[otherSlot], other.m_pid[otherSlot], other.m_sid[otherSlot], other.m_assessedAllele[otherSlot],
+					other.m_zscore[otherSlot], other.m_alleles[otherSlot], other.m_finalBeta[otherSlot], other.m_finalBetaSe[otherSlot]);
+			if (slot >= 0) {
+				int offset = slot * m_nrDatasets;
+				int otherOffset = otherSlot * m_nrDatasets;
+				System.arraycopy(other.m_datasetCorrelation, otherOffset, m_datasetCorrelation, offset, m_nrDatasets);
+				System.arraycopy(other.m_datasetZScore, otherOffset, m_datasetZScore, offset, m_nrDatasets);
+				System.arraycopy(other.m_datasetSamples, otherOffset, m_datasetSamples, offset, m_nrDatasets);
+				System.arraycopy(other.m_datasetFC, otherOffset, m_datasetFC, offset, m_nrDatasets);
+				System.arraycopy(other.m_datasetBeta, otherOffset, m_datasetBeta, offset, m_nrDatasets);
+				System.arraycopy(other.m_datasetBetaSe, otherOffset, m_datasetBetaSe, offset, m_nrDatasets);
+			}
+		}
+	}
+
+	/**
+	 * Sorts the results from most to least significant (heap sort over the
+	 * slots). No results can be added afterwards.
+	 */
+	void sort() {
+		if (m_sorted) {
+			return;
+		}
+		for (int end = m_size - 1; end > 0; end--) {
+			swap(0, end);
+			siftDown(0, end);
+		}
+		m_sorted = true;
+	}
+
+	/**
+	 * @return the i-th most significant result as a QTL object. sort() needs
+	 * to be called first.
+	 */
+	QTL getQTL(int i) {
+		if (!m_sorted) {
+			throw new IllegalStateException("Buffer needs to be sorted first.");
+		}
+		int slot = m_heap[i];
+		double[] correlations = new double[m_nrDatasets];
+		double[] zscores = new double[m_nrDatasets];
+		int[] samples = new int[m_nrDatasets];
+		double[] fc = new double[m_nrDatasets];
+		double[] beta = new double[m_nrDatasets];
+		double[] betase = new double[m_nrDatasets];
+		int offset = slot * m_nrDatasets;
+		System.arraycopy(m_datasetCorrelation, offset, correlations, 0, m_nrDatasets);
+		System.arraycopy(m_datasetZScore, offset, zscores, 0, m_nrDatasets);
+		System.arraycopy(m_datasetSamples, offset, samples, 0, m_nrDatasets);
+		System.arraycopy(m_datasetFC, offset, fc, 0, m_nrDatasets);
+		System.arraycopy(m_datasetBeta, offset, beta, 0, m_nrDatasets);
+		System.arraycopy(m_datasetBetaSe, offset, betase, 0, m_nrDatasets);
+		return new QTL(m_pvalue[slot], m_pid[slot], m_sid[slot], m_assessedAllele[slot], m_zscore[slot], m_alleles[slot],
+				zscores, samples, correlations, fc, beta, betase, m_finalBeta[slot], m_finalBetaSe[slot]);
+	}
+
+	/**
+	 * Same ordering as QTL.compareTo(): a positive value means the candidate
+	 * is less significant than the result in slot.
+	 */
+	private int compare(double pval, double zscore, int sid, int pid, int slot) {
+		double otherP = m_pvalue[slot];
+		if (pval == otherP) {
+			double absZ = Math.abs(zscore);
+			double otherAbsZ = Math.abs(m_zscore[slot]);
+			if (absZ == otherAbsZ) {
+				int otherSid = m_sid[slot];
+				if (sid == otherSid) {
+					int otherPid = m_pid[slot];
+					if (pid == otherPid) {
+						return 0;
+					}
+					return pid < otherPid ? 1 : -1;
+				}
+				return sid < otherSid ? 1 : -1;
+			}
+			return absZ < otherAbsZ ? 1 : -1;
+		}
+		return pval > otherP ? 1 : -1;
+	}
+
+	private int compareSlots(int a, int b) {
+		return compare(m_pvalue[a], m_zscore[a], m_sid[a], m_pid[a], b);
+	}
+
+	private void siftUp(int pos) {
+		while (pos > 0) {
+			int parent = (pos - 1) >>> 1;
+			if (compareSlots(m_heap[pos], m_heap[parent]) <= 0) {
+				return;
+			}
+			swap(pos, parent);
+			pos = parent;
+		}
+	}
+
+	private void siftDown(int pos, int size) {
+		while (true) {
+			int child = 2 * pos + 1;
+			if (child >= size) {
+				return;
+			}
+			if (child + 1 < size && compareSlots(m_heap[child + 1], m_heap[child]) > 0) {
+				child++;
+			}
+			if (compareSlots(m_heap[child], m_heap[pos]) <= 0) {
+				return;
+			}
+			swap(pos, child);
+			pos = child;
+		}
+	}
+
+	private void swap(int i, int j) {
+		int tmp = m_heap[i];
+		m_heap[i] = m_heap[j];
+		m_heap[j] = tmp;
+	}
+}
@@ -430,7 +430,6 @@ public class QTL implements Comparable<QTL> {
 			return null;
 		}
 
-		String nullstr = "-";
 		char tabStr = '\t';
 
 		StringBuilder out = new StringBuilder();
@@ -443,46 +442,15 @@ public class QTL implements Comparable<QTL> {
 //        out.append(pvalue);
 		out.append(tabStr);
 
-		String rsName = null;
-
-		SNP[] snps = workPackages[sid].getSnps();
-
-		for (int d = 0; d < snps.length; d++) {
-			if (snps[d] != null) {
-				rsName = snps[d].getName();
-				break;
-			}
-		}
-
-		String probe = nullstr;
-		for (int d = 0; d < snps.length; d++) {
-			if (probeTranslation.get(d, pid) != -9) {
-				int probeId = probeTranslation.get(d, pid);
-				probe = gg[d].getExpressionData().getProbes()[probeId];
-				break;
-			}
-		}
+		String rsName = getSNPName(workPackages);
 
 		out.append(rsName);
 		out.append(tabStr);
 
-		out.append(probe);
+		out.append(getProbeName(probeTranslation, gg));
 		out.append(tabStr);
 
-		String hugo = nullstr;
-		for (int d = 0; d < gg.length; d++) {
-			if (!Double.isNaN(correlations[d])) {
-				if (probeTranslation.get(d, pid) != -9) {
-					int probeId = probeTranslation.get(d, pid);
-					hugo = gg[d].getExpressionData().getAnnotation()[probeId];
-					if (hugo == null) {
-						hugo = nullstr;
-					}
-				}
-			}
-		}
-
-		out.append(hugo);
+		out.append(getGeneName(probeTranslation, gg));
 		out.append(tabStr);
 
 		if (alleles == null) {
@@ -504,4 +472,52 @@ public class QTL implements Comparable<QTL> {
 
 		return out.toString();
 	}
+
+	/**
+	 * @return the name of the SNP in the first dataset that has it, as in the
+	 * permutation description
+	 */
+	public String getSNPName(WorkPackage[] workPackages) {
+		SNP[] snps = workPackages[sid].getSnps();
+		for (int d = 0; d < snps.length; d++) {
+			if (snps[d] != null) {
+				return snps[d].getName();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the name of the probe in the first dataset that has it, or "-",
+	 * as in the permutation description
+	 */
+	public String getProbeName(IntMatrix2D probeTranslation, TriTyperGeneticalGenomicsDataset[] gg) {
+		for (int d = 0; d < gg.length; d++) {
+			if (probeTranslation.get(d, pid) != -9) {
+				int probeId = probeTranslation.get(d, pid);
+				return gg[d].getExpressionData().getProbes()[probeId];
+			}
+		}
+		return "-";
+	}
+
+	/**
+	 * @return the gene annotation of the probe in the last dataset with a
+	 * result, or "-", as in the permutation description
+	 */
+	public String getGeneName(IntMatrix2D probeTranslation, TriTyperGeneticalGenomicsDataset[] gg) {
+		String hugo = "-";
+		for (int d = 0; d < gg.length; d++) {
+			if (!Double.isNaN(correlations[d])) {
+				if (probeTranslation.get(d, pid) != -9) {
+					int probeId = probeTranslation.get(d, pid);
+					hugo = gg[d].getExpressionData().getAnnotation()[probeId];
+					if (hugo == null) {
+						hugo = "-";
+					}
+				}
+			}
+		}
+		return hugo;
+	}
 }
@@ -48,6 +48,7 @@ public class Settings extends TriTyperGeneticalGenomicsDatasetSettings {
 	public int nrPermutationsFDR = 1;                                          // Number of permutations to determine FDR
 	public FDRMethod fdrType = FDRMethod.ALL;                                 // Type of FDRs to calculate
 	public boolean fullFdrOutput = true;                                      // Skip out on large FDR files
+	public boolean binaryPermutationOutput = false;                            // Also write permuted results in binary format, which is used for the FDR calculation if present
 	// confinements
 	public boolean performEQTLAnalysisOnSNPProbeCombinationSubset;             // Confine to a certain set of probe/snp combinations?
 	public Byte confineToSNPsThatMapToChromosome;                              // Confine SNP to be assessed to SNPs mapped on this chromosome
@@ -91,6 +92,9 @@ public class Settings extends TriTyperGeneticalGenomicsDatasetSettings {
 	public Integer batchsize;
 	public boolean displayWarnings = true;
 	public int numberOfVariantsToBuffer = 1000;
+	public int permutationsPerPass = 0;                                        // Number of permutation rounds to test per pass over the genotype data, the real analysis always has its own pass (0 or 1: one round per pass)
+	public int transBlockSize = 0;                                             // Number of SNPs to correlate with all probes at once in trans analysis (0 or 1: test per SNP)
+	public int resultProcessorThreads = 1;                                     // Number of threads writing and collecting results per permutation round, each keeps up to maxNrMostSignificantEQTLs results
 	public boolean skipFDRCalculation = false;
 	public boolean usemd5hash = true;
 	public boolean sortsnps = false;
@@ -226,6 +230,21 @@ public class Settings extends TriTyperGeneticalGenomicsDatasetSettings {
 		}
 
 
+		try {
+			transBlockSize = config.getInt("defaults.analysis.transblocksize", 0);
+		} catch (Exception e) {
+		}
+
+		try {
+			permutationsPerPass = config.getInt("defaults.multipletesting.permutationsperpass", 0);
+		} catch (Exception e) {
+		}
+
+		try {
+			resultProcessorThreads = config.getInt("defaults.analysis.resultprocessorthreads", 1);
+		} catch (Exception e) {
+		}
+
 		try {
 			createQQPlot = config.getBoolean("defaults.analysis.createqqplot", true);
 		} catch (Exception e) {
@@ -464,6 +483,11 @@ public class Settings extends TriTyperGeneticalGenomicsDatasetSettings {
 			fullFdrOutput = false;
 		}
 
+		try {
+			binaryPermutationOutput = config.getBoolean("defaults.multipletesting.binarypermutationoutput", false);
+		} catch (Exception e) {
+		}
+
 
 		// output settings
 		try {
@@ -926,9 +950,13 @@ public class Settings extends TriTyperGeneticalGenomicsDatasetSettings {
 				+ "maxNrMostSignificantEQTLs\t" + maxNrMostSignificantEQTLs + "\n"
 				+ "performParametricAnalysisGetAccuratePValueEstimates\t" + performParametricAnalysisGetAccuratePValueEstimates + "\n"
 				+ "nrThreads\t" + nrThreads + "\n"
+				+ "transBlockSize\t" + transBlockSize + "\n"
+				+ "resultProcessorThreads\t" + resultProcessorThreads + "\n"
 				+ "fdrCutOff\t" + fdrCutOff + "\n"
 				+ "fdrType\t" + fdrType + "\n"
 				+ "nrPermutationsFDR\t" + nrPermutationsFDR + "\n"
+				+ "permutationsPerPass\t" + permutationsPerPass + "\n"
+				+ "binaryPermutationOutput\t" + binaryPermutationOutput + "\n"
 				+ "regressOutEQTLEffectFileName\t" + regressOutEQTLEffectFileName + "\n"
 				+ "snpQCCallRateThreshold\t" + snpQCCallRateThreshold + "\n"
 				+ "snpQCHWEThreshold\t" + snpQCHWEThreshold + "\n"
@@ -24,16 +24,19 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.stream.IntStream;
 
 /**
  * @author harmjan
  */
 public class MixupMapper extends MetaQTL3 {
 
-	private TriTyperGenotypeData genotypeData;
-	private DoubleMatrixDataset<String, String> traitData;
-	private HashMap<String, String> genotypeToTrait;
-	private HashMap<String, String> traitToGenotype;
+	private static final int EQTL_BLOCK_SIZE = 128;
+
+	protected TriTyperGenotypeData genotypeData;
+	protected DoubleMatrixDataset<String, String> traitData;
+	protected HashMap<String, String> genotypeToTrait;
+	protected HashMap<String, String> traitToGenotype;
 
 
 	public void run(String settingsFile, String inputeQTLs, boolean allCombos) {
@@ -338,159 +341,7 @@ public class MixupMapper extends MetaQTL3 {
 		// initialize matrices
 		double[][] comparisonMatrix = new double[nrGenotypes][nrTraits];
 		double[][] comparisonMatrixNrTested = new double[nrGenotypes][nrTraits];
-		SNPLoader loader = genotypeData.createSNPLoader(100);
-
-		// test all eQTLs
-		int numTested = 0;
-		int numNotTested = 0;
-		System.out.println("Using " + eQTLs.size() + " eQTLs.");
-		for (Pair<String, String> eqtl : eQTLs) {
-			String snp = eqtl.getLeft();
-			String probe = eqtl.getRight();
-
-			if (!leavehalveout || (leavehalveout && Math.random() <= 0.5)) {
-
-				Integer probeId = traitData.hashRows.get(probe);
-				Integer snpId = genotypeData.getSnpToSNPId().get(snp);
-
-				if (probeId == null || snpId == -9) {
-					// there is no such eQTL in the dataset!
-					System.out.println("Null trait or SNP ID:" + snpId + " (" + snp + ")\t" + probeId + " (" + snp + ")");
-					numNotTested++;
-				} else {
-
-					// determine genotype mean and SD for eQTL.
-					double sdAA = -1;
-					double sdAB = -1;
-					double sdBB = -1;
-					double meanAA = -1;
-					double meanAB = -1;
-					double meanBB = -1;
-
-					SNP loadedSNP = genotypeData.getSNPObject(snpId);
-					loader.loadGenotypes(loadedSNP);
-					int[] genotypes = new int[genotypeToRowIndex.size()];
-
-					int numAA = 0;
-					int numAB = 0;
-					int numBB = 0;
-
-					for (int i = 0; i < gtInds.length; i++) {
-						String genotypeSample = gtInds[i];
-						Integer genotypeSampleIndex = genotypeToRowIndex.get(genotypeSample);
-
-						if (genotypeSampleIndex != null) {
-							int gt = loadedSNP.getGenotypes()[i];
-							genotypes[genotypeSampleIndex] = gt;
-
-//                            if (genotypeSampleIndex > 75) {
-//                                System.out.println(loadedSNP.getName() + "\t" + genotypeSample + "\t" + genotypeSampleIndex + "\t" + gt);
-//                            }
-
-							if (gt == 0) {
-								numAA++;
-							} else if (gt == 2) {
-								numBB++;
-							} else if (gt == 1) {
-								numAB++;
-							}
-						}
-					}
-
-					if (numAA >= 3 && numAB >= 3 && numBB >= 3) {
-						double[] aa = new double[numAA];
-						double[] ab = new double[numAB];
-						double[] bb = new double[numBB];
-
-						int aaCTR = 0;
-						int abCTR = 0;
-						int bbCTR = 0;
-
-						for (int exp = 0; exp < trInds.length; exp++) {
-							String traitSample = trInds[exp];
-							String linkedGenotype = traitToGenotype.get(traitSample);
-							Integer linkedGenotypeIndex = genotypeToRowIndex.get(linkedGenotype);
-							// use only linked samples to recreate the eQTL
-							if (linkedGenotype != null) {
-								double expValue = traitData.rawData[probeId][exp];
-								int gt = genotypes[linkedGenotypeIndex];
-								if (gt != -1) {
-									if (gt == 0) {
-										aa[aaCTR] = expValue;
-										aaCTR++;
-									} else if (gt == 2) {
-										bb[bbCTR] = expValue;
-										bbCTR++;
-									} else if (gt == 1) {
-										ab[abCTR] = expValue;
-										abCTR++;
-									}
-								}
-							} else {
-//                                System.err.println("No linked sample for expression sample: " + traitSample + "\t" + linkedGenotype);
-							}
-
-						}
-
-						sdAA = JSci.maths.ArrayMath.standardDeviation(aa);
-						sdBB = JSci.maths.ArrayMath.standardDeviation(bb);
-						sdAB = JSci.maths.ArrayMath.standardDeviation(ab);
-
-						meanAA = JSci.maths.ArrayMath.mean(aa);
-						meanBB = JSci.maths.ArrayMath.mean(bb);
-						meanAB = JSci.maths.ArrayMath.mean(ab);
-
-						if (sdAA > 0 && sdAB > 0 && sdBB > 0) {
-							for (int exp = 0; exp < trInds.length; exp++) {
-
-								String traitSample = trInds[exp];
-								Integer traitIndex = traitToColIndex.get(traitSample);
-								for (int gen = 0; gen < gtInds.length; gen++) {
-
-									String genotypeSample = gtInds[gen];
-									Integer genotypeIndex = genotypeToRowIndex.get(genotypeSample);
-									if (traitIndex != null && genotypeIndex != null) {
-
-										double expression = traitData.rawData[probeId][exp];
-
-										int gt = genotypes[genotypeIndex];
-										if (gt != -1) {
-											double z = 0;
-											if (gt == 0) {
-												z = Math.abs(expression - meanAA) / sdAA;
-											} else if (gt == 1) {
-												z = Math.abs(expression - meanAB) / sdAB;
-											} else {
-												z = Math.abs(expression - meanBB) / sdBB;
-											}
-
-//                                        System.out.println(genotypeIndex + " - " + comparisonMatrixNrTested.length + "\t" + traitIndex + " - " + comparisonMatrixNrTested[0].length);
-											if (!Double.isNaN(z) && z != 0) {
-												comparisonMatrixNrTested[genotypeIndex][traitIndex]++;
-												comparisonMatrix[genotypeIndex][traitIndex] += z;
-											}
-										}
-									}
-								}
-							}
-							numTested++;
-						} else {
-//                            System.out.println("Standard deviation is zero for one of the genotype groups: AA: " + sdAA + "\tAB: " + sdAB + "\tBB: " + sdBB);
-							numNotTested++;
-						}
-					} else {
-						numNotTested++;
-						// System.out.println("Minor allele frequency too low:\t" + snp + "\t" + probe + "\t" + numAA + "\t" + numAB + "\t" + numBB);
-					}
-					loadedSNP.clearGenotypes();
-				}
-			}
-
-		}
-		loader.close();
-
-		System.out.println("Number QTLs tested: " + numTested + "");
-		System.out.println("Number QTLs not tested: " + numNotTested + "");
+		int numTested = scoreEQTLs(eQTLs, gtInds, trInds, genotypeToRowIndex, traitToColIndex, comparisonMatrix, comparisonMatrixNrTested, leavehalveout);
 
 		if (numTested == 0) {
 			System.err.println("An error has occurred: none of the eQTLs was used during the MixupMapper test");
@@ -648,4 +499,201 @@ public class MixupMapper extends MetaQTL3 {
 
 
 	}
+
+	/**
+	 * Adds the scores of the eQTLs to the comparison matrices: per genotype
+	 * and trait sample, the sum of the distances of the expression of the
+	 * trait sample to the mean of the genotype class of the genotype sample,
+	 * and the number of eQTLs summed.
+	 *
+	 * @return the number of eQTLs tested
+	 */
+	protected int scoreEQTLs(ArrayList<Pair<String, String>> eQTLs, String[] gtInds, String[] trInds, HashMap<String, Integer> genotypeToRowIndex, HashMap<String, Integer> traitToColIndex,
+							 double[][] comparisonMatrix, double[][] comparisonMatrixNrTested, boolean leavehalveout) throws IOException {
+
+		// pre-resolve the sample indices, so the inner loops do not need any lookups
+		int[] genotypeRows = new int[gtInds.length];
+		for (int gen = 0; gen < gtInds.length; gen++) {
+			Integer genotypeIndex = genotypeToRowIndex.get(gtInds[gen]);
+			genotypeRows[gen] = genotypeIndex == null ? -1 : genotypeIndex;
+		}
+		int[] traitCols = new int[trInds.length];
+		int[] traitLinkedGenotypeRows = new int[trInds.length];
+		for (int exp = 0; exp < trInds.length; exp++) {
+			Integer traitIndex = traitToColIndex.get(trInds[exp]);
+			traitCols[exp] = traitIndex == null ? -1 : traitIndex;
+			String linkedGenotype = traitToGenotype.get(trInds[exp]);
+			Integer linkedGenotypeIndex = linkedGenotype == null ? null : genotypeToRowIndex.get(linkedGenotype);
+			traitLinkedGenotypeRows[exp] = linkedGenotypeIndex == null ? -1 : linkedGenotypeIndex;
+		}
+
+		SNPLoader loader = genotypeData.createSNPLoader(100);
+
+		// eQTLs are prepared one by one and then added to the matrices per block
+		ArrayList<int[]> blockGenotypes = new ArrayList<int[]>(EQTL_BLOCK_SIZE);
+		ArrayList<double[][]> blockZScores = new ArrayList<double[][]>(EQTL_BLOCK_SIZE);
+
+		// test all eQTLs
+		int numTested = 0;
+		int numNotTested = 0;
+		System.out.println("Using " + eQTLs.size() + " eQTLs.");
+		for (Pair<String, String> eqtl : eQTLs) {
+			String snp = eqtl.getLeft();
+			String probe = eqtl.getRight();
+
+			if (!leavehalveout || (leavehalveout && Math.random() <= 0.5)) {
+
+				Integer probeId = traitData.hashRows.get(probe);
+				Integer snpId = genotypeData.getSnpToSNPId().get(snp);
+
+				if (probeId == null || snpId == -9) {
+					// there is no such eQTL in the dataset!
+					System.out.println("Null trait or SNP ID:" + snpId + " (" + snp + ")\t" + probeId + " (" + snp + ")");
+					numNotTested++;
+				} else {
+
+					// determine genotype mean and SD for eQTL.
+					double sdAA = -1;
+					double sdAB = -1;
+					double sdBB = -1;
+					double meanAA = -1;
+					double meanAB = -1;
+					double meanBB = -1;
+
+					SNP loadedSNP = genotypeData.getSNPObject(snpId);
+					loader.loadGenotypes(loadedSNP);
+					byte[] snpGenotypes = loadedSNP.getGenotypes();
+					int[] genotypes = new int[comparisonMatrix.length];
+
+					int numAA = 0;
+					int numAB = 0;
+					int numBB = 0;
+
+					for (int i = 0; i < gtInds.length; i++) {
+						int genotypeSampleIndex = genotypeRows[i];
+
+						if (genotypeSampleIndex != -1) {
+							int gt = snpGenotypes[i];
+							genotypes[genotypeSampleIndex] = gt;
+
+							if (gt == 0) {
+								numAA++;
+							} else if (gt == 2) {
+								numBB++;
+							} else if (gt == 1) {
+								numAB++;
+							}
+						}
+					}
+
+					if (numAA >= 3 && numAB >= 3 && numBB >= 3) {
+						double[] aa = new double[numAA];
+						double[] ab = new double[numAB];
+						double[] bb = new double[numBB];
+
+						int aaCTR = 0;
+						int abCTR = 0;
+						int bbCTR = 0;
+
+						double[] expression = traitData.rawData[probeId];
+						for (int exp = 0; exp < trInds.length; exp++) {
+							int linkedGenotypeIndex = traitLinkedGenotypeRows[exp];
+							// use only linked samples to recreate the eQTL
+							if (linkedGenotypeIndex != -1) {
+								double expValue = expression[exp];
+								int gt = genotypes[linkedGenotypeIndex];
+								if (gt != -1) {
+									if (gt == 0) {
+										aa[aaCTR] = expValue;
+										aaCTR++;
+									} else if (gt == 2) {
+										bb[bbCTR] = expValue;
+										bbCTR++;
+									} else if (gt == 1) {
+										ab[abCTR] = expValue;
+										abCTR++;
+									}
+								}
+							}
+						}
+
+						sdAA = JSci.maths.ArrayMath.standardDeviation(aa);
+						sdBB = JSci.maths.ArrayMath.standardDeviation(bb);
+						sdAB = JSci.maths.ArrayMath.standardDeviation(ab);
+
+						meanAA = JSci.maths.ArrayMath.mean(aa);
+						meanBB = JSci.maths.ArrayMath.mean(bb);
+						meanAB = JSci.maths.ArrayMath.mean(ab);
+
+						if (sdAA > 0 && sdAB > 0 && sdBB > 0) {
+							// the score of a trait sample only depends on the genotype class it is compared to
+							double[][] zScores = new double[3][trInds.length];
+							for (int exp = 0; exp < trInds.length; exp++) {
+								zScores[0][exp] = Math.abs(expression[exp] - meanAA) / sdAA;
+								zScores[1][exp] = Math.abs(expression[exp] - meanAB) / sdAB;
+								zScores[2][exp] = Math.abs(expression[exp] - meanBB) / sdBB;
+							}
+							blockGenotypes.add(genotypes);
+							blockZScores.add(zScores);
+							if (blockGenotypes.size() == EQTL_BLOCK_SIZE) {
+								addToComparisonMatrix(blockGenotypes, blockZScores, traitCols, comparisonMatrix, comparisonMatrixNrTested);
+								blockGenotypes.clear();
+								blockZScores.clear();
+							}
+							numTested++;
+						} else {
+//                            System.out.println("Standard deviation is zero for one of the genotype groups: AA: " + sdAA + "\tAB: " + sdAB + "\tBB: " + sdBB);
+							numNotTested++;
+						}
+					} else {
+						numNotTested++;
+						// System.out.println("Minor allele frequency too low:\t" + snp + "\t" + probe + "\t" + numAA + "\t" + numAB + "\t" + numBB);
+					}
+					loadedSNP.clearGenotypes();
+				}
+			}
+
+		}
+		addToComparisonMatrix(blockGenotypes, blockZScores, traitCols, comparisonMatrix, comparisonMatrixNrTested);
+		loader.close();
+
+		System.out.println("Number QTLs tested: " + numTested + "");
+		System.out.println("Number QTLs not tested: " + numNotTested + "");
+		return numTested;
+	}
+
+	/**
+	 * Adds the scores of a block of eQTLs to the comparison matrices. Rows
+	 * are updated in parallel; each row is only updated by one thread and in
+	 * the order of the eQTLs, so the result does not depend on the number of
+	 * threads.
+	 *
+	 * @param genotypes genotype per genotype row, per eQTL
+	 * @param zScores score per genotype class (AA, AB, BB) and trait sample,
+	 * per eQTL
+	 * @param traitCols column of each trait sample, -1 if not tested
+	 */
+	private static void addToComparisonMatrix(ArrayList<int[]> genotypes, ArrayList<double[][]> zScores, int[] traitCols, double[][] comparisonMatrix, double[][] comparisonMatrixNrTested) {
+		if (genotypes.isEmpty()) {
+			return;
+		}
+		IntStream.range(0, comparisonMatrix.length).parallel().forEach(row -> {
+			double[] scores = comparisonMatrix[row];
+			double[] nrTested = comparisonMatrixNrTested[row];
+			for (int q = 0; q < genotypes.size(); q++) {
+				int gt = genotypes.get(q)[row];
+				if (gt != -1) {
+					double[] z = zScores.get(q)[gt == 0 ? 0 : gt == 1 ? 1 : 2];
+					for (int exp = 0; exp < traitCols.length; exp++) {
+						int traitIndex = traitCols[exp];
+						double v = z[exp];
+						if (traitIndex != -1 && !Double.isNaN(v) && v != 0) {
+							nrTested[traitIndex]++;
+							scores[traitIndex] += v;
+						}
+					}
+				}
+			}
+		});
+	}
 }
@@ -37,6 +37,7 @@ public class NormalizationConsoleGUI {
 		boolean treatZerosAsNulls = false;
 		boolean forceNormalDistribution = false;
 		boolean storebinary = false;
+		boolean truncatedPCA = false;
 		int maxPcaToRemove = 100;
 		int stepSizePcaRemoval = 5;
 
@@ -101,6 +102,9 @@ public class NormalizationConsoleGUI {
 			if (arg.equals("--stepsizepcaremoval")) {
 				stepSizePcaRemoval = Integer.parseInt(val);
 			}
+			if (arg.equals("--truncatedpca")) {
+				truncatedPCA = true;
+			}
 			if (arg.equals("--forceReplacementOfMissingValuesSampleBased")) {
 				forceReplacementOfMissingValues = true;
 			}
@@ -165,6 +169,7 @@ public class NormalizationConsoleGUI {
 			if (storebinary) {
 				p.saveBinary = true;
 			}
+			p.truncatedPCA = truncatedPCA;
 
 			if (prerank) {
 				p.rank(in, out);
@@ -218,6 +223,7 @@ public class NormalizationConsoleGUI {
 				+ "PCA parameters\n"
 				+ "--maxnrpcaremoved\tinteger\t\tMaximum number of PCs to remove\n"
 				+ "--stepsizepcaremoval\tinteger\t\tStep size for PC removal\n"
+				+ "--truncatedpca\t\t\t\tOnly calculate the PCs to remove using randomized PCA, without the sample correlation matrix\n"
 				+ "\n"
 				+ "Selection\n"
 				+ "--probeInclude\tFile\tList of probes to keep in the file\n"
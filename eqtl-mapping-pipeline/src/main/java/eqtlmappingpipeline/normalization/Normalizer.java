@@ -4,16 +4,23 @@ import cern.colt.matrix.tdouble.DoubleMatrix1D;
 import cern.colt.matrix.tdouble.DoubleMatrix2D;
 import cern.colt.matrix.tdouble.algo.DoubleStatistic;
 import edu.emory.mathcs.utils.ConcurrencyUtils;
+import org.apache.commons.math3.exception.MathIllegalArgumentException;
+import org.apache.commons.math3.exception.util.LocalizedFormats;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.DecompositionSolver;
+import org.apache.commons.math3.linear.QRDecomposition;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.SingularMatrixException;
 import org.apache.commons.math3.stat.ranking.NaNStrategy;
 import org.apache.commons.math3.stat.ranking.NaturalRanking;
 import org.apache.commons.math3.stat.ranking.TiesStrategy;
-import org.apache.commons.math3.stat.regression.OLSMultipleLinearRegression;
 import umcg.genetica.console.ProgressBar;
 import umcg.genetica.containers.Pair;
 import umcg.genetica.containers.Triple;
 import umcg.genetica.io.Gpio;
 import umcg.genetica.io.text.TextFile;
 import umcg.genetica.math.PCAojAlgo;
+import umcg.genetica.math.RandomizedPCA;
 import umcg.genetica.math.matrix2.DoubleMatrixDataset;
 import umcg.genetica.math.matrix.MatrixHandling;
 import umcg.genetica.math.matrix.MatrixTools;
@@ -29,8 +36,11 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import java.util.function.IntToDoubleFunction;
 import java.util.stream.IntStream;
 
 /**
@@ -38,6 +48,11 @@ import java.util.stream.IntStream;
  */
 public class Normalizer {
 
+	/**
+	 * Number of traits for which the OLS residuals are calculated together,
+	 * limits the memory used per thread
+	 */
+	private static final int OLS_TRAIT_BLOCK_SIZE = 64;
 
 	public static void main(String[] args) {
 
@@ -71,6 +86,10 @@ public class Normalizer {
 	}
 
 	public boolean saveBinary;
+	/**
+	 * Only calculate the PCs that are removed, using randomized PCA
+	 */
+	public boolean truncatedPCA;
 	private boolean loadBinary;
 
 
@@ -266,7 +285,15 @@ public class Normalizer {
 			outputFileNamePrefix = adjustCovariates(dataset, outputFileNamePrefix, covariatesToRemove, true, 1E-10);
 		}
 
-		if (runPCA) {
+		if (runPCA && truncatedPCA) {
+
+			int nrOfPCsToCalculate = Math.max(1, Math.max(nrPCAsOverSamplesToRemove, nrIntermediatePCAsOverSamplesToRemoveToOutput));
+			Pair<DoubleMatrixDataset<String, String>, DoubleMatrixDataset<String, String>> PCAResults = calculateTruncatedPCA(dataset, outputFileNamePrefix, nrOfPCsToCalculate);
+			if (nrPCAsOverSamplesToRemove != 0 || nrIntermediatePCAsOverSamplesToRemoveToOutput != 0) {
+				correctDataForPCs(dataset, outputFileNamePrefix, nrPCAsOverSamplesToRemove, nrIntermediatePCAsOverSamplesToRemoveToOutput, PCAResults.getLeft(), PCAResults.getRight());
+			}
+
+		} else if (runPCA) {
 
 			int cores = Runtime.getRuntime().availableProcessors();
 			ConcurrentCorrelation c = new ConcurrentCorrelation(cores);
@@ -531,20 +558,39 @@ public class Normalizer {
 				}
 			}
 
+			// The design matrix is the same for all traits so it is only decomposed once. The traits of a block
+			// are solved at once, residuals equal those of OLSMultipleLinearRegression.estimateResiduals() up to rounding
+			RealMatrix designMatrix = createOlsDesignMatrix(covariateDataMatrix);
+			DecompositionSolver olsSolver = new QRDecomposition(designMatrix).getSolver();
+			if (!olsSolver.isNonSingular()) {
+				throw new SingularMatrixException();
+			}
+
 			DoubleMatrixDataset<String, String> outputmat = new DoubleMatrixDataset<>(traitData.rows(), traitData.columns());
 			DoubleMatrixDataset<String, String> finalTraitData = traitData;
+			int nrSamples = traitData.columns();
+			int nrBlocks = (traitData.rows() + OLS_TRAIT_BLOCK_SIZE - 1) / OLS_TRAIT_BLOCK_SIZE;
 			ProgressBar pb = new ProgressBar(traitData.rows(), "Calculating OLS residuals...");
-			IntStream.range(0, traitData.rows()).parallel().forEach(row -> {
-				double[] y = finalTraitData.getRow(row).toArray();
-				OLSMultipleLinearRegression ols = new OLSMultipleLinearRegression();
-				ols.newSampleData(y, covariateDataMatrix);
-				double[] yout = ols.estimateResiduals();
-
+			IntStream.range(0, nrBlocks).parallel().forEach(block -> {
+				int firstRow = block * OLS_TRAIT_BLOCK_SIZE;
+				int blockSize = Math.min(OLS_TRAIT_BLOCK_SIZE, finalTraitData.rows() - firstRow);
+
+				// samples on the rows, traits on the columns
+				double[][] y = new double[nrSamples][blockSize];
+				for (int t = 0; t < blockSize; t++) {
+					for (int c = 0; c < nrSamples; c++) {
+						y[c][t] = finalTraitData.getElementQuick(firstRow + t, c);
+					}
+				}
+				RealMatrix yMatrix = new Array2DRowRealMatrix(y, false);
+				RealMatrix residuals = yMatrix.subtract(designMatrix.multiply(olsSolver.solve(yMatrix)));
 
-				for (int c = 0; c < yout.length; c++) {
-					outputmat.setElementQuick(row, c, yout[c]);
+				for (int t = 0; t < blockSize; t++) {
+					for (int c = 0; c < nrSamples; c++) {
+						outputmat.setElementQuick(firstRow + t, c, residuals.getEntry(c, t));
+					}
+					pb.iterateSynched();
 				}
-				pb.iterateSynched();
 			});
 			pb.close();
 
@@ -658,13 +704,15 @@ public class Normalizer {
 
 
 //        double[][] rawdata = traitData.getRawData();
+			ArrayList<Integer> covariatesToCorrect = new ArrayList<>();
 			for (int i = 0; i < covariateDataset.rows(); i++) {
 				if (pcaExpVar == null || pcaExpVar[i] > varianceExplainedCutoff) {
-					correctForCovariate(traitData, covariateDataset, i);
+					covariatesToCorrect.add(i);
 				} else {
 					System.out.println("Not regressing covariate: " + i + " because explained variance < " + varianceExplainedCutoff + ": " + pcaExpVar[i]);
 				}
 			}
+			correctForCovariates(traitData, covariateDataset, covariatesToCorrect);
 
 			fileNamePrefix += ".CovariatesRemoved";
 			if (saveBinary) {
@@ -757,10 +805,53 @@ public class Normalizer {
 			throw new IllegalArgumentException("Number of PCs to calculate should be at least 1");
 		}
 
+		return savePCA(dataset, expressionFile, nrOfPCsToCalculate, pcaObj.getRealEigenValues(), pcaObj::getEigenVector, pcaObj::getEigenValueVar);
+	}
+
+	/**
+	 * Same as calculatePCA but only calculates the first PCs using randomized
+	 * PCA, without the correlation matrix. Writes the same files, with only the
+	 * calculated PCs.
+	 *
+	 * @param dataset
+	 * @param fileNamePrefix
+	 * @param nrOfPCsToCalculate
+	 * @return
+	 * @throws Exception
+	 */
+	public Pair<DoubleMatrixDataset<String, String>, DoubleMatrixDataset<String, String>> calculateTruncatedPCA(DoubleMatrixDataset<String, String> dataset,
+																												String fileNamePrefix,
+																												int nrOfPCsToCalculate) throws Exception {
+		String expressionFile = fileNamePrefix;
+		System.out.println("Calculating truncated PCA over file: " + fileNamePrefix);
+
+		if (nrOfPCsToCalculate > dataset.columns()) {
+			nrOfPCsToCalculate = dataset.columns();
+		} else if (nrOfPCsToCalculate < 1) {
+			throw new IllegalArgumentException("Number of PCs to calculate should be at least 1");
+		}
+
+		System.out.println("- Performing randomized PCA for " + nrOfPCsToCalculate + " components on matrix of size: " + dataset.rows() + "x" + dataset.columns());
+		RandomizedPCA pcaObj = new RandomizedPCA(nrOfPCsToCalculate);
+		if (pcaObj.decompose(dataset.getMatrix())) {
+			System.out.println("- Randomized PCA converged in " + pcaObj.getIterations() + " iterations");
+		} else {
+			System.out.println("WARNING: randomized PCA did not converge in " + pcaObj.getIterations() + " iterations");
+		}
+
+		return savePCA(dataset, expressionFile, nrOfPCsToCalculate, pcaObj.getRealEigenValues(), pcaObj::getEigenVector, pcaObj::getEigenValueVar);
+	}
+
+	private Pair<DoubleMatrixDataset<String, String>, DoubleMatrixDataset<String, String>> savePCA(DoubleMatrixDataset<String, String> dataset,
+																								   String expressionFile,
+																								   int nrOfPCsToCalculate,
+																								   double[] eigenValues,
+																								   IntFunction<double[]> eigenVectors,
+																								   IntToDoubleFunction eigenValueVars) throws Exception {
+
 		DoubleMatrixDataset<String, String> datasetEV = new DoubleMatrixDataset<String, String>(dataset.columns(), nrOfPCsToCalculate);
 		datasetEV.setRowObjects(dataset.getColObjects());
 		datasetEV.setColObjects(new ArrayList<>());
-		double[] eigenValues = pcaObj.getRealEigenValues();
 		System.out.println("Eigenvalue results:");
 
 		System.out.println("PCA\tPCANr\tEigenValue\tExplainedVariance\tTotalExplainedVariance");
@@ -772,9 +863,9 @@ public class Normalizer {
 
 		ArrayList<String> evcolnames = new ArrayList<>();
 		for (int pca = 0; pca < nrOfPCsToCalculate; pca++) {
-			double expVarPCA = pcaObj.getEigenValueVar(pca);
+			double expVarPCA = eigenValueVars.applyAsDouble(pca);
 
-			double[] pca1ExpEigenVector = pcaObj.getEigenVector(pca);
+			double[] pca1ExpEigenVector = eigenVectors.apply(pca);
 			for (int s = 0; s < dataset.columns(); s++) {
 				datasetEV.setElementQuick(s, pca, pca1ExpEigenVector[s]);
 			}
@@ -998,35 +1089,81 @@ public class Normalizer {
 		System.out.println("Done\n");
 	}
 
-	private void correctForCovariate(DoubleMatrixDataset<String, String> rawdata,
-									 DoubleMatrixDataset<String, String> covariateValues, int covariateToCorrect) {
+	/**
+	 * Creates the design matrix used by OLSMultipleLinearRegression: an
+	 * intercept column followed by the covariates.
+	 *
+	 * @param covariateDataMatrix samples on the rows, covariates on the columns
+	 * @return
+	 */
+	private static RealMatrix createOlsDesignMatrix(double[][] covariateDataMatrix) {
+		int nrSamples = covariateDataMatrix.length;
+		int nrPredictors = covariateDataMatrix.length == 0 ? 1 : covariateDataMatrix[0].length + 1;
+		if (nrSamples <= nrPredictors) {
+			throw new MathIllegalArgumentException(LocalizedFormats.NOT_ENOUGH_DATA_FOR_NUMBER_OF_PREDICTORS, nrSamples, nrPredictors);
+		}
+		double[][] design = new double[nrSamples][nrPredictors];
+		for (int s = 0; s < nrSamples; s++) {
+			design[s][0] = 1;
+			System.arraycopy(covariateDataMatrix[s], 0, design[s], 1, nrPredictors - 1);
+		}
+		return new Array2DRowRealMatrix(design, false);
+	}
+
+	/**
+	 * Regresses the covariates one after the other from each probe, keeping
+	 * the mean and variance of the probe. Each probe is only read and written
+	 * once and the parts of the regression that only depend on the covariate
+	 * are calculated once per covariate.
+	 */
+	void correctForCovariates(DoubleMatrixDataset<String, String> rawdata,
+							  DoubleMatrixDataset<String, String> covariateValues, List<Integer> covariatesToCorrect) {
+
+		int nrCovariates = covariatesToCorrect.size();
+		double[][] x = new double[nrCovariates][];
+		double[][] xCentered = new double[nrCovariates][];
+		double[] sXX = new double[nrCovariates];
+		for (int i = 0; i < nrCovariates; i++) {
+			x[i] = covariateValues.getRow(covariatesToCorrect.get(i)).toArray();
+			double meanX = Descriptives.mean(x[i]);
+			xCentered[i] = new double[x[i].length];
+			for (int s = 0; s < x[i].length; s++) {
+				double xmin = x[i][s] - meanX;
+				xCentered[i][s] = xmin;
+				sXX[i] += xmin * xmin;
+			}
+		}
 
 		IntStream.range(0, rawdata.rows()).parallel().forEach(probe -> {
 			double[] y = rawdata.getRow(probe).toArray();
-			double meanY = JSci.maths.ArrayMath.mean(y);
-			double varianceY = JSci.maths.ArrayMath.variance(y);
-			double[] x = covariateValues.getRow(covariateToCorrect).toArray();
+			double[] rawDataUpdated = new double[y.length];
 
-			double[] rc = Regression.getLinearRegressionCoefficients(x, y);
-			double correlation = JSci.maths.ArrayMath.correlation(x, y);
-			double propExplainedVarianceTrait = correlation * correlation - 1.0d / (double) y.length;
+			for (int i = 0; i < nrCovariates; i++) {
+				double meanY = JSci.maths.ArrayMath.mean(y);
+				double varianceY = JSci.maths.ArrayMath.variance(y);
 
-			if (propExplainedVarianceTrait < 0) {
-				propExplainedVarianceTrait = 0;
-			}
+				// Same slope as Regression.getLinearRegressionCoefficients(x, y)
+				double meanYRegression = Descriptives.mean(y);
+				double sXY = 0;
+				for (int s = 0; s < y.length; s++) {
+					sXY += (xCentered[i][s] * (y[s] - meanYRegression));
+				}
+				double beta = sXY / sXX[i];
+
+				for (int s = 0; s < y.length; s++) {
+					double residual = y[s] - x[i][s] * beta;
+					rawDataUpdated[s] = residual;
+				}
 
-//            explainedVariancePerEQTLProbe[d][(int) Math.round(propExplainedVarianceTrait * 100d)]++;
-			double[] rawDataUpdated = new double[x.length];
-			for (int s = 0; s < x.length; s++) {
-				double residual = y[s] - x[s] * rc[0];
-				rawDataUpdated[s] = residual;
+				double meanUpdated = JSci.maths.ArrayMath.mean(rawDataUpdated);
+				double stdDevRatio = JSci.maths.ArrayMath.standardDeviation(rawDataUpdated) / Math.sqrt(varianceY);
+				for (int s = 0; s < y.length; s++) {
+					y[s] = ((rawDataUpdated[s] - meanUpdated) / stdDevRatio) + meanY;
+				}
 			}
 
-			double meanUpdated = JSci.maths.ArrayMath.mean(rawDataUpdated);
-			double stdDevRatio = JSci.maths.ArrayMath.standardDeviation(rawDataUpdated) / Math.sqrt(varianceY);
-			for (int s = 0; s < x.length; s++) {
-				double val = ((rawDataUpdated[s] - meanUpdated) / stdDevRatio) + meanY;
-				rawdata.setElementQuick(probe, s, val);
+			for (int s = 0; s < y.length; s++) {
+				rawdata.setElementQuick(probe, s, y[s]);
 			}
 		});
 	}
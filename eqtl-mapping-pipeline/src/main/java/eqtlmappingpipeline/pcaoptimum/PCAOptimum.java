@@ -16,6 +16,7 @@ import umcg.genetica.io.Gpio;
 import umcg.genetica.io.text.TextFile;
 import umcg.genetica.io.trityper.EQTL;
 import umcg.genetica.io.trityper.QTLTextFile;
+import umcg.genetica.io.trityper.TriTyperExpressionData;
 import umcg.genetica.io.trityper.TriTyperGeneticalGenomicsDataset;
 import umcg.genetica.io.trityper.TriTyperGeneticalGenomicsDatasetSettings;
 import umcg.genetica.math.matrix2.DoubleMatrixDataset;
@@ -40,6 +41,9 @@ public class PCAOptimum extends MetaQTL3 {
 	protected String cissnps;
 	protected String transsnps;
 	private boolean performEigenVectorQTLMapping;
+	private boolean sweep = false;
+	private Integer sweepMaxNrPCs = null;
+	private Integer sweepStepSize = null;
 	
 	public void setCovariatesRemoved(boolean b) {
 		covariatesremoved = b;
@@ -54,6 +58,17 @@ public class PCAOptimum extends MetaQTL3 {
 		this.performEigenVectorQTLMapping = performEigenvectorQTLMapping;
 	}
 	
+	/**
+	 * Map all numbers of PCs in a single pass over the genotypes, deriving the
+	 * PC corrected expression data in memory. If maxNrPCs or stepSize is null,
+	 * these are determined from the PC corrected expression files.
+	 */
+	public void setSweep(boolean sweep, Integer maxNrPCs, Integer stepSize) {
+		this.sweep = sweep;
+		this.sweepMaxNrPCs = maxNrPCs;
+		this.sweepStepSize = stepSize;
+	}
+	
 	@Override
 	public void initialize(String xmlSettingsFile, String texttoreplace, String texttoreplacewith,
 						   String ingt, String inexp, String inexpplatform, String inexpannot, String gte,
@@ -123,6 +138,7 @@ public class PCAOptimum extends MetaQTL3 {
 			}
 			
 			m_threads = threads;
+			m_settings.nrThreads = threads;
 			int round = 0;
 			
 			//String nextInExp = origInExp + ".QuantileNormalized.Log2Transformed.ProbesCentered.SamplesZTransformed.txt.gz";
@@ -161,12 +177,21 @@ public class PCAOptimum extends MetaQTL3 {
 			}
 		}
 		
+		if (sweep && performEigenVectorQTLMapping) {
+			System.out.println("Sweep mode is not supported in combination with --pcqtl: mapping each number of PCs separately.");
+			sweep = false;
+		}
+		
 		ArrayList<String> origExpDs = new ArrayList<>();
 		ArrayList<Integer> pcs = null;
 		boolean alldshavesamepcs = true;
+		boolean detectPCs = !(sweep && sweepMaxNrPCs != null && sweepStepSize != null);
 		
 		for (int d = 0; d < m_settings.datasetSettings.size(); d++) {
 			origExpDs.add(m_settings.datasetSettings.get(d).expressionLocation);
+			if (!detectPCs) {
+				continue;
+			}
 			if (d == 0) {
 				pcs = getPCs(d);
 			} else {
@@ -188,10 +213,20 @@ public class PCAOptimum extends MetaQTL3 {
 			System.exit(-1);
 		}
 		
-		Collections.sort(pcs);
-		
 		int max = 0;
 		int stepSize = 0;
+		if (!detectPCs) {
+			pcs = new ArrayList<>();
+			for (int pc = sweepStepSize; pc <= sweepMaxNrPCs; pc += sweepStepSize) {
+				pcs.add(pc);
+			}
+			if (pcs.isEmpty()) {
+				System.out.println("Invalid number of PCs to remove: " + sweepMaxNrPCs + " with step size " + sweepStepSize);
+				System.exit(-1);
+			}
+		}
+		Collections.sort(pcs);
+		
 		for (int i = 0; i < (pcs.size() - 1); i++) {
 			if (i == 0) {
 				if (pcs.get(pcs.size() - 1) > max) {
@@ -227,7 +262,17 @@ public class PCAOptimum extends MetaQTL3 {
 		}
 		
 		
-		for (int pca = 0; pca <= max; pca += stepSize) {
+		if (sweep) {
+			if (cis) {
+				sweepQTLMapping(true, false, out, origExpDs, cisSnpsToTest, max, stepSize);
+			}
+			if (trans) {
+				sweepQTLMapping(false, true, out, origExpDs, transSnpsToTest, max, stepSize);
+			}
+		}
+		
+		// the sweep has mapped all numbers of PCs already
+		for (int pca = 0; !sweep && pca <= max; pca += stepSize) {
 			for (int d = 0; d < m_settings.datasetSettings.size(); d++) {
 				String expfile = origExpDs.get(d);
 				
@@ -344,18 +389,25 @@ public class PCAOptimum extends MetaQTL3 {
 			System.out.println("- Loading dataset: " + m_settings.datasetSettings.get(i).name + "");
 			System.out.println(ConsoleGUIElems.LINE);
 			m_gg[i] = new TriTyperGeneticalGenomicsDataset(m_settings.datasetSettings.get(i));
-			if (!m_settings.performParametricAnalysis) {
-				m_gg[i].getExpressionData().rankAllExpressionData(m_settings.equalRankForTies);
-			}
-			m_gg[i].getExpressionData().calcAndSubtractMean();
-			m_gg[i].getExpressionData().calcMeanAndVariance();
+			prepareExpressionData(m_gg[i].getExpressionData());
 			
 			numAvailableInds += m_gg[i].getExpressionToGenotypeIdArray().length;
 			System.out.println(ConsoleGUIElems.LINE);
 			System.out.println("");
 		}
 		
-		
+		initWorkPackages();
+	}
+	
+	private void prepareExpressionData(TriTyperExpressionData expressionData) {
+		if (!m_settings.performParametricAnalysis) {
+			expressionData.rankAllExpressionData(m_settings.equalRankForTies);
+		}
+		expressionData.calcAndSubtractMean();
+		expressionData.calcMeanAndVariance();
+	}
+	
+	private void initWorkPackages() throws IOException {
 		System.out.println("Accumulating available data...");
 		System.out.print(ConsoleGUIElems.LINE);
 		createSNPList();
@@ -420,8 +472,18 @@ public class PCAOptimum extends MetaQTL3 {
 		// set standard cis-settings
 		Settings backup = m_settings;
 		
-		m_settings = new Settings();
-		m_settings.datasetSettings = new ArrayList<>();
+		m_settings = createQTLMappingSettings(backup, cis, trans, outputdir, snpsToTest, probesToTest, threads, maxNrResults);
+		
+		init();
+		// set standard trans settings
+		super.mapEQTLs();
+		cleanup();
+		m_settings = backup;
+	}
+	
+	private Settings createQTLMappingSettings(Settings backup, boolean cis, boolean trans, String outputdir, HashSet<String> snpsToTest, THashSet<String> probesToTest, int threads, Integer maxNrResults) {
+		Settings settings = new Settings();
+		settings.datasetSettings = new ArrayList<>();
 		for (int d = 0; d < backup.datasetSettings.size(); d++) {
 			TriTyperGeneticalGenomicsDatasetSettings s = backup.datasetSettings.get(d);
 			s.cisAnalysis = cis;
@@ -429,54 +491,198 @@ public class PCAOptimum extends MetaQTL3 {
 			if (probesToTest != null) {
 				s.tsProbesConfine = probesToTest;
 			}
-			m_settings.datasetSettings.add(s);
+			settings.datasetSettings.add(s);
 			
 		}
 		
 		
-		m_settings.numberOfVariantsToBuffer = 1000;
+		settings.numberOfVariantsToBuffer = 1000;
 		
-		m_settings.createDotPlot = false;
-		m_settings.displayWarnings = false;
+		settings.createDotPlot = false;
+		settings.displayWarnings = false;
 		
 		
 		if (cis) {
-			m_settings.ciseQTLAnalysMaxSNPProbeMidPointDistance = 250000;
+			settings.ciseQTLAnalysMaxSNPProbeMidPointDistance = 250000;
 		} else {
-			m_settings.ciseQTLAnalysMaxSNPProbeMidPointDistance = 5000000;
+			settings.ciseQTLAnalysMaxSNPProbeMidPointDistance = 5000000;
 		}
 		
-		m_settings.nrThreads = threads;
-		m_settings.cisAnalysis = cis;
-		m_settings.transAnalysis = trans;
+		settings.nrThreads = threads;
+		settings.cisAnalysis = cis;
+		settings.transAnalysis = trans;
 		
-		m_settings.nrPermutationsFDR = permutations;
-		m_settings.tsSNPsConfine = snpsToTest;
-		m_settings.numberOfVariantsToBuffer = 1000;
+		settings.nrPermutationsFDR = permutations;
+		settings.tsSNPsConfine = snpsToTest;
+		settings.numberOfVariantsToBuffer = 1000;
 		if (snpsToTest != null) {
-			m_settings.numberOfVariantsToBuffer = 1;
+			settings.numberOfVariantsToBuffer = 1;
 		}
 		if (probesToTest != null) {
-			m_settings.tsProbesConfine = probesToTest;
+			settings.tsProbesConfine = probesToTest;
 		}
-		m_settings.outputReportsDir = outputdir;
-		m_settings.createTEXTOutputFiles = true;
-		m_settings.createBinaryOutputFiles = false;
-		m_settings.randomNumberGenerator = new Random(m_settings.rSeed);
-		m_settings.fdrType = FDR.FDRMethod.FULL;
+		settings.outputReportsDir = outputdir;
+		settings.createTEXTOutputFiles = true;
+		settings.createBinaryOutputFiles = false;
+		settings.randomNumberGenerator = new Random(settings.rSeed);
+		settings.fdrType = FDR.FDRMethod.FULL;
 		
 		if (maxNrResults != null) {
-			m_settings.maxNrMostSignificantEQTLs = maxNrResults;
+			settings.maxNrMostSignificantEQTLs = maxNrResults;
 			
 		}
+		return settings;
+	}
+	
+	/**
+	 * Maps QTLs for 0 to max PCs removed, in steps of stepSize PCs, in a
+	 * single pass over the genotypes. The datasets are loaded once and the PC
+	 * corrected expression data of each step is derived in memory from the
+	 * PCA over samples of the expression data. The results of each step are
+	 * written to the same output directories as when mapping the PC corrected
+	 * expression files one by one. Requires memory for the expression data of
+	 * all steps.
+	 */
+	protected void sweepQTLMapping(boolean cis, boolean trans, String out, ArrayList<String> origExpDs, HashSet<String> snpsToTest, int max, int stepSize) throws IOException, Exception {
+		
+		int nrSteps = max / stepSize + 1;
+		String[] outputDirs = new String[nrSteps];
+		for (int step = 0; step < nrSteps; step++) {
+			outputDirs[step] = out + (cis ? "Cis-" : "Trans-") + (step * stepSize) + "PCAsRemoved/";
+		}
 		
-		init();
-		// set standard trans settings
-		super.mapEQTLs();
+		Settings backup = m_settings;
+		for (int d = 0; d < backup.datasetSettings.size(); d++) {
+			backup.datasetSettings.get(d).expressionLocation = origExpDs.get(d);
+		}
+		m_settings = createQTLMappingSettings(backup, cis, trans, outputDirs[0], snpsToTest, null, m_settings.nrThreads, m_settings.maxNrMostSignificantEQTLs);
+		if (!Gpio.exists(outputDirs[0])) {
+			Gpio.createDir(outputDirs[0]);
+		}
+		
+		int numDatasets = m_settings.datasetSettings.size();
+		m_gg = new TriTyperGeneticalGenomicsDataset[numDatasets];
+		numAvailableInds = 0;
+		TriTyperExpressionData[][] expressionSets = new TriTyperExpressionData[nrSteps][numDatasets];
+		for (int d = 0; d < numDatasets; d++) {
+			
+			System.out.println("- Loading dataset: " + m_settings.datasetSettings.get(d).name + "");
+			System.out.println(ConsoleGUIElems.LINE);
+			m_gg[d] = new TriTyperGeneticalGenomicsDataset(m_settings.datasetSettings.get(d));
+			
+			TriTyperExpressionData expressionData = m_gg[d].getExpressionData();
+			removePCs(expressionData, origExpDs.get(d), max, stepSize, expressionSets, d);
+			for (int step = 0; step < nrSteps; step++) {
+				prepareExpressionData(expressionSets[step][d]);
+			}
+			
+			numAvailableInds += m_gg[d].getExpressionToGenotypeIdArray().length;
+			System.out.println(ConsoleGUIElems.LINE);
+			System.out.println("");
+		}
+		
+		initWorkPackages();
+		super.mapEQTLsForExpressionSets(expressionSets, outputDirs);
 		cleanup();
 		m_settings = backup;
 	}
 	
+	/**
+	 * Removes the PCs over samples of the expression file from the expression
+	 * data, stepSize PCs at a time, like the normalization does.
+	 * expressionSets[step][d] is set to the expression data with step *
+	 * stepSize PCs removed; step 0 is the loaded expression data itself. The
+	 * PCs are removed from the values in the expression file, which are read
+	 * again because the loaded expression data is stored with float
+	 * precision. The results are rounded to floats, like when loading a PC
+	 * corrected file.
+	 */
+	private void removePCs(TriTyperExpressionData expressionData, String expressionFile, int max, int stepSize,
+						   TriTyperExpressionData[][] expressionSets, int d) throws Exception {
+		
+		String prefix = expressionFile;
+		if (prefix.endsWith(".txt.gz")) {
+			prefix = prefix.substring(0, prefix.length() - 7);
+		} else if (prefix.endsWith(".txt")) {
+			prefix = prefix.substring(0, prefix.length() - 4);
+		}
+		
+		DoubleMatrixDataset<String, String> pcaScores = loadPCAResult(prefix + ".PCAOverSamplesPrincipalComponents");
+		DoubleMatrixDataset<String, String> eigenvectors = loadPCAResult(prefix + ".PCAOverSamplesEigenvectors");
+		if (pcaScores.columns() < max || eigenvectors.columns() < max) {
+			System.err.println("Error: the PCA over samples of " + expressionFile + " has fewer than " + max + " PCs.");
+			System.exit(-1);
+		}
+		
+		expressionSets[0][d] = expressionData;
+		if (max == 0) {
+			return;
+		}
+		
+		DoubleMatrixDataset<String, String> expression = DoubleMatrixDataset.loadDoubleData(expressionFile);
+		String[] probes = expressionData.getProbes();
+		String[] individuals = expressionData.getIndividuals();
+		int[] probeRows = getRows(pcaScores.getHashRows(), probes, "PCA scores", prefix);
+		int[] individualRows = getRows(eigenvectors.getHashRows(), individuals, "eigenvectors", prefix);
+		int[] expressionRows = getRows(expression.getHashRows(), probes, "expression data", expressionFile);
+		int[] expressionCols = getRows(expression.getHashCols(), individuals, "expression data", expressionFile);
+		
+		double[][] residuals = new double[probes.length][individuals.length];
+		for (int p = 0; p < probes.length; p++) {
+			for (int s = 0; s < individuals.length; s++) {
+				residuals[p][s] = expression.getElementQuick(expressionRows[p], expressionCols[s]);
+			}
+		}
+		expression = null;
+		
+		for (int t = 0; t < max; t++) {
+			for (int p = 0; p < probes.length; p++) {
+				double score = pcaScores.getElementQuick(probeRows[p], t);
+				double[] residual = residuals[p];
+				for (int s = 0; s < individuals.length; s++) {
+					residual[s] = residual[s] - score * eigenvectors.getElementQuick(individualRows[s], t);
+				}
+			}
+			int nrPCAs = t + 1;
+			if (nrPCAs % stepSize == 0) {
+				double[][] stepData = new double[residuals.length][];
+				for (int p = 0; p < residuals.length; p++) {
+					stepData[p] = new double[residuals[p].length];
+					for (int s = 0; s < residuals[p].length; s++) {
+						stepData[p][s] = (float) residuals[p][s];
+					}
+				}
+				expressionSets[nrPCAs / stepSize][d] = expressionData.copyWithMatrix(stepData);
+				System.out.println("Removed\t" + nrPCAs + "\tPCs from: " + expressionFile);
+			}
+		}
+	}
+	
+	private static DoubleMatrixDataset<String, String> loadPCAResult(String prefix) throws Exception {
+		if (Gpio.exists(prefix + ".txt.gz")) {
+			return DoubleMatrixDataset.loadDoubleData(prefix + ".txt.gz");
+		} else if (Gpio.exists(prefix + ".dat")) {
+			return DoubleMatrixDataset.loadDoubleBinaryData(prefix);
+		} else {
+			System.err.println("Error: could not find " + prefix + ".txt.gz, please first run the normalization procedure with PCA.");
+			System.exit(-1);
+			return null;
+		}
+	}
+	
+	private static int[] getRows(Map<String, Integer> index, String[] names, String description, String file) {
+		int[] rows = new int[names.length];
+		for (int i = 0; i < names.length; i++) {
+			Integer row = index.get(names[i]);
+			if (row == null) {
+				System.err.println("Error: " + names[i] + " not found in the " + description + " of: " + file);
+				System.exit(-1);
+			}
+			rows[i] = row;
+		}
+		return rows;
+	}
+	
 	protected void compareZScores(EQTL[] ciseqtls, EQTL[] transeqtls, EQTL[] originalCisEQTLs, EQTL[] originalTransEQTLs, String out, int pca) {
 		HashMap<String, EQTL> origCis = new HashMap<String, EQTL>();
 		HashMap<String, EQTL> origTrans = new HashMap<String, EQTL>();
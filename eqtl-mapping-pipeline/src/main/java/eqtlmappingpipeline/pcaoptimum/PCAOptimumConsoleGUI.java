@@ -44,6 +44,9 @@ public class PCAOptimumConsoleGUI {
         boolean covariatesremoved = false;
         boolean runonlypcqtlnormalization = false;
         Integer runOnlyNumPCsRemoved = null;
+        boolean sweep = false;
+        Integer sweepMaxNrPCs = null;
+        Integer sweepStepSize = null;
 
         Integer nrEQTLsToOutput = null;
 
@@ -86,6 +89,22 @@ public class PCAOptimumConsoleGUI {
                 transsnps = val;
             } else if (arg.equals("--cissnps")) {
                 cissnps = val;
+            } else if (arg.equals("--sweep")) {
+                sweep = true;
+            } else if (arg.equals("--maxpcs")) {
+                try {
+                    sweepMaxNrPCs = Integer.parseInt(val);
+                } catch (NumberFormatException e) {
+                    System.err.println("Error --maxpcs should be an integer");
+                    System.exit(-1);
+                }
+            } else if (arg.equals("--pcstep")) {
+                try {
+                    sweepStepSize = Integer.parseInt(val);
+                } catch (NumberFormatException e) {
+                    System.err.println("Error --pcstep should be an integer");
+                    System.exit(-1);
+                }
             } else if (arg.equals("--onlynormalize")) {
                 runonlypcqtlnormalization = true;
             } else if (arg.equals("--maponpc")) {
@@ -231,6 +250,7 @@ public class PCAOptimumConsoleGUI {
                     p.setSNPSets(cissnps, transsnps);
                     p.setPerformpcqtlNormalization(performEigenvectorQTLMapping);
                     p.setCovariatesRemoved(covariatesremoved);
+                    p.setSweep(sweep, sweepMaxNrPCs, sweepStepSize);
                     p.initialize(settingsfile, settingstexttoreplace, settingstexttoreplacewith,  in, inexp, inexpplatform, inexpannot, gte, out, cis, trans, perm, true, false, snpfile, threads, nrEQTLsToOutput, null, null, true, true, null, null, null);
                 }
             }
@@ -255,6 +275,10 @@ public class PCAOptimumConsoleGUI {
                 + "--inventorize-pcqtl\tdir\t\tSummarize the PC optimum results for a certain outputdirectory\n"
                 + "--cissnps\t\tstring\t\tList of SNPs to test in cis\n"
                 + "--transsnps\t\tstring\t\tList of SNPs to test in trans\n"
+                + "--sweep\t\t\t\t\tMap all numbers of PCs in a single pass over the genotypes, removing the PCs in memory\n"
+                + "\nSpecific options for --sweep:\n"
+                + "--maxpcs\t\tinteger\t\tMaximum number of PCs to remove. Default is determined from the PC corrected expression files\n"
+                + "--pcstep\t\tinteger\t\tNumber of PCs to remove per step. Default is determined from the PC corrected expression files\n"
                 + "\nSpecific options for --pcqtl:\n"
                 + "--covariatesremoved\t\t\tIndicate whether covariates were removed\n"
                 + "--onlynormalize\t\t\t\tOnly perform the pcqtl mapping and subsequent normalization\n"
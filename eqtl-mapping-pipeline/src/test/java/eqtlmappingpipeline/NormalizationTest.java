@@ -1,27 +0,0 @@
-package eqtlmappingpipeline;
-
-/*
- * To change this template, choose Tools | Templates
- * and open the template in the editor.
- */
-
-import org.testng.annotations.BeforeMethod;
-
-/**
- *
- * @author MarcJan
- */
-public class NormalizationTest {
-    
-    public NormalizationTest() {
-    }
-    // TODO add test methods here.
-    // The methods must be annotated with annotation @Test. For example:
-    //
-    // @Test
-    // public void hello() {}
-
-    @BeforeMethod
-    public void setUpMethod() throws Exception {
-    }
-}
\ No newline at end of file
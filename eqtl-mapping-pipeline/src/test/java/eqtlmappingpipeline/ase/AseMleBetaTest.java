@@ -5,7 +5,6 @@
 package eqtlmappingpipeline.ase;
 
 import cern.colt.list.tint.IntArrayList;
-import java.util.Random;
 import static org.testng.Assert.*;
 import org.testng.annotations.Test;
 
@@ -15,10 +14,20 @@ import org.testng.annotations.Test;
  */
 public class AseMleBetaTest {
 
+	/*
+	 * Maximum log likelihoods of the 999 x 1000 grid over p and theta that
+	 * was searched before the Brent refinement, calculated with that version
+	 * on the data of the tests below. The full grid takes minutes on the
+	 * data of test3.
+	 */
+	private static final double GRID_MAX_LOG_LIKELIHOOD_TEST = -387.25102107729435;
+	private static final double GRID_MAX_LOG_LIKELIHOOD_TEST2 = -8.824111757921855;
+	private static final double GRID_MAX_LOG_LIKELIHOOD_TEST3 = -4687.994771714517;
+
 	public AseMleBetaTest() {
 	}
 
-	
+	@Test
 	public void test() {
 
 		int[] x = {16, 25, 11, 17, 13, 36, 12, 25, 12, 6, 9, 33, 6, 22, 9, 35, 16, 13, 3, 28, 8, 48, 12, 11, 12, 26, 44, 28, 25, 2, 20, 38, 21, 26, 11, 26, 11, 36, 25, 34, 6, 8, 32, 21, 7, 45, 9, 34, 16, 43, 32, 34, 30, 8, 2, 50, 6, 20, 37, 43, 48, 4, 22, 41, 32, 31, 1, 26, 1, 11, 41, 23, 32, 19, 22, 16, 11, 16, 21, 15, 28, 9, 31, 13, 33, 31, 25, 11, 18, 17, 23, 37, 22, 18, 45, 24, 9, 35, 44, 35};
@@ -31,26 +40,18 @@ public class AseMleBetaTest {
 			a2Counts.add(50 - a);
 		}
 
-		AseMle mle = new AseMle(a1Counts, a2Counts);
-
-
-		System.out.println(mle.getRatioP());
-		System.out.println(mle.getMaxLikelihoodP());
-		System.out.println(mle.getMaxLikelihood());
-		System.out.println(mle.getRatioD());
-
-		System.out.println("---");
 		AseMleBeta mleBeta = new AseMleBeta(a1Counts, a2Counts);
 
-		System.out.println(mleBeta.getRatioP());
-		System.out.println(mleBeta.getMaxLikelihoodP());
-		System.out.println(mleBeta.getMaxLikelihood());
-		System.out.println(mleBeta.getRatioD());
-		System.out.println(mleBeta.getMaxLogLikelihoodTheta());
+		// grid optimum was p 0.453 and theta 3
+		assertTrue(mleBeta.getMaxLikelihood() >= GRID_MAX_LOG_LIKELIHOOD_TEST);
+		assertEquals(mleBeta.getMaxLikelihood(), -387.19171, 1e-4);
+		assertEquals(mleBeta.getMaxLikelihoodP(), 0.45256, 1e-4);
+		assertEquals(mleBeta.getMaxLogLikelihoodTheta(), 3.1476, 1e-3);
+		assertEquals(mleBeta.getRatioD(), 3.6551, 1e-3);
 
 	}
 
-	
+	@Test
 	public void test2() {
 
 		int[] x = {130, 170};
@@ -63,18 +64,18 @@ public class AseMleBetaTest {
 			a2Counts.add(1000 - a);
 		}
 
-		System.out.println("---");
 		AseMleBeta mleBeta = new AseMleBeta(a1Counts, a2Counts);
 
-		System.out.println("p-value: " + mleBeta.getRatioP());
-		System.out.println("p: " + mleBeta.getMaxLikelihoodP());
-		System.out.println("max l: " + mleBeta.getMaxLikelihood());
-		System.out.println("ratio D: " + mleBeta.getRatioD());
-		System.out.println("theta: " + mleBeta.getMaxLogLikelihoodTheta());
+		// grid optimum was p 0.15 and theta 465, the likelihood is flat in theta
+		assertTrue(mleBeta.getMaxLikelihood() >= GRID_MAX_LOG_LIKELIHOOD_TEST2);
+		assertEquals(mleBeta.getMaxLikelihood(), -8.8241118, 1e-6);
+		assertEquals(mleBeta.getMaxLikelihoodP(), 0.15, 1e-4);
+		assertEquals(mleBeta.getMaxLogLikelihoodTheta(), 464.93, 0.5);
+		assertEquals(mleBeta.getRatioD(), 385.60, 0.01);
 
 	}
 	
-	
+	@Test
 	public void test3() {
 		
 		int[] a1 = {236,37,23,53,108,16,107,15,227,46,167,28,653,13,378,552,893,498,310,412,370,460,15,475,253,265,188,600,12,82,103,67,736,287,829,166,10,218,86,253,326,398,208,257,169,941,224,748,289,217,412,340,498,303,153,35,449,755,104,1818,396,509,105,235,219,311,510,126,902,906,502,379,1173,127,415,849,56,138,424,223,45,543,358,661,536,166,277,105,142,1113,294,239,189,428,43,224,262,165,131,155,117,121,909,1055,594,226,35,528,477,485,798,433,939,485,185,899,306,161,356,158,335,142,363,68,490,908,122,87,206,989,284,1132,865,945,464,151,730,252,187,148,300,664,163,293,307,385,491,175,439,202,787,273,262,488,386,271,390,648,173,376,1048,1332,137,60,125,184,211,2757,892,741,1705,144,406,173,142,168,192,235,559,109,392,687,987,321,79,470,193,604,602,508,41,168,575,352,366,85,548,418,503,535,389,1524,395,418,710,737,188,768,258,204,316,251,479,196,165,50,175,542,649,114,555,467,289,152,269,812,256,203,501,345,420,566,259,154,800,615,937,207,1155,1603,95,76,363,156,186,673,132,208,769,355,791,571,419,861,506,301,105,268,334,244,317,1086,386,311,461,1994,555,272,274,840,224,169,232,513,1724,142,271,304,35,474,566,266,403,83,138,404,345,787,977,100,450,133,308,1395,1312,1160,325,265,27,492,593,233,118,522,121,87,174,444,596,484,96,232,1190,118,735,108,61,74,572,722,134,94,364,331,611,229,319,511,100,896,1352,228,611,223,388,794,119,164,238,816,363,236,169,98,779,1007,382,341,209,490,343,221,660,211,563,900,179,674,416,131,111,135,424,301,353,225,110,886,178,385,81,96,717,392,1559,202,323,1700,74,108,172,934,96,66,734,520,91,612,118,22,16,42,160,62,427,65,57,14,51,49,30,48,271,34,97,60,26,146,61,287,35,139,29,70,31,29,11,21,67,152,30,31,39,22,68,202,22,173,174,72,56,57,120,76,65,34,109,42,165,41,97,94,15,12,69,196,167,51,45,165,68,18,38,44,144,52,24,81,122,138,65,121,49,108,43,243,22,85,13,186,160,72,15,98,35,503,1717,396,186,886,41,115,969,207,15,53,18,13,23,19,51,23,303,252,353,34,159,46,19,52,11,54,21,884,89,261,550,16,22,78,40,229,12,116,207,43,23,53,181,35,683,69,3390,251,753,90,18,816,43,127,102,96,555,17,91,250,25,133,103,108,212,17,645,83,244,99,40,220,66,29,65,100,183,354,656,98,38,484,220,217,69,78,305,1606,425,316,885,913,644,54,432,278,149,1078,16,48,380,95,91,37,413,70,228,102,270,77,101,105,1423,417,14,144,188,21,13,58,43,795,67,829,14,21,144,12,11,32,20,126,319,37,17,130,187,13,320,38,19,60,148,13,19,57,23,22,422,27,30,42,14,760,166,101,18,32,20,387,475,340,54,202,1243,14,716,108,2433,63,54,27,178,51,20,125,71,80,146,1241,877,157,209,593,51,1215,113,485,37,89,291,1333,189,103,744,150,69,62,237,144,6526,22,1749,14,22,494,1974,604,517,21,694,20,21,503,387,140,172,965,14,82,50,47,830,33,110,30,14,158,47,2846,34,1836,33,40,27,109,27,20,38,21,28,32,17,187,276,111,37,39,329,35,62,12,15,39,20,66,241,47,67,153,41,279,70,109,111,31,61,16,60,123,191,112,12};
@@ -84,14 +85,14 @@ public class AseMleBetaTest {
 		final IntArrayList a1Counts = new IntArrayList(a1);
 		final IntArrayList a2Counts = new IntArrayList(a2);
 
-		System.out.println("---");
 		AseMleBeta mleBeta = new AseMleBeta(a1Counts, a2Counts);
 
-		System.out.println("p-value: " + mleBeta.getRatioP());
-		System.out.println("p: " + mleBeta.getMaxLikelihoodP());
-		System.out.println("max l: " + mleBeta.getMaxLikelihood());
-		System.out.println("ratio D: " + mleBeta.getRatioD());
-		System.out.println("theta: " + mleBeta.getMaxLogLikelihoodTheta());
+		// grid optimum was p 0.227 and theta 7
+		assertTrue(mleBeta.getMaxLikelihood() >= GRID_MAX_LOG_LIKELIHOOD_TEST3);
+		assertEquals(mleBeta.getMaxLikelihood(), -4687.99449, 1e-4);
+		assertEquals(mleBeta.getMaxLikelihoodP(), 0.22712, 1e-4);
+		assertEquals(mleBeta.getMaxLogLikelihoodTheta(), 6.9995, 1e-2);
+		assertEquals(mleBeta.getRatioD(), 2234.51, 0.01);
 
 	}
 	
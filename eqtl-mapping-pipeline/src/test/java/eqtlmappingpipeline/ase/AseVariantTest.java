@@ -8,6 +8,10 @@ import cern.colt.list.tint.IntArrayList;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import org.molgenis.genotype.Allele;
 import org.molgenis.genotype.variant.id.GeneticVariantId;
 import static org.testng.Assert.*;
@@ -132,4 +136,89 @@ public class AseVariantTest {
 		
 	}
 
+	@Test
+	public void testCountsOverSegments(){
+
+		AseVariantAppendable aseVariant = new AseVariantAppendable("1", 1, GeneticVariantId.createVariantId("rs1"), Allele.A, Allele.C);
+		for (int i = 0; i < 1000; ++i) {
+			aseVariant.addCounts(i, 1000 + i, "sample" + (i % 100));
+		}
+
+		assertEquals(aseVariant.getSampleCount(), 1000);
+		ArrayList<String> sampleIds = aseVariant.getSampleIds();
+		for (int i = 0; i < 1000; ++i) {
+			assertEquals(aseVariant.getA1Counts().getQuick(i), i);
+			assertEquals(aseVariant.getA2Counts().getQuick(i), 1000 + i);
+			assertEquals(sampleIds.get(i), "sample" + (i % 100));
+		}
+
+	}
+
+	@Test
+	public void testStatisticsAfterAddingCounts(){
+
+		AseVariantAppendable aseVariant = new AseVariantAppendable("1", 1, GeneticVariantId.createVariantId("rs1"), Allele.A, Allele.C);
+		aseVariant.addCounts(10, 20, "sample1");
+		aseVariant.addCounts(20, 30, "sample2");
+		double metaZscore = aseVariant.getMetaZscore();
+		assertEquals(aseVariant.getPValues().size(), 2);
+
+		aseVariant.addCounts(20, 21, "sample3");
+		aseVariant.addCounts(30, 20, "sample4");
+
+		assertEquals(aseVariant.getPValues().size(), 4);
+		assertEquals(aseVariant.getMetaZscore(), aseVariant1.getMetaZscore(), 0);
+		assertEquals(aseVariant.getMle().getRatioD(), aseVariant1.getMle().getRatioD(), 0);
+		assertTrue(metaZscore != aseVariant.getMetaZscore());
+
+	}
+
+	@Test
+	public void testConcurrentLoading() throws Exception {
+
+		final AseResults aseResults = new AseResults();
+		final int threads = 8;
+		final int samplesPerThread = 250;
+		final int variants = 20;
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+		for (int t = 0; t < threads; ++t) {
+			final int thread = t;
+			futures.add(executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					for (int s = 0; s < samplesPerThread; ++s) {
+						int sample = thread * samplesPerThread + s;
+						int sampleIndex = aseResults.getSampleIndex().getIndex("sample" + sample);
+						for (int v = 0; v < variants; ++v) {
+							aseResults.getOrCreateVariant("1", v, GeneticVariantId.createVariantId("rs" + v), Allele.A, Allele.C).addCounts(sample, v, sampleIndex);
+						}
+					}
+				}
+			}));
+		}
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+
+		assertEquals(aseResults.getCount(), variants);
+		assertEquals(aseResults.getSampleIndex().getSampleCount(), threads * samplesPerThread);
+		for (AseVariantAppendable aseVariant : aseResults) {
+			assertEquals(aseVariant.getSampleCount(), threads * samplesPerThread);
+			boolean[] seen = new boolean[threads * samplesPerThread];
+			ArrayList<String> sampleIds = aseVariant.getSampleIds();
+			for (int i = 0; i < aseVariant.getSampleCount(); ++i) {
+				int sample = aseVariant.getA1Counts().getQuick(i);
+				assertFalse(seen[sample]);
+				seen[sample] = true;
+				assertEquals(aseVariant.getA2Counts().getQuick(i), aseVariant.getPos());
+				assertEquals(sampleIds.get(i), "sample" + sample);
+			}
+		}
+
+	}
+
 }
\ No newline at end of file
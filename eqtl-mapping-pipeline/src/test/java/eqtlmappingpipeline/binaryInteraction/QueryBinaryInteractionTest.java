@@ -0,0 +1,215 @@
+package eqtlmappingpipeline.binaryInteraction;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.molgenis.genotype.Allele;
+import static org.testng.Assert.*;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import umcg.genetica.io.binInteraction.BinaryInteractionCohort;
+import umcg.genetica.io.binInteraction.BinaryInteractionFile;
+import umcg.genetica.io.binInteraction.BinaryInteractionFileCreator;
+import umcg.genetica.io.binInteraction.BinaryInteractionQtlZscores;
+import umcg.genetica.io.binInteraction.BinaryInteractionZscores;
+import umcg.genetica.io.binInteraction.gene.BinaryInteractionGeneCreator;
+import umcg.genetica.io.binInteraction.variant.BinaryInteractionVariantCreator;
+
+/**
+ * Compares the output of queries with a minimum interaction z-score with the
+ * unfiltered output, filtered on the interaction z-score column of the meta
+ * analysis or of the only cohort.
+ */
+public class QueryBinaryInteractionTest {
+
+	private static final String MIN_ABS_Z = "1.5";
+	private static final String[] COVARIATES = {"Cov0", "Cov1", "Cov2"};
+
+	private File tmpOutputFolder;
+	private File metaFile;
+	private File singleCohortFile;
+
+	@BeforeClass
+	public void setUp() throws Exception {
+		tmpOutputFolder = Files.createTempDirectory("QueryBinaryInteractionTest").toFile();
+		metaFile = new File(tmpOutputFolder, "meta.bin");
+		singleCohortFile = new File(tmpOutputFolder, "singleCohort.bin");
+		createInteractionFile(metaFile, 3, true, new Random(1));
+		createInteractionFile(singleCohortFile, 1, false, new Random(2));
+	}
+
+	@Test
+	public void testMetaAnalysisFilter() throws Exception {
+		assertFilteredQueries(metaFile, "Meta_interaction_Z-score");
+	}
+
+	@Test
+	public void testSingleCohortFilter() throws Exception {
+		assertFilteredQueries(singleCohortFile, "cohort0_interaction_Z-score");
+	}
+
+	private void assertFilteredQueries(File interactionFile, String filterColumn) throws Exception {
+
+		List<String[]> all = query(interactionFile);
+		String[] header = all.get(0);
+		int zColumn = Arrays.asList(header).indexOf(filterColumn);
+		assertTrue(zColumn >= 0, filterColumn);
+
+		List<String[]> expected = new ArrayList<String[]>();
+		expected.add(header);
+		for (String[] row : all.subList(1, all.size())) {
+			if (Math.abs(Double.parseDouble(row[zColumn])) >= Double.parseDouble(MIN_ABS_Z)) {
+				expected.add(row);
+			}
+		}
+		assertTrue(expected.size() > 1);
+		assertTrue(expected.size() < all.size());
+
+		// scan of all interactions, of one covariate and of a covariate query file
+		assertRowsEqual(query(interactionFile, "-iz", MIN_ABS_Z), expected);
+		assertRowsEqual(query(interactionFile, "-iz", MIN_ABS_Z, "-c", "Cov1"), select(expected, 2, "Cov1"));
+		File covariateQueries = writeQueryFile("covariate\nCov0\nCov2\n");
+		List<String[]> expectedCovariates = new ArrayList<String[]>();
+		for (String[] row : expected) {
+			if (row == header || !row[2].equals("Cov1")) {
+				expectedCovariates.add(row);
+			}
+		}
+		assertRowsEqual(query(interactionFile, "-iz", MIN_ABS_Z, "-qf", covariateQueries.getAbsolutePath()), expectedCovariates);
+
+		// queries that read the interactions of a variant or gene
+		assertRowsEqual(query(interactionFile, "-iz", MIN_ABS_Z, "-v", "Var2"), select(expected, 0, "Var2"));
+		assertRowsEqual(query(interactionFile, "-iz", MIN_ABS_Z, "-g", "Gene1"), select(expected, 1, "Gene1"));
+		File variantGeneQueries = writeQueryFile("variant\tgene\nVar3\tGene0\n");
+		assertRowsEqual(query(interactionFile, "-iz", MIN_ABS_Z, "-qf", variantGeneQueries.getAbsolutePath()), select(select(expected, 0, "Var3"), 1, "Gene0"));
+
+	}
+
+	private List<String[]> query(File interactionFile, String... options) throws Exception {
+		File output = File.createTempFile("query", ".txt", tmpOutputFolder);
+		List<String> args = new ArrayList<String>(Arrays.asList("-i", interactionFile.getAbsolutePath(), "-o", output.getAbsolutePath()));
+		args.addAll(Arrays.asList(options));
+		QueryBinaryInteraction.main(args.toArray(new String[0]));
+
+		List<String[]> rows = new ArrayList<String[]>();
+		for (String line : Files.readAllLines(output.toPath(), StandardCharsets.UTF_8)) {
+			if (!line.startsWith("#")) {
+				rows.add(line.split("\t", -1));
+			}
+		}
+		return rows;
+	}
+
+	private File writeQueryFile(String content) throws IOException {
+		File queryFile = File.createTempFile("queries", ".txt", tmpOutputFolder);
+		Files.write(queryFile.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		return queryFile;
+	}
+
+	/**
+	 * @return the header and the rows with the value in the column
+	 */
+	private static List<String[]> select(List<String[]> rows, int column, String value) {
+		List<String[]> selected = new ArrayList<String[]>();
+		selected.add(rows.get(0));
+		for (String[] row : rows.subList(1, rows.size())) {
+			if (row[column].equals(value)) {
+				selected.add(row);
+			}
+		}
+		return selected;
+	}
+
+	private static void assertRowsEqual(List<String[]> actual, List<String[]> expected) {
+		assertEquals(actual.size(), expected.size());
+		for (int i = 0; i < actual.size(); ++i) {
+			assertEquals(actual.get(i), expected.get(i), "Row " + i);
+		}
+	}
+
+	/**
+	 * Every variant is tested with some of the genes, each variant-gene with a
+	 * subset of the covariates.
+	 */
+	private static void createInteractionFile(File file, int cohortCount, boolean metaAnalysis, Random random) throws Exception {
+
+		BinaryInteractionCohort[] cohorts = new BinaryInteractionCohort[cohortCount];
+		for (int c = 0; c < cohortCount; ++c) {
+			cohorts[c] = new BinaryInteractionCohort("cohort" + c, 100 + c);
+		}
+		BinaryInteractionGeneCreator[] genes = new BinaryInteractionGeneCreator[3];
+		for (int g = 0; g < genes.length; ++g) {
+			genes[g] = new BinaryInteractionGeneCreator("Gene" + g, "Chr1", 1000 * g, 1000 * g + 500);
+		}
+		BinaryInteractionVariantCreator[] variants = new BinaryInteractionVariantCreator[6];
+		for (int v = 0; v < variants.length; ++v) {
+			variants[v] = new BinaryInteractionVariantCreator("Var" + v, "Chr1", 100 + 1000 * v, Allele.A, Allele.C);
+		}
+
+		BinaryInteractionFileCreator creator = new BinaryInteractionFileCreator(file, variants, genes, cohorts, COVARIATES, false, metaAnalysis, true, metaAnalysis);
+
+		List<String[]> variantGenes = new ArrayList<String[]>();
+		for (int v = 0; v < variants.length; ++v) {
+			for (int g = 0; g < genes.length; ++g) {
+				if (g == v % genes.length || random.nextBoolean()) {
+					creator.addTestedVariantGene("Var" + v, "Gene" + g);
+					variantGenes.add(new String[]{"Var" + v, "Gene" + g});
+				}
+			}
+		}
+		List<String[]> testedCovariates = new ArrayList<String[]>();
+		for (String[] variantGene : variantGenes) {
+			List<String> covariates = new ArrayList<String>();
+			for (String covariate : COVARIATES) {
+				if (random.nextInt(4) != 0) {
+					covariates.add(covariate);
+				}
+			}
+			if (covariates.isEmpty()) {
+				covariates.add(COVARIATES[1]);
+			}
+			creator.addTestedInteraction(variantGene[0], variantGene[1], covariates.toArray(new String[0]));
+			testedCovariates.add(covariates.toArray(new String[0]));
+		}
+		BinaryInteractionFile interactions = creator.create();
+
+		int[] samples = new int[cohortCount];
+		Arrays.fill(samples, 80);
+		for (int i = 0; i < variantGenes.size(); ++i) {
+			String variantName = variantGenes.get(i)[0];
+			String geneName = variantGenes.get(i)[1];
+			interactions.setQtlResults(variantName, geneName, new BinaryInteractionQtlZscores(randomZscores(random, cohortCount), samples, metaAnalysis ? random.nextGaussian() * 2 : Double.NaN));
+			for (String covariate : testedCovariates.get(i)) {
+				double[] rSquared = new double[cohortCount];
+				for (int c = 0; c < cohortCount; ++c) {
+					rSquared[c] = random.nextDouble();
+				}
+				BinaryInteractionZscores zscores;
+				if (metaAnalysis) {
+					zscores = new BinaryInteractionZscores(samples, randomZscores(random, cohortCount), randomZscores(random, cohortCount), randomZscores(random, cohortCount), rSquared, randomZscores(random, cohortCount),
+							random.nextGaussian() * 2, random.nextGaussian() * 2, random.nextGaussian() * 2, random.nextGaussian() * 2);
+				} else {
+					zscores = new BinaryInteractionZscores(samples, randomZscores(random, cohortCount), randomZscores(random, cohortCount), randomZscores(random, cohortCount), rSquared);
+				}
+				interactions.setInteractionResults(variantName, geneName, covariate, zscores);
+			}
+		}
+		interactions.finalizeWriting();
+		interactions.close();
+
+	}
+
+	private static double[] randomZscores(Random random, int count) {
+		double[] zscores = new double[count];
+		for (int i = 0; i < count; ++i) {
+			zscores[i] = random.nextGaussian() * 2;
+		}
+		return zscores;
+	}
+
+}
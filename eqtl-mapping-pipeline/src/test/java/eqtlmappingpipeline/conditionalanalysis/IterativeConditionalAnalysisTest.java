@@ -0,0 +1,127 @@
+package eqtlmappingpipeline.conditionalanalysis;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+
+import static org.testng.Assert.*;
+
+import org.testng.annotations.BeforeTest;
+import org.testng.annotations.Test;
+import umcg.genetica.io.text.TextFile;
+
+public class IterativeConditionalAnalysisTest {
+
+	private File tmpOutputFolder;
+	private final File testFilesFolder;
+
+	public IterativeConditionalAnalysisTest() throws URISyntaxException {
+		testFilesFolder = new File(this.getClass().getResource("/GeuvadisTestData/").toURI());
+	}
+
+	@BeforeTest
+	public void setUpMethod() throws Exception {
+		File tmpDir = new File(System.getProperty("java.io.tmpdir"));
+
+		DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss");
+		Date date = new Date();
+
+		tmpOutputFolder = new File(tmpDir, "IterativeConditionalAnalysisTest_" + dateFormat.format(date));
+
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				System.out.println("Removing tmp dir and files");
+				deleteRecursive(tmpOutputFolder);
+			}
+		});
+
+		tmpOutputFolder.mkdir();
+
+		System.out.println("Temp folder with output of this test: " + tmpOutputFolder.getAbsolutePath());
+	}
+
+	/**
+	 * Both runs use the same random seed, so the permutations and thus the
+	 * FDR of every iteration must be identical.
+	 */
+	@Test
+	public void incrementalEqualsReload() throws Exception {
+
+		File incrementalFolder = new File(tmpOutputFolder, "incremental");
+		File reloadFolder = new File(tmpOutputFolder, "reload");
+
+		IterativeConditionalAnalysis incremental = runConditional(incrementalFolder, true);
+		assertNull(runConditional(reloadFolder, false).residentLoaders);
+
+		// every cis SNP of the conditional iterations is read from disk once and tested again from memory in the permutations and later iterations
+		assertEquals(incremental.residentLoaders.length, 2);
+		for (ResidentSNPLoader loader : incremental.residentLoaders) {
+			assertTrue(loader.getNrLoadedFromDisk() > 0);
+			assertTrue(loader.getNrLoaded() >= 2 * loader.getNrLoadedFromDisk(), loader.getNrLoadedFromDisk() + " of " + loader.getNrLoaded() + " read from disk");
+		}
+
+		String[] iterations = iterationFolders(reloadFolder);
+		assertTrue(iterations.length > 1, "Expected at least one conditional iteration");
+		assertEquals(iterationFolders(incrementalFolder), iterations);
+		assertTrue(new File(reloadFolder, "Iteration1" + File.separator + "eQTLs.txt.gz").exists());
+
+		for (String iteration : iterations) {
+			File expectedFolder = new File(reloadFolder, iteration);
+			File actualFolder = new File(incrementalFolder, iteration);
+			String[] eqtlFiles = expectedFolder.list((dir, name) -> name.startsWith("eQTL") && name.endsWith(".txt.gz"));
+			Arrays.sort(eqtlFiles);
+			// the last folder is created before finding that the previous iteration had no significant results
+			assertEquals(actualFolder.list((dir, name) -> name.startsWith("eQTL") && name.endsWith(".txt.gz")).length, eqtlFiles.length, iteration);
+			for (String eqtlFile : eqtlFiles) {
+				assertEquals(readLines(new File(actualFolder, eqtlFile)), readLines(new File(expectedFolder, eqtlFile)), iteration + "/" + eqtlFile);
+			}
+		}
+
+		String[] residualFiles = reloadFolder.list((dir, name) -> name.endsWith("-EQTLEffectsRemoved-Iteration-Last.txt.gz"));
+		assertEquals(residualFiles.length, 2);
+		for (String residualFile : residualFiles) {
+			assertEquals(readLines(new File(incrementalFolder, residualFile)), readLines(new File(reloadFolder, residualFile)), residualFile);
+		}
+
+	}
+
+	private IterativeConditionalAnalysis runConditional(File outputFolder, boolean incremental) throws Exception {
+		outputFolder.mkdir();
+		IterativeConditionalAnalysis analysis = new IterativeConditionalAnalysis();
+		analysis.setIncremental(incremental);
+		analysis.run(testFilesFolder.getAbsolutePath() + File.separator + "settingsConditional.xml",
+				"${InputFolder},${OutputFolder}", testFilesFolder.getAbsolutePath() + "," + outputFolder.getAbsolutePath(),
+				null, null, null, null, null, null, true, false, 5, true, false, null, 2);
+		return analysis;
+	}
+
+	private static String[] iterationFolders(File outputFolder) {
+		String[] iterations = outputFolder.list((dir, name) -> name.startsWith("Iteration") && new File(dir, name).isDirectory());
+		Arrays.sort(iterations);
+		return iterations;
+	}
+
+	private static ArrayList<String> readLines(File file) throws IOException {
+		TextFile tf = new TextFile(file, TextFile.R);
+		ArrayList<String> lines = tf.readAsArrayList();
+		tf.close();
+		return lines;
+	}
+
+	private static void deleteRecursive(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				deleteRecursive(child);
+			}
+		}
+		file.delete();
+	}
+
+}
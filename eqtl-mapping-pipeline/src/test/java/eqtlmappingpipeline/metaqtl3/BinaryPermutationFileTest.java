@@ -0,0 +1,178 @@
+package eqtlmappingpipeline.metaqtl3;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Random;
+import umcg.genetica.io.text.TextFile;
+import umcg.genetica.io.trityper.QTLTextFile;
+import static org.testng.Assert.*;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Writes the same permuted results as text and as binary permutation files
+ * and compares the FDR of both.
+ */
+public class BinaryPermutationFileTest {
+
+	private static final int PERMUTATIONS = 4;
+	private static final int RESULTS_PER_ROUND = 300;
+	private static final int MAX_RESULTS = 250;
+
+	private File tmpOutputFolder;
+	private String[][] snps;
+	private String[][] probes;
+	private String[][] genes;
+	private double[][] pvalues;
+
+	@BeforeClass
+	public void setUp() throws IOException {
+		tmpOutputFolder = Files.createTempDirectory("BinaryPermutationFileTest").toFile();
+		System.out.println("Temp folder with output of this test: " + tmpOutputFolder.getAbsolutePath());
+
+		// p-values with 4 decimals are written unchanged in the text files,
+		// names from small pools so that SNPs, probes and genes recur
+		Random random = new Random(1);
+		snps = new String[PERMUTATIONS][RESULTS_PER_ROUND];
+		probes = new String[PERMUTATIONS][RESULTS_PER_ROUND];
+		genes = new String[PERMUTATIONS][RESULTS_PER_ROUND];
+		pvalues = new double[PERMUTATIONS][RESULTS_PER_ROUND];
+		for (int round = 0; round < PERMUTATIONS; round++) {
+			for (int i = 0; i < RESULTS_PER_ROUND; i++) {
+				pvalues[round][i] = randomPvalue(random, 0.2);
+			}
+			Arrays.sort(pvalues[round]);
+			for (int i = 0; i < RESULTS_PER_ROUND; i++) {
+				int probe = random.nextInt(120);
+				snps[round][i] = "rs" + random.nextInt(150);
+				probes[round][i] = "probe" + probe;
+				genes[round][i] = probe % 7 == 0 ? "-" : "gene" + (probe / 2);
+			}
+
+			TextFile text = new TextFile(tmpOutputFolder.getAbsolutePath() + "/PermutedEQTLsPermutationRound" + (round + 1) + ".txt.gz", TextFile.W);
+			text.writeln("PValue\tSNP\tProbe\tGene\tAlleles\tAlleleAssessed\tZScore");
+			BinaryPermutationFile bin = new BinaryPermutationFile(RESULTS_PER_ROUND);
+			for (int i = 0; i < RESULTS_PER_ROUND; i++) {
+				text.writeln(formatPvalue(pvalues[round][i]) + "\t" + snps[round][i] + "\t" + probes[round][i] + "\t" + genes[round][i] + "\tA/G\tA\t1.0");
+				bin.add(pvalues[round][i], snps[round][i], probes[round][i], genes[round][i]);
+			}
+			text.close();
+			bin.write(BinaryPermutationFile.getFileName(tmpOutputFolder.getAbsolutePath() + "/", round + 1));
+		}
+
+		// real effects, partly more significant than the permuted ones
+		double[] realPvalues = new double[400];
+		for (int i = 0; i < realPvalues.length; i++) {
+			realPvalues[i] = i < 60 ? randomPvalue(random, 0.002) : randomPvalue(random, 0.2);
+		}
+		Arrays.sort(realPvalues);
+		TextFile real = new TextFile(tmpOutputFolder.getAbsolutePath() + "/eQTLs.txt.gz", TextFile.W);
+		real.writeln(QTLTextFile.header);
+		int nrColumns = QTLTextFile.header.split("\t").length;
+		for (int i = 0; i < realPvalues.length; i++) {
+			String[] columns = new String[nrColumns];
+			Arrays.fill(columns, "-");
+			int probe = random.nextInt(120);
+			columns[0] = formatPvalue(realPvalues[i]);
+			columns[QTLTextFile.SNP] = "rs" + random.nextInt(150);
+			columns[QTLTextFile.PROBE] = "probe" + probe;
+			columns[QTLTextFile.HUGO] = probe % 7 == 0 ? "-" : "gene" + (probe / 2);
+			real.writeln(String.join("\t", columns));
+		}
+		real.close();
+	}
+
+	@Test
+	public void testReadBack() throws IOException {
+		for (int round = 0; round < PERMUTATIONS; round++) {
+			BinaryPermutationFile bin = BinaryPermutationFile.open(BinaryPermutationFile.getFileName(tmpOutputFolder.getAbsolutePath() + "/", round + 1));
+			assertEquals(bin.size(), RESULTS_PER_ROUND);
+			HashMap<Integer, String> snpNames = new HashMap<Integer, String>();
+			HashMap<Integer, String> probeNames = new HashMap<Integer, String>();
+			HashMap<Integer, String> geneNames = new HashMap<Integer, String>();
+			for (int i = 0; i < RESULTS_PER_ROUND; i++) {
+				assertEquals(bin.getPvalue(i), pvalues[round][i]);
+				assertSameName(snpNames, bin.getSNPId(i), snps[round][i]);
+				assertSameName(probeNames, bin.getProbeId(i), probes[round][i]);
+				assertSameName(geneNames, bin.getGeneId(i), genes[round][i]);
+			}
+			assertEquals(bin.getNrSNPs(), snpNames.size());
+			assertEquals(bin.getNrProbes(), probeNames.size());
+			assertEquals(bin.getNrGenes(), geneNames.size());
+		}
+	}
+
+	@Test
+	public void testPermutedPvaluesEqualText() throws IOException {
+		FDR.FDRMethod[] methods = {FDR.FDRMethod.FULL, FDR.FDRMethod.GENELEVEL, FDR.FDRMethod.PROBELEVEL, FDR.FDRMethod.SNPLEVEL};
+		FDR.PermutedPvalues[] binary = FDR.readBinaryPermutationFiles(tmpOutputFolder.getAbsolutePath(), PERMUTATIONS, MAX_RESULTS, methods);
+		for (int i = 0; i < methods.length; i++) {
+			FDR.PermutedPvalues text = FDR.readPermutationFiles(tmpOutputFolder.getAbsolutePath(), PERMUTATIONS, MAX_RESULTS, FDR.FileFormat.REDUCED, methods[i]);
+			assertEquals(binary[i].uniquePvalues, text.uniquePvalues, methods[i].toString());
+			assertEquals(binary[i].cumulativeCounts, text.cumulativeCounts, methods[i].toString());
+		}
+	}
+
+	@Test
+	public void testFdrEqualsText() throws IOException {
+		File textOutput = new File(tmpOutputFolder, "text");
+		File binaryOutput = new File(tmpOutputFolder, "binary");
+		textOutput.mkdir();
+		binaryOutput.mkdir();
+
+		FDR.calculateFDR(tmpOutputFolder.getAbsolutePath(), PERMUTATIONS, MAX_RESULTS, 0.05, false, textOutput.getAbsolutePath(), null, FDR.FDRMethod.ALL, true, false);
+		FDR.calculateFDR(tmpOutputFolder.getAbsolutePath(), PERMUTATIONS, MAX_RESULTS, 0.05, false, binaryOutput.getAbsolutePath(), null, FDR.FDRMethod.ALL, true, true);
+
+		String[] outputFiles = textOutput.list();
+		Arrays.sort(outputFiles);
+		// significant, SNP, probe and large FDR file for each of the four methods
+		assertEquals(outputFiles.length, 16);
+		String[] binaryOutputFiles = binaryOutput.list();
+		Arrays.sort(binaryOutputFiles);
+		assertEquals(binaryOutputFiles, outputFiles);
+
+		boolean significant = false;
+		for (String outputFile : outputFiles) {
+			ArrayList<String> expected = readLines(new File(textOutput, outputFile));
+			assertEquals(readLines(new File(binaryOutput, outputFile)), expected, outputFile);
+			if (outputFile.equals("eQTLsFDR0.05.txt.gz")) {
+				significant = expected.size() > 1;
+			}
+		}
+		assertTrue(significant, "Test data should have significant effects");
+	}
+
+	private static void assertSameName(HashMap<Integer, String> names, int id, String name) {
+		if (name.equals("-")) {
+			assertEquals(id, -1);
+			return;
+		}
+		assertTrue(id >= 0);
+		String previous = names.put(id, name);
+		if (previous != null) {
+			assertEquals(name, previous);
+		}
+		assertEquals(names.size(), (int) names.values().stream().distinct().count(), "Different names with the same id");
+	}
+
+	private static double randomPvalue(Random random, double max) {
+		return Double.parseDouble(String.format(Locale.US, "%.4f", 0.0001 + random.nextDouble() * max));
+	}
+
+	private static String formatPvalue(double pvalue) {
+		return String.format(Locale.US, "%.4f", pvalue);
+	}
+
+	private static ArrayList<String> readLines(File file) throws IOException {
+		TextFile tf = new TextFile(file, TextFile.R);
+		ArrayList<String> lines = tf.readAsArrayList();
+		tf.close();
+		return lines;
+	}
+
+}
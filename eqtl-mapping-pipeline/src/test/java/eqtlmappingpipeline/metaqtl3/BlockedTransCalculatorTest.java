@@ -0,0 +1,107 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package eqtlmappingpipeline.metaqtl3;
+
+import eqtlmappingpipeline.metaqtl3.containers.Result;
+import java.util.Random;
+import org.testng.annotations.Test;
+import umcg.genetica.io.trityper.TriTyperExpressionData;
+import umcg.genetica.math.stats.Correlation;
+import umcg.genetica.math.stats.Descriptives;
+
+import static org.testng.Assert.*;
+
+public class BlockedTransCalculatorTest {
+
+	public BlockedTransCalculatorTest() {
+	}
+
+	/**
+	 * Test of correlate method, of class BlockedTransCalculator. The blocked
+	 * correlations should match the per SNP-probe pair test in
+	 * CalculationThread, also when genotypes are missing.
+	 */
+	@Test
+	public void testCorrelate() {
+		int nrSamples = 60;
+		int nrProbes = 45;
+		int nrSnps = 5;
+		Random random = new Random(42);
+
+		final double[][] rawData = new double[nrProbes][nrSamples];
+		final double[] probeMean = new double[nrProbes];
+		final double[] probeVariance = new double[nrProbes];
+		for (int p = 0; p < nrProbes; p++) {
+			for (int s = 0; s < nrSamples; s++) {
+				rawData[p][s] = random.nextGaussian() * (p + 1);
+			}
+			double mean = Descriptives.mean(rawData[p]);
+			for (int s = 0; s < nrSamples; s++) {
+				rawData[p][s] -= mean;
+			}
+			probeVariance[p] = Descriptives.variance(rawData[p], 0);
+		}
+		// a probe without variance
+		for (int s = 0; s < nrSamples; s++) {
+			rawData[3][s] = 0;
+		}
+		probeVariance[3] = 0;
+
+		TriTyperExpressionData expressionData = new TriTyperExpressionData() {
+			@Override
+			public double[] getProbeVariance() {
+				return probeVariance;
+			}
+
+			@Override
+			public double[] getProbeMean() {
+				return probeMean;
+			}
+		};
+		expressionData.setMatrix(rawData);
+		expressionData.setRowNames(new String[nrSamples]);
+
+		double[][] genotypes = new double[nrSnps][0];
+		double[] variances = new double[nrSnps];
+		boolean[][] include = new boolean[nrSnps][nrSamples];
+		for (int j = 0; j < nrSnps; j++) {
+			int nrIncluded = 0;
+			for (int s = 0; s < nrSamples; s++) {
+				// SNPs 1 and 3 have missing genotypes
+				include[j][s] = (j % 2 == 0) || random.nextDouble() > 0.2;
+				if (include[j][s]) {
+					nrIncluded++;
+				}
+			}
+			double[] x = new double[nrIncluded];
+			for (int i = 0; i < nrIncluded; i++) {
+				x[i] = random.nextInt(3);
+			}
+			double mean = Descriptives.mean(x);
+			for (int i = 0; i < nrIncluded; i++) {
+				x[i] -= mean;
+			}
+			genotypes[j] = x;
+			variances[j] = Descriptives.variance(x, 0);
+		}
+
+		Correlation.correlationToZScore(nrSamples);
+
+		BlockedTransCalculator calculator = new BlockedTransCalculator(new TriTyperExpressionData[]{expressionData}, 8);
+		double[][] correlations = calculator.correlate(0, genotypes, variances, include, nrSnps);
+
+		for (int j = 0; j < nrSnps; j++) {
+			Result r = new Result(1, nrProbes, 0);
+			for (int p = 0; p < nrProbes; p++) {
+				CalculationThread.test(0, p, p, genotypes[j], null, variances[j], probeVariance[p], probeMean[p], include[j], nrSamples, rawData, null, r, null, false, false, false);
+				if (Double.isNaN(r.correlations[0][p])) {
+					assertTrue(Double.isNaN(correlations[j][p]), "SNP " + j + " probe " + p);
+				} else {
+					assertEquals(correlations[j][p], r.correlations[0][p], 1e-10, "SNP " + j + " probe " + p);
+				}
+			}
+		}
+	}
+}
@@ -4,7 +4,10 @@
  */
 package eqtlmappingpipeline.metaqtl3;
 
+import eqtlmappingpipeline.metaqtl3.containers.WorkPackage;
 import org.testng.annotations.Test;
+import umcg.genetica.io.trityper.SNP;
+import static org.testng.Assert.*;
 
 /**
  *
@@ -15,6 +18,28 @@ public class CalculationThreadTest {
 	public CalculationThreadTest() {
 	}
 
+	/**
+	 * SNPs dropped or allele flips reset in one round must not change the work
+	 * package of the next round in the pass.
+	 */
+	@Test
+	public void testCopyForRound() {
+		SNP snp = new SNP();
+		WorkPackage wp = new WorkPackage();
+		wp.setSnps(new SNP[]{snp, snp});
+		wp.setFlipSNPAlleles(new Boolean[]{true, false});
+
+		WorkPackage copy = CalculationThread.copyForRound(wp);
+		assertSame(copy.getSnps()[0], snp);
+		assertEquals(copy.getFlipSNPAlleles(), new Boolean[]{true, false});
+
+		copy.getSnps()[1] = null;
+		copy.getFlipSNPAlleles()[0] = false;
+		copy.getFlipSNPAlleles()[1] = null;
+		assertEquals(wp.getSnps(), new SNP[]{snp, snp});
+		assertEquals(wp.getFlipSNPAlleles(), new Boolean[]{true, false});
+	}
+
 	/**
 	 * Test of test method, of class CalculationThread.
 	 */
@@ -0,0 +1,156 @@
+package eqtlmappingpipeline.metaqtl3;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import umcg.genetica.io.text.TextFile;
+import umcg.genetica.io.trityper.TriTyperExpressionData;
+import static org.testng.Assert.*;
+import org.testng.annotations.Test;
+
+/**
+ * Compares mapping several expression sets in one pass, as the PCAOptimum
+ * sweep does, with a normal run on the expression data of each set. The
+ * second set has a component over the samples removed, like a PC.
+ */
+public class ExpressionSetsTest {
+
+	private static final int PERMUTATIONS = 3;
+	private static final int NR_SETS = 2;
+	private final File testFilesFolder;
+
+	public ExpressionSetsTest() throws URISyntaxException {
+		testFilesFolder = new File(this.getClass().getResource("/GeuvadisTestData/").toURI());
+	}
+
+	@Test
+	public void testExpressionSetsEqualNormalRun() throws Exception {
+
+		File tmpOutputFolder = Files.createTempDirectory("ExpressionSetsTest").toFile();
+		System.out.println("Temp folder with output of this test: " + tmpOutputFolder.getAbsolutePath());
+
+		File sweepFolder = new File(tmpOutputFolder, "sweep");
+
+		// two sets in one pass, two permutations per pass
+		MetaQTL3 sweep = initialize(tmpOutputFolder, sweepFolder, 2 * NR_SETS);
+		TriTyperExpressionData[][] expressionSets = new TriTyperExpressionData[NR_SETS][sweep.m_gg.length];
+		String[] outputDirs = new String[NR_SETS];
+		for (int s = 0; s < NR_SETS; s++) {
+			for (int d = 0; d < sweep.m_gg.length; d++) {
+				expressionSets[s][d] = createExpressionSet(sweep, d, s);
+			}
+			outputDirs[s] = new File(sweepFolder, "Set" + s).getAbsolutePath() + File.separator;
+		}
+		sweep.mapEQTLsForExpressionSets(expressionSets, outputDirs);
+
+		// the output of the sets is not written to the output directory of the settings
+		assertFalse(new File(sweepFolder, "eQTLs.txt.gz").exists());
+
+		String[] setResults = new String[NR_SETS];
+		for (int s = 0; s < NR_SETS; s++) {
+
+			File setFolder = new File(outputDirs[s]);
+			File normalFolder = new File(tmpOutputFolder, "normalSet" + s);
+			MetaQTL3 normal = initialize(tmpOutputFolder, normalFolder, 0);
+			for (int d = 0; d < normal.m_gg.length; d++) {
+				normal.m_gg[d].setExpressionData(createExpressionSet(normal, d, s));
+			}
+			normal.mapEQTLs();
+
+			setResults[s] = readLines(new File(setFolder, "eQTLs.txt.gz"));
+			for (int round = 1; round <= PERMUTATIONS; ++round) {
+				String file = "PermutedEQTLsPermutationRound" + round + ".txt.gz";
+				assertEquals(readLines(new File(setFolder, file)), readLines(new File(normalFolder, file)), "Set" + s + "/" + file);
+			}
+			assertEquals(setResults[s], readLines(new File(normalFolder, "eQTLs.txt.gz")), "Set" + s);
+			assertEquals(readLines(new File(setFolder, "eQTLProbesFDR0.05-ProbeLevel.txt.gz")), readLines(new File(normalFolder, "eQTLProbesFDR0.05-ProbeLevel.txt.gz")), "Set" + s);
+		}
+
+		// the sets differ, so results mixed up between sets would be detected
+		assertFalse(setResults[1].equals(setResults[0]));
+
+	}
+
+	/**
+	 * Set 0 is the loaded expression data. The other sets have a random unit
+	 * vector over the samples removed from every probe, after which they are
+	 * ranked and normalized like loaded expression data. The vector depends
+	 * only on the set and dataset, so the sweep and the normal runs use the
+	 * same data.
+	 */
+	private static TriTyperExpressionData createExpressionSet(MetaQTL3 metaQtl, int d, int set) {
+
+		TriTyperExpressionData expressionData = metaQtl.m_gg[d].getExpressionData();
+		if (set == 0) {
+			return expressionData;
+		}
+
+		double[][] matrix = expressionData.getMatrix();
+		Random random = new Random(set * 100 + d);
+		double[] component = new double[matrix[0].length];
+		double norm = 0;
+		for (int s = 0; s < component.length; s++) {
+			component[s] = random.nextGaussian();
+			norm += component[s] * component[s];
+		}
+		norm = Math.sqrt(norm);
+		for (int s = 0; s < component.length; s++) {
+			component[s] /= norm;
+		}
+
+		double[][] residuals = new double[matrix.length][];
+		for (int p = 0; p < matrix.length; p++) {
+			double score = 0;
+			for (int s = 0; s < component.length; s++) {
+				score += matrix[p][s] * component[s];
+			}
+			residuals[p] = new double[component.length];
+			for (int s = 0; s < component.length; s++) {
+				residuals[p][s] = matrix[p][s] - score * component[s];
+			}
+		}
+
+		TriTyperExpressionData expressionSet = expressionData.copyWithMatrix(residuals);
+		if (!metaQtl.m_settings.performParametricAnalysis) {
+			expressionSet.rankAllExpressionData(metaQtl.m_settings.equalRankForTies);
+		}
+		expressionSet.calcAndSubtractMean();
+		expressionSet.calcMeanAndVariance();
+		return expressionSet;
+	}
+
+	private MetaQTL3 initialize(File tmpOutputFolder, File outputFolder, int permutationsPerPass) throws Exception {
+
+		outputFolder.mkdir();
+
+		String settings = new String(Files.readAllBytes(new File(testFilesFolder, "settings.xml").toPath()), StandardCharsets.UTF_8);
+		settings = settings
+				.replace("<analysistype>trans</analysistype>", "<analysistype>cis</analysistype>")
+				.replaceAll("<snpProbe>[^<]*</snpProbe>", "<snpProbe></snpProbe>")
+				.replace("<snpqcmafthreshold>0.05</snpqcmafthreshold>", "<snpqcmafthreshold>0.3</snpqcmafthreshold>")
+				.replaceAll("<permutations>[0-9]*</permutations>", "<permutations>" + PERMUTATIONS + "</permutations><permutationsperpass>" + permutationsPerPass + "</permutationsperpass>");
+		File settingsFile = new File(tmpOutputFolder, outputFolder.getName() + "-settings.xml");
+		Files.write(settingsFile.toPath(), settings.getBytes(StandardCharsets.UTF_8));
+
+		MetaQTL3 metaQtl = new MetaQTL3();
+		metaQtl.initialize(settingsFile.getAbsolutePath(), "${InputFolder},${OutputFolder}", testFilesFolder.getAbsolutePath() + "," + outputFolder.getAbsolutePath(),
+				null, null, null, null, null, null, false, false, 0, true, false, null, null, null, null, null, true, true, null, null, null);
+		return metaQtl;
+	}
+
+	private static String readLines(File file) throws IOException {
+		assertTrue(file.exists(), "Missing: " + file.getAbsolutePath());
+		TextFile in = new TextFile(file, TextFile.R);
+		StringBuilder lines = new StringBuilder();
+		String line;
+		while ((line = in.readLine()) != null) {
+			lines.append(line).append('\n');
+		}
+		in.close();
+		return lines.toString();
+	}
+
+}
@@ -0,0 +1,117 @@
+package eqtlmappingpipeline.metaqtl3;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import umcg.genetica.io.text.TextFile;
+import static org.testng.Assert.*;
+import org.testng.annotations.Test;
+
+/**
+ * Compares testing permutation rounds in passes with testing them one by one.
+ */
+public class PermutationPassTest {
+
+	private static final int PERMUTATIONS = 3;
+	private final File testFilesFolder;
+
+	public PermutationPassTest() throws URISyntaxException {
+		testFilesFolder = new File(this.getClass().getResource("/GeuvadisTestData/").toURI());
+	}
+
+	@Test
+	public void testPlanPasses() {
+		List<int[]> passes = MetaQTL3.planPasses(0, 11, 4);
+		assertEquals(passes.size(), 4);
+		assertEquals(passes.get(0), new int[]{0, 1});
+		assertEquals(passes.get(1), new int[]{1, 5});
+		assertEquals(passes.get(2), new int[]{5, 9});
+		assertEquals(passes.get(3), new int[]{9, 11});
+
+		passes = MetaQTL3.planPasses(3, 5, 4);
+		assertEquals(passes.size(), 1);
+		assertEquals(passes.get(0), new int[]{3, 5});
+
+		passes = MetaQTL3.planPasses(0, 3, 0);
+		assertEquals(passes.size(), 3);
+		assertEquals(passes.get(2), new int[]{2, 3});
+	}
+
+	/**
+	 * With confineSNPsToSNPsPresentInAllDatasets the SNP QC of the real data
+	 * and the permutations differs, testing the rounds in passes must give the
+	 * same results as testing them one by one.
+	 */
+	@Test
+	public void testPassesEqualRoundByRound() throws Exception {
+		assertPassesEqualRoundByRound(false);
+	}
+
+	/**
+	 * Absolute z-scores reset the allele flips of the SNPs, this must not
+	 * change the allele flips of the other rounds in the pass.
+	 */
+	@Test
+	public void testPassesEqualRoundByRoundAbsoluteZScores() throws Exception {
+		assertPassesEqualRoundByRound(true);
+	}
+
+	private void assertPassesEqualRoundByRound(boolean useAbsoluteZScores) throws Exception {
+
+		File tmpOutputFolder = Files.createTempDirectory("PermutationPassTest").toFile();
+		System.out.println("Temp folder with output of this test: " + tmpOutputFolder.getAbsolutePath());
+
+		File roundByRoundFolder = new File(tmpOutputFolder, "roundByRound");
+		File passesFolder = new File(tmpOutputFolder, "passes");
+
+		runMetaQtl(tmpOutputFolder, roundByRoundFolder, 0, useAbsoluteZScores);
+		runMetaQtl(tmpOutputFolder, passesFolder, 2, useAbsoluteZScores);
+
+		for (int round = 1; round <= PERMUTATIONS; ++round) {
+			String file = "PermutedEQTLsPermutationRound" + round + ".txt.gz";
+			assertEquals(readLines(new File(passesFolder, file)), readLines(new File(roundByRoundFolder, file)), file);
+		}
+		assertEquals(readLines(new File(passesFolder, "eQTLs.txt.gz")), readLines(new File(roundByRoundFolder, "eQTLs.txt.gz")));
+		assertEquals(readLines(new File(passesFolder, "eQTLProbesFDR0.05-ProbeLevel.txt.gz")), readLines(new File(roundByRoundFolder, "eQTLProbesFDR0.05-ProbeLevel.txt.gz")));
+
+	}
+
+	private void runMetaQtl(File tmpOutputFolder, File outputFolder, int permutationsPerPass, boolean useAbsoluteZScores) throws Exception {
+
+		outputFolder.mkdir();
+
+		String settings = new String(Files.readAllBytes(new File(testFilesFolder, "settings.xml").toPath()), StandardCharsets.UTF_8);
+		settings = settings
+				.replace("<analysistype>trans</analysistype>", "<analysistype>cis</analysistype>")
+				.replaceAll("<snpProbe>[^<]*</snpProbe>", "<snpProbe></snpProbe>")
+				.replace("<useabsolutepvalue>false</useabsolutepvalue>", "<useabsolutepvalue>" + useAbsoluteZScores + "</useabsolutepvalue>")
+				.replace("<snpqcmafthreshold>0.05</snpqcmafthreshold>", "<snpqcmafthreshold>0.3</snpqcmafthreshold>")
+				.replace("<confineSNPsToSNPsPresentInAllDatasets>false", "<confineSNPsToSNPsPresentInAllDatasets>true")
+				.replace("<maxnreqtlresults>", "<requireAtLeastNumberOfDatasets>2</requireAtLeastNumberOfDatasets><maxnreqtlresults>")
+				.replaceAll("<permutations>[0-9]*</permutations>", "<permutations>" + PERMUTATIONS + "</permutations><permutationsperpass>" + permutationsPerPass + "</permutationsperpass>");
+		File settingsFile = new File(tmpOutputFolder, outputFolder.getName() + "-settings.xml");
+		Files.write(settingsFile.toPath(), settings.getBytes(StandardCharsets.UTF_8));
+
+		MetaQTL3 metaQtl = new MetaQTL3();
+		metaQtl.initialize(settingsFile.getAbsolutePath(), "${InputFolder},${OutputFolder}", testFilesFolder.getAbsolutePath() + "," + outputFolder.getAbsolutePath(),
+				null, null, null, null, null, null, false, false, 0, true, false, null, null, null, null, null, true, true, null, null, null);
+		metaQtl.mapEQTLs();
+
+	}
+
+	private static String readLines(File file) throws IOException {
+		assertTrue(file.exists(), "Missing: " + file.getAbsolutePath());
+		TextFile in = new TextFile(file, TextFile.R);
+		StringBuilder lines = new StringBuilder();
+		String line;
+		while ((line = in.readLine()) != null) {
+			lines.append(line).append('\n');
+		}
+		in.close();
+		return lines.toString();
+	}
+
+}
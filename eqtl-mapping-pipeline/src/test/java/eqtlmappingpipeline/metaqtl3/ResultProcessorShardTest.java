@@ -0,0 +1,153 @@
+package eqtlmappingpipeline.metaqtl3;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import javax.xml.bind.annotation.adapters.HexBinaryAdapter;
+import umcg.genetica.io.text.TextFile;
+import static org.testng.Assert.*;
+import org.testng.annotations.Test;
+
+/**
+ * Compares the merged output of several ResultProcessorThread shards with the
+ * output of a single ResultProcessorThread.
+ */
+public class ResultProcessorShardTest {
+
+	private static final int PERMUTATIONS = 2;
+	private static final int NR_SHARDS = 3;
+	// small enough that the top-N of each shard is truncated before merging
+	private static final int MAX_RESULTS = 40;
+	private static final String[] BINARY_FILES = {"MetaAnalysis", "Guevadis_YRI", "Guevadis_CEU"};
+	private final File testFilesFolder;
+
+	public ResultProcessorShardTest() throws URISyntaxException {
+		testFilesFolder = new File(this.getClass().getResource("/GeuvadisTestData/").toURI());
+	}
+
+	@Test
+	public void testShardsEqualSingleThread() throws Exception {
+
+		File tmpOutputFolder = Files.createTempDirectory("ResultProcessorShardTest").toFile();
+		System.out.println("Temp folder with output of this test: " + tmpOutputFolder.getAbsolutePath());
+
+		File singleFolder = new File(tmpOutputFolder, "single");
+		File shardsFolder = new File(tmpOutputFolder, "shards");
+
+		runMetaQtl(tmpOutputFolder, singleFolder, 1);
+		runMetaQtl(tmpOutputFolder, shardsFolder, NR_SHARDS);
+
+		// the text output is sorted on significance and must be byte identical
+		assertEquals(readBytes(new File(shardsFolder, "eQTLs.txt.gz")), readBytes(new File(singleFolder, "eQTLs.txt.gz")));
+		assertEquals(readBytes(new File(shardsFolder, "eQTLProbesFDR0.05-ProbeLevel.txt.gz")), readBytes(new File(singleFolder, "eQTLProbesFDR0.05-ProbeLevel.txt.gz")));
+		for (int round = 1; round <= PERMUTATIONS; ++round) {
+			String file = "PermutedEQTLsPermutationRound" + round + ".txt.gz";
+			assertEquals(readBytes(new File(shardsFolder, file)), readBytes(new File(singleFolder, file)), file);
+		}
+
+		// the rows of the binary files are in the order the results arrive,
+		// which differs between runs even with a single thread
+		for (int round = 0; round <= PERMUTATIONS; ++round) {
+			String suffix = round == 0 ? "" : "-PermutationRound-" + round;
+			for (String name : BINARY_FILES) {
+				String fileName = name + suffix;
+				HashMap<String, String> singleRows = readBinaryRows(singleFolder, fileName);
+				assertEquals(readBinaryRows(shardsFolder, fileName), singleRows, fileName);
+				assertFalse(singleRows.isEmpty(), fileName);
+				assertEquals(readBytes(new File(shardsFolder, fileName + "-ColNames.txt.gz")), readBytes(new File(singleFolder, fileName + "-ColNames.txt.gz")), fileName);
+			}
+			assertMd5(shardsFolder, "check" + suffix + ".md5");
+			assertMd5(singleFolder, "check" + suffix + ".md5");
+		}
+
+		for (File file : shardsFolder.listFiles()) {
+			assertFalse(file.getName().contains(".shard"), "Segment not removed: " + file.getName());
+		}
+
+	}
+
+	private void runMetaQtl(File tmpOutputFolder, File outputFolder, int resultProcessorThreads) throws Exception {
+
+		outputFolder.mkdir();
+
+		String settings = new String(Files.readAllBytes(new File(testFilesFolder, "settings.xml").toPath()), StandardCharsets.UTF_8);
+		settings = settings
+				.replace("<analysistype>trans</analysistype>", "<analysistype>cis</analysistype><resultprocessorthreads>" + resultProcessorThreads + "</resultprocessorthreads>")
+				.replaceAll("<snpProbe>[^<]*</snpProbe>", "<snpProbe></snpProbe>")
+				.replace("<snpqcmafthreshold>0.05</snpqcmafthreshold>", "<snpqcmafthreshold>0.3</snpqcmafthreshold>")
+				.replace("<maxnreqtlresults>500000</maxnreqtlresults>", "<maxnreqtlresults>" + MAX_RESULTS + "</maxnreqtlresults>")
+				.replace("<binaryoutput>false</binaryoutput>", "<binaryoutput>true</binaryoutput><usemd5hashforbinaryoutput>true</usemd5hashforbinaryoutput>")
+				.replaceAll("<permutations>[0-9]*</permutations>", "<permutations>" + PERMUTATIONS + "</permutations>");
+		File settingsFile = new File(tmpOutputFolder, outputFolder.getName() + "-settings.xml");
+		Files.write(settingsFile.toPath(), settings.getBytes(StandardCharsets.UTF_8));
+
+		MetaQTL3 metaQtl = new MetaQTL3();
+		metaQtl.initialize(settingsFile.getAbsolutePath(), "${InputFolder},${OutputFolder}", testFilesFolder.getAbsolutePath() + "," + outputFolder.getAbsolutePath(),
+				null, null, null, null, null, null, false, false, 0, true, false, null, null, null, null, null, true, true, null, null, null);
+		assertEquals(metaQtl.m_settings.resultProcessorThreads, resultProcessorThreads);
+		metaQtl.mapEQTLs();
+
+	}
+
+	/**
+	 * Reads the z-scores of each row of a binary file, keyed on the line in
+	 * the row names file.
+	 */
+	private static HashMap<String, String> readBinaryRows(File folder, String fileName) throws IOException {
+		ArrayList<String> rowNames = new ArrayList<String>();
+		TextFile in = new TextFile(new File(folder, fileName + "-RowNames.txt.gz"), TextFile.R);
+		String line = in.readLine();
+		while ((line = in.readLine()) != null) {
+			rowNames.add(line);
+		}
+		in.close();
+
+		HashMap<String, String> rows = new HashMap<String, String>();
+		File binaryFile = new File(folder, fileName + ".dat");
+		DataInputStream data = new DataInputStream(new FileInputStream(binaryFile));
+		// magic number of a cis analysis
+		assertEquals(data.readInt(), 1, fileName);
+		long nrFloats = 0;
+		for (String rowName : rowNames) {
+			int nrProbes = Integer.parseInt(rowName.split("\t")[8]);
+			float[] zScores = new float[nrProbes];
+			for (int p = 0; p < nrProbes; p++) {
+				zScores[p] = data.readFloat();
+			}
+			nrFloats += nrProbes;
+			assertNull(rows.put(rowName, Arrays.toString(zScores)), rowName);
+		}
+		data.close();
+		assertEquals(binaryFile.length(), 4 + nrFloats * 4, fileName);
+		return rows;
+	}
+
+	private static void assertMd5(File folder, String md5FileName) throws Exception {
+		HexBinaryAdapter md5Parser = new HexBinaryAdapter();
+		TextFile in = new TextFile(new File(folder, md5FileName), TextFile.R);
+		int nrFiles = 0;
+		String line;
+		while ((line = in.readLine()) != null) {
+			String[] elems = line.split("  ");
+			MessageDigest md5 = MessageDigest.getInstance("MD5");
+			assertEquals(elems[0], md5Parser.marshal(md5.digest(readBytes(new File(folder, elems[1])))), md5FileName);
+			nrFiles++;
+		}
+		in.close();
+		assertEquals(nrFiles, BINARY_FILES.length, md5FileName);
+	}
+
+	private static byte[] readBytes(File file) throws IOException {
+		assertTrue(file.exists(), "Missing: " + file.getAbsolutePath());
+		return Files.readAllBytes(file.toPath());
+	}
+
+}
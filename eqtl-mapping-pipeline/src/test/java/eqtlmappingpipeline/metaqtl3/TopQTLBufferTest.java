@@ -0,0 +1,59 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package eqtlmappingpipeline.metaqtl3;
+
+import eqtlmappingpipeline.metaqtl3.containers.QTL;
+import java.util.Arrays;
+import java.util.Random;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+public class TopQTLBufferTest {
+
+	public TopQTLBufferTest() {
+	}
+
+	/**
+	 * The buffer should keep the same results, in the same order, as sorting
+	 * all QTLs and taking the first maxResults. P-values and z-scores are
+	 * drawn from a small set of values, so ties are resolved on SNP and probe
+	 * id.
+	 */
+	@Test
+	public void testTopResults() {
+		Random random = new Random(1);
+		int maxResults = 1000;
+		int nrResults = 20000;
+
+		TopQTLBuffer buffer = new TopQTLBuffer(maxResults, 2);
+		QTL[] all = new QTL[nrResults];
+		for (int i = 0; i < nrResults; i++) {
+			double pvalue = random.nextInt(500) / 500d;
+			double zscore = random.nextInt(5) - 2;
+			int sid = random.nextInt(100);
+			int pid = i;
+			all[i] = new QTL(pvalue, pid, sid, (byte) 0, zscore, null, null, null, null, null, null, null, 0d, 0d);
+
+			if (buffer.accepts(pvalue)) {
+				int slot = buffer.add(pvalue, pid, sid, (byte) 0, zscore, null, 0d, 0d);
+				if (slot >= 0) {
+					buffer.setDatasetResult(slot, 0, pvalue, zscore, i, 0, 0, 0);
+					buffer.setMissingDatasetResult(slot, 1);
+				}
+			}
+		}
+
+		Arrays.sort(all);
+		buffer.sort();
+		assertEquals(buffer.size(), maxResults);
+		for (int i = 0; i < maxResults; i++) {
+			QTL q = buffer.getQTL(i);
+			assertTrue(q.equals(all[i]), "Index " + i);
+			assertEquals(q.getCorrelations()[0], all[i].getPvalue());
+			assertTrue(Double.isNaN(q.getCorrelations()[1]));
+		}
+	}
+}
@@ -0,0 +1,226 @@
+package eqtlmappingpipeline.mixupmapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import static org.testng.Assert.*;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import umcg.genetica.containers.Pair;
+import umcg.genetica.io.text.TextFile;
+import umcg.genetica.io.trityper.SNP;
+import umcg.genetica.io.trityper.SNPLoader;
+
+/**
+ * Compares the blocked scoring of MixupMapper with the per cell scoring it
+ * replaced, on the Geuvadis test data.
+ */
+public class MixupMapperTest {
+
+	private static final int NR_EQTLS = 1000;
+	private final File testFilesFolder;
+	private File tmpOutputFolder;
+	private File eQtlFile;
+	private File gteFile;
+
+	public MixupMapperTest() throws URISyntaxException {
+		testFilesFolder = new File(this.getClass().getResource("/GeuvadisTestData/").toURI());
+	}
+
+	@BeforeClass
+	public void setUp() throws Exception {
+
+		tmpOutputFolder = Files.createTempDirectory("MixupMapperTest").toFile();
+		System.out.println("Temp folder with output of this test: " + tmpOutputFolder.getAbsolutePath());
+
+		List<String> snps = Files.readAllLines(new File(testFilesFolder, "trityper/SNPs.txt").toPath(), StandardCharsets.UTF_8);
+		ArrayList<String> probes = new ArrayList<String>();
+		TextFile expression = new TextFile(new File(testFilesFolder, "Geuvadis_CEU_YRI_Expr.txt.gz"), TextFile.R);
+		expression.readLine();
+		String[] elems;
+		while ((elems = expression.readLineElems(TextFile.tab)) != null) {
+			probes.add(elems[0]);
+		}
+		expression.close();
+
+		// the SNP-probe pairs do not need to be eQTLs to compare the scoring
+		eQtlFile = new File(tmpOutputFolder, "eQTLs.txt");
+		TextFile eQtls = new TextFile(eQtlFile, TextFile.W);
+		eQtls.writeln("PValue\tSNPName\tSNPChr\tSNPChrPos\tProbeName");
+		for (int i = 0; i < NR_EQTLS; i++) {
+			eQtls.writeln("0\t" + snps.get(i) + "\t1\t1\t" + probes.get(i % probes.size()));
+		}
+		eQtls.close();
+
+		// leave some genotype and trait samples unlinked, these are only compared when testing all
+		gteFile = new File(tmpOutputFolder, "gte.txt");
+		ArrayList<String> links = new ArrayList<String>();
+		links.addAll(Files.readAllLines(new File(testFilesFolder, "Geuvadis_CEU_gte.txt").toPath(), StandardCharsets.UTF_8));
+		links.addAll(Files.readAllLines(new File(testFilesFolder, "Geuvadis_YRI_gte.txt").toPath(), StandardCharsets.UTF_8));
+		ArrayList<String> keptLinks = new ArrayList<String>();
+		for (int i = 0; i < links.size(); i++) {
+			if (i % 7 != 3) {
+				keptLinks.add(links.get(i));
+			}
+		}
+		Files.write(gteFile.toPath(), keptLinks, StandardCharsets.UTF_8);
+
+	}
+
+	@Test
+	public void testLinkedSamples() throws Exception {
+		assertScoringEqualsPerCellScoring(false);
+	}
+
+	@Test
+	public void testAllSamples() throws Exception {
+		assertScoringEqualsPerCellScoring(true);
+	}
+
+	private void assertScoringEqualsPerCellScoring(boolean testAll) throws Exception {
+
+		File blockedFolder = new File(tmpOutputFolder, "blocked" + testAll);
+		File perCellFolder = new File(tmpOutputFolder, "perCell" + testAll);
+
+		run(new MixupMapper(), blockedFolder, testAll);
+		PerCellMixupMapper perCell = new PerCellMixupMapper();
+		run(perCell, perCellFolder, testAll);
+
+		// more than one block, the last one partially filled
+		assertTrue(perCell.numTested > 2 * 128, "Tested: " + perCell.numTested);
+		assertTrue(perCell.numTested % 128 != 0, "Tested: " + perCell.numTested);
+
+		for (String file : new String[]{"MixupMapperScores.txt", "BestMatchPerGenotype.txt", "BestMatchPerTrait.txt"}) {
+			String expected = readFile(new File(perCellFolder, "MixupMapper/" + file));
+			assertEquals(readFile(new File(blockedFolder, "MixupMapper/" + file)), expected, file);
+		}
+
+	}
+
+	private void run(MixupMapper mixupMapper, File outputFolder, boolean testAll) throws Exception {
+		outputFolder.mkdir();
+		mixupMapper.run(null, null, null, new File(testFilesFolder, "trityper").getAbsolutePath(), new File(testFilesFolder, "Geuvadis_CEU_YRI_Expr.txt.gz").getAbsolutePath(), null, null,
+				gteFile.getAbsolutePath(), outputFolder.getAbsolutePath(), true, false, 0, true, false, null, 1, null, null, null, eQtlFile.getAbsolutePath(), testAll);
+	}
+
+	private static String readFile(File file) throws IOException {
+		assertTrue(file.exists(), "Missing: " + file.getAbsolutePath());
+		return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Scores every trait x genotype sample cell of every eQTL, with the
+	 * sample lookups in the inner loop, as MixupMapper did before the
+	 * blocked scoring.
+	 */
+	private static class PerCellMixupMapper extends MixupMapper {
+
+		private int numTested;
+
+		@Override
+		protected int scoreEQTLs(ArrayList<Pair<String, String>> eQTLs, String[] gtInds, String[] trInds, HashMap<String, Integer> genotypeToRowIndex, HashMap<String, Integer> traitToColIndex,
+								 double[][] comparisonMatrix, double[][] comparisonMatrixNrTested, boolean leavehalveout) throws IOException {
+
+			SNPLoader loader = genotypeData.createSNPLoader(100);
+			for (Pair<String, String> eqtl : eQTLs) {
+
+				Integer probeId = traitData.hashRows.get(eqtl.getRight());
+				Integer snpId = genotypeData.getSnpToSNPId().get(eqtl.getLeft());
+
+				SNP loadedSNP = genotypeData.getSNPObject(snpId);
+				loader.loadGenotypes(loadedSNP);
+				int[] genotypes = new int[genotypeToRowIndex.size()];
+
+				int numAA = 0;
+				int numAB = 0;
+				int numBB = 0;
+
+				for (int i = 0; i < gtInds.length; i++) {
+					Integer genotypeSampleIndex = genotypeToRowIndex.get(gtInds[i]);
+					if (genotypeSampleIndex != null) {
+						int gt = loadedSNP.getGenotypes()[i];
+						genotypes[genotypeSampleIndex] = gt;
+						if (gt == 0) {
+							numAA++;
+						} else if (gt == 2) {
+							numBB++;
+						} else if (gt == 1) {
+							numAB++;
+						}
+					}
+				}
+
+				if (numAA >= 3 && numAB >= 3 && numBB >= 3) {
+					double[] aa = new double[numAA];
+					double[] ab = new double[numAB];
+					double[] bb = new double[numBB];
+
+					int aaCTR = 0;
+					int abCTR = 0;
+					int bbCTR = 0;
+
+					for (int exp = 0; exp < trInds.length; exp++) {
+						String linkedGenotype = traitToGenotype.get(trInds[exp]);
+						if (linkedGenotype != null) {
+							double expValue = traitData.rawData[probeId][exp];
+							int gt = genotypes[genotypeToRowIndex.get(linkedGenotype)];
+							if (gt == 0) {
+								aa[aaCTR++] = expValue;
+							} else if (gt == 2) {
+								bb[bbCTR++] = expValue;
+							} else if (gt == 1) {
+								ab[abCTR++] = expValue;
+							}
+						}
+					}
+
+					double sdAA = JSci.maths.ArrayMath.standardDeviation(aa);
+					double sdBB = JSci.maths.ArrayMath.standardDeviation(bb);
+					double sdAB = JSci.maths.ArrayMath.standardDeviation(ab);
+
+					double meanAA = JSci.maths.ArrayMath.mean(aa);
+					double meanBB = JSci.maths.ArrayMath.mean(bb);
+					double meanAB = JSci.maths.ArrayMath.mean(ab);
+
+					if (sdAA > 0 && sdAB > 0 && sdBB > 0) {
+						for (int exp = 0; exp < trInds.length; exp++) {
+							Integer traitIndex = traitToColIndex.get(trInds[exp]);
+							for (int gen = 0; gen < gtInds.length; gen++) {
+								Integer genotypeIndex = genotypeToRowIndex.get(gtInds[gen]);
+								if (traitIndex != null && genotypeIndex != null) {
+									double expression = traitData.rawData[probeId][exp];
+									int gt = genotypes[genotypeIndex];
+									if (gt != -1) {
+										double z;
+										if (gt == 0) {
+											z = Math.abs(expression - meanAA) / sdAA;
+										} else if (gt == 1) {
+											z = Math.abs(expression - meanAB) / sdAB;
+										} else {
+											z = Math.abs(expression - meanBB) / sdBB;
+										}
+										if (!Double.isNaN(z) && z != 0) {
+											comparisonMatrixNrTested[genotypeIndex][traitIndex]++;
+											comparisonMatrix[genotypeIndex][traitIndex] += z;
+										}
+									}
+								}
+							}
+						}
+						numTested++;
+					}
+				}
+				loadedSNP.clearGenotypes();
+			}
+			loader.close();
+			return numTested;
+		}
+
+	}
+
+}
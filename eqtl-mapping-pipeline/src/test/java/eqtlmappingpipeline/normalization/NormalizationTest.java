@@ -0,0 +1,236 @@
+package eqtlmappingpipeline.normalization;
+
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.apache.commons.math3.linear.SingularMatrixException;
+import org.apache.commons.math3.stat.regression.OLSMultipleLinearRegression;
+import static org.testng.Assert.*;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import umcg.genetica.io.text.TextFile;
+import umcg.genetica.math.matrix2.DoubleMatrixDataset;
+import umcg.genetica.math.stats.Regression;
+
+/**
+ * Compares the covariate correction of the Normalizer with a regression per
+ * trait and per covariate.
+ *
+ * @author MarcJan
+ */
+public class NormalizationTest {
+
+	private static final int NR_SAMPLES = 40;
+	// not a multiple of the blocks of 64 traits that are solved together
+	private static final int NR_TRAITS = 150;
+	private static final int NR_COVARIATES = 3;
+
+	private File tmpOutputFolder;
+
+	public NormalizationTest() {
+	}
+
+	@BeforeClass
+	public void setUpMethod() throws Exception {
+		tmpOutputFolder = Files.createTempDirectory("NormalizationTest").toFile();
+		System.out.println("Temp folder with output of this test: " + tmpOutputFolder.getAbsolutePath());
+	}
+
+	@Test
+	public void testAdjustCovariatesOls() throws Exception {
+		Random random = new Random(1);
+		double[][] covariates = randomMatrix(random, NR_COVARIATES, NR_SAMPLES);
+		DoubleMatrixDataset<String, String> traitData = randomTraits(random, covariates);
+
+		// per trait regression as done before the design matrix was shared
+		double[][] sampleCovariates = transpose(covariates);
+		double[][] expected = new double[NR_TRAITS][];
+		for (int t = 0; t < NR_TRAITS; t++) {
+			OLSMultipleLinearRegression ols = new OLSMultipleLinearRegression();
+			ols.newSampleData(traitData.getRow(t).toArray(), sampleCovariates);
+			expected[t] = ols.estimateResiduals();
+		}
+
+		String covariateFile = writeCovariates("covariates.txt", covariates, traitData.getColObjects());
+		String prefix = new File(tmpOutputFolder, "ols").getAbsolutePath();
+		String outputPrefix = new Normalizer().adjustCovariates(traitData, prefix, covariateFile, true, 0);
+
+		assertEquals(outputPrefix, prefix + ".CovariatesRemovedOLS");
+		assertTrue(new File(outputPrefix + ".txt.gz").exists());
+		assertEquals(traitData.rows(), NR_TRAITS);
+		assertEquals(traitData.columns(), NR_SAMPLES);
+		for (int t = 0; t < NR_TRAITS; t++) {
+			for (int s = 0; s < NR_SAMPLES; s++) {
+				assertEquals(traitData.getElementQuick(t, s), expected[t][s], 1e-10, "trait " + t + " sample " + s);
+			}
+		}
+	}
+
+	@Test
+	public void testAdjustCovariatesOlsRankDeficient() throws Exception {
+		Random random = new Random(2);
+		double[][] covariates = randomMatrix(random, NR_COVARIATES, NR_SAMPLES);
+		// a covariate without any variation, collinear with the intercept
+		Arrays.fill(covariates[1], 0);
+		DoubleMatrixDataset<String, String> traitData = randomTraits(random, covariates);
+
+		boolean singular = false;
+		try {
+			OLSMultipleLinearRegression ols = new OLSMultipleLinearRegression();
+			ols.newSampleData(traitData.getRow(0).toArray(), transpose(covariates));
+			ols.estimateResiduals();
+		} catch (SingularMatrixException e) {
+			singular = true;
+		}
+		assertTrue(singular, "Per trait regression should fail on these covariates");
+
+		// the covariate without variance is removed when loading, the others are regressed out
+		double[][] sampleCovariates = transpose(new double[][]{covariates[0], covariates[2]});
+		double[][] expected = new double[NR_TRAITS][];
+		for (int t = 0; t < NR_TRAITS; t++) {
+			OLSMultipleLinearRegression ols = new OLSMultipleLinearRegression();
+			ols.newSampleData(traitData.getRow(t).toArray(), sampleCovariates);
+			expected[t] = ols.estimateResiduals();
+		}
+
+		String covariateFile = writeCovariates("covariatesRankDeficient.txt", covariates, traitData.getColObjects());
+		String prefix = new File(tmpOutputFolder, "olsRankDeficient").getAbsolutePath();
+		new Normalizer().adjustCovariates(traitData, prefix, covariateFile, true, 0);
+
+		for (int t = 0; t < NR_TRAITS; t++) {
+			for (int s = 0; s < NR_SAMPLES; s++) {
+				assertEquals(traitData.getElementQuick(t, s), expected[t][s], 1e-10, "trait " + t + " sample " + s);
+			}
+		}
+	}
+
+	@Test
+	public void testCorrectForCovariatesEqualsPerCovariate() throws Exception {
+		Random random = new Random(3);
+		double[][] covariates = randomMatrix(random, NR_COVARIATES + 1, NR_SAMPLES);
+		DoubleMatrixDataset<String, String> covariateDataset = new DoubleMatrixDataset<>(covariates, names("covariate", NR_COVARIATES + 1), names("sample", NR_SAMPLES));
+		DoubleMatrixDataset<String, String> traitData = randomTraits(random, covariates);
+		DoubleMatrixDataset<String, String> expected = new DoubleMatrixDataset<>(traitData.getMatrixAs2dDoubleArray(), traitData.getRowObjects(), traitData.getColObjects());
+
+		// skipped covariates, as when their explained variance is below the cutoff
+		List<Integer> covariatesToCorrect = Arrays.asList(0, 2, 3);
+		for (int covariate : covariatesToCorrect) {
+			correctForCovariate(expected, covariateDataset, covariate);
+		}
+		new Normalizer().correctForCovariates(traitData, covariateDataset, covariatesToCorrect);
+
+		for (int t = 0; t < NR_TRAITS; t++) {
+			for (int s = 0; s < NR_SAMPLES; s++) {
+				assertEquals(traitData.getElementQuick(t, s), expected.getElementQuick(t, s), "trait " + t + " sample " + s);
+			}
+		}
+	}
+
+	/**
+	 * The covariate by covariate correction that correctForCovariates
+	 * replaces.
+	 */
+	private static void correctForCovariate(DoubleMatrixDataset<String, String> rawdata,
+											DoubleMatrixDataset<String, String> covariateValues, int covariateToCorrect) {
+		for (int probe = 0; probe < rawdata.rows(); probe++) {
+			double[] y = rawdata.getRow(probe).toArray();
+			double meanY = JSci.maths.ArrayMath.mean(y);
+			double varianceY = JSci.maths.ArrayMath.variance(y);
+			double[] x = covariateValues.getRow(covariateToCorrect).toArray();
+			double[] rc = Regression.getLinearRegressionCoefficients(x, y);
+
+			double[] rawDataUpdated = new double[x.length];
+			for (int s = 0; s < x.length; s++) {
+				rawDataUpdated[s] = y[s] - x[s] * rc[0];
+			}
+			double meanUpdated = JSci.maths.ArrayMath.mean(rawDataUpdated);
+			double stdDevRatio = JSci.maths.ArrayMath.standardDeviation(rawDataUpdated) / Math.sqrt(varianceY);
+			for (int s = 0; s < x.length; s++) {
+				double val = ((rawDataUpdated[s] - meanUpdated) / stdDevRatio) + meanY;
+				rawdata.setElementQuick(probe, s, val);
+			}
+		}
+	}
+
+	/**
+	 * Traits with an effect of each covariate and noise, samples on the
+	 * columns.
+	 */
+	private static DoubleMatrixDataset<String, String> randomTraits(Random random, double[][] covariates) throws Exception {
+		double[][] traits = new double[NR_TRAITS][NR_SAMPLES];
+		for (int t = 0; t < NR_TRAITS; t++) {
+			double offset = random.nextGaussian() * 5;
+			double[] effects = new double[covariates.length];
+			for (int c = 0; c < covariates.length; c++) {
+				effects[c] = random.nextGaussian();
+			}
+			for (int s = 0; s < NR_SAMPLES; s++) {
+				traits[t][s] = offset + random.nextGaussian();
+				for (int c = 0; c < covariates.length; c++) {
+					traits[t][s] += effects[c] * covariates[c][s];
+				}
+			}
+		}
+		return new DoubleMatrixDataset<>(traits, names("trait", NR_TRAITS), names("sample", NR_SAMPLES));
+	}
+
+	/**
+	 * Writes the covariates with the samples on the columns, in reverse
+	 * order of the trait data.
+	 */
+	private String writeCovariates(String fileName, double[][] covariates, List<String> samples) throws IOException {
+		File file = new File(tmpOutputFolder, fileName);
+		TextFile tf = new TextFile(file, TextFile.W);
+		StringBuilder header = new StringBuilder("-");
+		for (int s = samples.size() - 1; s >= 0; s--) {
+			header.append('\t').append(samples.get(s));
+		}
+		tf.writeln(header.toString());
+		for (int c = 0; c < covariates.length; c++) {
+			StringBuilder line = new StringBuilder("covariate" + c);
+			for (int s = samples.size() - 1; s >= 0; s--) {
+				line.append('\t').append(covariates[c][s]);
+			}
+			tf.writeln(line.toString());
+		}
+		tf.close();
+		return file.getAbsolutePath();
+	}
+
+	private static double[][] randomMatrix(Random random, int rows, int columns) {
+		double[][] matrix = new double[rows][columns];
+		for (int r = 0; r < rows; r++) {
+			for (int c = 0; c < columns; c++) {
+				matrix[r][c] = random.nextGaussian();
+			}
+		}
+		return matrix;
+	}
+
+	private static double[][] transpose(double[][] matrix) {
+		double[][] transposed = new double[matrix[0].length][matrix.length];
+		for (int r = 0; r < matrix.length; r++) {
+			for (int c = 0; c < matrix[r].length; c++) {
+				transposed[c][r] = matrix[r][c];
+			}
+		}
+		return transposed;
+	}
+
+	private static List<String> names(String prefix, int n) {
+		List<String> names = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			names.add(prefix + i);
+		}
+		return names;
+	}
+}
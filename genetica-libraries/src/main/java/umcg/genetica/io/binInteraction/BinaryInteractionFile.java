@@ -3,6 +3,8 @@ package umcg.genetica.io.binInteraction;
 import umcg.genetica.io.binInteraction.gene.BinaryInteractionGene;
 import umcg.genetica.io.binInteraction.variant.BinaryInteractionVariantStatic;
 import com.google.common.io.CountingInputStream;
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.hash.TObjectIntHashMap;
 import java.io.BufferedInputStream;
 import java.io.Closeable;
@@ -22,12 +24,18 @@ import java.util.Date;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
 import org.molgenis.genotype.Allele;
 import umcg.genetica.collections.ChrPosMap;
 import umcg.genetica.io.binInteraction.gene.BinaryInteractionGeneStatic;
 import umcg.genetica.io.binInteraction.variant.BinaryInteractionVariant;
 
 /**
+ * When opened in read only mode the data is memory mapped and all read
+ * functions can be used by multiple threads at the same time. In write mode
+ * reads and writes go through shared buffers and must not be done
+ * concurrently.
  *
  * @author Patrick Deelen
  */
@@ -42,6 +50,14 @@ public class BinaryInteractionFile implements Closeable {
 	private static final int NO_ENTRY_INT_MAP = -1;
 	private static final SimpleDateFormat DEFAULT_DATE_FORMAT = new java.text.SimpleDateFormat("dd-MM-yyyy HH:mm:ss");
 	private static final int BUFFER_SIZE = 8192;
+	/**
+	 * Use as cohort index to get the meta analysis z-scores
+	 */
+	public static final int META_ANALYSIS_INDEX = -1;
+	/**
+	 * Number of variants scanned per task
+	 */
+	private static final int SCAN_VARIANT_BLOCK_SIZE = 256;
 	//Instance variables
 	private final File interactionFile;
 	private boolean readOnly;
@@ -76,6 +92,8 @@ public class BinaryInteractionFile implements Closeable {
 	private final TObjectIntHashMap<String> covariatesMap;
 	private RandomAccessFile randomAccess;
 	private FileChannel channel;
+	private BinaryInteractionMappedSection mappedQtls = null;
+	private BinaryInteractionMappedSection mappedInteractions = null;
 	private final ByteBuffer qtlBuffer = ByteBuffer.allocate(BUFFER_SIZE);
 	private final ByteBuffer interactionBuffer = ByteBuffer.allocate(BUFFER_SIZE);
 	private boolean qtlBufferWriting = false;
@@ -84,8 +102,8 @@ public class BinaryInteractionFile implements Closeable {
 	private long interactionBufferStart = Long.MIN_VALUE;
 	private long qtlZscoresSet = 0;
 	private long interactionZscoresSet = 0;
-	private long qtlZscoresRead = 0;
-	private long interactionZscoresRead = 0;
+	private final AtomicLong qtlZscoresRead = new AtomicLong();
+	private final AtomicLong interactionZscoresRead = new AtomicLong();
 	private long interactionWriteBufferFlushed = 0;
 	private long qtlWriteBufferFlushed = 0;
 	private long interactionReadBufferLoaded = 0;
@@ -574,11 +592,11 @@ public class BinaryInteractionFile implements Closeable {
 	}
 
 	public long getQtlZscoresRead() {
-		return qtlZscoresRead;
+		return qtlZscoresRead.get();
 	}
 
 	public long getInteractionZscoresRead() {
-		return interactionZscoresRead;
+		return interactionZscoresRead.get();
 	}
 
 	public long getInteractionWriteBufferFlushed() {
@@ -599,6 +617,8 @@ public class BinaryInteractionFile implements Closeable {
 
 	@Override
 	public void close() throws IOException {
+		mappedQtls = null;
+		mappedInteractions = null;
 		channel.close();
 		randomAccess.close();
 	}
@@ -610,6 +630,12 @@ public class BinaryInteractionFile implements Closeable {
 			randomAccess.writeBoolean(false);
 		}
 		channel = randomAccess.getChannel();
+		if (readOnly) {
+			if (normalQtlStored) {
+				mappedQtls = new BinaryInteractionMappedSection(channel, startQtlBlock, sizeQtlBlock, cummulativeGeneCountUpToVariant[variants.length]);
+			}
+			mappedInteractions = new BinaryInteractionMappedSection(channel, startInteractionBlock, sizeInteractionBlock, interactions);
+		}
 	}
 
 	private long getQtlPointer(String variantName, String geneName) throws BinaryInteractionFileException {
@@ -675,6 +701,29 @@ public class BinaryInteractionFile implements Closeable {
 
 	}
 
+	private int getVariantGeneIndex(String variantName, String geneName) throws BinaryInteractionFileException {
+
+		int variantIndex = variantMap.get(variantName);
+		int geneIndex = genesMap.get(geneName);
+
+		if (variantIndex < 0) {
+			throw new BinaryInteractionFileException("Variant not found: " + variantName);
+		}
+
+		if (geneIndex < 0) {
+			throw new BinaryInteractionFileException("Gene not found: " + geneName);
+		}
+
+		int geneIndexInVariant = variants[variantIndex].getIndexOfGenePointer(geneIndex);
+
+		if (geneIndexInVariant < 0) {
+			throw new BinaryInteractionFileException("Cannot find variant gene combination for: " + variantName + "-" + geneName);
+		}
+
+		return cummulativeGeneCountUpToVariant[variantIndex] + geneIndexInVariant;
+
+	}
+
 	public BinaryInteractionQtlZscores readQtlResults(String variantName, String geneName) throws BinaryInteractionFileException, IOException {
 
 		if(!normalQtlStored){
@@ -684,22 +733,28 @@ public class BinaryInteractionFile implements Closeable {
 		//Check will be done in get pointer
 		long qtlPointer = getQtlPointer(variantName, geneName);
 
-		setQtlBuffer(qtlPointer, false);
+		final ByteBuffer buffer;
+		if (mappedQtls != null) {
+			buffer = mappedQtls.getBlock(qtlPointer);
+		} else {
+			setQtlBuffer(qtlPointer, false);
+			buffer = qtlBuffer;
+		}
 
 		double[] zscore = new double[cohorts.length];
 		for (int i = 0; i < cohorts.length; i++) {
-			zscore[i] = qtlBuffer.getDouble();
+			zscore[i] = buffer.getDouble();
 		}
 
 		int[] sampleCounts = new int[cohorts.length];
 		for (int i = 0; i < cohorts.length; i++) {
-			sampleCounts[i] = qtlBuffer.getInt();
+			sampleCounts[i] = buffer.getInt();
 		}
 		
-		++qtlZscoresRead;
+		qtlZscoresRead.incrementAndGet();
 
 		if (metaAnalysis) {
-			double metaZscore = qtlBuffer.getDouble();
+			double metaZscore = buffer.getDouble();
 			return new BinaryInteractionQtlZscores(zscore, sampleCounts, metaZscore);
 		} else {
 			return new BinaryInteractionQtlZscores(zscore, sampleCounts);
@@ -829,24 +884,7 @@ public class BinaryInteractionFile implements Closeable {
 	
 	public Iterator<BinaryInteractionQueryResult> readVariantGeneResults(String variantName, String geneName) throws BinaryInteractionFileException, IOException{
 		
-		int variantIndex = variantMap.get(variantName);
-		int geneIndex = genesMap.get(geneName);
-
-		if (variantIndex < 0) {
-			throw new BinaryInteractionFileException("Variant not found: " + variantName);
-		}
-
-		if (geneIndex < 0) {
-			throw new BinaryInteractionFileException("Gene not found: " + geneName);
-		}
-
-		int geneIndexInVariant = variants[variantIndex].getIndexOfGenePointer(geneIndex);
-
-		if (geneIndexInVariant < 0) {
-			throw new BinaryInteractionFileException("Cannot find variant gene combination for: " + variantName + "-" + geneName);
-		}
-
-		int variantGeneIndex = cummulativeGeneCountUpToVariant[variantIndex] + geneIndexInVariant;
+		int variantGeneIndex = getVariantGeneIndex(variantName, geneName);
 		
 		BinaryInteractionQtlZscores qtlZscore;
 		if(isNormalQtlStored()){
@@ -862,30 +900,194 @@ public class BinaryInteractionFile implements Closeable {
 		
 	}
 
+	/**
+	 * @param variantName
+	 * @param geneName
+	 * @return pointers to the covariates of this variant-gene combination in
+	 * the order of {@link #readVariantGeneInteractionZscores}
+	 * @throws BinaryInteractionFileException
+	 */
+	public int[] getVariantGeneCovariates(String variantName, String geneName) throws BinaryInteractionFileException {
+
+		int variantGeneIndex = getVariantGeneIndex(variantName, geneName);
+
+		if (allCovariants) {
+			int[] covariatePointers = new int[covariates.length];
+			for (int i = 0; i < covariatePointers.length; ++i) {
+				covariatePointers[i] = i;
+			}
+			return covariatePointers;
+		} else {
+			return covariatesTested[variantGeneIndex].clone();
+		}
+
+	}
+
+	/**
+	 * Reads only the interaction z-scores of all covariates tested for a
+	 * variant-gene combination.
+	 *
+	 * @param variantName
+	 * @param geneName
+	 * @param cohortIndex index of the cohort or META_ANALYSIS_INDEX
+	 * @return interaction z-scores in order of
+	 * {@link #getVariantGeneCovariates}
+	 * @throws BinaryInteractionFileException
+	 * @throws IOException
+	 */
+	public double[] readVariantGeneInteractionZscores(String variantName, String geneName, int cohortIndex) throws BinaryInteractionFileException, IOException {
+
+		final int variantGeneIndex = getVariantGeneIndex(variantName, geneName);
+		final int zscoreOffset = getInteractionZscoreOffset(cohortIndex);
+
+		final long firstInteraction = cummalitiveInteractionCountUptoVariantGene[variantGeneIndex];
+		final double[] zscores = new double[(int) (cummalitiveInteractionCountUptoVariantGene[variantGeneIndex + 1] - firstInteraction)];
+
+		for (int i = 0; i < zscores.length; ++i) {
+			long interactionPointer = startInteractionBlock + ((firstInteraction + i) * sizeInteractionBlock);
+			if (mappedInteractions != null) {
+				zscores[i] = mappedInteractions.getDouble(interactionPointer + zscoreOffset);
+			} else {
+				setInteactionBuffer(interactionPointer, false);
+				zscores[i] = interactionBuffer.getDouble(interactionBuffer.position() + zscoreOffset);
+			}
+		}
+
+		return zscores;
+
+	}
+
+	/**
+	 * Scans the interaction z-scores of all interactions in parallel. Only the
+	 * z-score is read from the file, interactions not passing the threshold
+	 * are skipped without creating any objects. Only possible on a file
+	 * opened in read only mode.
+	 *
+	 * @param cohortIndex index of the cohort or META_ANALYSIS_INDEX
+	 * @param minAbsZscore minimum absolute interaction z-score, NaN z-scores
+	 * are never included
+	 * @return the interactions passing the threshold in the order of the file
+	 * @throws BinaryInteractionFileException
+	 */
+	public BinaryInteractionScanResult scanInteractionZscores(final int cohortIndex, final double minAbsZscore) throws BinaryInteractionFileException {
+
+		final BinaryInteractionMappedSection mappedInteractions = this.mappedInteractions;
+		if (mappedInteractions == null) {
+			throw new BinaryInteractionFileException("Interaction file must be opened in read only mode to scan interactions");
+		}
+
+		final int zscoreOffset = getInteractionZscoreOffset(cohortIndex);
+
+		final int blockCount = (variants.length + SCAN_VARIANT_BLOCK_SIZE - 1) / SCAN_VARIANT_BLOCK_SIZE;
+		final BinaryInteractionScanResult[] blockResults = new BinaryInteractionScanResult[blockCount];
+
+		IntStream.range(0, blockCount).parallel().forEach(block -> {
+
+			final TIntArrayList variantPointers = new TIntArrayList();
+			final TIntArrayList genePointers = new TIntArrayList();
+			final TIntArrayList covariatePointers = new TIntArrayList();
+			final TDoubleArrayList zscores = new TDoubleArrayList();
+
+			final int lastVariant = Math.min(variants.length, (block + 1) * SCAN_VARIANT_BLOCK_SIZE);
+			for (int variantIndex = block * SCAN_VARIANT_BLOCK_SIZE; variantIndex < lastVariant; ++variantIndex) {
+
+				final int[] variantGenes = variants[variantIndex].getGenePointers();
+				for (int geneIndexInVariant = 0; geneIndexInVariant < variantGenes.length; ++geneIndexInVariant) {
+
+					final int variantGeneIndex = cummulativeGeneCountUpToVariant[variantIndex] + geneIndexInVariant;
+					final long firstInteraction = cummalitiveInteractionCountUptoVariantGene[variantGeneIndex];
+					final int interactionCount = (int) (cummalitiveInteractionCountUptoVariantGene[variantGeneIndex + 1] - firstInteraction);
+
+					for (int i = 0; i < interactionCount; ++i) {
+						final double zscore = mappedInteractions.getDouble(startInteractionBlock + ((firstInteraction + i) * sizeInteractionBlock) + zscoreOffset);
+						if (zscore >= minAbsZscore || zscore <= -minAbsZscore) {
+							variantPointers.add(variantIndex);
+							genePointers.add(variantGenes[geneIndexInVariant]);
+							covariatePointers.add(allCovariants ? i : covariatesTested[variantGeneIndex][i]);
+							zscores.add(zscore);
+						}
+					}
+
+				}
+
+			}
+
+			blockResults[block] = new BinaryInteractionScanResult(variantPointers.toArray(), genePointers.toArray(), covariatePointers.toArray(), zscores.toArray());
+
+		});
+
+		int total = 0;
+		for (BinaryInteractionScanResult blockResult : blockResults) {
+			total += blockResult.size();
+		}
+
+		final int[] variantPointers = new int[total];
+		final int[] genePointers = new int[total];
+		final int[] covariatePointers = new int[total];
+		final double[] zscores = new double[total];
+
+		int start = 0;
+		for (BinaryInteractionScanResult blockResult : blockResults) {
+			System.arraycopy(blockResult.getVariants(), 0, variantPointers, start, blockResult.size());
+			System.arraycopy(blockResult.getGenes(), 0, genePointers, start, blockResult.size());
+			System.arraycopy(blockResult.getCovariates(), 0, covariatePointers, start, blockResult.size());
+			System.arraycopy(blockResult.getZscores(), 0, zscores, start, blockResult.size());
+			start += blockResult.size();
+		}
+
+		return new BinaryInteractionScanResult(variantPointers, genePointers, covariatePointers, zscores);
+
+	}
+
+	/**
+	 * @param cohortIndex index of the cohort or META_ANALYSIS_INDEX
+	 * @return offset of the interaction z-score in an interaction block
+	 * @throws BinaryInteractionFileException
+	 */
+	private int getInteractionZscoreOffset(int cohortIndex) throws BinaryInteractionFileException {
+		if (cohortIndex == META_ANALYSIS_INDEX) {
+			if (!metaAnalysis) {
+				throw new BinaryInteractionFileException("This file does not store meta analysis results");
+			}
+			return (cohorts.length * 36) + (flippedZscoreStored ? cohorts.length * 8 : 0) + 16;
+		} else if (cohortIndex >= 0 && cohortIndex < cohorts.length) {
+			// Skip sample counts, variant z-scores and covariate z-scores
+			return (cohorts.length * 20) + (cohortIndex * 8);
+		} else {
+			throw new BinaryInteractionFileException("Cohort index out of range: " + cohortIndex);
+		}
+	}
+
 	protected BinaryInteractionZscores readInteractionResults(long interactionPointer) throws BinaryInteractionFileException, IOException {
 
-		setInteactionBuffer(interactionPointer, false);
+		final ByteBuffer buffer;
+		if (mappedInteractions != null) {
+			buffer = mappedInteractions.getBlock(interactionPointer);
+		} else {
+			setInteactionBuffer(interactionPointer, false);
+			buffer = interactionBuffer;
+		}
 
-		++interactionZscoresRead;
+		interactionZscoresRead.incrementAndGet();
 
-		final int[] samplesInteractionCohort = readIntArrayFromInteractionBuffer(cohorts.length);
-		final double[] zscoreSnpCohort = readDoubleArrayFromInteractionBuffer(cohorts.length);
-		final double[] zscoreCovariateCohort = readDoubleArrayFromInteractionBuffer(cohorts.length);
-		final double[] zscoreInteractionCohort = readDoubleArrayFromInteractionBuffer(cohorts.length);
-		final double[] rSquaredCohort = readDoubleArrayFromInteractionBuffer(cohorts.length);
+		final int[] samplesInteractionCohort = readIntArray(buffer, cohorts.length);
+		final double[] zscoreSnpCohort = readDoubleArray(buffer, cohorts.length);
+		final double[] zscoreCovariateCohort = readDoubleArray(buffer, cohorts.length);
+		final double[] zscoreInteractionCohort = readDoubleArray(buffer, cohorts.length);
+		final double[] rSquaredCohort = readDoubleArray(buffer, cohorts.length);
 		final double[] zscoreInteractionFlippedCohort;
 		if (flippedZscoreStored) {
-			zscoreInteractionFlippedCohort = readDoubleArrayFromInteractionBuffer(cohorts.length);
+			zscoreInteractionFlippedCohort = readDoubleArray(buffer, cohorts.length);
 		} else {
 			zscoreInteractionFlippedCohort = new double[cohorts.length];
 			Arrays.fill(zscoreInteractionFlippedCohort, Double.NaN);
 		}
 		if (metaAnalysis) {
-			final double zscoreSnpMeta = interactionBuffer.getDouble();
-			final double zscoreCovariateMeta = interactionBuffer.getDouble();
-			final double zscoreInteractionMeta = interactionBuffer.getDouble();
+			final double zscoreSnpMeta = buffer.getDouble();
+			final double zscoreCovariateMeta = buffer.getDouble();
+			final double zscoreInteractionMeta = buffer.getDouble();
 			if (flippedZscoreStored) {
-				final double zscoreInteractionFlippedMeta = interactionBuffer.getDouble();
+				final double zscoreInteractionFlippedMeta = buffer.getDouble();
 				return new BinaryInteractionZscores(samplesInteractionCohort, zscoreSnpCohort, zscoreCovariateCohort, zscoreInteractionCohort, rSquaredCohort, zscoreInteractionFlippedCohort, zscoreSnpMeta, zscoreCovariateMeta, zscoreInteractionMeta, zscoreInteractionFlippedMeta);
 			} else {
 				return new BinaryInteractionZscores(samplesInteractionCohort, zscoreSnpCohort, zscoreCovariateCohort, zscoreInteractionCohort, rSquaredCohort, zscoreSnpMeta, zscoreCovariateMeta, zscoreInteractionMeta);
@@ -996,24 +1198,24 @@ public class BinaryInteractionFile implements Closeable {
 
 	}
 
-	private double[] readDoubleArrayFromInteractionBuffer(int length) {
+	private static double[] readDoubleArray(ByteBuffer buffer, int length) {
 		if (length == 0) {
 			return BinaryInteractionZscores.emptyDoubleArray;
 		}
 		double[] array = new double[length];
 		for (int i = 0; i < length; ++i) {
-			array[i] = interactionBuffer.getDouble();
+			array[i] = buffer.getDouble();
 		}
 		return array;
 	}
 
-	private int[] readIntArrayFromInteractionBuffer(int length) {
+	private static int[] readIntArray(ByteBuffer buffer, int length) {
 		if (length == 0) {
 			return BinaryInteractionZscores.emptyIntArray;
 		}
 		int[] array = new int[length];
 		for (int i = 0; i < length; ++i) {
-			array[i] = interactionBuffer.getInt();
+			array[i] = buffer.getInt();
 		}
 		return array;
 	}
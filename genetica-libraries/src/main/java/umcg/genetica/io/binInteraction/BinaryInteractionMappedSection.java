@@ -0,0 +1,74 @@
+package umcg.genetica.io.binInteraction;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read only memory mapping of a section of fixed size blocks in an
+ * interaction file. The section is mapped in chunks of whole blocks because a
+ * single mapping is limited to 2GB. All reads use absolute positions so a
+ * section can be read by multiple threads at the same time.
+ */
+class BinaryInteractionMappedSection {
+
+	private final long start;
+	private final long chunkSize;
+	private final ByteBuffer[] chunks;
+
+	/**
+	 * @param channel
+	 * @param start position of the first block in the file
+	 * @param blockSize
+	 * @param blockCount
+	 * @throws IOException
+	 */
+	BinaryInteractionMappedSection(FileChannel channel, long start, long blockSize, long blockCount) throws IOException {
+		this.start = start;
+
+		if (blockSize <= 0 || blockCount <= 0) {
+			chunkSize = 1;
+			chunks = new ByteBuffer[0];
+			return;
+		}
+
+		long blocksPerChunk = Integer.MAX_VALUE / blockSize;
+		chunkSize = blocksPerChunk * blockSize;
+		chunks = new ByteBuffer[(int) ((blockCount + blocksPerChunk - 1) / blocksPerChunk)];
+
+		long sectionSize = blockSize * blockCount;
+		for (int i = 0; i < chunks.length; ++i) {
+			long chunkStart = i * chunkSize;
+			chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start + chunkStart, Math.min(chunkSize, sectionSize - chunkStart));
+		}
+	}
+
+	/**
+	 * @param position absolute position in the file
+	 */
+	double getDouble(long position) {
+		long relative = position - start;
+		return chunks[(int) (relative / chunkSize)].getDouble((int) (relative % chunkSize));
+	}
+
+	/**
+	 * @param position absolute position in the file
+	 */
+	int getInt(long position) {
+		long relative = position - start;
+		return chunks[(int) (relative / chunkSize)].getInt((int) (relative % chunkSize));
+	}
+
+	/**
+	 * @param position absolute position in the file of the start of a block
+	 * @return buffer positioned at the start of the block, only to be used by
+	 * the calling thread
+	 */
+	ByteBuffer getBlock(long position) {
+		long relative = position - start;
+		ByteBuffer block = chunks[(int) (relative / chunkSize)].duplicate();
+		block.position((int) (relative % chunkSize));
+		return block;
+	}
+
+}
@@ -0,0 +1,46 @@
+package umcg.genetica.io.binInteraction;
+
+/**
+ * Interaction z-scores found by
+ * {@link BinaryInteractionFile#scanInteractionZscores(int, double)}. The
+ * variants, genes and covariates are stored as pointers that can be used
+ * with {@link BinaryInteractionFile#getVariant(int)},
+ * {@link BinaryInteractionFile#getGene(int)} and
+ * {@link BinaryInteractionFile#getCovariates()}. Interactions are in the same
+ * order as in the file.
+ */
+public class BinaryInteractionScanResult {
+
+	private final int[] variants;
+	private final int[] genes;
+	private final int[] covariates;
+	private final double[] zscores;
+
+	BinaryInteractionScanResult(int[] variants, int[] genes, int[] covariates, double[] zscores) {
+		this.variants = variants;
+		this.genes = genes;
+		this.covariates = covariates;
+		this.zscores = zscores;
+	}
+
+	public int size() {
+		return zscores.length;
+	}
+
+	public int[] getVariants() {
+		return variants;
+	}
+
+	public int[] getGenes() {
+		return genes;
+	}
+
+	public int[] getCovariates() {
+		return covariates;
+	}
+
+	public double[] getZscores() {
+		return zscores;
+	}
+
+}
@@ -4,7 +4,6 @@
  */
 package umcg.genetica.io.trityper;
 
-import umcg.genetica.math.stats.Descriptives;
 import umcg.genetica.math.stats.HWE;
 
 /**
@@ -308,13 +307,21 @@ public class SNP {
 	public void setDosage(byte[] dosageValues) {
 		this.dosage = dosageValues;
 		
-		double[] dosages = getDosageValues();
-		DOSAGEMAF = Descriptives.mean(dosages) / 2;
+		// mean dosage, without creating the array of getDosageValues()
+		double sum = 0;
+		for (int i = 0; i < dosageValues.length; i++) {
+			sum += ((double) (-Byte.MIN_VALUE + dosageValues[i])) / 100;
+		}
+		DOSAGEMAF = (sum / (double) dosageValues.length) / 2;
 		if (DOSAGEMAF > 0.5) {
 			DOSAGEMAF = 1 - DOSAGEMAF;
 		}
 	}
 	
+	public byte[] getDosage() {
+		return dosage;
+	}
+	
 	public double[] getDosageValues() {
 		if (dosage != null) {
 			double[] dosagevalues = new double[dosage.length];
@@ -375,6 +382,44 @@ public class SNP {
 		return gtypes;
 	}
 	
+	/**
+	 * Single pass equivalent of selectGenotypes(phenotypeToGenotypeId, false,
+	 * true) and selectGenotypes(phenotypeToGenotypeId, false, false), writing
+	 * to caller supplied buffers so these can be reused between SNPs.
+	 *
+	 * @param phenotypeToGenotypeId genotype id per phenotype sample (-1 if
+	 * the sample has no genotype data)
+	 * @param dosages output: the dosages (or genotypes if there are no
+	 * dosages) of the samples with a genotype, in phenotype sample order
+	 * @param genotypes output: the genotypes of the same samples, may be null
+	 * @param includeSample output: per phenotype sample whether it has a
+	 * genotype, may be null
+	 * @return the number of values written to dosages and genotypes
+	 */
+	public int selectGenotypes(int[] phenotypeToGenotypeId, double[] dosages, double[] genotypes, boolean[] includeSample) {
+		int q = 0;
+		for (int i = 0; i < phenotypeToGenotypeId.length; i++) {
+			int l_id = phenotypeToGenotypeId[i];
+			boolean include = l_id != -1 && this.genotypes[l_id] != -1;
+			if (include) {
+				byte genotype = this.genotypes[l_id];
+				if (dosage != null) {
+					dosages[q] = ((double) (-Byte.MIN_VALUE + dosage[l_id])) / 100;
+				} else {
+					dosages[q] = genotype;
+				}
+				if (genotypes != null) {
+					genotypes[q] = genotype;
+				}
+				q++;
+			}
+			if (includeSample != null) {
+				includeSample[i] = include;
+			}
+		}
+		return q;
+	}
+	
 	public byte[] getAlleles() {
 		return alleles;
 	}
@@ -596,7 +596,41 @@ public class TriTyperExpressionData {
 		
 		return true;
 	}
-	
+
+	/**
+	 * Creates expression data for the same probes and individuals, but with
+	 * another matrix. The probe annotation is shared with this object. The
+	 * means and variances are calculated for the new matrix, like after
+	 * loading.
+	 *
+	 * @param newMatrix probes x individuals, in the order of this object
+	 * @return
+	 */
+	public TriTyperExpressionData copyWithMatrix(double[][] newMatrix) {
+		if (newMatrix.length != probes.length) {
+			throw new IllegalArgumentException("Matrix has " + newMatrix.length + " rows, expected " + probes.length + " probes");
+		}
+		TriTyperExpressionData copy = new TriTyperExpressionData();
+		copy.displayWarnings = displayWarnings;
+		copy.chrStart = chrStart;
+		copy.chrStop = chrStop;
+		copy.chr = chr;
+		copy.annotation = annotation;
+		copy.matrix = newMatrix;
+		copy.individuals = individuals;
+		copy.individualNameToId = individualNameToId;
+		copy.probes = probes;
+		copy.probeNameToId = probeNameToId;
+		copy.annotationToProbeId = annotationToProbeId;
+		copy.m_platform = m_platform;
+		copy.probeMean = new double[probes.length];
+		copy.probeOriginalMean = new double[probes.length];
+		copy.probeVariance = new double[probes.length];
+		copy.probeOriginalVariance = new double[probes.length];
+		copy.setVarianceAndMean();
+		return copy;
+	}
+
 	/**
 	 * @return the chrStart
 	 */
@@ -135,6 +135,33 @@ public final class TriTyperGeneticalGenomicsDataset implements Comparable<TriTyp
 		this(triTyperGeneticalGenomicsDatasetSettings, pathwayDefinitions, true);
 	}
 
+	private TriTyperGeneticalGenomicsDataset() {
+	}
+
+	/**
+	 * Creates a dataset that shares the genotypes, settings, sample couplings
+	 * and covariates of this dataset, but has other expression data. The
+	 * expression data must have the same probes and individuals as the
+	 * expression data of this dataset. Sample label permutations of this
+	 * dataset are not reflected in the copy.
+	 *
+	 * @param otherExpressionData
+	 * @return
+	 */
+	public TriTyperGeneticalGenomicsDataset copyWithExpressionData(TriTyperExpressionData otherExpressionData) {
+		TriTyperGeneticalGenomicsDataset copy = new TriTyperGeneticalGenomicsDataset();
+		copy.settings = settings;
+		copy.genotypeData = genotypeData;
+		copy.expressionData = otherExpressionData;
+		copy.genotypeToExpressionCouplings = genotypeToExpressionCouplings;
+		copy.expressionToGenotypeIdArray = expressionToGenotypeIdArray;
+		copy.genotypeToExpressionIdArray = genotypeToExpressionIdArray;
+		copy.totalGGSamples = totalGGSamples;
+		copy.expressionDataLoadedCorrectly = expressionDataLoadedCorrectly;
+		copy.covariates = covariates;
+		return copy;
+	}
+
 	/**
 	 * @return the genotypeData
 	 */
@@ -0,0 +1,345 @@
+package umcg.genetica.math;
+
+import cern.colt.matrix.tdouble.DoubleMatrix1D;
+import cern.colt.matrix.tdouble.DoubleMatrix2D;
+import cern.colt.matrix.tdouble.algo.decomposition.DenseDoubleEigenvalueDecomposition;
+import cern.colt.matrix.tdouble.impl.DenseDoubleMatrix2D;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * PCA over the correlation matrix of the columns of a matrix that only
+ * calculates the top components. Uses randomized subspace iteration: the
+ * correlation matrix is never created, each iteration streams over the data
+ * twice to multiply the subspace with the correlation matrix (Z' * (Z * Q)
+ * with Z the standardized data). The eigenvalues and vectors are the Ritz
+ * values and vectors of the subspace. Eigenvalues converge much faster than
+ * eigenvectors, so iterations stop when the eigenvalues of all requested
+ * components are stable and the residual ||C * v - lambda * v|| of each
+ * eigenvector is small relative to the largest eigenvalue.
+ *
+ * Gives the same components as an eigenvalue decomposition of the
+ * correlation matrix, up to the sign of the eigenvectors and the
+ * convergence tolerance.
+ */
+public class RandomizedPCA {
+
+	private static final int DEFAULT_MAX_ITERATIONS = 100;
+	private static final double DEFAULT_TOLERANCE = 1e-10;
+	private static final double DEFAULT_RESIDUAL_TOLERANCE = 1e-8;
+	private static final long DEFAULT_SEED = 1;
+	/**
+	 * Number of columns processed together when multiplying with the
+	 * transposed data
+	 */
+	private static final int COLUMN_BLOCK_SIZE = 256;
+
+	private final int nrComponents;
+	private final int maxIterations;
+	private final double tolerance;
+	private final double residualTolerance;
+	private final long seed;
+
+	private double[] eigenvalues;
+	private double[][] eigenvectors;
+	private double sumEigenvalues;
+	private int iterations;
+
+	/**
+	 * @param nrComponents number of top components to calculate
+	 */
+	public RandomizedPCA(int nrComponents) {
+		this(nrComponents, DEFAULT_MAX_ITERATIONS, DEFAULT_TOLERANCE, DEFAULT_RESIDUAL_TOLERANCE, DEFAULT_SEED);
+	}
+
+	/**
+	 * @param nrComponents number of top components to calculate
+	 * @param maxIterations maximum number of subspace iterations
+	 * @param tolerance maximum relative change of the eigenvalues between two
+	 * iterations to stop
+	 * @param residualTolerance maximum residual ||C * v - lambda * v|| of the
+	 * eigenvectors, relative to the largest eigenvalue, to stop
+	 * @param seed seed for the random start of the subspace
+	 */
+	public RandomizedPCA(int nrComponents, int maxIterations, double tolerance, double residualTolerance, long seed) {
+		if (nrComponents < 1) {
+			throw new IllegalArgumentException("Number of components should be at least 1");
+		}
+		this.nrComponents = nrComponents;
+		this.maxIterations = maxIterations;
+		this.tolerance = tolerance;
+		this.residualTolerance = residualTolerance;
+		this.seed = seed;
+	}
+
+	/**
+	 * @param data rows are the variables (probes), PCA is done over the
+	 * correlation matrix of the columns (samples)
+	 * @return false if the eigenvalues or eigenvectors were not yet
+	 * converged after the maximum number of iterations, the components are
+	 * then those of the last iteration
+	 */
+	public boolean decompose(DoubleMatrix2D data) {
+
+		final int nrRows = data.rows();
+		final int nrCols = data.columns();
+		final int k = Math.min(nrComponents, nrCols);
+		final int l = Math.min(nrCols, k + Math.max(10, k / 2));
+
+		// Column mean and the scale to make the sum of squares of the centered column 1
+		final double[] mean = new double[nrCols];
+		final double[] scale = new double[nrCols];
+		IntStream.range(0, nrCols).parallel().forEach(c -> {
+			double sum = 0;
+			for (int r = 0; r < nrRows; r++) {
+				sum += data.getQuick(r, c);
+			}
+			double m = sum / nrRows;
+			double ss = 0;
+			for (int r = 0; r < nrRows; r++) {
+				double v = data.getQuick(r, c) - m;
+				ss += v * v;
+			}
+			if (Double.isNaN(ss)) {
+				throw new IllegalArgumentException("Randomized PCA does not support missing values, found in column " + c);
+			}
+			mean[c] = m;
+			scale[c] = ss == 0 ? 0 : 1 / Math.sqrt(ss);
+		});
+
+		// The trace of the correlation matrix, columns without variance do not contribute
+		sumEigenvalues = 0;
+		for (int c = 0; c < nrCols; c++) {
+			if (scale[c] != 0) {
+				sumEigenvalues++;
+			}
+		}
+
+		Random random = new Random(seed);
+		double[][] q = new double[l][nrCols];
+		for (int j = 0; j < l; j++) {
+			for (int c = 0; c < nrCols; c++) {
+				q[j][c] = random.nextGaussian();
+			}
+		}
+		orthonormalize(q, random);
+
+		double[] previousEigenvalues = null;
+		for (iterations = 1;; ++iterations) {
+
+			double[][] w = multiplyCorrelation(data, mean, scale, q);
+
+			// Rayleigh-Ritz: eigen decomposition of Q' * C * Q
+			DenseDoubleMatrix2D b = new DenseDoubleMatrix2D(l, l);
+			for (int i = 0; i < l; i++) {
+				for (int j = i; j < l; j++) {
+					double v = (dot(q[i], w[j]) + dot(q[j], w[i])) / 2;
+					b.setQuick(i, j, v);
+					b.setQuick(j, i, v);
+				}
+			}
+			DenseDoubleEigenvalueDecomposition eig = new DenseDoubleEigenvalueDecomposition(b);
+			DoubleMatrix1D ritzValues = eig.getRealEigenvalues();
+			DoubleMatrix2D ritzVectors = eig.getV();
+
+			// Ritz values are in ascending order
+			double[] currentEigenvalues = new double[k];
+			for (int i = 0; i < k; i++) {
+				currentEigenvalues[i] = ritzValues.getQuick(l - 1 - i);
+			}
+
+			// Ritz vectors V = Q * U, with C * V = W * U for the residuals
+			double[][] currentEigenvectors = new double[k][nrCols];
+			double maxResidual = 0;
+			for (int i = 0; i < k; i++) {
+				double[] eigenvector = currentEigenvectors[i];
+				double[] multiplied = new double[nrCols];
+				for (int j = 0; j < l; j++) {
+					double u = ritzVectors.getQuick(j, l - 1 - i);
+					double[] qj = q[j];
+					double[] wj = w[j];
+					for (int c = 0; c < nrCols; c++) {
+						eigenvector[c] += u * qj[c];
+						multiplied[c] += u * wj[c];
+					}
+				}
+				double residual = 0;
+				for (int c = 0; c < nrCols; c++) {
+					double r = multiplied[c] - currentEigenvalues[i] * eigenvector[c];
+					residual += r * r;
+				}
+				maxResidual = Math.max(maxResidual, Math.sqrt(residual));
+			}
+
+			boolean converged = converged(previousEigenvalues, currentEigenvalues)
+					&& maxResidual <= residualTolerance * Math.abs(currentEigenvalues[0]);
+			if (converged || iterations >= maxIterations) {
+				eigenvalues = currentEigenvalues;
+				eigenvectors = currentEigenvectors;
+				return converged;
+			}
+
+			previousEigenvalues = currentEigenvalues;
+			orthonormalize(w, random);
+			q = w;
+
+		}
+
+	}
+
+	/**
+	 * @return eigenvalues of the calculated components in descending order
+	 */
+	public double[] getRealEigenValues() {
+		if (eigenvalues == null) {
+			throw new RuntimeException("Eigenvalues requested but no decomposition performed");
+		}
+		return eigenvalues;
+	}
+
+	public double[] getEigenVector(int pca) {
+		if (eigenvectors == null) {
+			throw new RuntimeException("Eigenvector requested but no decomposition performed");
+		}
+		return eigenvectors[pca];
+	}
+
+	/**
+	 * @param pca
+	 * @return proportion of the total variance explained by this component
+	 */
+	public double getEigenValueVar(int pca) {
+		if (eigenvalues == null) {
+			throw new RuntimeException("Eigenvalue variance requested but no decomposition performed");
+		}
+		return eigenvalues[pca] / sumEigenvalues;
+	}
+
+	/**
+	 * @return number of subspace iterations used for the last decomposition
+	 */
+	public int getIterations() {
+		return iterations;
+	}
+
+	private boolean converged(double[] previousEigenvalues, double[] currentEigenvalues) {
+		if (previousEigenvalues == null) {
+			return false;
+		}
+		for (int i = 0; i < currentEigenvalues.length; i++) {
+			if (Math.abs(currentEigenvalues[i] - previousEigenvalues[i]) > tolerance * Math.abs(currentEigenvalues[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Multiplies the vectors with the correlation matrix of the columns,
+	 * without creating the correlation matrix.
+	 *
+	 * @param q vectors of length nrCols
+	 * @return the multiplied vectors
+	 */
+	private static double[][] multiplyCorrelation(DoubleMatrix2D data, double[] mean, double[] scale, double[][] q) {
+
+		final int nrRows = data.rows();
+		final int nrCols = data.columns();
+		final int l = q.length;
+
+		// [column][vector], with the scale of the column applied
+		final double[][] scaledQ = new double[nrCols][l];
+		for (int j = 0; j < l; j++) {
+			for (int c = 0; c < nrCols; c++) {
+				scaledQ[c][j] = q[j][c] * scale[c];
+			}
+		}
+
+		// Z * Q, one row at a time
+		final double[][] t = new double[nrRows][];
+		IntStream.range(0, nrRows).parallel().forEach(r -> {
+			double[] row = data.viewRow(r).toArray();
+			double[] tr = new double[l];
+			for (int c = 0; c < nrCols; c++) {
+				double v = row[c] - mean[c];
+				double[] sq = scaledQ[c];
+				for (int j = 0; j < l; j++) {
+					tr[j] += v * sq[j];
+				}
+			}
+			t[r] = tr;
+		});
+
+		// Z' * (Z * Q), each block of columns streams over all rows
+		final double[][] w = new double[l][nrCols];
+		int nrBlocks = (nrCols + COLUMN_BLOCK_SIZE - 1) / COLUMN_BLOCK_SIZE;
+		IntStream.range(0, nrBlocks).parallel().forEach(block -> {
+			int from = block * COLUMN_BLOCK_SIZE;
+			int to = Math.min(nrCols, from + COLUMN_BLOCK_SIZE);
+			double[][] wBlock = new double[to - from][l];
+			for (int r = 0; r < nrRows; r++) {
+				double[] tr = t[r];
+				for (int c = from; c < to; c++) {
+					double v = data.getQuick(r, c) - mean[c];
+					double[] wc = wBlock[c - from];
+					for (int j = 0; j < l; j++) {
+						wc[j] += v * tr[j];
+					}
+				}
+			}
+			for (int c = from; c < to; c++) {
+				for (int j = 0; j < l; j++) {
+					w[j][c] = wBlock[c - from][j] * scale[c];
+				}
+			}
+		});
+
+		return w;
+
+	}
+
+	/**
+	 * Gram-Schmidt with reorthogonalization. Vectors that are (nearly) linear
+	 * dependent on the previous vectors are replaced by random vectors.
+	 */
+	private static void orthonormalize(double[][] vectors, Random random) {
+		for (int i = 0; i < vectors.length; i++) {
+			double[] v = vectors[i];
+			double originalNorm = Math.sqrt(dot(v, v));
+			for (int attempt = 0;; attempt++) {
+				for (int pass = 0; pass < 2; pass++) {
+					for (int j = 0; j < i; j++) {
+						double projection = dot(vectors[j], v);
+						double[] u = vectors[j];
+						for (int c = 0; c < v.length; c++) {
+							v[c] -= projection * u[c];
+						}
+					}
+				}
+				double norm = Math.sqrt(dot(v, v));
+				if (norm > 1e-10 * originalNorm && norm > 0) {
+					for (int c = 0; c < v.length; c++) {
+						v[c] /= norm;
+					}
+					break;
+				}
+				if (attempt >= 10) {
+					throw new RuntimeException("Unable to create orthonormal basis for randomized PCA");
+				}
+				for (int c = 0; c < v.length; c++) {
+					v[c] = random.nextGaussian();
+				}
+				originalNorm = Math.sqrt(dot(v, v));
+			}
+		}
+	}
+
+	private static double dot(double[] a, double[] b) {
+		double sum = 0;
+		for (int i = 0; i < a.length; i++) {
+			sum += a[i] * b[i];
+		}
+		return sum;
+	}
+
+}
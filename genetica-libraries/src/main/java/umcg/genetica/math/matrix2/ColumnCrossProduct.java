@@ -0,0 +1,137 @@
+package umcg.genetica.math.matrix2;
+
+import cern.colt.matrix.tdouble.DoubleMatrix2D;
+import cern.colt.matrix.tdouble.impl.DenseDoubleMatrix2D;
+import java.util.stream.IntStream;
+
+/**
+ * Calculates X'X / (n - 1) for the columns of a matrix. The columns are first
+ * copied to contiguous arrays, the products are then calculated per tile of
+ * columns and block of rows so that the rows of both tiles stay in cache.
+ * Large matrices are processed in parallel, one tile pair per task.
+ *
+ * Each product is summed in row order, the results are identical to a plain
+ * loop over the rows.
+ */
+public class ColumnCrossProduct {
+
+	private static final int COLUMN_TILE_SIZE = 32;
+	private static final int ROW_BLOCK_SIZE = 512;
+	/**
+	 * Below this number of multiplications the serial path is used
+	 */
+	private static final long PARALLEL_THRESHOLD = 1 << 22;
+
+	private ColumnCrossProduct() {
+	}
+
+	/**
+	 * Only valid if all columns have mean 0 and sd 1. Does NOT check if
+	 * conditions valid. The diagonal is set to 1.
+	 *
+	 * @param matrix
+	 * @return correlation matrix of the columns
+	 */
+	public static DoubleMatrix2D correlationOnNormalizedColumns(DoubleMatrix2D matrix) {
+		return calculate(matrix, true);
+	}
+
+	/**
+	 * Only valid if all columns have mean 0. Does NOT check if conditions
+	 * valid.
+	 *
+	 * @param matrix
+	 * @return covariance matrix of the columns
+	 */
+	public static DoubleMatrix2D covarianceOnCenteredColumns(DoubleMatrix2D matrix) {
+		return calculate(matrix, false);
+	}
+
+	private static DoubleMatrix2D calculate(final DoubleMatrix2D matrix, final boolean unitDiagonal) {
+
+		final int rows = matrix.rows();
+		final int columns = matrix.columns();
+		final double rowsMin1 = (double) (rows - 1);
+		final DenseDoubleMatrix2D products = new DenseDoubleMatrix2D(columns, columns);
+
+		final boolean parallel = (long) rows * columns * columns / 2 >= PARALLEL_THRESHOLD;
+		final int nrTiles = (columns + COLUMN_TILE_SIZE - 1) / COLUMN_TILE_SIZE;
+
+		// [column][row]
+		final double[][] columnData = new double[columns][rows];
+		IntStream transposeTiles = IntStream.range(0, nrTiles);
+		(parallel ? transposeTiles.parallel() : transposeTiles).forEach(tile -> {
+			final int from = tile * COLUMN_TILE_SIZE;
+			final int to = Math.min(columns, from + COLUMN_TILE_SIZE);
+			for (int r = 0; r < rows; ++r) {
+				for (int c = from; c < to; ++c) {
+					columnData[c][r] = matrix.getQuick(r, c);
+				}
+			}
+		});
+
+		// Tile pairs (tileI, tileJ) with tileJ <= tileI, numbered row by row
+		final int nrTilePairs = nrTiles * (nrTiles + 1) / 2;
+		IntStream tilePairs = IntStream.range(0, nrTilePairs);
+		(parallel ? tilePairs.parallel() : tilePairs).forEach(tilePair -> {
+
+			int tileI = (int) ((Math.sqrt(8d * tilePair + 1) - 1) / 2);
+			// Correct for rounding of the square root
+			while (tileI * (tileI + 1) / 2 > tilePair) {
+				--tileI;
+			}
+			while ((tileI + 1) * (tileI + 2) / 2 <= tilePair) {
+				++tileI;
+			}
+			final int tileJ = tilePair - tileI * (tileI + 1) / 2;
+
+			final int fromI = tileI * COLUMN_TILE_SIZE;
+			final int toI = Math.min(columns, fromI + COLUMN_TILE_SIZE);
+			final int fromJ = tileJ * COLUMN_TILE_SIZE;
+			final int toJ = Math.min(columns, fromJ + COLUMN_TILE_SIZE);
+
+			final double[][] sums = new double[toI - fromI][toJ - fromJ];
+
+			for (int rowBlockStart = 0; rowBlockStart < rows; rowBlockStart += ROW_BLOCK_SIZE) {
+				final int rowBlockEnd = Math.min(rows, rowBlockStart + ROW_BLOCK_SIZE);
+				for (int i = fromI; i < toI; ++i) {
+					final double[] columnI = columnData[i];
+					final double[] sumsI = sums[i - fromI];
+					final int lastJ = tileI == tileJ ? i : toJ;
+					for (int j = fromJ; j < lastJ; ++j) {
+						final double[] columnJ = columnData[j];
+						double sumOfProducts = sumsI[j - fromJ];
+						for (int r = rowBlockStart; r < rowBlockEnd; ++r) {
+							sumOfProducts += columnI[r] * columnJ[r];
+						}
+						sumsI[j - fromJ] = sumOfProducts;
+					}
+					if (!unitDiagonal && tileI == tileJ) {
+						double sumOfSquares = sumsI[i - fromJ];
+						for (int r = rowBlockStart; r < rowBlockEnd; ++r) {
+							sumOfSquares += columnI[r] * columnI[r];
+						}
+						sumsI[i - fromJ] = sumOfSquares;
+					}
+				}
+			}
+
+			for (int i = fromI; i < toI; ++i) {
+				final int lastJ = tileI == tileJ ? i : toJ;
+				for (int j = fromJ; j < lastJ; ++j) {
+					double x = sums[i - fromI][j - fromJ] / rowsMin1;
+					products.setQuick(i, j, x);
+					products.setQuick(j, i, x); // symmetric
+				}
+				if (tileI == tileJ) {
+					products.setQuick(i, i, unitDiagonal ? 1 : sums[i - fromI][i - fromJ] / rowsMin1);
+				}
+			}
+
+		});
+
+		return products;
+
+	}
+
+}
@@ -336,13 +336,8 @@ public class DoubleMatrixDataset<R extends Comparable, C extends Comparable> {
 
 		final File fileBinary = new File(fileName + ".dat");
 		final RandomAccessFile in = new RandomAccessFile(fileBinary, "r");
-		final int nrRows;
-		final int nrCols;
-		byte[] bytes = new byte[4];
-		in.read(bytes, 0, 4);
-		nrRows = byteArrayToInt(bytes);
-		in.read(bytes, 0, 4);
-		nrCols = byteArrayToInt(bytes);
+		final int nrRows = in.readInt();
+		final int nrCols = in.readInt();
 
 		if (nrRows != originalRowMap.size()) {
 			throw new RuntimeException("Matrix at: " + fileName + " does not have expected number of rows");
@@ -366,7 +361,7 @@ public class DoubleMatrixDataset<R extends Comparable, C extends Comparable> {
 
 			in.seek(8 + (rowLength * rowInFullMatrix));
 
-			in.read(buffer, 0, nrCols * 8);
+			in.readFully(buffer, 0, nrCols * 8);
 			int bufferLoc = 0;
 			for (int col = 0; col < nrCols; col++) {
 				bits = (long) (buffer[bufferLoc++]) << 56
@@ -705,23 +700,35 @@ public class DoubleMatrixDataset<R extends Comparable, C extends Comparable> {
 	}
 
 	public static DoubleMatrixDataset<String, String> loadDoubleBinaryData(String fileName) throws FileNotFoundException, IOException {
-		//First load the raw binary data:
-		File fileBinary = new File(fileName + ".dat");
-		BufferedInputStream in;
-		int nrRows;
-		int nrCols;
-		in = new BufferedInputStream(new FileInputStream(fileBinary));
-		byte[] bytes = new byte[4];
-		in.read(bytes, 0, 4);
-		nrRows = byteArrayToInt(bytes);
-		in.read(bytes, 0, 4);
-		nrCols = byteArrayToInt(bytes);
 
-		DoubleMatrix2D matrix;
-		if ((nrRows * (long) nrCols) < (Integer.MAX_VALUE - 2)) {
-			matrix = new DenseDoubleMatrix2D(nrRows, nrCols);
-		} else {
-			matrix = new DenseLargeDoubleMatrix2D(nrRows, nrCols);
+		DoubleMatrixDataset<String, String> mappedDataset = loadDoubleBinaryDataMapped(fileName);
+
+		DoubleMatrixDataset<String, String> dataset = new DoubleMatrixDataset<String, String>(mappedDataset.getMatrix().copy(), mappedDataset.getHashRows(), mappedDataset.getHashCols());
+		//LOGGER.log(Level.INFO, "Binary file ''{0}'' has been loaded, nrRows: {1} nrCols: {2}", new Object[]{fileName, nrRows, nrCols});
+
+		return dataset;
+	}
+
+	/**
+	 * Memory maps the binary data instead of loading it on the heap. The
+	 * matrix of the returned dataset is read-only, functions that change the
+	 * matrix in place will throw an UnsupportedOperationException.
+	 *
+	 * @param fileName
+	 * @return dataset backed by a {@link MappedDoubleMatrix2D}
+	 * @throws FileNotFoundException
+	 * @throws IOException
+	 */
+	public static DoubleMatrixDataset<String, String> loadDoubleBinaryDataMapped(String fileName) throws FileNotFoundException, IOException {
+
+		final File fileBinary = new File(fileName + ".dat");
+		final int nrRows;
+		final int nrCols;
+		final DoubleMatrix2D matrix;
+		try (RandomAccessFile in = new RandomAccessFile(fileBinary, "r")) {
+			nrRows = in.readInt();
+			nrCols = in.readInt();
+			matrix = new MappedDoubleMatrix2D(in.getChannel(), 8, nrRows, nrCols);
 		}
 
 		//Now load the row and column identifiers from files
@@ -736,30 +743,7 @@ public class DoubleMatrixDataset<R extends Comparable, C extends Comparable> {
 			throw new RuntimeException("Matrix at: " + fileName + " does not have expected number of cols");
 		}
 
-		byte[] buffer = new byte[nrCols * 8];
-		long bits;
-		for (int row = 0; row < nrRows; row++) {
-			in.read(buffer, 0, nrCols * 8);
-			int bufferLoc = 0;
-			for (int col = 0; col < nrCols; col++) {
-				bits = (long) (buffer[bufferLoc++]) << 56
-						| (long) (0xff & buffer[bufferLoc++]) << 48
-						| (long) (0xff & buffer[bufferLoc++]) << 40
-						| (long) (0xff & buffer[bufferLoc++]) << 32
-						| (long) (0xff & buffer[bufferLoc++]) << 24
-						| (long) (0xff & buffer[bufferLoc++]) << 16
-						| (long) (0xff & buffer[bufferLoc++]) << 8
-						| (long) (0xff & buffer[bufferLoc++]);
-
-				matrix.setQuick(row, col, Double.longBitsToDouble(bits));
-			}
-		}
-		in.close();
-
-		DoubleMatrixDataset<String, String> dataset = new DoubleMatrixDataset<String, String>(matrix, rowMap, colMap);
-		//LOGGER.log(Level.INFO, "Binary file ''{0}'' has been loaded, nrRows: {1} nrCols: {2}", new Object[]{fileName, nrRows, nrCols});
-
-		return dataset;
+		return new DoubleMatrixDataset<String, String>(matrix, rowMap, colMap);
 	}
 
 	public void saveBinary(String path) throws IOException {
@@ -1548,37 +1532,7 @@ public class DoubleMatrixDataset<R extends Comparable, C extends Comparable> {
 	 */
 	public DoubleMatrixDataset<C, C> calculateCorrelationMatrixOnNormalizedColumns() {
 
-		final DoubleMatrix2D innerMatrix = getMatrix();
-		final int rows = innerMatrix.rows();
-		final int columns = innerMatrix.columns();
-		final double rowsMin1 = (double) (rows - 1);
-		final DoubleMatrix2D correlations = new cern.colt.matrix.tdouble.impl.DenseDoubleMatrix2D(columns, columns);
-
-//		DoubleMatrix1D[] cols = new DoubleMatrix1D[columns];
-//		for (int i = columns; --i >= 0;) {
-//			cols[i] = matrix.viewColumn(i);
-//		}
-		for (int i = columns; --i >= 0;) {
-			//DoubleMatrix1D col1 = cols[i];
-			for (int j = i + 1; --j >= 0;) {
-
-				if (i == j) {
-					correlations.setQuick(i, j, 1);
-				} else {
-
-//					DoubleMatrix1D col2 = cols[j];
-					double sumOfProducts = 0;
-					for (int r = 0; r < rows; ++r) {
-//						sumOfProducts += col1.getQuick(r) * col2.getQuick(r);
-						sumOfProducts += innerMatrix.getQuick(r, i) * innerMatrix.getQuick(r, j);
-					}
-
-					double x = sumOfProducts / rowsMin1;
-					correlations.setQuick(i, j, x);
-					correlations.setQuick(j, i, x); // symmetric
-				}
-			}
-		}
+		final DoubleMatrix2D correlations = ColumnCrossProduct.correlationOnNormalizedColumns(getMatrix());
 
 		return new DoubleMatrixDataset<>(correlations, hashCols, hashCols);
 
@@ -0,0 +1,127 @@
+package umcg.genetica.math.matrix2;
+
+import cern.colt.matrix.tdouble.DoubleMatrix1D;
+import cern.colt.matrix.tdouble.DoubleMatrix2D;
+import cern.colt.matrix.tdouble.impl.DenseDoubleMatrix1D;
+import cern.colt.matrix.tdouble.impl.DenseDoubleMatrix2D;
+import cern.colt.matrix.tdouble.impl.DenseLargeDoubleMatrix2D;
+import cern.colt.matrix.tdouble.impl.WrapperDoubleMatrix2D;
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only matrix backed by a memory mapped binary matrix file (the .dat
+ * file of {@link DoubleMatrixDataset#saveBinary(java.lang.String)}). The
+ * values are not copied to the heap, the OS pages them in when they are
+ * used. A single mapping is limited to 2GB so the rows are mapped in chunks.
+ *
+ * Use {@link #copy()} to get a modifiable matrix in memory.
+ */
+public class MappedDoubleMatrix2D extends WrapperDoubleMatrix2D {
+
+	private static final long serialVersionUID = 1L;
+	private static final int MAX_DOUBLES_PER_CHUNK = Integer.MAX_VALUE / 8;
+
+	private final transient DoubleBuffer[] chunks;
+	private final int rowsPerChunk;
+
+	/**
+	 * Maps the data of a binary matrix file. The mapping stays valid after
+	 * closing the channel.
+	 *
+	 * @param channel channel of the .dat file
+	 * @param dataStart position of the first value in the file
+	 * @param rows
+	 * @param columns
+	 * @throws IOException if the file is too small to contain the matrix
+	 */
+	public MappedDoubleMatrix2D(FileChannel channel, long dataStart, int rows, int columns) throws IOException {
+		super(null);
+		try {
+			setUp(rows, columns);
+		} catch (IllegalArgumentException exc) { // we can hold rows*columns>Integer.MAX_VALUE cells !
+			if (!"matrix too large".equals(exc.getMessage())) {
+				throw exc;
+			}
+		}
+		this.content = this;
+
+		final long expectedSize = dataStart + 8l * rows * columns;
+		if (channel.size() < expectedSize) {
+			throw new IOException("Binary matrix is truncated, expected " + expectedSize + " bytes but found " + channel.size());
+		}
+
+		rowsPerChunk = columns == 0 ? Math.max(1, rows) : Math.max(1, MAX_DOUBLES_PER_CHUNK / columns);
+		chunks = new DoubleBuffer[(int) ((rows + (long) rowsPerChunk - 1) / rowsPerChunk)];
+
+		final long rowLength = 8l * columns;
+		for (int chunk = 0; chunk < chunks.length; ++chunk) {
+			int chunkRows = Math.min(rowsPerChunk, rows - chunk * rowsPerChunk);
+			// Binary matrix is big endian, the default byte order of a mapped buffer
+			chunks[chunk] = channel.map(FileChannel.MapMode.READ_ONLY, dataStart + rowLength * chunk * rowsPerChunk, rowLength * chunkRows).asDoubleBuffer();
+		}
+	}
+
+	@Override
+	public double getQuick(int row, int column) {
+		return chunks[row / rowsPerChunk].get((row % rowsPerChunk) * columns + column);
+	}
+
+	@Override
+	public void setQuick(int row, int column, double value) {
+		throw new UnsupportedOperationException("Memory mapped matrix is read-only, use copy() to get a modifiable matrix");
+	}
+
+	/**
+	 * Bulk copy of the mapped data to a dense matrix on the heap
+	 *
+	 * @return modifiable copy of this matrix
+	 */
+	@Override
+	public DoubleMatrix2D copy() {
+		DoubleMatrix2D copy = like(rows, columns);
+		if (copy instanceof DenseDoubleMatrix2D) {
+			double[] elements = ((DenseDoubleMatrix2D) copy).elements();
+			for (int chunk = 0; chunk < chunks.length; ++chunk) {
+				DoubleBuffer chunkData = chunks[chunk].duplicate();
+				chunkData.get(elements, chunk * rowsPerChunk * columns, chunkData.remaining());
+			}
+		} else {
+			double[][] elements = ((DenseLargeDoubleMatrix2D) copy).elements();
+			for (int chunk = 0; chunk < chunks.length; ++chunk) {
+				DoubleBuffer chunkData = chunks[chunk].duplicate();
+				int lastRow = Math.min(rows, (chunk + 1) * rowsPerChunk);
+				for (int row = chunk * rowsPerChunk; row < lastRow; ++row) {
+					chunkData.get(elements[row]);
+				}
+			}
+		}
+		return copy;
+	}
+
+	@Override
+	public Object elements() {
+		return chunks;
+	}
+
+	@Override
+	protected DoubleMatrix2D getContent() {
+		return this;
+	}
+
+	@Override
+	public DoubleMatrix2D like(int rows, int columns) {
+		if ((rows * (long) columns) < (Integer.MAX_VALUE - 2)) {
+			return new DenseDoubleMatrix2D(rows, columns);
+		} else {
+			return new DenseLargeDoubleMatrix2D(rows, columns);
+		}
+	}
+
+	@Override
+	public DoubleMatrix1D like1D(int size) {
+		return new DenseDoubleMatrix1D(size);
+	}
+
+}
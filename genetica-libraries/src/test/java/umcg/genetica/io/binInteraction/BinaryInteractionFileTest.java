@@ -9,8 +9,13 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import org.molgenis.genotype.Allele;
 import org.testng.annotations.Test;
 import umcg.genetica.io.binInteraction.gene.BinaryInteractionGeneCreator;
@@ -588,6 +593,8 @@ public class BinaryInteractionFileTest {
 		assertEqualsInteractionZscores(createdInteractions.readInteractionResults("Var1", "Gene2", "Age"), interactionZscores3);
 		assertEqualsInteractionZscores(createdInteractions.readInteractionResults("Var1", "Gene1", "CellCount"), interactionZscores1);
 		
+		assertEqualsDoubleArray(createdInteractions.readVariantGeneInteractionZscores("Var1", "Gene1", 1), new double[]{2000d, 2001d}, 0);
+		
 		createdInteractions.finalizeWriting();
 		
 		
@@ -748,11 +755,198 @@ public class BinaryInteractionFileTest {
 		
 		assertFalse(iterator.hasNext());
 		
+		assertEqualsIntArray(loadedInteractions.getVariantGeneCovariates("Var1", "Gene1"), new int[]{0, 1});
+		assertEqualsIntArray(loadedInteractions.getVariantGeneCovariates("Var1", "Gene2"), new int[]{1});
+		assertEqualsDoubleArray(loadedInteractions.readVariantGeneInteractionZscores("Var1", "Gene1", 0), new double[]{5d, 6d}, 0);
+		assertEqualsDoubleArray(loadedInteractions.readVariantGeneInteractionZscores("Var2", "Gene1", 1), new double[]{Double.POSITIVE_INFINITY}, 0);
+		
+		BinaryInteractionScanResult scanResult = loadedInteractions.scanInteractionZscores(1, 2000.5);
+		assertEqualsIntArray(scanResult.getVariants(), new int[]{0, 0, 1});
+		assertEqualsIntArray(scanResult.getGenes(), new int[]{0, 1, 0});
+		assertEqualsIntArray(scanResult.getCovariates(), new int[]{1, 1, 0});
+		assertEqualsDoubleArray(scanResult.getZscores(), new double[]{2001d, 2002d, Double.POSITIVE_INFINITY}, 0);
+		
+		scanResult = loadedInteractions.scanInteractionZscores(0, 5.5);
+		assertEquals(scanResult.size(), 2);
+		assertEqualsDoubleArray(scanResult.getZscores(), new double[]{6d, 8d}, 0);
+		
 		createdInteractions.close();
 		loadedInteractions.close();
 
 	}
 
+	/**
+	 * Compares the interaction z-scores read from the interaction section, per
+	 * variant-gene and by the scan, with the z-scores of the complete records.
+	 * The meta analysis z-score is the last z-score of a record, after the
+	 * optional flipped z-scores, so both layouts are tested.
+	 */
+	@Test
+	public void testInteractionZscoresMetaAnalysis() throws BinaryInteractionFileException, FileNotFoundException, IOException {
+		assertInteractionZscoreReads(false);
+		assertInteractionZscoreReads(true);
+	}
+
+	private void assertInteractionZscoreReads(boolean flippedZscoreStored) throws BinaryInteractionFileException, FileNotFoundException, IOException {
+
+		File file = new File(tmpOutputFolder, "testIntMeta_" + flippedZscoreStored + ".bin");
+		Random random = new Random(flippedZscoreStored ? 2 : 1);
+
+		BinaryInteractionCohort[] cohorts = new BinaryInteractionCohort[3];
+		for (int c = 0; c < cohorts.length; ++c) {
+			cohorts[c] = new BinaryInteractionCohort("cohort" + c, 100 + c);
+		}
+		BinaryInteractionGeneCreator[] genes = new BinaryInteractionGeneCreator[4];
+		for (int g = 0; g < genes.length; ++g) {
+			genes[g] = new BinaryInteractionGeneCreator("Gene" + g, "Chr1", 1000 * g, 1000 * g + 500);
+		}
+		BinaryInteractionVariantCreator[] variants = new BinaryInteractionVariantCreator[7];
+		for (int v = 0; v < variants.length; ++v) {
+			variants[v] = new BinaryInteractionVariantCreator("Var" + v, "Chr1", 100 + 1000 * v, Allele.A, Allele.C);
+		}
+		String[] covariates = {"Cov0", "Cov1", "Cov2", "Cov3"};
+
+		BinaryInteractionFileCreator creator = new BinaryInteractionFileCreator(file, variants, genes, cohorts, covariates, false, true, true, flippedZscoreStored);
+
+		// every variant and gene is tested, each variant-gene with a subset of the covariates
+		List<String[]> testedCovariates = new ArrayList<String[]>();
+		List<String[]> variantGenes = new ArrayList<String[]>();
+		for (int v = 0; v < variants.length; ++v) {
+			for (int g = 0; g < genes.length; ++g) {
+				if (g == v % genes.length || random.nextInt(3) == 0) {
+					List<String> variantGeneCovariates = new ArrayList<String>();
+					int mask = 1 + random.nextInt((1 << covariates.length) - 1);
+					for (int c = 0; c < covariates.length; ++c) {
+						if ((mask & (1 << c)) != 0) {
+							variantGeneCovariates.add(covariates[c]);
+						}
+					}
+					String[] variantGene = {"Var" + v, "Gene" + g};
+					creator.addTestedVariantGene(variantGene[0], variantGene[1]);
+					variantGenes.add(variantGene);
+					testedCovariates.add(variantGeneCovariates.toArray(new String[0]));
+				}
+			}
+		}
+		for (int i = 0; i < variantGenes.size(); ++i) {
+			creator.addTestedInteraction(variantGenes.get(i)[0], variantGenes.get(i)[1], testedCovariates.get(i));
+		}
+		creator.setDescription("Test meta analysis z-scores");
+		BinaryInteractionFile createdInteractions = creator.create();
+
+		Map<String, BinaryInteractionZscores> expectedZscores = new HashMap<String, BinaryInteractionZscores>();
+		for (int i = 0; i < variantGenes.size(); ++i) {
+			String variantName = variantGenes.get(i)[0];
+			String geneName = variantGenes.get(i)[1];
+
+			createdInteractions.setQtlResults(variantName, geneName, new BinaryInteractionQtlZscores(randomZscores(random, cohorts.length), new int[]{90, 91, 92}, random.nextGaussian()));
+
+			for (String covariateName : testedCovariates.get(i)) {
+				int[] samples = {80, 81, 82};
+				double[] zscoreSnp = randomZscores(random, cohorts.length);
+				double[] zscoreCovariate = randomZscores(random, cohorts.length);
+				double[] zscoreInteraction = randomZscores(random, cohorts.length);
+				double[] rSquared = {random.nextDouble(), random.nextDouble(), random.nextDouble()};
+				BinaryInteractionZscores zscores;
+				if (flippedZscoreStored) {
+					zscores = new BinaryInteractionZscores(samples, zscoreSnp, zscoreCovariate, zscoreInteraction, rSquared, randomZscores(random, cohorts.length),
+							random.nextGaussian() * 2, random.nextGaussian() * 2, random.nextGaussian() * 2, random.nextGaussian() * 2);
+				} else {
+					zscores = new BinaryInteractionZscores(samples, zscoreSnp, zscoreCovariate, zscoreInteraction, rSquared,
+							random.nextGaussian() * 2, random.nextGaussian() * 2, random.nextGaussian() * 2);
+				}
+				createdInteractions.setInteractionResults(variantName, geneName, covariateName, zscores);
+				expectedZscores.put(variantName + "_" + geneName + "_" + covariateName, zscores);
+			}
+		}
+		createdInteractions.finalizeWriting();
+
+		BinaryInteractionFile loadedInteractions = BinaryInteractionFile.load(file);
+
+		for (BinaryInteractionFile interactions : new BinaryInteractionFile[]{createdInteractions, loadedInteractions}) {
+			assertTrue(interactions.isMetaAnalysis());
+			assertEquals(interactions.isFlippedZscoreStored(), flippedZscoreStored);
+			for (int cohortIndex = BinaryInteractionFile.META_ANALYSIS_INDEX; cohortIndex < cohorts.length; ++cohortIndex) {
+				assertInteractionZscoresEqualRecords(interactions, cohortIndex, 1.5, expectedZscores, interactions == loadedInteractions);
+			}
+		}
+
+		createdInteractions.close();
+		loadedInteractions.close();
+
+	}
+
+	private void assertInteractionZscoresEqualRecords(BinaryInteractionFile interactions, int cohortIndex, double minAbsZscore, Map<String, BinaryInteractionZscores> expectedZscores, boolean scan) throws BinaryInteractionFileException, IOException {
+
+		List<String> covariates = interactions.getCovariates();
+		List<Integer> expectedVariants = new ArrayList<Integer>();
+		List<Integer> expectedGenes = new ArrayList<Integer>();
+		List<Integer> expectedCovariates = new ArrayList<Integer>();
+		List<Double> expectedScanZscores = new ArrayList<Double>();
+
+		List<BinaryInteractionVariant> variants = interactions.getVariants();
+		for (int variantIndex = 0; variantIndex < variants.size(); ++variantIndex) {
+			String variantName = variants.get(variantIndex).getName();
+			for (int genePointer : variants.get(variantIndex).getGenePointers()) {
+				String geneName = interactions.getGene(genePointer).getName();
+				String message = variantName + " " + geneName + " cohort " + cohortIndex;
+
+				double[] zscores = interactions.readVariantGeneInteractionZscores(variantName, geneName, cohortIndex);
+				int[] covariatePointers = interactions.getVariantGeneCovariates(variantName, geneName);
+				assertEquals(zscores.length, covariatePointers.length, message);
+
+				int i = 0;
+				for (Iterator<BinaryInteractionQueryResult> iterator = interactions.readVariantGeneResults(variantName, geneName); iterator.hasNext(); ++i) {
+					BinaryInteractionQueryResult result = iterator.next();
+					assertEquals(result.getCovariateName(), covariates.get(covariatePointers[i]), message);
+
+					BinaryInteractionZscores recordZscores = result.getInteractionZscores();
+					BinaryInteractionZscores writtenZscores = expectedZscores.get(variantName + "_" + geneName + "_" + result.getCovariateName());
+					double expected;
+					if (cohortIndex == BinaryInteractionFile.META_ANALYSIS_INDEX) {
+						expected = recordZscores.getZscoreInteractionMeta();
+						assertEquals(expected, writtenZscores.getZscoreInteractionMeta(), message);
+						assertEquals(recordZscores.getZscoreSnpMeta(), writtenZscores.getZscoreSnpMeta(), message);
+						assertEquals(recordZscores.getZscoreCovariateMeta(), writtenZscores.getZscoreCovariateMeta(), message);
+					} else {
+						expected = recordZscores.getZscoreInteractionCohort()[cohortIndex];
+						assertEquals(expected, writtenZscores.getZscoreInteractionCohort()[cohortIndex], message);
+					}
+					assertEquals(zscores[i], expected, message + " " + result.getCovariateName());
+
+					if (Math.abs(expected) >= minAbsZscore) {
+						expectedVariants.add(variantIndex);
+						expectedGenes.add(genePointer);
+						expectedCovariates.add(covariatePointers[i]);
+						expectedScanZscores.add(expected);
+					}
+				}
+				assertEquals(i, zscores.length, message);
+			}
+		}
+
+		if (scan) {
+			BinaryInteractionScanResult scanResult = interactions.scanInteractionZscores(cohortIndex, minAbsZscore);
+			assertTrue(scanResult.size() > 0);
+			assertEquals(scanResult.size(), expectedScanZscores.size());
+			for (int i = 0; i < scanResult.size(); ++i) {
+				assertEquals(scanResult.getVariants()[i], (int) expectedVariants.get(i));
+				assertEquals(scanResult.getGenes()[i], (int) expectedGenes.get(i));
+				assertEquals(scanResult.getCovariates()[i], (int) expectedCovariates.get(i));
+				assertEquals(scanResult.getZscores()[i], expectedScanZscores.get(i));
+			}
+		}
+
+	}
+
+	private static double[] randomZscores(Random random, int count) {
+		double[] zscores = new double[count];
+		for (int i = 0; i < count; ++i) {
+			zscores[i] = random.nextGaussian() * 2;
+		}
+		return zscores;
+	}
+
 	public void assertEqualsDoubleArray(double[] actual, double[] expected, double delta){
 		
 		assertEquals(actual.length, expected.length);
@@ -764,7 +958,7 @@ public class BinaryInteractionFileTest {
 	}
 	
 	public void assertEqualsNaN(double actual, double expected, double delta){
-		if(!Double.isNaN(actual) && Double.isNaN(expected)){
+		if(!Double.isNaN(actual) || !Double.isNaN(expected)){
 			assertEquals(actual, expected, delta);
 		}
 	}
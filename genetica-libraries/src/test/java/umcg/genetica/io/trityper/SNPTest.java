@@ -0,0 +1,145 @@
+package umcg.genetica.io.trityper;
+
+import java.util.Arrays;
+import java.util.Random;
+import static org.testng.Assert.*;
+import org.testng.annotations.Test;
+
+/**
+ * Compares the single pass selectGenotypes into caller supplied buffers with
+ * the selectGenotypes variants that allocate the returned arrays.
+ */
+public class SNPTest {
+
+	private static final int NR_INDIVIDUALS = 50;
+
+	@Test
+	public void testSelectGenotypesWithoutDosage() {
+		Random random = new Random(5);
+		for (int i = 0; i < 20; i++) {
+			SNP snp = randomSnp(random, false);
+			assertFalse(snp.hasDosageInformation());
+			assertSelectGenotypes(snp, randomGenotypeIds(random));
+		}
+	}
+
+	@Test
+	public void testSelectGenotypesWithDosage() {
+		Random random = new Random(6);
+		for (int i = 0; i < 20; i++) {
+			SNP snp = randomSnp(random, true);
+			assertTrue(snp.hasDosageInformation());
+			assertSelectGenotypes(snp, randomGenotypeIds(random));
+		}
+	}
+
+	@Test
+	public void testSelectGenotypesOnlyMissing() {
+		Random random = new Random(7);
+		SNP snp = randomSnp(random, true);
+		int[] genotypeIds = new int[NR_INDIVIDUALS];
+		int nrMissing = 0;
+		for (int ind = 0; ind < NR_INDIVIDUALS; ind++) {
+			if (snp.getGenotypes()[ind] == -1) {
+				genotypeIds[nrMissing++] = ind;
+			}
+		}
+		assertTrue(nrMissing > 0);
+		genotypeIds = Arrays.copyOf(genotypeIds, nrMissing);
+
+		double[] dosages = new double[genotypeIds.length];
+		boolean[] include = new boolean[genotypeIds.length];
+		Arrays.fill(include, true);
+		assertEquals(snp.selectGenotypes(genotypeIds, dosages, null, include), 0);
+		assertEquals(include, new boolean[genotypeIds.length]);
+		assertEquals(snp.selectGenotypes(genotypeIds, false, true).length, 0);
+	}
+
+	private static void assertSelectGenotypes(SNP snp, int[] genotypeIds) {
+		// buffers are longer than needed and filled with garbage of a previous SNP
+		double[] dosages = new double[genotypeIds.length + 3];
+		double[] genotypes = new double[genotypeIds.length + 3];
+		boolean[] include = new boolean[genotypeIds.length];
+		Arrays.fill(dosages, 9);
+		Arrays.fill(genotypes, 9);
+		Arrays.fill(include, true);
+
+		int n = snp.selectGenotypes(genotypeIds, dosages, genotypes, include);
+
+		double[] expectedDosages = snp.selectGenotypes(genotypeIds, false, true);
+		double[] expectedGenotypes = snp.selectGenotypes(genotypeIds, false, false);
+		assertEquals(n, expectedDosages.length);
+		assertEquals(Arrays.copyOf(dosages, n), expectedDosages);
+		assertEquals(Arrays.copyOf(genotypes, n), expectedGenotypes);
+		assertEquals(dosages[n], 9d, "Wrote beyond the selected samples");
+
+		for (int i = 0; i < genotypeIds.length; i++) {
+			int id = genotypeIds[i];
+			assertEquals(include[i], id != -1 && snp.getGenotypes()[id] != -1);
+		}
+
+		// without the optional buffers
+		double[] dosagesOnly = new double[genotypeIds.length];
+		assertEquals(snp.selectGenotypes(genotypeIds, dosagesOnly, null, null), n);
+		assertEquals(Arrays.copyOf(dosagesOnly, n), expectedDosages);
+
+		// expression samples without genotype data (-1) are skipped, the
+		// allocating variants do not support these
+		int[] withUncoupled = new int[genotypeIds.length * 2];
+		Arrays.fill(withUncoupled, -1);
+		for (int i = 0; i < genotypeIds.length; i++) {
+			withUncoupled[i * 2 + 1] = genotypeIds[i];
+		}
+		double[] uncoupledDosages = new double[withUncoupled.length];
+		double[] uncoupledGenotypes = new double[withUncoupled.length];
+		boolean[] uncoupledInclude = new boolean[withUncoupled.length];
+		assertEquals(snp.selectGenotypes(withUncoupled, uncoupledDosages, uncoupledGenotypes, uncoupledInclude), n);
+		assertEquals(Arrays.copyOf(uncoupledDosages, n), expectedDosages);
+		assertEquals(Arrays.copyOf(uncoupledGenotypes, n), expectedGenotypes);
+		for (int i = 0; i < genotypeIds.length; i++) {
+			assertFalse(uncoupledInclude[i * 2]);
+			assertEquals(uncoupledInclude[i * 2 + 1], include[i]);
+		}
+	}
+
+	/**
+	 * Random biallelic SNP with about 15% missing genotypes and some
+	 * individuals that are not included.
+	 */
+	private static SNP randomSnp(Random random, boolean withDosage) {
+		byte[] allele1 = new byte[NR_INDIVIDUALS];
+		byte[] allele2 = new byte[NR_INDIVIDUALS];
+		Boolean[] included = new Boolean[NR_INDIVIDUALS];
+		Boolean[] female = new Boolean[NR_INDIVIDUALS];
+		byte[] dosage = new byte[NR_INDIVIDUALS];
+		for (int ind = 0; ind < NR_INDIVIDUALS; ind++) {
+			included[ind] = ind % 11 == 3 ? null : ind % 13 != 5;
+			if (random.nextDouble() < 0.15) {
+				continue;
+			}
+			allele1[ind] = random.nextBoolean() ? (byte) 'A' : (byte) 'G';
+			allele2[ind] = random.nextBoolean() ? (byte) 'A' : (byte) 'G';
+			dosage[ind] = (byte) (random.nextInt(201) + Byte.MIN_VALUE);
+		}
+		SNP snp = new SNP();
+		snp.setChr((byte) 1);
+		snp.setAlleles(allele1, allele2, included, female);
+		if (withDosage) {
+			snp.setDosage(dosage);
+		}
+		return snp;
+	}
+
+	/**
+	 * Expression samples in random order, some coupled to the same
+	 * individual.
+	 */
+	private static int[] randomGenotypeIds(Random random) {
+		int[] genotypeIds = new int[NR_INDIVIDUALS - 5];
+		for (int i = 0; i < genotypeIds.length; i++) {
+			genotypeIds[i] = random.nextInt(NR_INDIVIDUALS);
+		}
+		return genotypeIds;
+	}
+
+}
@@ -0,0 +1,229 @@
+package umcg.genetica.math;
+
+import cern.colt.matrix.tdouble.DoubleMatrix2D;
+import cern.colt.matrix.tdouble.impl.DenseDoubleMatrix2D;
+import java.util.Random;
+import static org.testng.Assert.*;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Compares the randomized PCA with the full eigenvalue decomposition of the
+ * correlation matrix by PCAojAlgo, as used by Normalizer.calculatePCA.
+ */
+public class RandomizedPCATest {
+
+	private static final int NR_ROWS = 400;
+	private static final int NR_COLS = 60;
+	private static final int NR_COMPONENTS = 6;
+
+	private DoubleMatrix2D data;
+	private double[][] correlations;
+	private double[] expectedEigenvalues;
+	private double[][] expectedEigenvectors;
+	private double[] expectedEigenvalueVars;
+
+	@BeforeClass
+	public void setUpClass() {
+
+		// Each latent factor drives its own block of columns, the block sizes
+		// give the decreasing components. Factors 2 and 3 have blocks of the
+		// same size and scores that are orthogonal with the same norm, so
+		// components 2 and 3 have close eigenvalues.
+		double[] factorWeights = {2, 2, 2, 2, 2, 1.2};
+		int[] blockSizes = {16, 12, 12, 8, 6, 6};
+		int[] columnFactor = new int[NR_COLS];
+		for (int f = 0, c = 0; f < blockSizes.length; f++) {
+			for (int i = 0; i < blockSizes[f]; i++) {
+				columnFactor[c++] = f;
+			}
+		}
+
+		Random random = new Random(42);
+		double[][] scores = new double[factorWeights.length][NR_ROWS];
+		for (int f = 0; f < factorWeights.length; f++) {
+			for (int r = 0; r < NR_ROWS; r++) {
+				scores[f][r] = random.nextGaussian();
+			}
+		}
+		for (int f = 1; f <= 2; f++) {
+			double mean = 0;
+			for (int r = 0; r < NR_ROWS; r++) {
+				mean += scores[f][r];
+			}
+			mean /= NR_ROWS;
+			for (int r = 0; r < NR_ROWS; r++) {
+				scores[f][r] -= mean;
+			}
+		}
+		double projection = dot(scores[2], scores[1]) / dot(scores[1], scores[1]);
+		for (int r = 0; r < NR_ROWS; r++) {
+			scores[2][r] -= projection * scores[1][r];
+		}
+		double rescale = norm(scores[1]) / norm(scores[2]);
+		for (int r = 0; r < NR_ROWS; r++) {
+			scores[2][r] *= rescale;
+		}
+
+		data = new DenseDoubleMatrix2D(NR_ROWS, NR_COLS);
+		for (int r = 0; r < NR_ROWS; r++) {
+			for (int c = 0; c < NR_COLS; c++) {
+				int f = columnFactor[c];
+				data.setQuick(r, c, 10 + c + random.nextGaussian() + factorWeights[f] * scores[f][r]);
+			}
+		}
+
+		PCAojAlgo reference = new PCAojAlgo();
+		correlations = correlationMatrix(data);
+		reference.eigenValueDecomposition(correlations);
+		expectedEigenvalues = reference.getRealEigenValues();
+		expectedEigenvectors = new double[NR_COMPONENTS][];
+		expectedEigenvalueVars = new double[NR_COMPONENTS];
+		for (int pca = 0; pca < NR_COMPONENTS; pca++) {
+			expectedEigenvectors[pca] = reference.getEigenVector(pca);
+			expectedEigenvalueVars[pca] = reference.getEigenValueVar(pca);
+		}
+
+		// the test data must have close eigenvalues, with a gap to the next
+		double closeGap = (expectedEigenvalues[1] - expectedEigenvalues[2]) / expectedEigenvalues[1];
+		assertTrue(closeGap < 0.05, "Components 2 and 3 should have close eigenvalues: " + expectedEigenvalues[1] + " " + expectedEigenvalues[2]);
+		assertTrue(expectedEigenvalues[2] > 1.25 * expectedEigenvalues[3]);
+	}
+
+	@Test
+	public void testDecompose() {
+
+		RandomizedPCA pca = new RandomizedPCA(NR_COMPONENTS);
+		assertTrue(pca.decompose(data));
+		assertTrue(pca.getIterations() > 1);
+
+		double[] eigenvalues = pca.getRealEigenValues();
+		assertEquals(eigenvalues.length, NR_COMPONENTS);
+		for (int i = 0; i < NR_COMPONENTS; i++) {
+			assertEquals(eigenvalues[i], expectedEigenvalues[i], 1e-8 * expectedEigenvalues[i], "Eigenvalue " + i);
+			assertEquals(pca.getEigenValueVar(i), expectedEigenvalueVars[i], 1e-8, "Explained variance " + i);
+		}
+
+		// eigenvectors are the same up to sign
+		for (int i = 0; i < NR_COMPONENTS; i++) {
+			double[] eigenvector = pca.getEigenVector(i);
+			assertEquals(eigenvector.length, NR_COLS);
+			assertEquals(norm(eigenvector), 1, 1e-10);
+			assertEigenvectorEquals(eigenvector, expectedEigenvectors[i], 1e-7, "Eigenvector " + i);
+			assertTrue(residual(eigenvector, eigenvalues[i]) <= 1e-8 * eigenvalues[0], "Residual of eigenvector " + i);
+		}
+
+		// eigenvectors are orthogonal
+		for (int i = 0; i < NR_COMPONENTS; i++) {
+			for (int j = i + 1; j < NR_COMPONENTS; j++) {
+				assertEquals(dot(pca.getEigenVector(i), pca.getEigenVector(j)), 0, 1e-10);
+			}
+		}
+	}
+
+	/**
+	 * The eigenvalues are stable before the eigenvectors are, the residual
+	 * criterion must keep iterating until the eigenvectors are accurate.
+	 */
+	@Test
+	public void testEigenvectorConvergence() {
+		RandomizedPCA eigenvaluesOnly = new RandomizedPCA(NR_COMPONENTS, 100, 1e-5, Double.MAX_VALUE, 1);
+		assertTrue(eigenvaluesOnly.decompose(data));
+		RandomizedPCA pca = new RandomizedPCA(NR_COMPONENTS, 100, 1e-5, 1e-8, 1);
+		assertTrue(pca.decompose(data));
+		assertTrue(pca.getIterations() > eigenvaluesOnly.getIterations());
+
+		double[] eigenvalues = pca.getRealEigenValues();
+		double maxResidualEigenvaluesOnly = 0;
+		for (int i = 0; i < NR_COMPONENTS; i++) {
+			assertEigenvectorEquals(pca.getEigenVector(i), expectedEigenvectors[i], 1e-7, "Eigenvector " + i);
+			assertTrue(residual(pca.getEigenVector(i), eigenvalues[i]) <= 1e-8 * eigenvalues[0], "Residual of eigenvector " + i);
+			maxResidualEigenvaluesOnly = Math.max(maxResidualEigenvaluesOnly,
+					residual(eigenvaluesOnly.getEigenVector(i), eigenvaluesOnly.getRealEigenValues()[i]));
+		}
+		assertTrue(maxResidualEigenvaluesOnly > 1e-8 * eigenvalues[0]);
+	}
+
+	@Test
+	public void testNotConverged() {
+		RandomizedPCA pca = new RandomizedPCA(NR_COMPONENTS, 2, 1e-10, 1e-8, 1);
+		assertFalse(pca.decompose(data));
+		assertEquals(pca.getIterations(), 2);
+		assertEquals(pca.getRealEigenValues().length, NR_COMPONENTS);
+	}
+
+	@Test
+	public void testAllComponents() {
+		// the subspace then spans all columns, so the first iteration is exact
+		RandomizedPCA pca = new RandomizedPCA(NR_COLS);
+		assertTrue(pca.decompose(data));
+		double[] eigenvalues = pca.getRealEigenValues();
+		for (int i = 0; i < NR_COMPONENTS; i++) {
+			assertEquals(eigenvalues[i], expectedEigenvalues[i], 1e-8 * expectedEigenvalues[i], "Eigenvalue " + i);
+		}
+		double sum = 0;
+		for (double eigenvalue : eigenvalues) {
+			sum += eigenvalue;
+		}
+		assertEquals(sum, NR_COLS, 1e-8);
+	}
+
+	private static void assertEigenvectorEquals(double[] eigenvector, double[] expected, double delta, String message) {
+		// eigenvectors are the same up to sign
+		double sign = Math.signum(dot(eigenvector, expected));
+		for (int c = 0; c < expected.length; c++) {
+			assertEquals(sign * eigenvector[c], expected[c], delta, message + " element " + c);
+		}
+	}
+
+	/**
+	 * @return ||C * v - lambda * v|| with C the correlation matrix
+	 */
+	private double residual(double[] eigenvector, double eigenvalue) {
+		double sum = 0;
+		for (int i = 0; i < NR_COLS; i++) {
+			double r = dot(correlations[i], eigenvector) - eigenvalue * eigenvector[i];
+			sum += r * r;
+		}
+		return Math.sqrt(sum);
+	}
+
+	private static double[][] correlationMatrix(DoubleMatrix2D data) {
+		int nrRows = data.rows();
+		int nrCols = data.columns();
+		double[][] standardized = new double[nrCols][nrRows];
+		for (int c = 0; c < nrCols; c++) {
+			double mean = 0;
+			for (int r = 0; r < nrRows; r++) {
+				mean += data.getQuick(r, c);
+			}
+			mean /= nrRows;
+			for (int r = 0; r < nrRows; r++) {
+				standardized[c][r] = data.getQuick(r, c) - mean;
+			}
+			double norm = norm(standardized[c]);
+			for (int r = 0; r < nrRows; r++) {
+				standardized[c][r] /= norm;
+			}
+		}
+		double[][] correlations = new double[nrCols][nrCols];
+		for (int i = 0; i < nrCols; i++) {
+			for (int j = 0; j < nrCols; j++) {
+				correlations[i][j] = dot(standardized[i], standardized[j]);
+			}
+		}
+		return correlations;
+	}
+
+	private static double dot(double[] a, double[] b) {
+		double sum = 0;
+		for (int i = 0; i < a.length; i++) {
+			sum += a[i] * b[i];
+		}
+		return sum;
+	}
+
+	private static double norm(double[] a) {
+		return Math.sqrt(dot(a, a));
+	}
+}
@@ -0,0 +1,67 @@
+package umcg.genetica.math.matrix2;
+
+import cern.colt.matrix.tdouble.DoubleMatrix2D;
+import cern.colt.matrix.tdouble.impl.DenseDoubleMatrix2D;
+import java.util.Random;
+import static org.testng.Assert.*;
+import org.testng.annotations.Test;
+
+public class ColumnCrossProductTest {
+
+	@Test
+	public void testCorrelationOnNormalizedColumns() {
+
+		// Large enough for multiple tiles, multiple row blocks and the parallel path
+		DoubleMatrix2D matrix = randomMatrix(1500, 101);
+
+		DoubleMatrix2D correlations = ColumnCrossProduct.correlationOnNormalizedColumns(matrix);
+
+		assertEquals(correlations.rows(), 101);
+		assertEquals(correlations.columns(), 101);
+
+		for (int i = 0; i < 101; ++i) {
+			assertEquals(correlations.getQuick(i, i), 1d);
+			for (int j = 0; j < i; ++j) {
+				double expected = 0;
+				for (int r = 0; r < 1500; ++r) {
+					expected += matrix.getQuick(r, i) * matrix.getQuick(r, j);
+				}
+				expected /= 1499;
+				assertEquals(correlations.getQuick(i, j), expected);
+				assertEquals(correlations.getQuick(j, i), expected);
+			}
+		}
+
+	}
+
+	@Test
+	public void testCovarianceOnCenteredColumns() {
+
+		DoubleMatrix2D matrix = randomMatrix(10, 3);
+
+		DoubleMatrix2D covariance = ColumnCrossProduct.covarianceOnCenteredColumns(matrix);
+
+		for (int i = 0; i < 3; ++i) {
+			for (int j = 0; j < 3; ++j) {
+				double expected = 0;
+				for (int r = 0; r < 10; ++r) {
+					expected += matrix.getQuick(r, i) * matrix.getQuick(r, j);
+				}
+				assertEquals(covariance.getQuick(i, j), expected / 9, 1e-15);
+			}
+		}
+
+	}
+
+	private static DoubleMatrix2D randomMatrix(int rows, int columns) {
+		Random random = new Random(1);
+		DoubleMatrix2D matrix = new DenseDoubleMatrix2D(rows, columns);
+		for (int r = 0; r < rows; ++r) {
+			for (int c = 0; c < columns; ++c) {
+				matrix.setQuick(r, c, random.nextGaussian());
+			}
+		}
+		return matrix;
+	}
+
+}
@@ -319,6 +319,19 @@ public class DoubleMatrixDatasetTest {
 		assertEquals(dataset5.getElementQuick(1, 3), 5.55d);
 		assertEquals(dataset5.getElementQuick(1, 2), 0d);
 
+		DoubleMatrixDataset<String, String> dataset6 = DoubleMatrixDataset.loadDoubleBinaryDataMapped(tmpOutputFolder.getAbsolutePath() + ".testBin");
+
+		assertEquals(dataset6.rows(), 4);
+		assertEquals(dataset6.columns(), 5);
+
+		assertEquals(dataset6.getRowObjects().get(2), "row3");
+		assertEquals(dataset6.getColObjects().get(4), "col5");
+
+		assertEquals(dataset6.getElementQuick(0, 4), 5d);
+		assertEquals(dataset6.getElementQuick(2, 3), -12.2d);
+		assertEquals(dataset6.getRow("row2").get(3), 5.55d);
+		assertEquals(dataset6.getMatrix().copy(), dataset2.getMatrix());
+
 	}
 
 	@Test